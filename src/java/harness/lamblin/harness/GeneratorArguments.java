@@ -0,0 +1,164 @@
+package lamblin.harness;
+
+import com.beust.jcommander.Parameter;
+
+/**
+ * Arguments to parse for {@link TweetGenerator}.
+ * <pre>
+ * $ gradlew generateTweets -PgeneratorArgs='-h'
+ * Usage: &lt;main class&gt; [options]
+ *   Options:
+ *      --exponent
+ *         Exponent of the Zipf distributions of words, hashtags and mentions
+ *         Default: 1.0
+ *      -f, --files
+ *         Number of files to split the tweets between, written in parallel
+ *         Default: 1
+ *      --hashtag-rate
+ *         Chance of each tweet ending with a hashtag, or more
+ *         Default: 0.2
+ *      --hashtags
+ *         Number of distinct hashtags
+ *         Default: 100000
+ *      -h, --help
+ *         Print this usage
+ *      --length
+ *         Distribution of the words per tweet: normal or uniform
+ *         Default: normal
+ *      --mention-rate
+ *         Chance of each tweet starting with an @mention
+ *         Default: 0.3
+ *      --mentions
+ *         Number of distinct users mentioned
+ *         Default: 1000000
+ *      -o, --output
+ *         Output directory path
+ *      --seed
+ *         Seed of the random tweets; the same seed writes the same files
+ *         Default: 1
+ *      -s, --size
+ *         Total size of the files, in bytes or with a k, m, g or t suffix
+ *         Default: 100m
+ *      --url-rate
+ *         Chance of each tweet ending with a URL
+ *         Default: 0.25
+ *      --vocabulary
+ *         Number of distinct words
+ *         Default: 1000000
+ *      --words-max
+ *         Most words in a tweet, apart from any hashtags, mention and URL
+ *         Default: 30
+ *      --words-mean
+ *         Mean words in a tweet with the normal length distribution
+ *         Default: 12.0
+ *      --words-sd
+ *         Standard deviation of the words in a tweet with the normal length
+ *         distribution
+ *         Default: 5.0
+ * </pre>
+ *
+ * @author Daniel Lamblin
+ */
+public class GeneratorArguments {
+
+  @Parameter(
+      names = {"-h", "--help"},
+      description = "Print this usage",
+      help = true)
+  public boolean help = false;
+
+  /**
+   * The exponent s of the Zipf distributions, with which the word of rank k is picked in
+   * proportion to 1 / k<sup>s</sup>. About 1 matches the words of natural languages.
+   */
+  @Parameter(
+      names = {"--exponent"},
+      description = "Exponent of the Zipf distributions of words, hashtags and mentions")
+  public double exponent = 1.0;
+
+  /**
+   * The number of files the tweets are split between, named tweets-0000.txt onwards. The files
+   * are written in parallel, one per core at a time.
+   */
+  @Parameter(
+      names = {"-f", "--files"},
+      description = "Number of files to split the tweets between, written in parallel")
+  public int files = 1;
+
+  @Parameter(
+      names = {"--hashtag-rate"},
+      description = "Chance of each tweet ending with a hashtag, or more")
+  public double hashtagRate = 0.2;
+
+  @Parameter(
+      names = {"--hashtags"},
+      description = "Number of distinct hashtags")
+  public int hashtags = 100000;
+
+  /**
+   * The distribution of the number of words in a tweet, from 1 to "--words-max": "normal" about
+   * "--words-mean", or "uniform".
+   */
+  @Parameter(
+      names = {"--length"},
+      description = "Distribution of the words per tweet: normal or uniform")
+  public String length = "normal";
+
+  @Parameter(
+      names = {"--mention-rate"},
+      description = "Chance of each tweet starting with an @mention")
+  public double mentionRate = 0.3;
+
+  @Parameter(
+      names = {"--mentions"},
+      description = "Number of distinct users mentioned")
+  public int mentions = 1000000;
+
+  @Parameter(
+      names = {"-o", "--output"},
+      description = "Output directory path")
+  public String output;
+
+  @Parameter(
+      names = {"--seed"},
+      description = "Seed of the random tweets; the same seed writes the same files")
+  public long seed = 1;
+
+  /**
+   * The total size of the files, which is split evenly between them. Each file ends with the
+   * first tweet which reaches its share, so the total is a little over this.
+   */
+  @Parameter(
+      names = {"-s", "--size"},
+      description = "Total size of the files, in bytes or with a k, m, g or t suffix")
+  public String size = "100m";
+
+  /**
+   * The chance of each tweet ending with a URL, each of which is unique, as shortened links are.
+   */
+  @Parameter(
+      names = {"--url-rate"},
+      description = "Chance of each tweet ending with a URL")
+  public double urlRate = 0.25;
+
+  @Parameter(
+      names = {"--vocabulary"},
+      description = "Number of distinct words")
+  public int vocabulary = 1000000;
+
+  @Parameter(
+      names = {"--words-max"},
+      description = "Most words in a tweet, apart from any hashtags, mention and URL")
+  public int wordsMax = 30;
+
+  @Parameter(
+      names = {"--words-mean"},
+      description = "Mean words in a tweet with the normal length distribution")
+  public double wordsMean = 12.0;
+
+  @Parameter(
+      names = {"--words-sd"},
+      description = "Standard deviation of the words in a tweet with the normal length "
+                    + "distribution")
+  public double wordsSd = 5.0;
+}
@@ -0,0 +1,104 @@
+package lamblin.harness;
+
+import com.beust.jcommander.Parameter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Arguments to parse for {@link ThroughputHarness}.
+ * <pre>
+ * $ gradlew throughput -PharnessArgs='-h'
+ * Usage: &lt;main class&gt; [options] [input files]...
+ *   Options:
+ *      --args
+ *         Further arguments given to every run of tweetStats, such as --off-heap
+ *      -h, --help
+ *         Print this usage
+ *      -i, --input
+ *         Input file or directory path[s]...
+ *      --jvm-args
+ *         Arguments of the JVM of every run, such as -Xmx4g
+ *      --medians
+ *         Comma separated running medians to run with
+ *         Default: [range, histogram, fenwick, queue]
+ *      -o, --output
+ *         Directory for the outputs of each run
+ *      --sample-every
+ *         Measures the latency of every this many messages
+ *         Default: 256
+ *      --sources
+ *         Comma separated sources to read the inputs with: file, mapped,
+ *         read-ahead or stdin
+ *         Default: [file, mapped, read-ahead]
+ * </pre>
+ *
+ * @author Daniel Lamblin
+ */
+public class HarnessArguments {
+
+  @Parameter(
+      names = {"-h", "--help"},
+      description = "Print this usage",
+      help = true)
+  public boolean help = false;
+
+  /**
+   * Further arguments given to every run, separated by spaces, such as "--off-heap" or
+   * "--top-k 1000". Runs with "--approximate" or a window are not expected to be equivalent.
+   */
+  @Parameter(
+      names = {"--args"},
+      description = "Further arguments given to every run of tweetStats, such as --off-heap")
+  public String args = "";
+
+  @Parameter(
+      names = {"-i", "--input"},
+      description = "Input file or directory path[s]...")
+  public List<String> inputs = new ArrayList<>();
+
+  /**
+   * Arguments of the JVM of every run, separated by spaces, such as "-Xmx4g -XX:+UseG1GC".
+   */
+  @Parameter(
+      names = {"--jvm-args"},
+      description = "Arguments of the JVM of every run, such as -Xmx4g")
+  public String jvmArgs = "";
+
+  /**
+   * The running medians, as named by tweetStats' "--median", each of which is run with each
+   * source. Range, histogram, fenwick and queue are all run if none are given.
+   */
+  @Parameter(
+      names = {"--medians"},
+      description = "Comma separated running medians to run with")
+  public List<String> medians;
+
+  /**
+   * The directory in which each run writes its ft1.txt and ft2.txt to a directory of its own,
+   * named by its median and source.
+   */
+  @Parameter(
+      names = {"-o", "--output"},
+      description = "Directory for the outputs of each run")
+  public String output;
+
+  @Parameter(
+      names = {"--sample-every"},
+      description = "Measures the latency of every this many messages")
+  public int sampleEvery = 256;
+
+  /**
+   * The ways of reading the inputs: "file" with a buffered reader, "mapped" with "--mapped",
+   * "read-ahead" with "--read-ahead 2", or "stdin" which redirects a single input file to stdin.
+   * All but stdin are run if none are given.
+   */
+  @Parameter(
+      names = {"--sources"},
+      description = "Comma separated sources to read the inputs with: file, mapped, read-ahead "
+                    + "or stdin")
+  public List<String> sources;
+
+  @Parameter(description = "[input files]...")
+  public List<String> remainingInputs = new ArrayList<>();
+}
@@ -0,0 +1,197 @@
+package lamblin.harness;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+
+import com.beust.jcommander.JCommander;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs tweetStats over the same inputs with each running median and each way of reading the
+ * inputs, each in a JVM of its own, and prints a table of the lines per second, peak resident set
+ * size, garbage collection time and median and 99th percentile latency of each run, as measured
+ * by {@link lamblin.tweetstats.MeasuredTweetStatsCmd}. The ft1.txt and ft2.txt of every run are
+ * compared with those of the first run, and the harness exits with -1 if any of them differ or any
+ * run fails, so it can gate a release.
+ *
+ * @author Daniel Lamblin
+ */
+public class ThroughputHarness {
+
+  private static final String MEASURED_CMD = "lamblin.tweetstats.MeasuredTweetStatsCmd";
+  private static final Splitter ON_SPACES = Splitter.on(' ').omitEmptyStrings();
+
+  private final HarnessArguments arguments;
+  private final List<String> inputs;
+
+  /**
+   * @param arguments the inputs, configurations and output directory of the runs
+   */
+  public ThroughputHarness(HarnessArguments arguments) {
+    this.arguments = arguments;
+    inputs = Lists.newArrayList(Iterables.concat(arguments.inputs, arguments.remainingInputs));
+  }
+
+  /**
+   * Runs every configuration given by the arguments, printing a line of the table for each.
+   *
+   * @param args command line arguments to be parsed by {@link HarnessArguments}
+   */
+  public static void main(String[] args) {
+    final HarnessArguments arguments = new HarnessArguments();
+    final JCommander cmd = new JCommander(arguments, args);
+    if (arguments.help) {
+      cmd.usage();
+      System.exit(0);
+    }
+    if (arguments.medians == null) {
+      arguments.medians = Arrays.asList("range", "histogram", "fenwick", "queue");
+    }
+    if (arguments.sources == null) {
+      arguments.sources = Arrays.asList("file", "mapped", "read-ahead");
+    }
+    if (arguments.output == null || !new File(arguments.output).isDirectory()) {
+      System.err.println("Error: --output must be given an existing directory.");
+      System.exit(-1);
+    }
+    if (arguments.inputs.isEmpty() && arguments.remainingInputs.isEmpty()) {
+      System.err.println("Error: input files or directories must be given.");
+      System.exit(-1);
+    }
+    if (arguments.sampleEvery < 1) {
+      System.err.println("Error: --sample-every must be at least 1.");
+      System.exit(-1);
+    }
+    System.exit(new ThroughputHarness(arguments).runAll() ? 0 : -1);
+  }
+
+  /**
+   * @return whether every run succeeded with the same output as the first
+   */
+  boolean runAll() {
+    System.out.printf("%-10s %-11s %12s %9s %8s %9s %9s %-9s %-9s\n", "median", "source",
+                      "lines/s", "rss MB", "gc ms", "p50 ms", "p99 ms", "ft1.txt", "ft2.txt");
+    boolean allSame = true;
+    File first = null;
+    for (String median : arguments.medians) {
+      for (String source : arguments.sources) {
+        final File output = new File(arguments.output, median + "-" + source);
+        if (!output.isDirectory() && !output.mkdirs()) {
+          System.err.println("Unable to make the directory \"" + output.getPath() + "\".");
+          return false;
+        }
+        final Map<String, String> measures;
+        try {
+          measures = run(median, source, output);
+        } catch (IOException | InterruptedException e) {
+          System.err.println("Unable to run with " + median + " and " + source + ".");
+          e.printStackTrace();
+          allSame = false;
+          continue;
+        }
+        if (measures == null) {
+          allSame = false;
+          continue;
+        }
+        if (first == null) {
+          first = output;
+        }
+        final String ft1 = compare(first, output, "ft1.txt");
+        final String ft2 = compare(first, output, "ft2.txt");
+        allSame &= ft1.equals("same") && ft2.equals("same");
+        final double seconds = Double.parseDouble(measures.get("seconds"));
+        System.out.printf("%-10s %-11s %12.0f %9d %8s %9s %9s %-9s %-9s\n", median, source,
+                          Long.parseLong(measures.get("lines")) / Math.max(seconds, 1e-9),
+                          Long.parseLong(measures.get("rss_kb")) / 1024, measures.get("gc_ms"),
+                          measures.get("p50_ms"), measures.get("p99_ms"), ft1, ft2);
+      }
+    }
+    return allSame;
+  }
+
+  /**
+   * Runs tweetStats in a JVM of its own with the median and source, writing to the output.
+   *
+   * @return the measures of the run by name, or null if the run failed or cannot be made
+   */
+  private Map<String, String> run(String median, String source, File output)
+      throws IOException, InterruptedException {
+    final List<String> command = new ArrayList<>();
+    command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+    Iterables.addAll(command, ON_SPACES.split(arguments.jvmArgs));
+    command.addAll(Arrays.asList("-Dlamblin.sampleEvery=" + arguments.sampleEvery,
+                                 "-cp", System.getProperty("java.class.path"), MEASURED_CMD,
+                                 "--median", median, "-o", output.getPath()));
+    Iterables.addAll(command, ON_SPACES.split(arguments.args));
+    File stdin = null;
+    switch (source) {
+      case "file":
+        command.addAll(inputs);
+        break;
+      case "mapped":
+        command.add("--mapped");
+        command.addAll(inputs);
+        break;
+      case "read-ahead":
+        command.addAll(Arrays.asList("--read-ahead", "2"));
+        command.addAll(inputs);
+        break;
+      case "stdin":
+        if (inputs.size() != 1 || !new File(inputs.get(0)).isFile()) {
+          System.err.println("Skipping stdin, which can only be given one input file.");
+          return null;
+        }
+        stdin = new File(inputs.get(0));
+        break;
+      default:
+        System.err.println("Skipping the unknown source: " + source);
+        return null;
+    }
+    final ProcessBuilder builder = new ProcessBuilder(command);
+    if (stdin != null) {
+      builder.redirectInput(stdin);
+    }
+    builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+    final Process process = builder.start();
+    String last = null;
+    try (BufferedReader out = new BufferedReader(
+        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+      for (String line = out.readLine(); line != null; line = out.readLine()) {
+        last = line;
+      }
+    }
+    if (process.waitFor() != 0 || last == null || !last.startsWith("lines=")) {
+      System.err.println("The run with " + median + " and " + source + " failed.");
+      return null;
+    }
+    final Map<String, String> measures = new HashMap<>();
+    for (String measure : ON_SPACES.split(last)) {
+      final int equals = measure.indexOf('=');
+      measures.put(measure.substring(0, equals), measure.substring(equals + 1));
+    }
+    return measures;
+  }
+
+  /**
+   * @return "same" if the file of both runs is the same, or else "DIFFERENT"
+   */
+  private static String compare(File first, File output, String name) {
+    try {
+      return Files.equal(new File(first, name), new File(output, name)) ? "same" : "DIFFERENT";
+    } catch (IOException e) {
+      return "DIFFERENT";
+    }
+  }
+}
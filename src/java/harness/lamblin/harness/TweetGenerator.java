@@ -0,0 +1,201 @@
+package lamblin.harness;
+
+import com.beust.jcommander.JCommander;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import lamblin.common.output.LineBuilder;
+
+/**
+ * Writes files of synthetic tweets, one per line, for capacity planning with inputs of any size.
+ * The words, hashtags and @mentions are each picked from their own vocabulary with a Zipf
+ * distribution, so a few are very common while most are rare, as in real tweets, and each URL is
+ * unique, as shortened links are.
+ * <p>
+ * The word of each rank is spelled from syllables of a consonant and a vowel, one syllable for
+ * each two decimal digits of the rank, so the commonest words are the shortest, every word is
+ * distinct, and no table of the vocabulary is kept. Each file has its own random numbers, seeded
+ * from the seed and the file's index, so the files are written in parallel in constant memory and
+ * the same arguments always write the same files.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class TweetGenerator {
+
+  private static final String CONSONANTS = "bcdfghjklmnpqrstvwxz";
+  private static final String VOWELS = "aeiou";
+  private static final String URL_CHARS =
+      "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+  private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+  private final GeneratorArguments arguments;
+  private final ZipfSampler words;
+  private final ZipfSampler hashtags;
+  private final ZipfSampler mentions;
+
+  /**
+   * @param arguments the sizes, rates and distributions of the tweets
+   */
+  public TweetGenerator(GeneratorArguments arguments) {
+    this.arguments = arguments;
+    words = new ZipfSampler(arguments.vocabulary, arguments.exponent);
+    hashtags = new ZipfSampler(arguments.hashtags, arguments.exponent);
+    mentions = new ZipfSampler(arguments.mentions, arguments.exponent);
+  }
+
+  /**
+   * Writes the files given by the arguments to the output directory.
+   *
+   * @param args command line arguments to be parsed by {@link GeneratorArguments}
+   */
+  public static void main(String[] args) {
+    final GeneratorArguments arguments = new GeneratorArguments();
+    final JCommander cmd = new JCommander(arguments, args);
+    if (arguments.help) {
+      cmd.usage();
+      System.exit(0);
+    }
+    if (arguments.output == null || !new File(arguments.output).isDirectory()) {
+      System.err.println("Error: --output must be given an existing directory.");
+      System.exit(-1);
+    }
+    if (arguments.files < 1 || arguments.vocabulary < 1 || arguments.hashtags < 1
+        || arguments.mentions < 1 || arguments.wordsMax < 1) {
+      System.err.println("Error: --files, --vocabulary, --hashtags, --mentions and --words-max "
+                         + "must be at least 1.");
+      System.exit(-1);
+    }
+    if (!arguments.length.equals("normal") && !arguments.length.equals("uniform")) {
+      System.err.println("Error: --length must be normal or uniform: " + arguments.length);
+      System.exit(-1);
+    }
+    final long size = parseSize(arguments.size);
+    if (size < 1) {
+      System.err.println("Error: --size must be a positive number of bytes: " + arguments.size);
+      System.exit(-1);
+    }
+    final TweetGenerator generator = new TweetGenerator(arguments);
+    final long fileSize = (size + arguments.files - 1) / arguments.files;
+    try {
+      IntStream.range(0, arguments.files).parallel().forEach(index -> {
+        final File file = new File(arguments.output, String.format("tweets-%04d.txt", index));
+        try {
+          final long tweets = generator.writeFile(file, index, fileSize);
+          System.err.println("Wrote " + tweets + " tweets to " + file.getPath());
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      System.err.println("Error: unable to write the tweets.");
+      e.getCause().printStackTrace();
+      System.exit(-1);
+    }
+  }
+
+  /**
+   * @param size a number of bytes, optionally followed by k, m, g or t for powers of 1024
+   * @return the number of bytes, or -1 if the size cannot be parsed
+   */
+  static long parseSize(String size) {
+    final String digits = size.trim().toLowerCase();
+    final int unit = digits.isEmpty() ? -1 : "kmgt".indexOf(digits.charAt(digits.length() - 1));
+    try {
+      final long number =
+          Long.parseLong(unit < 0 ? digits : digits.substring(0, digits.length() - 1));
+      return number << (10 * (unit + 1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Writes tweets to the file until it holds at least the given number of bytes.
+   *
+   * @param file the file to write
+   * @param index the index of the file, which seeds its random numbers with the seed
+   * @param size the number of bytes to write, which the last tweet may go over
+   * @return the number of tweets written
+   * @throws IOException if the file cannot be written
+   */
+  public long writeFile(File file, int index, long size) throws IOException {
+    final Random random = new Random(arguments.seed * 0x9E3779B97F4A7C15L + index);
+    final LineBuilder lines = new LineBuilder(WRITE_BUFFER_SIZE * 2);
+    long written = 0;
+    long tweets = 0;
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+      while (written + lines.length() < size) {
+        appendTweet(lines, random);
+        tweets++;
+        if (lines.length() >= WRITE_BUFFER_SIZE) {
+          written += lines.length();
+          lines.writeTo(out);
+          lines.reset();
+        }
+      }
+      lines.writeTo(out);
+    }
+    return tweets;
+  }
+
+  /**
+   * Appends a tweet of an optional @mention, its words, optional hashtags and an optional URL,
+   * separated by spaces, and ending with a newline.
+   */
+  void appendTweet(LineBuilder lines, Random random) {
+    if (random.nextDouble() < arguments.mentionRate) {
+      appendWord(lines.append('@'), mentions.sample(random));
+      lines.append(' ');
+    }
+    final int length = length(random);
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        lines.append(' ');
+      }
+      appendWord(lines, words.sample(random));
+    }
+    while (random.nextDouble() < arguments.hashtagRate) {
+      appendWord(lines.append(" #"), hashtags.sample(random));
+    }
+    if (random.nextDouble() < arguments.urlRate) {
+      lines.append(" http://t.co/");
+      for (int i = 0; i < 10; i++) {
+        lines.append(URL_CHARS.charAt(random.nextInt(URL_CHARS.length())));
+      }
+    }
+    lines.append('\n');
+  }
+
+  /**
+   * @return the number of words in a tweet, from 1 to the most words
+   */
+  private int length(Random random) {
+    if (arguments.length.equals("uniform")) {
+      return 1 + random.nextInt(arguments.wordsMax);
+    }
+    final long length = Math.round(arguments.wordsMean + arguments.wordsSd * random.nextGaussian());
+    return (int) Math.max(1, Math.min(arguments.wordsMax, length));
+  }
+
+  /**
+   * Appends the word of a rank, spelled with a syllable for each two decimal digits of the rank
+   * less one, lowest digits first.
+   */
+  static void appendWord(LineBuilder lines, int rank) {
+    int digits = rank - 1;
+    do {
+      final int syllable = digits % 100;
+      lines.append(CONSONANTS.charAt(syllable / VOWELS.length()))
+          .append(VOWELS.charAt(syllable % VOWELS.length()));
+      digits /= 100;
+    } while (digits > 0);
+  }
+}
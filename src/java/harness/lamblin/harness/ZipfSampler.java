@@ -0,0 +1,104 @@
+package lamblin.harness;
+
+import java.util.Random;
+
+/**
+ * Samples ranks from 1 to n with a Zipf distribution, in which rank k is picked in proportion to
+ * 1 / k<sup>s</sup>, by the rejection-inversion method of H&ouml;rmann and Derflinger. It takes the
+ * same constant time and memory for any number of ranks, so vocabularies of many millions of
+ * words cost nothing to sample from.
+ * <p>
+ * This is not concurrent, as the {@link Random} given is not shared well between threads.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class ZipfSampler {
+
+  private final int ranks;
+  private final double exponent;
+  private final double hIntegralX1;
+  private final double hIntegralN;
+  private final double squeeze;
+
+  /**
+   * @param ranks the number of ranks, at least 1
+   * @param exponent the exponent s of the distribution, above 0; about 1 for the words of a
+   *                 language
+   */
+  public ZipfSampler(int ranks, double exponent) {
+    if (ranks < 1) {
+      throw new IllegalArgumentException("There must be at least 1 rank.");
+    }
+    if (!(exponent > 0)) {
+      throw new IllegalArgumentException("The exponent must be above 0.");
+    }
+    this.ranks = ranks;
+    this.exponent = exponent;
+    hIntegralX1 = hIntegral(1.5) - 1;
+    hIntegralN = hIntegral(ranks + 0.5);
+    squeeze = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+  }
+
+  /**
+   * @return the number of ranks sampled from
+   */
+  public int ranks() {
+    return ranks;
+  }
+
+  /**
+   * @param random the source of randomness
+   * @return a rank from 1 to the number of ranks, rank 1 being the most likely
+   */
+  public int sample(Random random) {
+    while (true) {
+      final double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+      final double x = hIntegralInverse(u);
+      final int k = (int) Math.max(1, Math.min(ranks, (long) (x + 0.5)));
+      if (k - x <= squeeze || u >= hIntegral(k + 0.5) - h(k)) {
+        return k;
+      }
+    }
+  }
+
+  /**
+   * @return the integral of {@link #h} from 1 to x, offset by a constant
+   */
+  private double hIntegral(double x) {
+    final double logX = Math.log(x);
+    return helper2((1 - exponent) * logX) * logX;
+  }
+
+  /**
+   * @return 1 / x<sup>s</sup>
+   */
+  private double h(double x) {
+    return Math.exp(-exponent * Math.log(x));
+  }
+
+  private double hIntegralInverse(double x) {
+    final double t = Math.max(-1, x * (1 - exponent));
+    return Math.exp(helper1(t) * x);
+  }
+
+  /**
+   * @return log(1 + x) / x, with a Taylor series near 0
+   */
+  private static double helper1(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.log1p(x) / x;
+    }
+    return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+  }
+
+  /**
+   * @return (e<sup>x</sup> - 1) / x, with a Taylor series near 0
+   */
+  private static double helper2(double x) {
+    if (Math.abs(x) > 1e-8) {
+      return Math.expm1(x) / x;
+    }
+    return 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+  }
+}
@@ -0,0 +1,189 @@
+package lamblin.tweetstats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+
+import dagger.ObjectGraph;
+import lamblin.common.source.LineSource;
+
+/**
+ * Runs {@link TweetStatsCmd} with the same arguments, measuring it, and then prints one line of
+ * its measures to stdout for the {@link lamblin.harness.ThroughputHarness}, which runs this in a
+ * JVM of its own for each configuration:
+ * <pre>
+ * lines=... seconds=... rss_kb=... gc_ms=... gc_count=... p50_ms=... p99_ms=...
+ * </pre>
+ * The latency of a message is from when it is read to when its running median is written to the
+ * stream of ft2.txt, which is measured for every {@code lamblin.sampleEvery} messages, 256 by
+ * default. The peak resident set size is read from /proc, so it is -1 where there is none.
+ *
+ * @author Daniel Lamblin
+ */
+public class MeasuredTweetStatsCmd {
+
+  private static final int CHUNK_BITS = 16;
+  private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+
+  private final int sampleEvery;
+  /**
+   * The times each sampled message was read, in chunks allocated by the reading thread before the
+   * message is handed to the pool, so the running median's thread sees them.
+   */
+  private final long[][] readTimes = new long[1 << 16][];
+  private long lines = 0;
+  private long medians = 0;
+  private long[] latencies = new long[1024];
+  private int latencyCount = 0;
+
+  MeasuredTweetStatsCmd(int sampleEvery) {
+    this.sampleEvery = sampleEvery;
+  }
+
+  /**
+   * @param args command line arguments to be parsed by {@link Arguments}
+   */
+  public static void main(String[] args) {
+    final MeasuredTweetStatsCmd measured =
+        new MeasuredTweetStatsCmd(Integer.getInteger("lamblin.sampleEvery", 256));
+    final TweetStatsCmd tweetStatsCmd =
+        ObjectGraph.create(new TweetStatsModule(args)).get(TweetStatsCmd.class);
+    tweetStatsCmd.source = measured.timeReads(tweetStatsCmd.source);
+    tweetStatsCmd.medianUniqueWordsOutput =
+        measured.timeMedians(tweetStatsCmd.medianUniqueWordsOutput);
+    final long start = System.nanoTime();
+    tweetStatsCmd.run();
+    final double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println(measured.measures(seconds));
+  }
+
+  /**
+   * @return the source, which notes the time every so many lines are read
+   */
+  private LineSource timeReads(LineSource source) {
+    return () -> new Iterator<String>() {
+      private final Iterator<String> lineIterator = source.iterator();
+
+      @Override
+      public boolean hasNext() {
+        return lineIterator.hasNext();
+      }
+
+      @Override
+      public String next() {
+        final String line = lineIterator.next();
+        if (lines % sampleEvery == 0) {
+          final long sample = lines / sampleEvery;
+          final int chunk = (int) (sample >>> CHUNK_BITS);
+          if (chunk < readTimes.length) {
+            if (readTimes[chunk] == null) {
+              readTimes[chunk] = new long[1 << CHUNK_BITS];
+            }
+            readTimes[chunk][(int) sample & CHUNK_MASK] = System.nanoTime();
+          }
+        }
+        lines++;
+        return line;
+      }
+    };
+  }
+
+  /**
+   * @return a stream which notes the latency of every so many lines written to the output
+   */
+  private PrintStream timeMedians(PrintStream output) {
+    final OutputStream timed = new OutputStream() {
+      @Override
+      public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) {
+        final long now = System.nanoTime();
+        for (int i = offset; i < offset + length; i++) {
+          if (bytes[i] == '\n') {
+            if (medians % sampleEvery == 0) {
+              addLatency(now, medians / sampleEvery);
+            }
+            medians++;
+          }
+        }
+        output.write(bytes, offset, length);
+      }
+
+      @Override
+      public void flush() {
+        output.flush();
+      }
+
+      @Override
+      public void close() {
+        output.close();
+      }
+    };
+    try {
+      return new PrintStream(timed, false, StandardCharsets.UTF_8.name());
+    } catch (IOException e) {
+      throw new AssertionError("UTF-8 is always supported.", e);
+    }
+  }
+
+  /**
+   * Notes the latency of a sampled message, whose read time was noted before it was counted.
+   */
+  private void addLatency(long now, long sample) {
+    final int chunk = (int) (sample >>> CHUNK_BITS);
+    if (chunk < readTimes.length) {
+      if (latencyCount == latencies.length) {
+        latencies = Arrays.copyOf(latencies, latencyCount * 2);
+      }
+      latencies[latencyCount++] = now - readTimes[chunk][(int) sample & CHUNK_MASK];
+    }
+  }
+
+  private String measures(double seconds) {
+    long gcMillis = 0;
+    long gcCount = 0;
+    for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+      gcMillis += Math.max(0, collector.getCollectionTime());
+      gcCount += Math.max(0, collector.getCollectionCount());
+    }
+    final long[] sorted = Arrays.copyOf(latencies, latencyCount);
+    Arrays.sort(sorted);
+    return String.format(Locale.ROOT,
+                         "lines=%d seconds=%.3f rss_kb=%d gc_ms=%d gc_count=%d p50_ms=%.3f "
+                         + "p99_ms=%.3f",
+                         lines, seconds, peakResidentKilobytes(), gcMillis, gcCount,
+                         percentile(sorted, 0.5) / 1e6, percentile(sorted, 0.99) / 1e6);
+  }
+
+  private static long percentile(long[] sorted, double quantile) {
+    return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1,
+                                                          quantile * sorted.length)];
+  }
+
+  /**
+   * @return the peak resident set size of this JVM in kilobytes, or -1 if it is unknown
+   */
+  private static long peakResidentKilobytes() {
+    try {
+      for (String line : Files.readAllLines(new File("/proc/self/status").toPath())) {
+        if (line.startsWith("VmHWM:")) {
+          return Long.parseLong(line.replaceAll("[^0-9]", ""));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // Not on Linux.
+    }
+    return -1;
+  }
+}
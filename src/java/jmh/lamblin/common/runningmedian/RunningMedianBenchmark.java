@@ -0,0 +1,114 @@
+package lamblin.common.runningmedian;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the updates per second of each running median, from empty through
+ * {@link #UPDATES} unique word counts of a given distribution, from 0 to {@link #MAXIMUM}. The
+ * range limited medians claim constant time updates, while the queues' grow with the log of the
+ * counts seen, and a sorted or constant input is the worst case for some of them.
+ *
+ * @author Daniel Lamblin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(RunningMedianBenchmark.UPDATES)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RunningMedianBenchmark {
+
+  static final int UPDATES = 1 << 16;
+  static final int MAXIMUM = 70;
+
+  /**
+   * The running median: the generic range or queue medians, their int versions, or the
+   * histogram or Fenwick tree medians.
+   */
+  @Param({"range", "queue", "int-range", "int-queue", "histogram", "fenwick"})
+  public String median;
+
+  /**
+   * The unique word counts: uniform, roughly normal about 12 as tweets are, ascending, or
+   * constant.
+   */
+  @Param({"uniform", "normal", "ascending", "constant"})
+  public String distribution;
+
+  private int[] inputs;
+
+  @Setup
+  public void generateInputs() {
+    final Random random = new Random(UPDATES);
+    inputs = new int[UPDATES];
+    for (int i = 0; i < UPDATES; i++) {
+      switch (distribution) {
+        case "uniform":
+          inputs[i] = random.nextInt(MAXIMUM + 1);
+          break;
+        case "normal":
+          inputs[i] = Math.max(0, Math.min(MAXIMUM, (int) (12 + 5 * random.nextGaussian())));
+          break;
+        case "ascending":
+          inputs[i] = (int) ((long) i * (MAXIMUM + 1) / UPDATES);
+          break;
+        default:
+          inputs[i] = MAXIMUM / 2;
+      }
+    }
+  }
+
+  private RunningMedian<Integer> newRunningMedian() {
+    switch (median) {
+      case "range":
+        return new RangeRunningMedian<>(0L, (long) MAXIMUM, 1L);
+      case "queue":
+        return new QueueRunningMedian<>();
+      case "int-range":
+        return new IntRangeRunningMedian(0, MAXIMUM);
+      case "int-queue":
+        return new IntQueueRunningMedian();
+      case "histogram":
+        return new HistogramRunningMedian(0, MAXIMUM);
+      default:
+        return new FenwickRunningMedian(0, MAXIMUM);
+    }
+  }
+
+  /**
+   * Updates a new running median with every input in turn, without boxing for the int medians.
+   *
+   * @return the last median, so the updates are not optimized away
+   */
+  @Benchmark
+  public double update() {
+    final RunningMedian<Integer> runningMedian = newRunningMedian();
+    double last = 0;
+    if (runningMedian instanceof IntRunningMedian) {
+      final IntRunningMedian intRunningMedian = (IntRunningMedian) runningMedian;
+      for (int input : inputs) {
+        last = intRunningMedian.update(input);
+      }
+    } else {
+      for (int input : inputs) {
+        last = runningMedian.update(input);
+      }
+    }
+    return last;
+  }
+}
@@ -0,0 +1,96 @@
+package lamblin.common.source;
+
+import com.google.common.io.Files;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lines per second read by a {@link ReaderLineSource} from memory, and by a
+ * {@link FileLineSource} or a {@link MappedFileLineSource} from a temporary file, which is
+ * likely to be in the page cache after the first iteration.
+ *
+ * @author Daniel Lamblin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(LineSourceBenchmark.LINES)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LineSourceBenchmark {
+
+  static final int LINES = 1 << 18;
+
+  /**
+   * The line source: a reader of a string, a file, or a memory mapped file.
+   */
+  @Param({"reader", "file", "mapped"})
+  public String source;
+
+  private String text;
+  private File file;
+
+  /**
+   * Generates lines of about 80 chars, a few of which are not ASCII, and writes them to a file.
+   */
+  @Setup
+  public void generateLines() throws IOException {
+    final Random random = new Random(LINES);
+    final StringBuilder lines = new StringBuilder(LINES * 81);
+    for (int i = 0; i < LINES; i++) {
+      final int length = 40 + random.nextInt(80);
+      for (int c = 0; c < length; c++) {
+        final int letter = random.nextInt(64);
+        lines.append(letter < 8 ? ' ' : letter == 8 ? '\u00e9' : (char) ('a' + letter % 26));
+      }
+      lines.append('\n');
+    }
+    text = lines.toString();
+    file = File.createTempFile("lines", ".txt");
+    Files.write(text, file, StandardCharsets.UTF_8);
+  }
+
+  @TearDown
+  public void deleteFile() {
+    file.delete();
+  }
+
+  @Benchmark
+  public void readLines(Blackhole blackhole) {
+    final LineSource lines;
+    switch (source) {
+      case "reader":
+        lines = new ReaderLineSource(new StringReader(text), "benchmark");
+        break;
+      case "file":
+        lines = new FileLineSource(file);
+        break;
+      default:
+        lines = new MappedFileLineSource(file);
+    }
+    for (String line : lines) {
+      blackhole.consume(line);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package lamblin.common.wordcount;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lines per second split into words by the Guava {@link Splitter} which the worker
+ * pool's word counter used to split messages with, against the {@link WhitespaceTokenizer} which
+ * finds the same words without allocating them.
+ *
+ * @author Daniel Lamblin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(TokenizerBenchmark.LINES)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TokenizerBenchmark {
+
+  static final int LINES = 1 << 12;
+
+  private static final Splitter SPLITTER =
+      Splitter.on(CharMatcher.BREAKING_WHITESPACE).trimResults().omitEmptyStrings();
+
+  private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+  private String[] lines;
+
+  /**
+   * Generates tweet-like lines of 1 to 20 words of 1 to 12 letters, separated by a space, or now
+   * and then by a tab or two spaces.
+   */
+  @Setup
+  public void generateLines() {
+    final Random random = new Random(LINES);
+    lines = new String[LINES];
+    final StringBuilder line = new StringBuilder();
+    for (int i = 0; i < LINES; i++) {
+      line.setLength(0);
+      final int words = 1 + random.nextInt(20);
+      for (int w = 0; w < words; w++) {
+        if (w > 0) {
+          final int separator = random.nextInt(16);
+          line.append(separator == 0 ? "\t" : separator == 1 ? "  " : " ");
+        }
+        final int letters = 1 + random.nextInt(12);
+        for (int c = 0; c < letters; c++) {
+          line.append((char) ('a' + random.nextInt(26)));
+        }
+      }
+      lines[i] = line.toString();
+    }
+  }
+
+  @Benchmark
+  public void splitter(Blackhole blackhole) {
+    for (String line : lines) {
+      for (String word : SPLITTER.split(line)) {
+        blackhole.consume(word);
+      }
+    }
+  }
+
+  @Benchmark
+  public void whitespaceTokenizer(Blackhole blackhole) {
+    for (String line : lines) {
+      tokenizer.reset(line);
+      while (tokenizer.next()) {
+        blackhole.consume(tokenizer.end() - tokenizer.start());
+      }
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package lamblin.tweetstats;
+
+import com.google.common.io.ByteStreams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import lamblin.common.runningmedian.IntRangeRunningMedian;
+
+/**
+ * Measures the messages per second counted end to end by a {@link MessageWorkerPool} with a
+ * given number of worker threads: reading them into batches, counting their words, writing the
+ * running median of each and then the sorted counts, to streams which discard them.
+ *
+ * @author Daniel Lamblin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(MessageWorkerPoolBenchmark.MESSAGES)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageWorkerPoolBenchmark {
+
+  static final int MESSAGES = 1 << 18;
+  static final int VOCABULARY = 1 << 16;
+
+  /**
+   * The number of worker threads counting the batches.
+   */
+  @Param({"1", "2", "4", "8"})
+  public int threads;
+
+  /**
+   * The vocabulary: on the heap, off the heap, or only the top 1000 words.
+   */
+  @Param({"heap", "off-heap", "top-k"})
+  public String vocabulary;
+
+  private String[] messages;
+  private final PrintStream discard = new PrintStream(ByteStreams.nullOutputStream());
+
+  /**
+   * Generates tweet-like messages of 1 to 20 words, picked with a skew towards the first words of
+   * the vocabulary, as real words are.
+   */
+  @Setup
+  public void generateMessages() {
+    final Random random = new Random(MESSAGES);
+    messages = new String[MESSAGES];
+    final StringBuilder message = new StringBuilder();
+    for (int i = 0; i < MESSAGES; i++) {
+      message.setLength(0);
+      final int words = 1 + random.nextInt(20);
+      for (int w = 0; w < words; w++) {
+        if (w > 0) {
+          message.append(' ');
+        }
+        final double skewed = random.nextDouble();
+        message.append('w').append((int) (skewed * skewed * skewed * VOCABULARY));
+      }
+      messages[i] = message.toString();
+    }
+  }
+
+  private Vocabulary newVocabulary() {
+    switch (vocabulary) {
+      case "off-heap":
+        return new OffHeapVocabulary();
+      case "top-k":
+        return new TopKVocabulary(1000);
+      default:
+        return new HeapVocabulary();
+    }
+  }
+
+  @Benchmark
+  public void countMessages() {
+    final MessageWorkerPool pool =
+        new MessageWorkerPool(MessageWorkerPool.DEFAULT_BATCH_SIZE,
+                              MessageWorkerPool.DEFAULT_PENDING_BATCHES, newVocabulary(), threads);
+    pool.startUniqueWordsRunningMedian(new IntRangeRunningMedian(0, 70), discard);
+    for (String message : messages) {
+      pool.addMessage(message);
+    }
+    pool.writeSortedCounts(discard);
+    pool.awaitUniqueWordsRunningMedian();
+  }
+}
@@ -0,0 +1,235 @@
+package lamblin.common.checkpoint;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Writes and reads a compact binary checkpoint of several {@link Checkpointable}s, each as its own
+ * section, through a {@link FileChannel}.
+ * <p>
+ * The file starts with a magic number, the format version, a flag for whether the sections are
+ * compressed, a description of the configuration the sections were written with, and the number
+ * of sections. A checkpoint is only read back with the same configuration, since sections written
+ * by differently configured state, such as word hashes of another kind, may well read without
+ * error and yet be wrong. Each section follows as the {@code long} length of its
+ * stored bytes and then those bytes, which are deflated if the sections are compressed. As a
+ * section is streamed out, its length is not known until it is done, so the length is written as
+ * a placeholder and then filled in at its position in the file.
+ * </p><p>
+ * The checkpoint is written to a temporary file beside it, forced to the disk, and then renamed
+ * over the checkpoint atomically, so a crash while writing leaves the last checkpoint whole.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class CheckpointFile {
+
+  private static final int MAGIC = 0x54534350;
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 4 + 4 + 1 + 4;
+  private static final int MAXIMUM_CONFIGURATION_SIZE = 1 << 16;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private CheckpointFile() {
+  }
+
+  /**
+   * Writes a checkpoint of the sections, with no configuration, replacing any checkpoint already
+   * at the path.
+   *
+   * @param path the path of the checkpoint
+   * @param compressed whether to deflate each section
+   * @param sections the state to write, in the order it is to be read back
+   * @throws IOException if the checkpoint cannot be written
+   */
+  public static void write(Path path, boolean compressed, List<? extends Checkpointable> sections)
+      throws IOException {
+    write(path, compressed, "", sections);
+  }
+
+  /**
+   * Writes a checkpoint of the sections, replacing any checkpoint already at the path.
+   *
+   * @param path the path of the checkpoint
+   * @param compressed whether to deflate each section
+   * @param configuration a description of how the sections are configured, which must be the
+   *                      same to read them back
+   * @param sections the state to write, in the order it is to be read back
+   * @throws IOException if the checkpoint cannot be written
+   */
+  public static void write(Path path, boolean compressed, String configuration,
+                           List<? extends Checkpointable> sections) throws IOException {
+    final byte[] configurationBytes = configuration.getBytes(StandardCharsets.UTF_8);
+    if (configurationBytes.length > MAXIMUM_CONFIGURATION_SIZE) {
+      throw new IllegalArgumentException("The configuration is too long to checkpoint.");
+    }
+    final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(
+        temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + configurationBytes.length + 4);
+      header.putInt(MAGIC).putInt(VERSION).put((byte) (compressed ? 1 : 0))
+          .putInt(configurationBytes.length).put(configurationBytes)
+          .putInt(sections.size()).flip();
+      writeFully(channel, header);
+      final ByteBuffer length = ByteBuffer.allocate(8);
+      for (Checkpointable section : sections) {
+        final long lengthPosition = channel.position();
+        length.clear();
+        writeFully(channel, length);
+        final long start = channel.position();
+        final Deflater deflater = compressed ? new Deflater(Deflater.BEST_SPEED) : null;
+        try {
+          OutputStream out = new NonClosingOutputStream(Channels.newOutputStream(channel));
+          if (compressed) {
+            out = new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+          }
+          try (DataOutputStream data =
+                   new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE))) {
+            section.writeCheckpoint(data);
+          }
+        } finally {
+          if (deflater != null) {
+            deflater.end();
+          }
+        }
+        final long end = channel.position();
+        length.clear();
+        length.putLong(end - start).flip();
+        channel.write(length, lengthPosition);
+      }
+      channel.force(true);
+    }
+    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Reads a checkpoint written with no configuration back into the sections, which must be
+   * configured as those written were.
+   *
+   * @param path the path of the checkpoint
+   * @param sections the state to read, in the order it was written
+   * @throws IOException if the checkpoint cannot be read, or does not match the sections
+   */
+  public static void read(Path path, List<? extends Checkpointable> sections) throws IOException {
+    read(path, "", sections);
+  }
+
+  /**
+   * Reads a checkpoint back into the sections, which must be configured as those written were.
+   *
+   * @param path the path of the checkpoint
+   * @param configuration the description of how the sections are configured, which must be the
+   *                      one the checkpoint was written with
+   * @param sections the state to read, in the order it was written
+   * @throws IOException if the checkpoint cannot be read, was written with another
+   *                     configuration, or does not match the sections
+   */
+  public static void read(Path path, String configuration,
+                          List<? extends Checkpointable> sections) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(channel, header);
+      if (header.getInt() != MAGIC) {
+        throw new IOException("\"" + path + "\" is not a checkpoint.");
+      }
+      if (header.getInt() != VERSION) {
+        throw new IOException("The checkpoint \"" + path + "\" is of another version.");
+      }
+      final boolean compressed = header.get() != 0;
+      final int configurationSize = header.getInt();
+      if (configurationSize < 0 || configurationSize > MAXIMUM_CONFIGURATION_SIZE) {
+        throw new IOException("\"" + path + "\" is not a checkpoint.");
+      }
+      final ByteBuffer rest = ByteBuffer.allocate(configurationSize + 4);
+      readFully(channel, rest);
+      final byte[] configurationBytes = new byte[configurationSize];
+      rest.get(configurationBytes);
+      final String written = new String(configurationBytes, StandardCharsets.UTF_8);
+      if (!written.equals(configuration)) {
+        throw new IOException("The checkpoint \"" + path + "\" was written with \"" + written
+                              + "\" rather than \"" + configuration + "\".");
+      }
+      if (rest.getInt() != sections.size()) {
+        throw new IOException("The checkpoint \"" + path + "\" has other sections.");
+      }
+      final ByteBuffer length = ByteBuffer.allocate(8);
+      for (Checkpointable section : sections) {
+        length.clear();
+        readFully(channel, length);
+        final long stored = length.getLong();
+        final long start = channel.position();
+        final Inflater inflater = compressed ? new Inflater() : null;
+        try {
+          InputStream in = ByteStreams.limit(Channels.newInputStream(channel), stored);
+          if (compressed) {
+            in = new InflaterInputStream(in, inflater, BUFFER_SIZE);
+          }
+          section.readCheckpoint(new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE)));
+        } finally {
+          if (inflater != null) {
+            inflater.end();
+          }
+        }
+        channel.position(start + stored);
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        throw new IOException("The checkpoint ends too soon.");
+      }
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Lets the streams of a section be closed, to finish them, without closing the channel.
+   */
+  private static class NonClosingOutputStream extends FilterOutputStream {
+
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package lamblin.common.checkpoint;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * State which can be written to a checkpoint and read back from it, to resume after a restart
+ * where it left off. Each is written as its own section of a {@link CheckpointFile}.
+ *
+ * @author Daniel Lamblin
+ */
+public interface Checkpointable {
+
+  /**
+   * Writes the current state, while it is not being changed.
+   *
+   * @param out the section of the checkpoint to write to
+   * @throws IOException if the checkpoint cannot be written
+   */
+  void writeCheckpoint(DataOutputStream out) throws IOException;
+
+  /**
+   * Reads back the state written by {@link #writeCheckpoint}, before this is otherwise used. It
+   * must be configured as it was when the checkpoint was written.
+   *
+   * @param in the section of the checkpoint to read from
+   * @throws IOException if the checkpoint cannot be read, or does not match this configuration
+   */
+  void readCheckpoint(DataInputStream in) throws IOException;
+}
@@ -0,0 +1,14 @@
+/**
+ * The common checkpoint package writes state to a compact binary checkpoint and reads it back, so
+ * that a long run can resume after a restart instead of starting over.
+ * <dl>
+ *   <dt>{@link lamblin.common.checkpoint.Checkpointable}</dt>
+ *   <dd>Is implemented by state which can be written to and read from a checkpoint.</dd>
+ *   <dt>{@link lamblin.common.checkpoint.CheckpointFile}</dt>
+ *   <dd>Writes length prefixed, optionally deflated, sections through a file channel, and
+ *   replaces the checkpoint atomically by renaming a temporary file over it.</dd>
+ * </dl>
+ *
+ * @author Daniel Lamblin
+ */
+package lamblin.common.checkpoint;
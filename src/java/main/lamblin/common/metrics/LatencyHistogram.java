@@ -0,0 +1,138 @@
+package lamblin.common.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in nanoseconds into log-linear buckets, so recording one is a single atomic
+ * increment however many are recorded, and any percentile can be read back within 1/16 of its
+ * value. Values below 16 have a bucket each; above that, each power of two is split into 16
+ * buckets of equal width, so 960 buckets cover every non-negative {@code long}.
+ * <p>
+ * The buckets are striped by thread, each stripe an array of its own, so that threads recording
+ * at once seldom contend for a cache line. Reading a {@link Snapshot} sums the stripes, which may
+ * miss latencies recorded meanwhile, and is meant to be done now and then, such as to log them.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray[] stripes;
+  private final int stripeMask;
+
+  public LatencyHistogram() {
+    final int stripeCount =
+        Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+    stripes = new AtomicLongArray[stripeCount];
+    for (int i = 0; i < stripeCount; i++) {
+      stripes[i] = new AtomicLongArray(BUCKETS);
+    }
+    stripeMask = stripeCount - 1;
+  }
+
+  /**
+   * Records a latency. Negative latencies, as from a clock which went backwards, count as zero.
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    final int stripe = (int) Thread.currentThread().getId() & stripeMask;
+    stripes[stripe].incrementAndGet(bucket(Math.max(0, nanos)));
+  }
+
+  /**
+   * @return the counts of every bucket so far, summed over the stripes
+   */
+  public Snapshot snapshot() {
+    final long[] counts = new long[BUCKETS];
+    for (AtomicLongArray stripe : stripes) {
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] += stripe.get(i);
+      }
+    }
+    return new Snapshot(counts);
+  }
+
+  static int bucket(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) nanos;
+    }
+    final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /**
+   * @return the largest latency counted in the bucket
+   */
+  static long highestInBucket(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    final long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    return lowest + ((1L << shift) - 1);
+  }
+
+  /**
+   * The counts of a {@link LatencyHistogram}'s buckets at one time, from which percentiles are
+   * read, and from which an earlier snapshot can be taken away to read those of an interval.
+   */
+  public static final class Snapshot {
+
+    private final long[] counts;
+    private final long count;
+
+    private Snapshot(long[] counts) {
+      this.counts = counts;
+      long sum = 0;
+      for (long bucketCount : counts) {
+        sum += bucketCount;
+      }
+      count = sum;
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long count() {
+      return count;
+    }
+
+    /**
+     * @param quantile from 0 to 1, such as 0.99 for the 99th percentile
+     * @return the largest latency, in nanoseconds, of the bucket holding the quantile, or 0 if
+     *         none were recorded
+     */
+    public long percentile(double quantile) {
+      if (count == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return highestInBucket(i);
+        }
+      }
+      return highestInBucket(counts.length - 1);
+    }
+
+    /**
+     * @param earlier a snapshot of the same histogram taken before this one
+     * @return a snapshot of the latencies recorded after the earlier snapshot up to this one
+     */
+    public Snapshot minus(Snapshot earlier) {
+      final long[] difference = new long[counts.length];
+      for (int i = 0; i < counts.length; i++) {
+        difference[i] = Math.max(0, counts[i] - earlier.counts[i]);
+      }
+      return new Snapshot(difference);
+    }
+  }
+}
@@ -0,0 +1,12 @@
+/**
+ * The common metrics package measures a running pipeline cheaply enough to be left on, so what
+ * holds it up can be seen while it runs.
+ * <dl>
+ *   <dt>{@link lamblin.common.metrics.LatencyHistogram}</dt>
+ *   <dd>Counts latencies into log-linear buckets striped by thread, from which percentiles are
+ *   read over the whole run or an interval of it.</dd>
+ * </dl>
+ *
+ * @author Daniel Lamblin
+ */
+package lamblin.common.metrics;
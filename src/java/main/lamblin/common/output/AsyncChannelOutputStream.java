@@ -0,0 +1,155 @@
+package lamblin.common.output;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes to a {@link FileChannel} through a pair of buffers: bytes are written into one buffer
+ * while the other is written to the channel on a background thread. Once the buffer being filled
+ * is full, the two swap, so the writer waits for the disk only if it fills a whole buffer before
+ * the last one is written.
+ * <p>
+ * {@link #flush()} hands over the bytes buffered so far and waits until they are written to the
+ * channel, so the length of the file is then up to date. {@link #close()} flushes and closes the
+ * channel. Writes are meant to come from one thread at a time, as they do through a
+ * {@link java.io.PrintStream}, but each method is synchronized in case they do not.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class AsyncChannelOutputStream extends OutputStream {
+
+  /**
+   * The default size of each of the two buffers.
+   */
+  public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+  private final FileChannel channel;
+  private final ExecutorService writer;
+  private ByteBuffer filling;
+  private ByteBuffer writing;
+  private Future<?> pending;
+  private boolean closed = false;
+
+  /**
+   * @param channel the channel to write to, from its current position
+   */
+  public AsyncChannelOutputStream(FileChannel channel) {
+    this(channel, DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * @param channel the channel to write to, from its current position
+   * @param bufferSize the size of each of the two buffers
+   */
+  public AsyncChannelOutputStream(FileChannel channel, int bufferSize) {
+    this.channel = channel;
+    filling = ByteBuffer.allocate(bufferSize);
+    writing = ByteBuffer.allocate(bufferSize);
+    writer = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("channel-writer-%d").build());
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    ensureOpen();
+    if (!filling.hasRemaining()) {
+      handOver();
+    }
+    filling.put((byte) b);
+  }
+
+  @Override
+  public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+    ensureOpen();
+    while (length > 0) {
+      if (!filling.hasRemaining()) {
+        handOver();
+      }
+      final int count = Math.min(length, filling.remaining());
+      filling.put(bytes, offset, count);
+      offset += count;
+      length -= count;
+    }
+  }
+
+  /**
+   * Hands over the bytes buffered so far and waits until they are written to the channel.
+   */
+  @Override
+  public synchronized void flush() throws IOException {
+    ensureOpen();
+    handOver();
+    awaitPending();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      try {
+        flush();
+      } finally {
+        closed = true;
+        writer.shutdown();
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Waits for the last buffer handed over to be written, then hands over the buffer being filled
+   * to be written in the background, and fills the other one.
+   */
+  private void handOver() throws IOException {
+    if (filling.position() == 0) {
+      return;
+    }
+    awaitPending();
+    final ByteBuffer full = filling;
+    filling = writing;
+    writing = full;
+    full.flip();
+    pending = writer.submit(() -> {
+      try {
+        while (full.hasRemaining()) {
+          channel.write(full);
+        }
+      } finally {
+        full.clear();
+      }
+      return null;
+    });
+  }
+
+  private void awaitPending() throws IOException {
+    if (pending == null) {
+      return;
+    }
+    try {
+      pending.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a write to the channel.");
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException
+            ? (IOException) e.getCause() : new IOException(e.getCause());
+    } finally {
+      pending = null;
+    }
+  }
+
+  private void ensureOpen() throws IOException {
+    if (closed) {
+      throw new IOException("The stream is closed.");
+    }
+  }
+}
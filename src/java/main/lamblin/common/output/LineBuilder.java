@@ -0,0 +1,223 @@
+package lamblin.common.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Builds lines of output as UTF-8 bytes in one reusable, growing array, writing numbers digit by
+ * digit rather than through a {@link java.util.Formatter}, so that formatting a line allocates
+ * nothing and the bytes need no further encoding. It is an {@link OutputStream} too, so bytes
+ * which are already encoded can be written into it.
+ * <p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class LineBuilder extends OutputStream {
+
+  /**
+   * The largest value, scaled by its decimal places, written digit by digit by
+   * {@link #appendDecimal} without falling back to the {@link java.util.Formatter}; it and every
+   * whole number below it are exact {@code double}s, with less than a half between them.
+   */
+  private static final double MAXIMUM_SCALED = 1L << 52;
+  private static final long[] POWERS_OF_TEN = {
+      1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+
+  private byte[] bytes;
+  private int length = 0;
+
+  /**
+   * @param capacity the number of bytes to hold before growing
+   */
+  public LineBuilder(int capacity) {
+    bytes = new byte[Math.max(16, capacity)];
+  }
+
+  /**
+   * @return the number of bytes built since the last {@link #reset()}
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Empties the builder, keeping its array.
+   */
+  public void reset() {
+    length = 0;
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(1);
+    bytes[length++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] source, int offset, int count) {
+    ensureCapacity(count);
+    System.arraycopy(source, offset, bytes, length, count);
+    length += count;
+  }
+
+  /**
+   * Appends the text encoded as UTF-8, replacing unpaired surrogates with '?' as
+   * {@link String#getBytes} would.
+   *
+   * @param text the text to append
+   * @return this builder
+   */
+  public LineBuilder append(CharSequence text) {
+    final int end = text.length();
+    ensureCapacity(3 * end);
+    for (int i = 0; i < end; i++) {
+      final char c = text.charAt(i);
+      if (c < 0x80) {
+        bytes[length++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[length++] = (byte) (0xC0 | (c >> 6));
+        bytes[length++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < end
+                 && Character.isLowSurrogate(text.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+        bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        bytes[length++] = '?';
+      } else {
+        bytes[length++] = (byte) (0xE0 | (c >> 12));
+        bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        bytes[length++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return this;
+  }
+
+  /**
+   * @param c an ASCII character to append
+   * @return this builder
+   */
+  public LineBuilder append(char c) {
+    write(c);
+    return this;
+  }
+
+  /**
+   * @param count the number of spaces to append, none if not positive
+   * @return this builder
+   */
+  public LineBuilder appendSpaces(int count) {
+    if (count > 0) {
+      ensureCapacity(count);
+      Arrays.fill(bytes, length, length + count, (byte) ' ');
+      length += count;
+    }
+    return this;
+  }
+
+  /**
+   * Appends the decimal digits of the value, as {@code %d} would without a locale.
+   *
+   * @param value the value to append
+   * @return this builder
+   */
+  public LineBuilder append(long value) {
+    if (value == Long.MIN_VALUE) {
+      return append(Long.toString(value));
+    }
+    ensureCapacity(20);
+    if (value < 0) {
+      bytes[length++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long power = 10; digits < 19 && value >= power; power *= 10) {
+      digits++;
+    }
+    for (int i = length + digits - 1; i >= length; i--) {
+      bytes[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    length += digits;
+    return this;
+  }
+
+  /**
+   * Appends the value with one decimal digit, as {@code %.1f} would in the root locale. A median
+   * of integers is always a whole or a half, so those are written digit by digit, and only other
+   * values are formatted by a {@link java.util.Formatter}.
+   *
+   * @param value the value to append
+   * @return this builder
+   */
+  public LineBuilder appendOneDecimal(double value) {
+    return appendDecimal(value, 1);
+  }
+
+  /**
+   * Appends the value with the given number of decimal digits, as {@code %.nf} would in the root
+   * locale. Values which are whole when scaled by those decimal places, as a quantile of integers
+   * interpolated with no more decimal places is, are written digit by digit, and only other values
+   * are formatted by a {@link java.util.Formatter}.
+   *
+   * @param value the value to append
+   * @param decimalPlaces the number of digits after the decimal point, from 0 to 9
+   * @return this builder
+   */
+  public LineBuilder appendDecimal(double value, int decimalPlaces) {
+    if (decimalPlaces < 0 || decimalPlaces >= POWERS_OF_TEN.length) {
+      throw new IllegalArgumentException("The decimal places must be from 0 to "
+                                         + (POWERS_OF_TEN.length - 1) + ".");
+    }
+    final long power = POWERS_OF_TEN[decimalPlaces];
+    final double scaled = value * power;
+    if (Double.doubleToRawLongBits(value) >= 0 && scaled < MAXIMUM_SCALED
+        && scaled == (long) scaled) {
+      append((long) scaled / power);
+      if (decimalPlaces > 0) {
+        ensureCapacity(decimalPlaces + 1);
+        bytes[length++] = '.';
+        long fraction = (long) scaled % power;
+        for (int i = length + decimalPlaces - 1; i >= length; i--) {
+          bytes[i] = (byte) ('0' + fraction % 10);
+          fraction /= 10;
+        }
+        length += decimalPlaces;
+      }
+      return this;
+    }
+    return append(String.format(Locale.ROOT, "%." + decimalPlaces + "f", value));
+  }
+
+  /**
+   * Writes the bytes built to the stream.
+   *
+   * @param out the stream to write to
+   * @throws IOException if the stream cannot be written to
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(bytes, 0, length);
+  }
+
+  /**
+   * Writes the bytes built to the print stream, which notes any error rather than throwing it.
+   *
+   * @param out the print stream to write to
+   */
+  public void writeTo(PrintStream out) {
+    out.write(bytes, 0, length);
+  }
+
+  private void ensureCapacity(int more) {
+    if (length + more > bytes.length) {
+      bytes = Arrays.copyOf(bytes, Math.max(length + more, bytes.length * 2));
+    }
+  }
+}
@@ -0,0 +1,14 @@
+/**
+ * The common output package writes lines of output quickly.
+ * <dl>
+ *   <dt>{@link lamblin.common.output.LineBuilder}</dt>
+ *   <dd>Builds lines as UTF-8 bytes in a reusable array, writing numbers digit by digit instead
+ *   of through a formatter.</dd>
+ *   <dt>{@link lamblin.common.output.AsyncChannelOutputStream}</dt>
+ *   <dd>Writes to a file channel through a pair of buffers, one filled while the other is written
+ *   on a background thread.</dd>
+ * </dl>
+ *
+ * @author Daniel Lamblin
+ */
+package lamblin.common.output;
@@ -0,0 +1,65 @@
+package lamblin.common.runningmedian;
+
+/**
+ * Updates a running median over only the most recent inputs, evicting the oldest input once the
+ * window of inputs is full. Inputs are {@code int} values in a known range, counted in a Fenwick
+ * tree as in the {@link FenwickRunningMedian}, so that storing, evicting and finding the median
+ * are each O(log n) in the size of the range. Memory use is bounded by the window and the range.
+ * <p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class CountWindowRunningMedian implements IntRunningMedian {
+
+  private final FenwickCounts inputCounts;
+  private final int minimumIncluded;
+  private final int[] window;
+  private int next = 0;
+  private long size = 0;
+
+  /**
+   * Will allocate a bucket for each integer from {@code minimumIncluded} to
+   * {@code maximumIncluded}. All updates must have input values in this range.
+   *
+   * @param minimumIncluded the smallest value an update can be
+   * @param maximumIncluded the largest value an update can be
+   * @param windowSize the number of most recent inputs the median is taken over
+   */
+  public CountWindowRunningMedian(int minimumIncluded, int maximumIncluded, int windowSize) {
+    if (maximumIncluded < minimumIncluded) {
+      throw new IllegalArgumentException("The maximum must not be less than the minimum.");
+    }
+    if (windowSize < 1) {
+      throw new IllegalArgumentException("The window must hold at least one input.");
+    }
+    this.minimumIncluded = minimumIncluded;
+    inputCounts = new FenwickCounts(maximumIncluded - minimumIncluded + 1);
+    window = new int[windowSize];
+  }
+
+  /**
+   * Evicts the oldest input if the window is full, counts the input, and returns a median.
+   *
+   * @param input the value to add
+   * @return the median of the values in the window, including this one
+   */
+  @Override
+  public double update(int input) {
+    final int bucket = input - minimumIncluded;
+    if (bucket < 0 || bucket >= inputCounts.buckets()) {
+      throw new IllegalArgumentException(
+          "The input falls outside the range given at construction time");
+    }
+    if (size == window.length) {
+      inputCounts.add(window[next], -1);
+    } else {
+      size++;
+    }
+    window[next] = bucket;
+    next = (next + 1) % window.length;
+    inputCounts.add(bucket, 1);
+    return minimumIncluded + inputCounts.medianBucket(size);
+  }
+}
@@ -0,0 +1,91 @@
+package lamblin.common.runningmedian;
+
+/**
+ * Counts of values in a range of buckets kept as a Fenwick, or binary indexed, tree. Both changing
+ * a bucket's count and finding the bucket holding the value of a given rank are O(log n) for n
+ * buckets, where a plain histogram needs an O(n) scan to find a rank.
+ * <p>
+ * This is not concurrent.</p>
+ *
+ * @author Daniel Lamblin
+ */
+final class FenwickCounts {
+
+  private final long[] tree;
+  private final int highestBit;
+
+  /**
+   * @param buckets the number of buckets, indexed from 0
+   */
+  FenwickCounts(int buckets) {
+    tree = new long[buckets + 1];
+    highestBit = Integer.highestOneBit(Math.max(1, buckets));
+  }
+
+  int buckets() {
+    return tree.length - 1;
+  }
+
+  /**
+   * @param bucket the index of the bucket whose count changes
+   * @param delta the change in the count, negative to remove values
+   */
+  void add(int bucket, long delta) {
+    for (int i = bucket + 1; i < tree.length; i += i & -i) {
+      tree[i] += delta;
+    }
+  }
+
+  /**
+   * @param bucket the index of a bucket
+   * @return the count of just that bucket
+   */
+  long countOf(int bucket) {
+    return countThrough(bucket) - countThrough(bucket - 1);
+  }
+
+  /**
+   * @param bucket the index of the last bucket to include
+   * @return the sum of the counts of the buckets from 0 up to and including {@code bucket}
+   */
+  long countThrough(int bucket) {
+    long sum = 0;
+    for (int i = bucket + 1; i > 0; i -= i & -i) {
+      sum += tree[i];
+    }
+    return sum;
+  }
+
+  /**
+   * Finds the bucket which holds the value of the given rank, as if all the values counted were
+   * sorted and indexed from 0.
+   *
+   * @param rank the index of a value in the sorted values, less than the total count
+   * @return the index of the bucket holding that value
+   */
+  int bucketOfRank(long rank) {
+    int position = 0;
+    long remaining = rank;
+    for (int bit = highestBit; bit > 0; bit >>>= 1) {
+      final int next = position + bit;
+      if (next < tree.length && tree[next] <= remaining) {
+        position = next;
+        remaining -= tree[next];
+      }
+    }
+    // Position is the count of buckets whose total is at most the rank, so the next one holds it.
+    return position;
+  }
+
+  /**
+   * @param size the total count of all the buckets, which must be more than 0
+   * @return the median bucket index, averaging the two middle values' buckets for an even size
+   */
+  double medianBucket(long size) {
+    final int lower = bucketOfRank((size - 1) / 2);
+    if (size % 2 != 0) {
+      return lower;
+    }
+    return (lower + bucketOfRank(size / 2)) / 2.0;
+  }
+}
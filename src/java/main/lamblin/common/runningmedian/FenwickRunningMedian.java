@@ -0,0 +1,68 @@
+package lamblin.common.runningmedian;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import lamblin.common.checkpoint.Checkpointable;
+
+/**
+ * Updates a running median for {@code int} inputs in a known range, like the
+ * {@link IntRangeRunningMedian}, but keeps the histogram as a Fenwick tree so that both storing an
+ * input and finding the median are O(log n) in the size of the range. This suits very wide
+ * ranges, of a million buckets or more, where scanning the histogram would be too slow.
+ * <p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class FenwickRunningMedian implements IntRunningMedian, Checkpointable {
+
+  private final FenwickCounts inputCounts;
+  private final int minimumIncluded;
+  private long size = 0;
+
+  /**
+   * Will allocate a bucket for each integer from {@code minimumIncluded} to
+   * {@code maximumIncluded}. All updates must have input values in this range.
+   *
+   * @param minimumIncluded the smallest value an update can be
+   * @param maximumIncluded the largest value an update can be
+   */
+  public FenwickRunningMedian(int minimumIncluded, int maximumIncluded) {
+    if (maximumIncluded < minimumIncluded) {
+      throw new IllegalArgumentException("The maximum must not be less than the minimum.");
+    }
+    this.minimumIncluded = minimumIncluded;
+    inputCounts = new FenwickCounts(maximumIncluded - minimumIncluded + 1);
+  }
+
+  /**
+   * Increment the count at the input's bucket, and return a median.
+   *
+   * @param input the value to add
+   * @return the median of all values added thus far
+   */
+  @Override
+  public double update(int input) {
+    final int bucket = input - minimumIncluded;
+    if (bucket < 0 || bucket >= inputCounts.buckets()) {
+      throw new IllegalArgumentException(
+          "The input falls outside the range given at construction time");
+    }
+    inputCounts.add(bucket, 1);
+    size++;
+    return minimumIncluded + inputCounts.medianBucket(size);
+  }
+
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    HistogramCheckpoints.write(out, minimumIncluded, inputCounts.buckets(), inputCounts::countOf);
+  }
+
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    size = HistogramCheckpoints.read(in, minimumIncluded, inputCounts.buckets(), inputCounts::add);
+  }
+}
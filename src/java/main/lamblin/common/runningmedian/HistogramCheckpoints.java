@@ -0,0 +1,62 @@
+package lamblin.common.runningmedian;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Writes and reads the histograms of the range running medians in a checkpoint. The range is
+ * written first, to check it matches when read, then the bucket and count of each occupied bucket,
+ * so that a wide and sparse histogram takes little space, and then {@code -1} to end it.
+ *
+ * @author Daniel Lamblin
+ */
+final class HistogramCheckpoints {
+
+  /**
+   * Receives the count of each occupied bucket read from a checkpoint.
+   */
+  interface BucketCounts {
+
+    void add(int bucket, long count);
+  }
+
+  private HistogramCheckpoints() {
+  }
+
+  static void write(DataOutputStream out, int minimumIncluded, int buckets,
+                    IntToLongFunction countOf) throws IOException {
+    out.writeInt(minimumIncluded);
+    out.writeInt(buckets);
+    for (int bucket = 0; bucket < buckets; bucket++) {
+      final long count = countOf.applyAsLong(bucket);
+      if (count != 0) {
+        out.writeInt(bucket);
+        out.writeLong(count);
+      }
+    }
+    out.writeInt(-1);
+  }
+
+  /**
+   * @return the total of the counts read
+   */
+  static long read(DataInputStream in, int minimumIncluded, int buckets, BucketCounts counts)
+      throws IOException {
+    if (in.readInt() != minimumIncluded || in.readInt() != buckets) {
+      throw new IOException("The checkpoint is of a running median over another range.");
+    }
+    long size = 0;
+    int bucket;
+    while ((bucket = in.readInt()) >= 0) {
+      if (bucket >= buckets) {
+        throw new IOException("The checkpoint has a bucket outside the range: " + bucket);
+      }
+      final long count = in.readLong();
+      counts.add(bucket, count);
+      size += count;
+    }
+    return size;
+  }
+}
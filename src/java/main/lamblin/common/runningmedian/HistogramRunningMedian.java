@@ -0,0 +1,171 @@
+package lamblin.common.runningmedian;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import lamblin.common.checkpoint.Checkpointable;
+
+/**
+ * Updates a running median for {@code int} inputs in a known range, like the
+ * {@link IntRangeRunningMedian}, but rather than summing the histogram from the start of the
+ * range on each update it keeps a cursor on the bucket holding the median.
+ * <p>
+ * Each input moves the median by at most one value, so the cursor moves to at most the next or
+ * previous occupied bucket, and the median is found without scanning the histogram. The cost is
+ * then bounded by the run of empty buckets between occupied ones, which for dense data such as
+ * the number of words or characters in a tweet makes each update O(1).
+ * </p><p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class HistogramRunningMedian implements IntRunningMedian, Checkpointable {
+
+  private final long[] inputCounts;
+  private final int minimumIncluded;
+  private long size = 0;
+  /**
+   * The bucket holding the lower median, the value of rank {@code (size - 1) / 2}.
+   */
+  private int cursor = 0;
+  /**
+   * The count of all the values in buckets before the cursor.
+   */
+  private long countBelowCursor = 0;
+
+  /**
+   * Will allocate a bucket for each integer from {@code minimumIncluded} to
+   * {@code maximumIncluded}. All updates must have input values in this range.
+   *
+   * @param minimumIncluded the smallest value an update can be
+   * @param maximumIncluded the largest value an update can be
+   */
+  public HistogramRunningMedian(int minimumIncluded, int maximumIncluded) {
+    if (maximumIncluded < minimumIncluded) {
+      throw new IllegalArgumentException("The maximum must not be less than the minimum.");
+    }
+    this.minimumIncluded = minimumIncluded;
+    inputCounts = new long[maximumIncluded - minimumIncluded + 1];
+  }
+
+  /**
+   * Keeps a cursor on a histogram which is already counted, such as that of an
+   * {@link IntRangeRunningMedian}, and counts further updates into it in place.
+   *
+   * @param minimumIncluded the value of the first bucket
+   * @param inputCounts the count of each bucket, which this updates
+   * @param size the total of the counts
+   */
+  HistogramRunningMedian(int minimumIncluded, long[] inputCounts, long size) {
+    this.minimumIncluded = minimumIncluded;
+    this.inputCounts = inputCounts;
+    this.size = size;
+    seekCursor();
+  }
+
+  /**
+   * Increment the count at the input's bucket, move the cursor to the lower median's bucket, and
+   * return a median.
+   *
+   * @param input the value to add
+   * @return the median of all values added thus far
+   */
+  @Override
+  public double update(int input) {
+    count(bucketOf(input));
+    return median();
+  }
+
+  /**
+   * Checks all the inputs are in range before counting any of them, then counts each in turn,
+   * moving the cursor and taking the median after each one.
+   */
+  @Override
+  public void updateAll(int[] inputs, int n, double[] medians) {
+    for (int i = 0; i < n; i++) {
+      bucketOf(inputs[i]);
+    }
+    for (int i = 0; i < n; i++) {
+      count(inputs[i] - minimumIncluded);
+      medians[i] = median();
+    }
+  }
+
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    HistogramCheckpoints.write(
+        out, minimumIncluded, inputCounts.length, bucket -> inputCounts[bucket]);
+  }
+
+  /**
+   * Reads the histogram, then finds the lower median's bucket for the cursor with one scan.
+   */
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    size = HistogramCheckpoints.read(in, minimumIncluded, inputCounts.length,
+                                     (bucket, count) -> inputCounts[bucket] += count);
+    seekCursor();
+  }
+
+  /**
+   * Finds the lower median's bucket for the cursor by scanning the histogram from its start.
+   */
+  private void seekCursor() {
+    cursor = 0;
+    countBelowCursor = 0;
+    while (size > 0 && (size - 1) / 2 >= countBelowCursor + inputCounts[cursor]) {
+      countBelowCursor += inputCounts[cursor++];
+    }
+  }
+
+  private int bucketOf(int input) {
+    final int bucket = input - minimumIncluded;
+    if (bucket < 0 || bucket >= inputCounts.length) {
+      throw new IllegalArgumentException(
+          "The input falls outside the range given at construction time");
+    }
+    return bucket;
+  }
+
+  /**
+   * Increment the count at the bucket and move the cursor to the lower median's bucket.
+   */
+  private void count(int bucket) {
+    inputCounts[bucket]++;
+    if (size++ == 0) {
+      cursor = bucket;
+    } else if (bucket < cursor) {
+      countBelowCursor++;
+    }
+    final long lowerRank = (size - 1) / 2;
+    while (lowerRank < countBelowCursor) {
+      do {
+        cursor--;
+      } while (inputCounts[cursor] == 0);
+      countBelowCursor -= inputCounts[cursor];
+    }
+    while (lowerRank >= countBelowCursor + inputCounts[cursor]) {
+      countBelowCursor += inputCounts[cursor];
+      do {
+        cursor++;
+      } while (inputCounts[cursor] == 0);
+    }
+  }
+
+  /**
+   * @return the lower median if the count is odd or the upper median shares its bucket, otherwise
+   *         the lower median averaged with the value of the next occupied bucket
+   */
+  private double median() {
+    if (size % 2 != 0 || size / 2 < countBelowCursor + inputCounts[cursor]) {
+      return minimumIncluded + cursor;
+    }
+    int upper = cursor + 1;
+    while (inputCounts[upper] == 0) {
+      upper++;
+    }
+    return minimumIncluded + (cursor + upper) / 2.0;
+  }
+}
@@ -0,0 +1,120 @@
+package lamblin.common.runningmedian;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A binary heap of {@code int} values held in a growing array, ordered either with the minimum or
+ * the maximum value at the head. Adding and polling are O(log n) while peeking is O(1).
+ * <p>
+ * This is not concurrent.</p>
+ *
+ * @author Daniel Lamblin
+ */
+final class IntHeap {
+
+  private final boolean maximumFirst;
+  private int[] heap = new int[64];
+  private int size = 0;
+
+  /**
+   * @param maximumFirst {@code true} to keep the maximum value at the head, {@code false} to keep
+   *                     the minimum value there
+   */
+  IntHeap(boolean maximumFirst) {
+    this.maximumFirst = maximumFirst;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * @return the head value, the maximum or minimum of the heap
+   */
+  int peek() {
+    if (size == 0) {
+      throw new NoSuchElementException("The heap is empty.");
+    }
+    return heap[0];
+  }
+
+  void add(int value) {
+    if (size == heap.length) {
+      heap = Arrays.copyOf(heap, size * 2);
+    }
+    int child = size++;
+    while (child > 0) {
+      final int parent = (child - 1) >>> 1;
+      if (!before(value, heap[parent])) {
+        break;
+      }
+      heap[child] = heap[parent];
+      child = parent;
+    }
+    heap[child] = value;
+  }
+
+  /**
+   * @return the head value, which is removed from the heap
+   */
+  int poll() {
+    final int head = peek();
+    final int last = heap[--size];
+    int parent = 0;
+    int child;
+    while ((child = 2 * parent + 1) < size) {
+      if (child + 1 < size && before(heap[child + 1], heap[child])) {
+        child++;
+      }
+      if (!before(heap[child], last)) {
+        break;
+      }
+      heap[parent] = heap[child];
+      parent = child;
+    }
+    heap[parent] = last;
+    return head;
+  }
+
+  /**
+   * Writes the size and then the values in the order of the heap's array.
+   */
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeInt(heap[i]);
+    }
+  }
+
+  /**
+   * Replaces the values with those written by {@link #writeTo}, which are already in heap order.
+   */
+  void readFrom(DataInputStream in) throws IOException {
+    final int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("The checkpoint has a heap of negative size.");
+    }
+    if (length > heap.length) {
+      heap = new int[Integer.highestOneBit(length - 1) << 1];
+    }
+    for (int i = 0; i < length; i++) {
+      heap[i] = in.readInt();
+    }
+    size = length;
+  }
+
+  /**
+   * @return {@code true} if the {@code first} value belongs strictly nearer the head
+   */
+  private boolean before(int first, int second) {
+    return maximumFirst ? first > second : first < second;
+  }
+}
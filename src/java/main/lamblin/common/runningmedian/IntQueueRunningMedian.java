@@ -0,0 +1,92 @@
+package lamblin.common.runningmedian;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import lamblin.common.checkpoint.Checkpointable;
+
+/**
+ * Keeps track of the running median of {@code int} values like the {@link QueueRunningMedian},
+ * but stores the lesser half of the inputs in a max heap and the greater half in a min heap of
+ * primitive values, so that updating allocates nothing besides the occasional growth of a heap.
+ * Adding to these is O(log n) while viewing the heads is O(1).
+ * <p>
+ * This is not concurrent.</p>
+ *
+ * @author Daniel Lamblin
+ */
+public class IntQueueRunningMedian implements IntRunningMedian, Checkpointable {
+
+  private final IntHeap smallHalf = new IntHeap(true);
+  private final IntHeap largeHalf = new IntHeap(false);
+
+  /**
+   * Adds the input into the set of values seen so far and outputs the median of that set.
+   *
+   * @param input the input value added to the growing set of values
+   * @return the median of the set of values currently stored including the latest input
+   */
+  @Override
+  public double update(int input) {
+    store(input);
+    return median();
+  }
+
+  /**
+   * Stores each input and takes the median in one loop, without a call through the interface per
+   * input.
+   */
+  @Override
+  public void updateAll(int[] inputs, int n, double[] medians) {
+    for (int i = 0; i < n; i++) {
+      store(inputs[i]);
+      medians[i] = median();
+    }
+  }
+
+  /**
+   * Writes each heap's array as it is, so that reading it back needs no sifting.
+   */
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    smallHalf.writeTo(out);
+    largeHalf.writeTo(out);
+  }
+
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    smallHalf.readFrom(in);
+    largeHalf.readFrom(in);
+  }
+
+  /**
+   * Keeps all the small half values less than or equal to all the large half values, with the
+   * small half holding either the same number of values as the large half or one more.
+   *
+   * @param value the value to store in the heaps against which we keep a running median
+   */
+  private void store(int value) {
+    if (smallHalf.isEmpty() || value <= smallHalf.peek()) {
+      smallHalf.add(value);
+    } else {
+      largeHalf.add(value);
+    }
+    if (smallHalf.size() > largeHalf.size() + 1) {
+      largeHalf.add(smallHalf.poll());
+    } else if (largeHalf.size() > smallHalf.size()) {
+      smallHalf.add(largeHalf.poll());
+    }
+  }
+
+  /**
+   * @return the max of the small half if it has more values, otherwise the max of the small half
+   *         and the min of the large half averaged together
+   */
+  private double median() {
+    if (smallHalf.size() > largeHalf.size()) {
+      return smallHalf.peek();
+    }
+    return (smallHalf.peek() + (double) largeHalf.peek()) / 2.0;
+  }
+}
@@ -0,0 +1,106 @@
+package lamblin.common.runningmedian;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import lamblin.common.checkpoint.Checkpointable;
+
+/**
+ * Updates a running median like the {@link RangeRunningMedian}, for {@code int} inputs in a known
+ * range with a bucket for each integer, but keeps the histogram in an array of primitive counts
+ * instead of a {@link java.util.HashMap} of boxed counts.
+ * <p>
+ * Storing an input is O(1) and the median is found by summing the counts from the start of the
+ * range onwards, which is bounded by the size of the range.
+ * </p><p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class IntRangeRunningMedian implements IntRunningMedian, Checkpointable {
+
+  private final long[] inputCounts;
+  private final int minimumIncluded;
+  private long size = 0;
+
+  /**
+   * Will allocate a bucket for each integer from {@code minimumIncluded} to
+   * {@code maximumIncluded}. All updates must have input values in this range.
+   *
+   * @param minimumIncluded the smallest value an update can be
+   * @param maximumIncluded the largest value an update can be
+   */
+  public IntRangeRunningMedian(int minimumIncluded, int maximumIncluded) {
+    if (maximumIncluded < minimumIncluded) {
+      throw new IllegalArgumentException("The maximum must not be less than the minimum.");
+    }
+    this.minimumIncluded = minimumIncluded;
+    inputCounts = new long[maximumIncluded - minimumIncluded + 1];
+  }
+
+  /**
+   * Increment the count at the input's bucket, and return a median.
+   *
+   * @param input the value to add
+   * @return the median of all values added thus far
+   */
+  @Override
+  public double update(int input) {
+    final int bucket = input - minimumIncluded;
+    if (bucket < 0 || bucket >= inputCounts.length) {
+      throw new IllegalArgumentException(
+          "The input falls outside the range given at construction time");
+    }
+    inputCounts[bucket]++;
+    size++;
+    return median();
+  }
+
+  /**
+   * Rather than summing the histogram for every median, hands the inputs to a
+   * {@link HistogramRunningMedian} over the same histogram, which sums it once to find the lower
+   * median's bucket and moves that bucket along as each input is counted. It checks all the inputs
+   * are in range before counting any of them.
+   */
+  @Override
+  public void updateAll(int[] inputs, int n, double[] medians) {
+    new HistogramRunningMedian(minimumIncluded, inputCounts, size).updateAll(inputs, n, medians);
+    size += n;
+  }
+
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    HistogramCheckpoints.write(
+        out, minimumIncluded, inputCounts.length, bucket -> inputCounts[bucket]);
+  }
+
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    size = HistogramCheckpoints.read(in, minimumIncluded, inputCounts.length,
+                                     (bucket, count) -> inputCounts[bucket] += count);
+  }
+
+  /**
+   * Calculate the median by counting all the counts in order from minimum towards maximum until
+   * reaching just under half way to the full number of elements counted.
+   *
+   * @return a median of all the values updated so far
+   */
+  private double median() {
+    long count = 0;
+    int bucket = 0;
+    while (bucket < inputCounts.length && 2 * count < size) {
+      count += inputCounts[bucket++];
+    }
+    final int lower = bucket - 1;
+    if (size % 2 != 0 || 2 * count > size) {
+      return minimumIncluded + lower;
+    }
+    while (bucket < inputCounts.length && inputCounts[bucket] == 0) {
+      bucket++;
+    }
+    return minimumIncluded + (lower + bucket) / 2.0;
+  }
+}
@@ -0,0 +1,40 @@
+package lamblin.common.runningmedian;
+
+/**
+ * A {@link RunningMedian} of {@code int} values which can be updated without boxing the input or
+ * the median returned.
+ *
+ * @author Daniel Lamblin
+ */
+public interface IntRunningMedian extends RunningMedian<Integer> {
+
+  /**
+   * Adds the input into the set of values seen so far and outputs the median of that set.
+   *
+   * @param input the input value added to the growing set of values
+   * @return the median of the set of values currently stored including the latest input
+   */
+  double update(int input);
+
+  /**
+   * Adds each of the inputs in turn, as {@link #update(int)} would, and outputs the median after
+   * each one. Implementations may do this in bulk more quickly than one update at a time.
+   *
+   * @param inputs the input values added to the growing set of values, in order
+   * @param n the number of inputs to add from the start of {@code inputs}
+   * @param medians receives the median after adding each input, at the same index as the input
+   */
+  default void updateAll(int[] inputs, int n, double[] medians) {
+    for (int i = 0; i < n; i++) {
+      medians[i] = update(inputs[i]);
+    }
+  }
+
+  /**
+   * Unboxes the input for {@link #update(int)}.
+   */
+  @Override
+  default Double update(Integer input) {
+    return update(input.intValue());
+  }
+}
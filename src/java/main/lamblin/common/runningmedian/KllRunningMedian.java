@@ -0,0 +1,59 @@
+package lamblin.common.runningmedian;
+
+import java.util.Random;
+
+/**
+ * Approximates the running median of all the {@code int} inputs with a {@link KllSketch}, using
+ * a few kilobytes of memory however many inputs are seen and accepting inputs of any value.
+ * Storing an input is O(k) at worst, as a pass over part of the retained values, with an
+ * occasional compaction of the sketch, and finding the median is O(log k).
+ * <p>
+ * The median is exact until {@code k} inputs are seen, and its rank error after that shrinks in
+ * proportion to 1/k. See the project readme for a comparison with the exact running medians.
+ * Compactions are chosen with a fixed seed, so the same inputs always give the same medians.
+ * </p><p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class KllRunningMedian implements IntRunningMedian {
+
+  /**
+   * The default sketch size, retaining at most 742 values over a million inputs.
+   */
+  public static final int DEFAULT_K = 200;
+  /**
+   * The smallest sketch size.
+   */
+  public static final int MINIMUM_K = KllSketch.MINIMUM_CAPACITY;
+  private static final long SEED = 0x5EED;
+
+  private final KllSketch sketch;
+
+  /**
+   * Uses a sketch of the {@link #DEFAULT_K} size.
+   */
+  public KllRunningMedian() {
+    this(DEFAULT_K);
+  }
+
+  /**
+   * @param k the sketch size; larger is more accurate, with fewer than {@code 4k} values retained
+   */
+  public KllRunningMedian(int k) {
+    sketch = new KllSketch(k, new Random(SEED));
+  }
+
+  /**
+   * Adds the input into the sketch and estimates the median of all the inputs so far.
+   *
+   * @param input the input value added to the growing set of values
+   * @return the approximate median of the values seen including the latest input
+   */
+  @Override
+  public double update(int input) {
+    sketch.update(input);
+    return sketch.quantile(0.5);
+  }
+}
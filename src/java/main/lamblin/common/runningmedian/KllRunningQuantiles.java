@@ -0,0 +1,57 @@
+package lamblin.common.runningmedian;
+
+import java.util.Random;
+
+/**
+ * Approximates running quantiles of all the {@code int} inputs with one {@link KllSketch}, as the
+ * {@link KllRunningMedian} does for the median, in a few kilobytes of memory however many inputs
+ * are seen. The minimum and maximum are always exact.
+ * <p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class KllRunningQuantiles implements RunningQuantiles {
+
+  private static final long SEED = 0x5EED;
+
+  private final KllSketch sketch;
+  private final double[] quantiles;
+  private final double[] values;
+
+  /**
+   * @param k the sketch size; larger is more accurate, with fewer than {@code 4k} values retained
+   * @param quantiles the quantiles to update, each from 0 for the minimum to 1 for the maximum
+   */
+  public KllRunningQuantiles(int k, double... quantiles) {
+    for (double q : quantiles) {
+      if (!(q >= 0 && q <= 1)) {
+        throw new IllegalArgumentException("Quantiles must be from 0 to 1, not " + q);
+      }
+    }
+    sketch = new KllSketch(k, new Random(SEED));
+    this.quantiles = quantiles.clone();
+    values = new double[quantiles.length];
+  }
+
+  @Override
+  public double[] quantiles() {
+    return quantiles.clone();
+  }
+
+  /**
+   * Adds the input into the sketch and estimates the quantiles of all the inputs so far.
+   *
+   * @param input the input value added to the growing set of values
+   * @return the approximate quantiles of the values seen including the latest input
+   */
+  @Override
+  public double[] update(int input) {
+    sketch.update(input);
+    for (int i = 0; i < quantiles.length; i++) {
+      values[i] = sketch.quantile(quantiles[i]);
+    }
+    return values;
+  }
+}
@@ -0,0 +1,179 @@
+package lamblin.common.runningmedian;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import lamblin.common.checkpoint.Checkpointable;
+
+/**
+ * Updates running quantiles of {@code int} inputs in an expected range, with a bucket for each
+ * integer, counted in one Fenwick tree as in the {@link FenwickRunningMedian}. Each quantile is
+ * then found by a rank query of O(log n) in the size of the range on that same tree, rather than
+ * with a scan of the histogram or a separate running median for each quantile.
+ * <p>
+ * The ranks either side of {@code q * (n - 1)}, and the fraction between them, are found with
+ * integer arithmetic from the decimal digits of {@code q}, so that a quantile such as 0.29 of 101
+ * inputs is taken at rank 29 exactly, and the interpolated value has no more decimal places than
+ * {@code q}.
+ * </p><p>
+ * Inputs outside the range are not rejected, as they are by the range running medians, but are
+ * counted exactly in a sorted map, so a rare input above the range is still counted at the cost of
+ * a walk of that map for the quantiles which fall among such inputs.
+ * </p><p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class RangeRunningQuantiles implements RunningQuantiles, Checkpointable {
+
+  private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+  private final FenwickCounts inputCounts;
+  private final int minimumIncluded;
+  private final int maximumIncluded;
+  private final double[] quantiles;
+  /**
+   * Each quantile as a numerator over a power of ten.
+   */
+  private final long[] numerators;
+  private final long[] denominators;
+  private final double[] values;
+  private final NavigableMap<Integer, Long> outsideCounts = new TreeMap<>();
+  private long size = 0;
+  private long belowCount = 0;
+  private long aboveCount = 0;
+
+  /**
+   * Will allocate a bucket for each integer from {@code minimumIncluded} to
+   * {@code maximumIncluded}. Updates with inputs outside this range are counted apart, more slowly.
+   *
+   * @param minimumIncluded the smallest value expected of an update
+   * @param maximumIncluded the largest value expected of an update
+   * @param quantiles the quantiles to update, each from 0 for the minimum to 1 for the maximum,
+   *                  with at most {@link RunningQuantiles#MAXIMUM_DECIMAL_PLACES} decimal places
+   */
+  public RangeRunningQuantiles(int minimumIncluded, int maximumIncluded, double... quantiles) {
+    if (maximumIncluded < minimumIncluded) {
+      throw new IllegalArgumentException("The maximum must not be less than the minimum.");
+    }
+    numerators = new long[quantiles.length];
+    denominators = new long[quantiles.length];
+    for (int i = 0; i < quantiles.length; i++) {
+      final double q = quantiles[i];
+      if (!(q >= 0 && q <= 1)) {
+        throw new IllegalArgumentException("Quantiles must be from 0 to 1, not " + q);
+      }
+      final BigDecimal decimal = BigDecimal.valueOf(q).stripTrailingZeros();
+      final int decimalPlaces = Math.max(0, decimal.scale());
+      if (decimalPlaces > MAXIMUM_DECIMAL_PLACES) {
+        throw new IllegalArgumentException(
+            "Quantiles may have at most " + MAXIMUM_DECIMAL_PLACES + " decimal places, not " + q);
+      }
+      numerators[i] = decimal.movePointRight(decimalPlaces).longValueExact();
+      denominators[i] = POWERS_OF_TEN[decimalPlaces];
+    }
+    this.minimumIncluded = minimumIncluded;
+    this.maximumIncluded = maximumIncluded;
+    this.quantiles = quantiles.clone();
+    values = new double[quantiles.length];
+    inputCounts = new FenwickCounts(maximumIncluded - minimumIncluded + 1);
+  }
+
+  @Override
+  public double[] quantiles() {
+    return quantiles.clone();
+  }
+
+  /**
+   * Increment the count at the input's bucket, or of the input apart if it is outside the range,
+   * and return the quantiles.
+   *
+   * @param input the value to add
+   * @return the quantiles of all values added thus far
+   */
+  @Override
+  public double[] update(int input) {
+    if (input < minimumIncluded) {
+      outsideCounts.merge(input, 1L, Long::sum);
+      belowCount++;
+    } else if (input > maximumIncluded) {
+      outsideCounts.merge(input, 1L, Long::sum);
+      aboveCount++;
+    } else {
+      inputCounts.add(input - minimumIncluded, 1);
+    }
+    size++;
+    for (int i = 0; i < quantiles.length; i++) {
+      final long scaledRank = numerators[i] * (size - 1);
+      final long lowerRank = scaledRank / denominators[i];
+      final long fraction = scaledRank % denominators[i];
+      final long lower = valueOfRank(lowerRank);
+      values[i] = fraction == 0 ? lower : (lower * denominators[i]
+          + fraction * (valueOfRank(lowerRank + 1) - lower)) / (double) denominators[i];
+    }
+    return values;
+  }
+
+  /**
+   * @param rank the index of a value among all the values added, sorted
+   * @return the value of that rank
+   */
+  private long valueOfRank(long rank) {
+    if (rank < belowCount) {
+      return valueOfRank(outsideCounts.headMap(minimumIncluded, false), rank);
+    }
+    final long inRange = size - belowCount - aboveCount;
+    if (rank - belowCount < inRange) {
+      return minimumIncluded + inputCounts.bucketOfRank(rank - belowCount);
+    }
+    return valueOfRank(outsideCounts.tailMap(maximumIncluded, false), rank - belowCount - inRange);
+  }
+
+  private static long valueOfRank(Map<Integer, Long> counts, long rank) {
+    for (Map.Entry<Integer, Long> entry : counts.entrySet()) {
+      rank -= entry.getValue();
+      if (rank < 0) {
+        return entry.getKey();
+      }
+    }
+    throw new IllegalStateException("The rank is beyond the values counted.");
+  }
+
+  /**
+   * Writes the histogram of the range, then the number of inputs outside it followed by each of
+   * them with its count.
+   */
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    HistogramCheckpoints.write(out, minimumIncluded, inputCounts.buckets(), inputCounts::countOf);
+    out.writeInt(outsideCounts.size());
+    for (Map.Entry<Integer, Long> entry : outsideCounts.entrySet()) {
+      out.writeInt(entry.getKey());
+      out.writeLong(entry.getValue());
+    }
+  }
+
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    size = HistogramCheckpoints.read(in, minimumIncluded, inputCounts.buckets(), inputCounts::add);
+    for (int i = in.readInt(); i > 0; i--) {
+      final int input = in.readInt();
+      final long count = in.readLong();
+      outsideCounts.merge(input, count, Long::sum);
+      if (input < minimumIncluded) {
+        belowCount += count;
+      } else if (input > maximumIncluded) {
+        aboveCount += count;
+      } else {
+        throw new IOException("The checkpoint has an input apart which is in the range: " + input);
+      }
+      size += count;
+    }
+  }
+}
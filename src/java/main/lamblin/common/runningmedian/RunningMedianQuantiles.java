@@ -0,0 +1,67 @@
+package lamblin.common.runningmedian;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import lamblin.common.checkpoint.Checkpointable;
+
+/**
+ * Presents an {@link IntRunningMedian} as {@link RunningQuantiles} of just the median.
+ *
+ * @author Daniel Lamblin
+ */
+public class RunningMedianQuantiles implements RunningQuantiles, Checkpointable {
+
+  private static final double[] MEDIAN = {0.5};
+
+  private final IntRunningMedian runningMedian;
+  private final double[] values = new double[1];
+
+  /**
+   * @param runningMedian the running median to update
+   */
+  public RunningMedianQuantiles(IntRunningMedian runningMedian) {
+    this.runningMedian = runningMedian;
+  }
+
+  @Override
+  public double[] quantiles() {
+    return MEDIAN.clone();
+  }
+
+  @Override
+  public double[] update(int input) {
+    values[0] = runningMedian.update(input);
+    return values;
+  }
+
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    checkpointable().writeCheckpoint(out);
+  }
+
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    checkpointable().readCheckpoint(in);
+  }
+
+  /**
+   * @return the running median, if it can be checkpointed, as windowed and approximate medians
+   *         cannot
+   */
+  private Checkpointable checkpointable() throws IOException {
+    if (!(runningMedian instanceof Checkpointable)) {
+      throw new IOException("The running median cannot be checkpointed.");
+    }
+    return (Checkpointable) runningMedian;
+  }
+
+  /**
+   * Updates the running median in bulk, as the rows of just the median are the medians in order.
+   */
+  @Override
+  public void updateAll(int[] inputs, int n, double[] values) {
+    runningMedian.updateAll(inputs, n, values);
+  }
+}
@@ -0,0 +1,68 @@
+package lamblin.common.runningmedian;
+
+import java.math.BigDecimal;
+
+/**
+ * Accepts {@code int} entries to calculate a set of quantiles over, such as the minimum, median,
+ * 90th and 99th percentiles and maximum, and returns all of them with each {@link #update}.
+ * <p>
+ * A quantile {@code q} is the value of rank {@code q * (n - 1)} among the {@code n} sorted entries,
+ * interpolated between the values either side of a fractional rank, so the quantile 0.5 is the
+ * median as a {@link RunningMedian} would give it. Quantiles may have at most
+ * {@link #MAXIMUM_DECIMAL_PLACES} decimal places. A quantile interpolated between integers then
+ * has no more decimal places than {@code q} itself, and can be written exactly.</p>
+ *
+ * @author Daniel Lamblin
+ */
+public interface RunningQuantiles {
+
+  /**
+   * The most decimal places a quantile may have.
+   */
+  int MAXIMUM_DECIMAL_PLACES = 6;
+
+  /**
+   * The decimal places needed to write a quantile of integer inputs exactly, as interpolating
+   * between integers by {@code q * (n - 1)} leaves as many decimal places as {@code q} has. There
+   * is always at least one, so the quantile 0.5 is written as the running median is.
+   *
+   * @param q a quantile from 0 to 1, such as 0.99
+   * @return the decimal places of the quantile, such as 2 for 0.99, and at least 1
+   */
+  static int decimalPlaces(double q) {
+    return Math.max(1, BigDecimal.valueOf(q).stripTrailingZeros().scale());
+  }
+
+  /**
+   * @return the quantiles updated, each from 0 for the minimum to 1 for the maximum
+   */
+  double[] quantiles();
+
+  /**
+   * Adds the input into the set of values seen so far and outputs the quantiles of that set.
+   *
+   * @param input the input value added to the growing set of values
+   * @return the value of each of the {@link #quantiles()} in the same order, in an array which is
+   *         reused by the next update
+   */
+  double[] update(int input);
+
+  /**
+   * Adds each of the inputs in turn, as {@link #update(int)} would, and outputs the quantiles
+   * after each one. Implementations may do this in bulk more quickly than one update at a time.
+   *
+   * @param inputs the input values added to the growing set of values, in order
+   * @param n the number of inputs to add from the start of {@code inputs}
+   * @param values receives the quantiles after adding each input, one row of the
+   *               {@link #quantiles()} after another, so those for input {@code i} start at index
+   *               {@code i * quantiles().length}
+   */
+  default void updateAll(int[] inputs, int n, double[] values) {
+    int offset = 0;
+    for (int i = 0; i < n; i++) {
+      final double[] row = update(inputs[i]);
+      System.arraycopy(row, 0, values, offset, row.length);
+      offset += row.length;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package lamblin.common.runningmedian;
+
+import com.google.common.base.Ticker;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Updates a running median over only the inputs from a recent period of time, evicting inputs as
+ * they become older than the window. Inputs are {@code int} values in a known range, counted in a
+ * Fenwick tree as in the {@link FenwickRunningMedian}, so that storing, evicting and finding the
+ * median are each O(log n) in the size of the range. Memory use is bounded by the range and the
+ * number of inputs arriving within one window.
+ * <p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class TimeWindowRunningMedian implements IntRunningMedian {
+
+  private final FenwickCounts inputCounts;
+  private final int minimumIncluded;
+  private final long windowNanos;
+  private final Ticker ticker;
+  /**
+   * A circular queue of the buckets and times of the inputs in the window, oldest at the head.
+   */
+  private int[] buckets = new int[1024];
+  private long[] times = new long[1024];
+  private int head = 0;
+  private int size = 0;
+
+  /**
+   * Will allocate a bucket for each integer from {@code minimumIncluded} to
+   * {@code maximumIncluded}. All updates must have input values in this range.
+   *
+   * @param minimumIncluded the smallest value an update can be
+   * @param maximumIncluded the largest value an update can be
+   * @param window the length of time inputs remain in the median
+   * @param unit the unit of the {@code window}
+   */
+  public TimeWindowRunningMedian(int minimumIncluded, int maximumIncluded, long window,
+                                 TimeUnit unit) {
+    this(minimumIncluded, maximumIncluded, window, unit, Ticker.systemTicker());
+  }
+
+  /**
+   * As {@link #TimeWindowRunningMedian(int, int, long, TimeUnit)} reading the time from the
+   * {@code ticker} instead of the system.
+   */
+  TimeWindowRunningMedian(int minimumIncluded, int maximumIncluded, long window, TimeUnit unit,
+                          Ticker ticker) {
+    if (maximumIncluded < minimumIncluded) {
+      throw new IllegalArgumentException("The maximum must not be less than the minimum.");
+    }
+    if (window <= 0) {
+      throw new IllegalArgumentException("The window must be longer than no time at all.");
+    }
+    this.minimumIncluded = minimumIncluded;
+    this.windowNanos = unit.toNanos(window);
+    this.ticker = ticker;
+    inputCounts = new FenwickCounts(maximumIncluded - minimumIncluded + 1);
+  }
+
+  /**
+   * Evicts the inputs older than the window, counts the input, and returns a median.
+   *
+   * @param input the value to add
+   * @return the median of the values in the window, including this one
+   */
+  @Override
+  public double update(int input) {
+    final int bucket = input - minimumIncluded;
+    if (bucket < 0 || bucket >= inputCounts.buckets()) {
+      throw new IllegalArgumentException(
+          "The input falls outside the range given at construction time");
+    }
+    final long now = ticker.read();
+    while (size > 0 && now - times[head] >= windowNanos) {
+      inputCounts.add(buckets[head], -1);
+      head = (head + 1) % buckets.length;
+      size--;
+    }
+    if (size == buckets.length) {
+      grow();
+    }
+    final int tail = (head + size) % buckets.length;
+    buckets[tail] = bucket;
+    times[tail] = now;
+    size++;
+    inputCounts.add(bucket, 1);
+    return minimumIncluded + inputCounts.medianBucket(size);
+  }
+
+  /**
+   * Doubles the circular queue, moving its contents to start at index 0.
+   */
+  private void grow() {
+    final int capacity = buckets.length;
+    int[] grownBuckets = Arrays.copyOfRange(buckets, head, head + capacity * 2);
+    long[] grownTimes = Arrays.copyOfRange(times, head, head + capacity * 2);
+    System.arraycopy(buckets, 0, grownBuckets, capacity - head, head);
+    System.arraycopy(times, 0, grownTimes, capacity - head, head);
+    buckets = grownBuckets;
+    times = grownTimes;
+    head = 0;
+  }
+}
@@ -16,6 +16,35 @@
  *   <dd>When the range of possible values is known in advance and are integers, the range running
  *   median can more quickly and more compactly store the seen set as a histogram and output the
  *   median by travelling over the sum of about half of the number of values counted.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.IntRunningMedian}</dt>
+ *   <dd>A {@link lamblin.common.runningmedian.RunningMedian} updated with primitive {@code int}
+ *   values and returning a primitive {@code double} median, so that no boxing is needed.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.IntQueueRunningMedian}</dt>
+ *   <dd>The queue running median kept in a pair of primitive {@code int} heaps.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.IntRangeRunningMedian}</dt>
+ *   <dd>The range running median kept as an array of primitive counts.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.HistogramRunningMedian}</dt>
+ *   <dd>The range running median with a cursor kept on the median's bucket, which moves by at most
+ *   one occupied bucket with each update instead of rescanning the histogram.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.FenwickRunningMedian}</dt>
+ *   <dd>The range running median kept in a Fenwick tree, finding the median in O(log n) of the
+ *   range for very wide ranges.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.CountWindowRunningMedian}</dt>
+ *   <dd>A range running median over only a number of the most recent values.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.TimeWindowRunningMedian}</dt>
+ *   <dd>A range running median over only the values from a recent period of time.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.KllRunningMedian}</dt>
+ *   <dd>An approximate running median of values of any size kept in a bounded size KLL quantile
+ *   sketch.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.RunningQuantiles}</dt>
+ *   <dd>An interface like the running median for a set of quantiles, such as percentiles, updated
+ *   together.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.RangeRunningQuantiles}</dt>
+ *   <dd>Running quantiles of a known range found from one shared Fenwick tree of counts.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.KllRunningQuantiles}</dt>
+ *   <dd>Approximate running quantiles found from one KLL sketch.</dd>
+ *   <dt>{@link lamblin.common.runningmedian.RunningMedianQuantiles}</dt>
+ *   <dd>Presents a running median as running quantiles of just the median.</dd>
  * </dl>
  *
  * @author Daniel Lamblin
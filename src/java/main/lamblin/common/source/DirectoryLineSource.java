@@ -18,12 +18,24 @@ import java.util.Iterator;
 public class DirectoryLineSource implements LineSource {
 
   private final Iterable<Path> paths;
+  private final Function<File, ? extends LineSource> fileSourceFactory;
 
   /**
    * Opens a directory and allows for the iteration over each line in each file within it.
    * @param file the directory to open and read files from, non-recursively
    */
   public DirectoryLineSource(File file) {
+    this(file, FileLineSource::new);
+  }
+
+  /**
+   * Opens a directory and allows for the iteration over each line in each file within it, reading
+   * each file with the line source made by the {@code fileSourceFactory}.
+   * @param file the directory to open and read files from, non-recursively
+   * @param fileSourceFactory makes the line source for each file in the directory
+   */
+  public DirectoryLineSource(File file, Function<File, ? extends LineSource> fileSourceFactory) {
+    this.fileSourceFactory = fileSourceFactory;
     Iterable<Path> pathStream;
     try {
       pathStream = Files.newDirectoryStream(file.toPath());
@@ -45,6 +57,15 @@ public class DirectoryLineSource implements LineSource {
     return Iterables.concat(new FilesIterable()).iterator();
   }
 
+  /**
+   * Like the line iterator, this can only be iterated once, as the directory is only listed once.
+   *
+   * @return the files directly within the directory, skipping any subdirectories
+   */
+  public Iterable<File> files() {
+    return Iterables.filter(Iterables.transform(paths, Path::toFile), File::isFile);
+  }
+
   private class FilesIterable implements Iterable<LineSource> {
 
     @Override
@@ -53,7 +74,7 @@ public class DirectoryLineSource implements LineSource {
           paths,
           input -> {
             final File file = input.toFile();
-            return file.isFile() ? new FileLineSource(file) : new EmptySource();
+            return file.isFile() ? fileSourceFactory.apply(file) : new EmptySource();
           }
       ).iterator();
     }
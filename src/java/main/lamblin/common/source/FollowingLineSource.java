@@ -0,0 +1,423 @@
+package lamblin.common.source;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import lamblin.common.checkpoint.Checkpointable;
+
+/**
+ * Follows files, and the files of directories, as they grow, reading only the bytes appended
+ * since they were last read. The iterator first reads each file there is already in order, as
+ * the {@link NoneToManyLineSource} would, then waits for new files and appended lines, and only
+ * runs out if the iterating thread is interrupted.
+ * <p>
+ * The byte offset read up to is kept for each file. Only lines ended by a line feed, carriage
+ * return or both are read, so a line still being written is read once it is finished. A file which
+ * shrinks, or is replaced by another file of the same name, is read again from its start. A
+ * {@link WatchService} on the directories and on the parents of the files wakes the iterator when
+ * they change, and they are also checked at a regular interval in case a change is missed.
+ * </p><p>
+ * Each file is read in chunks with a {@link FileChannel}, and the current file is read until it
+ * has no more complete lines before moving on to the next, so the lines of each file are iterated
+ * in order and only about one chunk of lines is held in memory. Lines are decoded as UTF-8.
+ * </p><p>
+ * Its checkpoint is the offset in each file after the last line iterated, rather than the last
+ * line read, so that resuming from it on the same files carries on from the next line. The
+ * offsets are kept by the source and shared by its iterators, so only one should be iterated.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class FollowingLineSource implements LineSource, Checkpointable {
+
+  private static final int CHUNK_SIZE = 1 << 20;
+  private static final long DEFAULT_POLL_MILLISECONDS = 1000;
+
+  private final List<Path> filesOrDirs = new ArrayList<>();
+  private final Map<Path, FileState> states = new HashMap<>();
+  private final Runnable onIdle;
+  private final long pollMilliseconds;
+
+  /**
+   * @param filesOrDirs the names of the files or directories to follow, non-recursively
+   * @param onIdle run on the iterating thread each time it has read every complete line there is
+   *               and is about to wait for more, such as to flush what the lines were given to
+   */
+  public FollowingLineSource(Iterable<String> filesOrDirs, Runnable onIdle) {
+    this(filesOrDirs, onIdle, DEFAULT_POLL_MILLISECONDS);
+  }
+
+  /**
+   * @param filesOrDirs the names of the files or directories to follow, non-recursively
+   * @param onIdle run on the iterating thread each time it is about to wait for more lines
+   * @param pollMilliseconds the longest time to wait before checking the files again
+   */
+  FollowingLineSource(Iterable<String> filesOrDirs, Runnable onIdle, long pollMilliseconds) {
+    for (String fileOrDir : filesOrDirs) {
+      this.filesOrDirs.add(Paths.get(fileOrDir));
+    }
+    this.onIdle = onIdle;
+    this.pollMilliseconds = pollMilliseconds;
+  }
+
+  /**
+   * @return an iterator over the lines of the files as they are written, which only runs out when
+   *         the iterating thread is interrupted
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new iterator();
+  }
+
+  /**
+   * Writes the path of each file with how far its lines have been iterated, and its file key, to
+   * notice it being replaced before resuming.
+   */
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    out.writeInt(states.size());
+    for (Map.Entry<Path, FileState> entry : states.entrySet()) {
+      final FileState state = entry.getValue();
+      out.writeUTF(entry.getKey().toString());
+      out.writeUTF(String.valueOf(state.fileKey));
+      out.writeLong(state.iterated);
+      out.writeBoolean(state.iteratedSkipLineFeed);
+    }
+  }
+
+  /**
+   * Reads the offsets to carry on reading each file from, before iterating.
+   */
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    final int files = in.readInt();
+    for (int i = 0; i < files; i++) {
+      final Path path = Paths.get(in.readUTF());
+      final FileState state = new FileState();
+      state.fileKey = in.readUTF();
+      state.offset = state.iterated = in.readLong();
+      state.skipLineFeed = state.iteratedSkipLineFeed = in.readBoolean();
+      states.put(path, state);
+    }
+  }
+
+  /**
+   * How far a file has been read and iterated, and which file it was, to notice it being
+   * replaced.
+   */
+  private static class FileState {
+
+    /**
+     * The file key, as a {@link String} to compare with one read back from a checkpoint.
+     */
+    private String fileKey;
+    private long offset = 0;
+    /**
+     * Whether the last byte read was a carriage return, so a line feed next is part of its ending.
+     */
+    private boolean skipLineFeed = false;
+    /**
+     * The offset after the ending of the last line iterated.
+     */
+    private long iterated = 0;
+    /**
+     * Whether the last line iterated ended with the last byte read, a carriage return.
+     */
+    private boolean iteratedSkipLineFeed = false;
+  }
+
+  class iterator implements Iterator<String> {
+
+    /**
+     * The lines read but not yet iterated, from {@code head} to before {@code tail}, with the
+     * offset after each one's ending in the file of {@code linesState}.
+     */
+    private String[] lines = new String[1024];
+    private long[] lineEnds = new long[1024];
+    private int head = 0;
+    private int tail = 0;
+    private FileState linesState;
+    private boolean lastLineSkipsLineFeed = false;
+    private List<Path> files = Collections.emptyList();
+    private int current = 0;
+    private WatchService watcher;
+    private ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+    private boolean closed = false;
+
+    iterator() {
+      try {
+        watcher = FileSystems.getDefault().newWatchService();
+        for (Path directory : directories()) {
+          directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                             StandardWatchEventKinds.ENTRY_MODIFY);
+        }
+      } catch (IOException e) {
+        System.err.println("Unable to watch for changes; checking for them periodically instead.");
+        e.printStackTrace();
+      }
+      listFiles();
+    }
+
+    /**
+     * Waits until a line is available, which it only stops doing if the thread is interrupted.
+     *
+     * @return {@code true} once a line is available, or {@code false} if interrupted
+     */
+    @Override
+    public boolean hasNext() {
+      while (!closed && head == tail) {
+        if (readNewLines()) {
+          break;
+        }
+        listFiles();
+        if (readNewLines()) {
+          break;
+        }
+        onIdle.run();
+        awaitChanges();
+      }
+      return !closed;
+    }
+
+    /**
+     * @return the next line from the files being followed
+     */
+    @Override
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException("The files are no longer being followed.");
+      }
+      final String line = lines[head];
+      lines[head] = null;
+      linesState.iterated = lineEnds[head];
+      linesState.iteratedSkipLineFeed = ++head == tail && lastLineSkipsLineFeed;
+      return line;
+    }
+
+    /**
+     * Reads the complete lines appended to the current file, or else to the next of the files
+     * which has any, which becomes the current file.
+     *
+     * @return {@code true} if any lines were read
+     */
+    private boolean readNewLines() {
+      for (int i = 0; i < files.size(); i++) {
+        final int index = (current + i) % files.size();
+        if (read(files.get(index))) {
+          current = index;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Lists the files given and the files in the directories given, in order, and the directories
+     * in name order, keeping the current file current.
+     */
+    private void listFiles() {
+      final Path currentFile = files.isEmpty() ? null : files.get(current);
+      final Set<Path> listed = new LinkedHashSet<>();
+      for (Path fileOrDir : filesOrDirs) {
+        if (Files.isDirectory(fileOrDir)) {
+          final List<Path> directoryFiles = new ArrayList<>();
+          try (DirectoryStream<Path> stream = Files.newDirectoryStream(fileOrDir)) {
+            for (Path path : stream) {
+              if (Files.isRegularFile(path)) {
+                directoryFiles.add(path);
+              }
+            }
+          } catch (IOException e) {
+            System.err.println("Directory \"" + fileOrDir + "\" could not be listed.");
+            e.printStackTrace();
+          }
+          Collections.sort(directoryFiles);
+          listed.addAll(directoryFiles);
+        } else {
+          listed.add(fileOrDir);
+        }
+      }
+      files = new ArrayList<>(listed);
+      states.keySet().retainAll(listed);
+      current = Math.max(0, files.indexOf(currentFile));
+    }
+
+    /**
+     * @return the directories given and the parent directories of the files given
+     */
+    private Set<Path> directories() {
+      final Set<Path> directories = new LinkedHashSet<>();
+      for (Path fileOrDir : filesOrDirs) {
+        final Path absolute = fileOrDir.toAbsolutePath();
+        directories.add(Files.isDirectory(absolute) ? absolute : absolute.getParent());
+      }
+      return directories;
+    }
+
+    /**
+     * Reads a chunk of the bytes appended to a file since it was last read, adding each complete
+     * line to the lines to iterate, and moves the file's offset past the last line ending.
+     *
+     * @return {@code true} if any lines were read
+     */
+    private boolean read(Path path) {
+      final FileState state = states.computeIfAbsent(path, p -> new FileState());
+      try {
+        final BasicFileAttributes attributes =
+            Files.readAttributes(path, BasicFileAttributes.class);
+        final String fileKey = String.valueOf(attributes.fileKey());
+        if (attributes.size() < state.offset || !Objects.equals(fileKey, state.fileKey)) {
+          state.fileKey = fileKey;
+          state.offset = 0;
+          state.skipLineFeed = false;
+          state.iterated = 0;
+          state.iteratedSkipLineFeed = false;
+        }
+        if (attributes.size() == state.offset) {
+          return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+          while (true) {
+            chunk.clear();
+            final long available = channel.size() - state.offset;
+            if (available < chunk.capacity()) {
+              chunk.limit((int) available);
+            }
+            while (chunk.hasRemaining()
+                   && channel.read(chunk, state.offset + chunk.position()) > 0) {
+              // Reads until the chunk is full or the end of the file.
+            }
+            head = 0;
+            tail = 0;
+            linesState = state;
+            final int consumed = splitLines(state, chunk.array(), chunk.position());
+            state.offset += consumed;
+            if (tail > 0) {
+              return true;
+            }
+            if (consumed == 0) {
+              if (chunk.position() < chunk.capacity()) {
+                // The last line is not finished yet.
+                return false;
+              }
+              // A single line fills the whole chunk, so the chunk has to grow to fit it.
+              chunk = ByteBuffer.allocate(chunk.capacity() * 2);
+            }
+          }
+        }
+      } catch (NoSuchFileException e) {
+        states.remove(path);
+      } catch (IOException e) {
+        System.err.println("Unable to read file: \"" + path + "\"");
+        e.printStackTrace();
+      }
+      return false;
+    }
+
+    /**
+     * Adds the complete lines in the bytes, read from the state's offset, to the lines to iterate.
+     *
+     * @return the number of bytes up to and including the last line ending
+     */
+    private int splitLines(FileState state, byte[] bytes, int length) {
+      lastLineSkipsLineFeed = false;
+      int lineStart = 0;
+      if (state.skipLineFeed && length > 0) {
+        state.skipLineFeed = false;
+        if (bytes[0] == '\n') {
+          lineStart = 1;
+        }
+      }
+      for (int i = lineStart; i < length; i++) {
+        final byte b = bytes[i];
+        if (b == '\n' || b == '\r') {
+          final String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+          if (b == '\r') {
+            if (i + 1 == length) {
+              state.skipLineFeed = true;
+              lastLineSkipsLineFeed = true;
+            } else if (bytes[i + 1] == '\n') {
+              i++;
+            }
+          }
+          lineStart = i + 1;
+          addLine(line, state.offset + lineStart);
+        }
+      }
+      return lineStart;
+    }
+
+    private void addLine(String line, long end) {
+      if (tail == lines.length) {
+        lines = Arrays.copyOf(lines, tail * 2);
+        lineEnds = Arrays.copyOf(lineEnds, tail * 2);
+      }
+      lines[tail] = line;
+      lineEnds[tail++] = end;
+    }
+
+    /**
+     * Waits for a change to a watched directory, or the poll interval, whichever comes first. If
+     * interrupted, stops following the files.
+     */
+    private void awaitChanges() {
+      try {
+        if (watcher == null) {
+          TimeUnit.MILLISECONDS.sleep(pollMilliseconds);
+          return;
+        }
+        WatchKey key = watcher.poll(pollMilliseconds, TimeUnit.MILLISECONDS);
+        while (key != null) {
+          key.pollEvents();
+          key.reset();
+          key = watcher.poll();
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        close();
+      }
+    }
+
+    private void close() {
+      if (!closed) {
+        closed = true;
+        Arrays.fill(lines, head, tail, null);
+        head = tail;
+        if (watcher != null) {
+          try {
+            watcher.close();
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package lamblin.common.source;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A chunk of whole lines read as bytes from a file by {@link SplittableLineSource#chunks()},
+ * with the global number of its first line among all the lines read before it. The lines are
+ * only found and decoded from UTF-8 when the chunk is iterated, so that can be done on any thread
+ * while the next chunks are read, and the line numbers still say where each line belongs.
+ * <p>
+ * As with {@link java.io.BufferedReader#readLine()} a line ends at a line feed, a carriage return,
+ * or a carriage return followed by a line feed, and only the last line of a file need not end.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class LineChunk implements LineSource {
+
+  private final byte[] bytes;
+  private final int length;
+  private final long firstLine;
+  private final int lineCount;
+
+  /**
+   * Counts the lines of the chunk, which must start at the start of a line and end at the end of
+   * one, so that a carriage return at its end is not followed by a line feed in the next chunk.
+   *
+   * @param bytes the bytes of the lines, which the chunk keeps and no one may change
+   * @param length the number of bytes from the start of {@code bytes} in the chunk
+   * @param firstLine the number of lines before the chunk's first line, from zero
+   */
+  LineChunk(byte[] bytes, int length, long firstLine) {
+    this.bytes = bytes;
+    this.length = length;
+    this.firstLine = firstLine;
+    lineCount = countLines(bytes, length);
+  }
+
+  /**
+   * @return the number of lines in the bytes, counting a last line without a line ending
+   */
+  static int countLines(byte[] bytes, int length) {
+    int lines = 0;
+    for (int i = 0; i < length; i++) {
+      final byte b = bytes[i];
+      if (b == '\n') {
+        lines++;
+      } else if (b == '\r') {
+        lines++;
+        if (i + 1 < length && bytes[i + 1] == '\n') {
+          i++;
+        }
+      }
+    }
+    if (length > 0 && bytes[length - 1] != '\n' && bytes[length - 1] != '\r') {
+      lines++;
+    }
+    return lines;
+  }
+
+  /**
+   * @return the global number of the chunk's first line, counting from zero
+   */
+  public long firstLine() {
+    return firstLine;
+  }
+
+  /**
+   * @return the number of lines in the chunk
+   */
+  public int lineCount() {
+    return lineCount;
+  }
+
+  /**
+   * @return the number of bytes in the chunk
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * @return an iterator decoding each line of the chunk in turn
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<String>() {
+      private int position = 0;
+
+      @Override
+      public boolean hasNext() {
+        return position < length;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException("The chunk has no more lines.");
+        }
+        final int start = position;
+        int end = start;
+        while (end < length && bytes[end] != '\n' && bytes[end] != '\r') {
+          end++;
+        }
+        position = end + 1;
+        if (end + 1 < length && bytes[end] == '\r' && bytes[end + 1] == '\n') {
+          position++;
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+      }
+    };
+  }
+}
@@ -0,0 +1,211 @@
+package lamblin.common.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads lines out of a {@link File} by memory mapping it through a {@link FileChannel}.
+ * <p>
+ * Unlike the {@link FileLineSource}, which decodes every character through a
+ * {@link java.io.BufferedReader}, this looks for line endings on the mapped bytes directly and
+ * only decodes a line from UTF-8 into a {@link String} when {@link Iterator#next()} asks for it.
+ * A single mapping is limited to 2GB, so larger files are read by remapping a window that starts
+ * at the beginning of the first line not yet returned.
+ * </p><p>
+ * As with {@link java.io.BufferedReader#readLine()} a line ends at a line feed, a carriage return,
+ * or a carriage return followed by a line feed.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class MappedFileLineSource implements LineSource {
+
+  /**
+   * The default number of bytes mapped at once; 256MB keeps the number of remappings low while
+   * leaving plenty of address space on 64 bit JVMs.
+   */
+  static final int DEFAULT_WINDOW_SIZE = 1 << 28;
+  private static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE - 8;
+
+  private final File file;
+  private final int windowSize;
+
+  /**
+   * Maps the file lazily when iterated. If the file cannot be opened no lines are iterated.
+   *
+   * @param file the file to be mapped
+   */
+  public MappedFileLineSource(File file) {
+    this(file, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * @param file the file to be mapped
+   * @param windowSize the number of bytes to map at once; lines longer than this grow the window
+   */
+  MappedFileLineSource(File file, int windowSize) {
+    this.file = file;
+    this.windowSize = windowSize;
+  }
+
+  /**
+   * @return an iterator over the lines in the mapped file, or no lines if it could not be opened
+   */
+  @Override
+  public Iterator<String> iterator() {
+    try {
+      return new iterator(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    } catch (IOException e) {
+      System.err.println("Unable to map file: \"" + file.getName() + "\"");
+      e.printStackTrace();
+      return new EmptySource().iterator();
+    }
+  }
+
+  class iterator implements Iterator<String> {
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer window;
+    private long windowStart = 0;
+    private int currentWindowSize = windowSize;
+    private int position = 0;
+    private int lineStart;
+    private int lineEnd;
+    private boolean lineFound = false;
+    private boolean skipLineFeed = false;
+    private boolean closed = false;
+    private byte[] lineBytes = new byte[256];
+
+    iterator(FileChannel channel) throws IOException {
+      this.channel = channel;
+      fileSize = channel.size();
+      if (fileSize == 0) {
+        close();
+      } else {
+        map(0);
+      }
+    }
+
+    /**
+     * @return {@code true} if the file has another line available, {@code false} otherwise
+     */
+    @Override
+    public boolean hasNext() {
+      if (lineFound) {
+        return true;
+      }
+      if (closed) {
+        return false;
+      }
+      try {
+        lineFound = findLine();
+      } catch (IOException e) {
+        System.err.println("Unable to map file: \"" + file.getName() + "\"");
+        e.printStackTrace();
+        close();
+      }
+      return lineFound;
+    }
+
+    /**
+     * @return the next line from the file, decoded as UTF-8
+     */
+    @Override
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException(
+            "File: \"" + file.getName() + "\" has ended with no more lines available.");
+      }
+      lineFound = false;
+      final int length = lineEnd - lineStart;
+      if (lineBytes.length < length) {
+        lineBytes = new byte[Math.max(length, lineBytes.length * 2)];
+      }
+      window.position(lineStart);
+      window.get(lineBytes, 0, length);
+      return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Scans forward from the current position for the next line ending, remapping the window when
+     * the scan reaches its end before the end of the file.
+     *
+     * @return {@code true} if {@code lineStart} and {@code lineEnd} now bound a line
+     * @throws IOException if the file could not be remapped
+     */
+    private boolean findLine() throws IOException {
+      while (true) {
+        final int limit = window.limit();
+        if (skipLineFeed && position < limit) {
+          skipLineFeed = false;
+          if (window.get(position) == '\n') {
+            position++;
+          }
+        }
+        for (int i = position; i < limit; i++) {
+          final byte b = window.get(i);
+          if (b == '\n' || b == '\r') {
+            lineStart = position;
+            lineEnd = i;
+            position = i + 1;
+            skipLineFeed = b == '\r';
+            return true;
+          }
+        }
+        if (windowStart + limit >= fileSize) {
+          // The last line of the file need not end with a line ending.
+          if (position < limit) {
+            lineStart = position;
+            lineEnd = limit;
+            position = limit;
+            return true;
+          }
+          close();
+          return false;
+        }
+        if (position == 0) {
+          // A single line fills the whole window, so the window has to grow to fit it.
+          if (currentWindowSize == MAX_WINDOW_SIZE) {
+            throw new IOException("A line is longer than the maximum mappable size.");
+          }
+          currentWindowSize = (int) Math.min(MAX_WINDOW_SIZE, 2L * currentWindowSize);
+        }
+        map(windowStart + position);
+      }
+    }
+
+    /**
+     * Maps the window to start at the given offset in the file.
+     *
+     * @param start the offset in the file for the first byte of the window
+     * @throws IOException if the file could not be mapped
+     */
+    private void map(long start) throws IOException {
+      windowStart = start;
+      position = 0;
+      window = channel.map(
+          FileChannel.MapMode.READ_ONLY, start, Math.min(currentWindowSize, fileSize - start));
+    }
+
+    /**
+     * Closes the underlying channel. The last mapping remains valid until it is garbage collected.
+     */
+    private void close() {
+      if (!closed) {
+        closed = true;
+        try {
+          channel.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+  }
+}
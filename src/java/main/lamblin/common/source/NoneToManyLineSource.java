@@ -5,6 +5,7 @@ import com.google.common.collect.Iterables;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.Iterator;
 
 /**
@@ -16,6 +17,7 @@ import java.util.Iterator;
 public class NoneToManyLineSource implements LineSource {
 
   private final Iterable<String> filesOrDirs;
+  private final Function<File, ? extends LineSource> fileSourceFactory;
 
   /**
    * Takes a iterable collection of strings assumed to point to named files or directories and
@@ -26,7 +28,21 @@ public class NoneToManyLineSource implements LineSource {
    * @param filesOrDirs a collection of names of files or directories or an empty collection
    */
   public NoneToManyLineSource(Iterable<String> filesOrDirs) {
+    this(filesOrDirs, FileLineSource::new);
+  }
+
+  /**
+   * As {@link #NoneToManyLineSource(Iterable)} but each file, including those within directories,
+   * is read with the line source made by the {@code fileSourceFactory}.
+   *
+   * @param filesOrDirs a collection of names of files or directories or an empty collection
+   * @param fileSourceFactory makes the line source for each file, such as
+   *                          {@link MappedFileLineSource#MappedFileLineSource(File)}
+   */
+  public NoneToManyLineSource(Iterable<String> filesOrDirs,
+                              Function<File, ? extends LineSource> fileSourceFactory) {
     this.filesOrDirs = filesOrDirs;
+    this.fileSourceFactory = fileSourceFactory;
   }
 
   /**
@@ -42,10 +58,29 @@ public class NoneToManyLineSource implements LineSource {
     }
   }
 
+  /**
+   * Lists the files that {@link #iterator()} would read lines from, in the same order, skipping
+   * names that are neither a file nor a directory.
+   *
+   * @return each file specified and each file directly within each directory specified
+   */
+  public Iterable<File> files() {
+    return Iterables.concat(Iterables.transform(
+        filesOrDirs,
+        input -> {
+          final File file = Paths.get(input).toFile();
+          return file.isFile() ? Collections.singleton(file)
+                               : file.isDirectory() ? new DirectoryLineSource(file).files()
+                                                    : Collections.<File>emptySet();
+        }
+    ));
+  }
+
   /**
    * Convert each string in the {@code filesOrDirs} into a line source that is one of:
    * <ul>
-   * <li>A {@link FileLineSource} if the string points to a file.</li>
+   * <li>A line source from the {@code fileSourceFactory}, by default a {@link FileLineSource}, if
+   * the string points to a file.</li>
    * <li>A {@link DirectoryLineSource} if the string points to a directory.</li>
    * <li>An {@link EmptySource} if the string does not point to one of these.</li>
    * </ul>
@@ -58,8 +93,9 @@ public class NoneToManyLineSource implements LineSource {
           filesOrDirs,
           input -> {
             final File file = Paths.get(input).toFile();
-            return file.isFile() ? new FileLineSource(file)
-                                 : file.isDirectory() ? new DirectoryLineSource(file)
+            return file.isFile() ? fileSourceFactory.apply(file)
+                                 : file.isDirectory() ? new DirectoryLineSource(file,
+                                                                                fileSourceFactory)
                                                       : new EmptySource();
           }
       ).iterator();
@@ -0,0 +1,180 @@
+package lamblin.common.source;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads lines out of a sequence of files, opening and reading up to a number of the upcoming files
+ * on background threads while the lines of the current file are iterated.
+ * <p>
+ * Each file being read ahead fills its own bounded buffer of chunks of lines, so the lines are
+ * iterated in exactly the same order as reading each file one after another would give, and at
+ * most {@code readAhead} files' buffers are held in memory at once.
+ * </p><p>
+ * The background threads are daemon threads which finish once every file has been iterated. An
+ * iteration abandoned part way leaves them blocked on their full buffers until the JVM exits.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class ReadAheadLineSource implements LineSource {
+
+  private static final int CHUNK_LINES = 1024;
+  private static final int CHUNKS_PER_FILE = 16;
+  private static final String[] END_OF_FILE = new String[0];
+
+  private final Iterable<File> files;
+  private final Function<File, ? extends LineSource> fileSourceFactory;
+  private final int readAhead;
+
+  /**
+   * @param files the files to read lines from, in order
+   * @param fileSourceFactory makes the line source which reads each file on a background thread
+   * @param readAhead the number of files, including the current one, read at once; at least 1
+   */
+  public ReadAheadLineSource(Iterable<File> files,
+                             Function<File, ? extends LineSource> fileSourceFactory,
+                             int readAhead) {
+    if (readAhead < 1) {
+      throw new IllegalArgumentException("At least one file must be read ahead.");
+    }
+    this.files = files;
+    this.fileSourceFactory = fileSourceFactory;
+    this.readAhead = readAhead;
+  }
+
+  /**
+   * @return an iterator over the lines of each file, in order, which starts reading ahead
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new iterator();
+  }
+
+  /**
+   * Reads all the lines of one file into its buffer of chunks, ending with {@link #END_OF_FILE}.
+   */
+  private class FileReadAhead implements Runnable {
+
+    private final File file;
+    private final BlockingQueue<String[]> chunks = new ArrayBlockingQueue<>(CHUNKS_PER_FILE);
+
+    FileReadAhead(File file) {
+      this.file = file;
+    }
+
+    @Override
+    public void run() {
+      try {
+        String[] chunk = new String[CHUNK_LINES];
+        int size = 0;
+        try {
+          for (String line : fileSourceFactory.apply(file)) {
+            chunk[size++] = line;
+            if (size == CHUNK_LINES) {
+              chunks.put(chunk);
+              chunk = new String[CHUNK_LINES];
+              size = 0;
+            }
+          }
+        } catch (RuntimeException e) {
+          System.err.println("Unable to read ahead file: \"" + file.getName() + "\"");
+          e.printStackTrace();
+        }
+        if (size > 0) {
+          chunks.put(Arrays.copyOf(chunk, size));
+        }
+        chunks.put(END_OF_FILE);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  class iterator implements Iterator<String> {
+
+    private final Iterator<File> fileIterator = files.iterator();
+    private final ArrayDeque<FileReadAhead> pending = new ArrayDeque<>(readAhead);
+    private final ExecutorService readers = Executors.newFixedThreadPool(
+        readAhead,
+        new ThreadFactoryBuilder().setDaemon(true).setNameFormat("read-ahead-%d").build());
+    private String[] chunk = END_OF_FILE;
+    private int index = 0;
+    private boolean closed = false;
+
+    iterator() {
+      startReading();
+    }
+
+    /**
+     * @return {@code true} if any of the files has another line available, {@code false} otherwise
+     */
+    @Override
+    public boolean hasNext() {
+      while (!closed && index == chunk.length) {
+        final FileReadAhead current = pending.peek();
+        if (current == null) {
+          close();
+          break;
+        }
+        try {
+          chunk = current.chunks.take();
+          index = 0;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          close();
+          break;
+        }
+        if (chunk == END_OF_FILE) {
+          pending.remove();
+          startReading();
+        }
+      }
+      return !closed;
+    }
+
+    /**
+     * @return the next line from the files being read
+     */
+    @Override
+    public String next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException("The files read ahead have no more lines available.");
+      }
+      final String line = chunk[index];
+      // Drop the reference so the chunk does not hold onto lines already iterated.
+      chunk[index++] = null;
+      return line;
+    }
+
+    /**
+     * Starts reading the next files until {@code readAhead} files are pending.
+     */
+    private void startReading() {
+      while (pending.size() < readAhead && fileIterator.hasNext()) {
+        final FileReadAhead fileReadAhead = new FileReadAhead(fileIterator.next());
+        readers.execute(fileReadAhead);
+        pending.add(fileReadAhead);
+      }
+    }
+
+    private void close() {
+      if (!closed) {
+        closed = true;
+        chunk = END_OF_FILE;
+        index = 0;
+        readers.shutdownNow();
+      }
+    }
+  }
+}
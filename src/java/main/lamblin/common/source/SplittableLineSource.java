@@ -0,0 +1,478 @@
+package lamblin.common.source;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Reads lines out of files, a single large one or many, in chunks of whole lines, so that more
+ * threads than the one reading can find and decode the lines.
+ * <p>
+ * {@link #chunks()} reads each file in turn by positional reads of about the chunk size, cut back
+ * to the end of the last whole line, or of the most lines a chunk may hold, and counts the lines
+ * of each {@link LineChunk} as it is
+ * read, so each chunk carries the global number of its first line, the sum of the line counts of
+ * the chunks before it. The reading thread only reads and counts line endings, while the chunks
+ * can be decoded and tokenized on any threads, in any order, with their lines still numbered.
+ * </p><p>
+ * {@link #spliterator()} splits the files in half, and a single file in half at the first line
+ * start after the middle of its bytes, so a parallel {@link java.util.stream.Stream} of the lines
+ * reads and decodes each part on its own thread, with its own {@link FileChannel}, and still keeps
+ * the lines in order for {@code forEachOrdered} or collecting them. Iterating reads the chunks in
+ * order on the one thread.
+ * </p><p>
+ * As with {@link java.io.BufferedReader#readLine()} a line ends at a line feed, a carriage return,
+ * or a carriage return followed by a line feed. A file which cannot be read is reported to stderr
+ * and its lines from there are skipped.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class SplittableLineSource implements LineSource {
+
+  /**
+   * The default number of bytes read into each chunk; 64KB holds several hundred tweets, about as
+   * many as a batch of the worker pool, and is big enough to read efficiently.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+  private static final int MAXIMUM_CHUNK_SIZE = Integer.MAX_VALUE - 8;
+  private static final int SPLIT_SCAN_SIZE = 1 << 12;
+
+  private final Iterable<File> files;
+  private final int chunkSize;
+  private final int maximumLines;
+
+  /**
+   * @param file the file to read lines from
+   */
+  public SplittableLineSource(File file) {
+    this(Collections.singletonList(file), DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * @param files the files to read lines from, in order
+   * @param chunkSize the number of bytes read at once into a chunk; lines longer than this grow
+   *                  their chunk; at least 1
+   */
+  public SplittableLineSource(Iterable<File> files, int chunkSize) {
+    this(files, chunkSize, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param files the files to read lines from, in order
+   * @param chunkSize the number of bytes read at once into a chunk; lines longer than this grow
+   *                  their chunk; at least 1
+   * @param maximumLines the most lines in a chunk, however short they are, such as the most
+   *                     messages a consumer of the chunks takes at once; at least 1
+   */
+  public SplittableLineSource(Iterable<File> files, int chunkSize, int maximumLines) {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("The chunk size must be at least 1.");
+    }
+    if (maximumLines < 1) {
+      throw new IllegalArgumentException("The maximum lines must be at least 1.");
+    }
+    this.files = files;
+    this.chunkSize = chunkSize;
+    this.maximumLines = maximumLines;
+  }
+
+  /**
+   * @return an iterator over the lines of each file, in order, read in chunks on this thread
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return Spliterators.iterator(spliterator());
+  }
+
+  /**
+   * @return a spliterator over the lines of each file, in order, which splits the files and then
+   *         the bytes of a file at line starts
+   */
+  @Override
+  public Spliterator<String> spliterator() {
+    final List<File> fileList = ImmutableList.copyOf(files);
+    return new FilesSpliterator(fileList, 0, fileList.size());
+  }
+
+  /**
+   * @return the chunks of every file in order, each numbered by the lines of all those before it,
+   *         which are read as they are iterated
+   */
+  public Iterable<LineChunk> chunks() {
+    return () -> new Iterator<LineChunk>() {
+      private final Iterator<File> fileIterator = files.iterator();
+      private File file;
+      private FileChannel channel;
+      private long position;
+      private long size;
+      private long nextLine = 0;
+      private LineChunk next;
+
+      @Override
+      public boolean hasNext() {
+        while (next == null) {
+          if (channel == null && !open()) {
+            return false;
+          }
+          try {
+            final LineChunk chunk =
+                position < size ? readChunk(channel, position, size, nextLine) : null;
+            if (chunk != null && chunk.length() > 0) {
+              next = chunk;
+              position += chunk.length();
+              nextLine += chunk.lineCount();
+            } else {
+              close();
+            }
+          } catch (IOException e) {
+            System.err.println("Unable to read file: \"" + file.getName() + "\"");
+            e.printStackTrace();
+            close();
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public LineChunk next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException("The files have no more chunks.");
+        }
+        final LineChunk chunk = next;
+        next = null;
+        return chunk;
+      }
+
+      /**
+       * Opens the next file which can be opened.
+       *
+       * @return whether there was one
+       */
+      private boolean open() {
+        while (fileIterator.hasNext()) {
+          file = fileIterator.next();
+          try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            size = channel.size();
+            position = 0;
+            return true;
+          } catch (IOException e) {
+            System.err.println("Unable to open file: \"" + file.getName() + "\"");
+            e.printStackTrace();
+          }
+        }
+        return false;
+      }
+
+      private void close() {
+        closeQuietly(channel);
+        channel = null;
+      }
+    };
+  }
+
+  /**
+   * Reads a chunk of about the chunk size from the start of a line, up to the end of the last
+   * whole line in it, or to the end of the range. A line longer than the chunk size grows the
+   * chunk to hold it. A chunk of more than the maximum lines is cut after its last line.
+   *
+   * @param channel the file to read
+   * @param start the offset of the start of a line, before the end
+   * @param end the offset after the last byte of the range, which ends a line or the file
+   * @param firstLine the number of lines before the chunk's first line
+   * @return the chunk
+   * @throws IOException if the file cannot be read
+   */
+  LineChunk readChunk(FileChannel channel, long start, long end, long firstLine)
+      throws IOException {
+    byte[] bytes = new byte[(int) Math.min(chunkSize, end - start)];
+    int length = read(channel, start, bytes, 0, bytes.length);
+    // A file which shrank while being read ends where its bytes ran out.
+    while (length == bytes.length && start + length < end) {
+      final int cut = afterLastLineEnd(bytes, length);
+      if (cut > 0) {
+        return limitLines(bytes, cut, firstLine);
+      }
+      if (length == MAXIMUM_CHUNK_SIZE) {
+        throw new IOException("A line is longer than the largest chunk.");
+      }
+      bytes = Arrays.copyOf(
+          bytes, (int) Math.min(MAXIMUM_CHUNK_SIZE, Math.min(2L * length, end - start)));
+      length += read(channel, start + length, bytes, length, bytes.length - length);
+    }
+    return limitLines(bytes, length, firstLine);
+  }
+
+  /**
+   * @return a chunk of the bytes, cut after the maximum lines if there are more than that
+   */
+  private LineChunk limitLines(byte[] bytes, int length, long firstLine) {
+    final LineChunk chunk = new LineChunk(bytes, length, firstLine);
+    return chunk.lineCount() > maximumLines
+           ? new LineChunk(bytes, afterLine(bytes, length, maximumLines), firstLine)
+           : chunk;
+  }
+
+  /**
+   * @return the index after the line ending of the given line, counting from one, which must be
+   *         followed by more lines in the bytes
+   */
+  private static int afterLine(byte[] bytes, int length, int line) {
+    int lines = 0;
+    for (int i = 0; i < length; i++) {
+      final byte b = bytes[i];
+      if (b == '\n' || b == '\r') {
+        if (b == '\r' && i + 1 < length && bytes[i + 1] == '\n') {
+          i++;
+        }
+        if (++lines == line) {
+          return i + 1;
+        }
+      }
+    }
+    return length;
+  }
+
+  /**
+   * @return the index after the last line ending in the bytes, or -1 if there is none; a
+   *         carriage return at the very end is not taken as one, as a line feed may follow it
+   */
+  private static int afterLastLineEnd(byte[] bytes, int length) {
+    for (int i = length - 1; i >= 0; i--) {
+      final byte b = bytes[i];
+      if (b == '\n' || (b == '\r' && i < length - 1)) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Reads the bytes at the position of the file, until they are all read or the file ends.
+   *
+   * @return the number of bytes read
+   */
+  private static int read(FileChannel channel, long position, byte[] bytes, int offset,
+                          int length) throws IOException {
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position() - offset) < 0) {
+        break;
+      }
+    }
+    return buffer.position() - offset;
+  }
+
+  /**
+   * Finds the start of the first line which starts after the offset.
+   *
+   * @return the offset of the line's start, or -1 if no line starts after the offset before the
+   *         end of the range
+   */
+  private static long nextLineStart(FileChannel channel, long from, long end) throws IOException {
+    final byte[] bytes = new byte[SPLIT_SCAN_SIZE];
+    boolean carriageReturn = false;
+    for (long position = from; position < end; ) {
+      final int length =
+          read(channel, position, bytes, 0, (int) Math.min(bytes.length, end - position));
+      if (length == 0) {
+        return -1;
+      }
+      for (int i = 0; i < length; i++) {
+        if (carriageReturn) {
+          return bytes[i] == '\n' ? position + i + 1 : position + i;
+        }
+        if (bytes[i] == '\n') {
+          return position + i + 1;
+        }
+        carriageReturn = bytes[i] == '\r';
+      }
+      position += length;
+    }
+    return -1;
+  }
+
+  private static void closeQuietly(FileChannel channel) {
+    if (channel != null) {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * Splits a list of files in half until one is left, which it then splits by its bytes. Once it
+   * has started on its first file, it splits off the rest of that file.
+   */
+  private final class FilesSpliterator implements Spliterator<String> {
+
+    private final List<File> fileList;
+    private int from;
+    private final int to;
+    private RangeSpliterator current;
+
+    FilesSpliterator(List<File> fileList, int from, int to) {
+      this.fileList = fileList;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+      while (from < to) {
+        if (current == null) {
+          current = new RangeSpliterator(fileList.get(from), 0, fileList.get(from).length());
+        }
+        if (current.tryAdvance(action)) {
+          return true;
+        }
+        current = null;
+        from++;
+      }
+      return false;
+    }
+
+    @Override
+    public Spliterator<String> trySplit() {
+      if (to - from > 1) {
+        if (current != null) {
+          final Spliterator<String> prefix = current;
+          current = null;
+          from++;
+          return prefix;
+        }
+        final int middle = (from + to) >>> 1;
+        final Spliterator<String> prefix = new FilesSpliterator(fileList, from, middle);
+        from = middle;
+        return prefix;
+      }
+      if (to - from == 1) {
+        if (current == null) {
+          current = new RangeSpliterator(fileList.get(from), 0, fileList.get(from).length());
+        }
+        return current.trySplit();
+      }
+      return null;
+    }
+
+    /**
+     * @return the number of bytes left, which is more than the lines left
+     */
+    @Override
+    public long estimateSize() {
+      long bytes = current == null ? 0 : current.estimateSize();
+      for (int i = current == null ? from : from + 1; i < to; i++) {
+        bytes += fileList.get(i).length();
+      }
+      return bytes;
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | NONNULL | IMMUTABLE;
+    }
+  }
+
+  /**
+   * Reads the lines of a range of a file's bytes, which starts at the start of a line and ends at
+   * the end of one, chunk by chunk through a channel of its own, opened once it is advanced. Until
+   * then it splits off the first half of its range, up to the first line start after the middle.
+   */
+  private final class RangeSpliterator implements Spliterator<String> {
+
+    private final File file;
+    private long start;
+    private final long end;
+    private FileChannel channel;
+    private Iterator<String> lines = Collections.emptyIterator();
+    private boolean closed = false;
+
+    RangeSpliterator(File file, long start, long end) {
+      this.file = file;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+      while (!lines.hasNext()) {
+        if (closed || start >= end) {
+          close();
+          return false;
+        }
+        try {
+          if (channel == null) {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+          }
+          final LineChunk chunk = readChunk(channel, start, end, 0);
+          if (chunk.length() == 0) {
+            close();
+            return false;
+          }
+          start += chunk.length();
+          lines = chunk.iterator();
+        } catch (IOException e) {
+          System.err.println("Unable to read file: \"" + file.getName() + "\"");
+          e.printStackTrace();
+          close();
+          return false;
+        }
+      }
+      action.accept(lines.next());
+      return true;
+    }
+
+    @Override
+    public Spliterator<String> trySplit() {
+      if (channel != null || closed || end - start < 2L * chunkSize) {
+        return null;
+      }
+      final long split;
+      try (FileChannel scan = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        split = nextLineStart(scan, start + (end - start) / 2, end);
+      } catch (IOException e) {
+        return null;
+      }
+      if (split < 0 || split >= end) {
+        return null;
+      }
+      final Spliterator<String> prefix = new RangeSpliterator(file, start, split);
+      start = split;
+      return prefix;
+    }
+
+    /**
+     * @return the number of bytes left, which is more than the lines left
+     */
+    @Override
+    public long estimateSize() {
+      return Math.max(0, end - start);
+    }
+
+    @Override
+    public int characteristics() {
+      return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    private void close() {
+      closed = true;
+      closeQuietly(channel);
+      channel = null;
+    }
+  }
+}
@@ -9,11 +9,26 @@
  *   <dd>Uses {@link System#in} {@code (stdin)} as a {@link FileLineSource}.</dd>
  *   <dt>{@link FileLineSource}</dt>
  *   <dd>Reads a default file system file as a {@link FileLineSource}.</dd>
+ *   <dt>{@link MappedFileLineSource}</dt>
+ *   <dd>Memory maps a default file system file, finding lines on its bytes and decoding each line
+ *   from UTF-8 only when it is iterated.</dd>
  *   <dt>{@link DirectoryLineSource}</dt>
  *   <dd>Reads all the files in the directory and unifies each valid {@link FileLineSource}
  *        as a {@link LineSource}.</dd>
  *   <dt>{@link NoneToManyLineSource}</dt>
  *   <dd>Unifies a list of file paths as a {@link LineSource} of files or directories.</dd>
+ *   <dt>{@link ReadAheadLineSource}</dt>
+ *   <dd>Reads a list of files in order while opening and reading the next few of them on
+ *   background threads into bounded buffers.</dd>
+ *   <dt>{@link FollowingLineSource}</dt>
+ *   <dd>Follows files and directories as they grow, reading only the lines appended to each file
+ *   since it was last read, and waits for more until interrupted. Its checkpoint is how far each
+ *   file's lines have been iterated.</dd>
+ *   <dt>{@link SplittableLineSource}</dt>
+ *   <dd>Reads files in chunks of whole lines, each numbered by the lines before it, to be decoded
+ *   on other threads, and splits them at line starts for parallel streams.</dd>
+ *   <dt>{@link LineChunk}</dt>
+ *   <dd>Is a chunk of a file's lines as bytes, decoded only when iterated.</dd>
  *   <dt>{@link ReaderLineSource}</dt>
  *   <dd>Is the implementation superclass of {@link FileLineSource} and
  *   {@link InputStreamLineSource}.</dd>
@@ -0,0 +1,47 @@
+package lamblin.common.wordcount;
+
+import java.util.Arrays;
+
+/**
+ * A set of small non-negative {@code int} ids, such as those of a {@link WordTable}, which is
+ * cleared in O(1) by starting a new generation rather than by clearing its contents. Each id's
+ * slot is stamped with the generation in which it was last added, so it is in the set only if
+ * that is the current generation. This counts the unique words of a message without a
+ * {@link java.util.HashSet} of the words.
+ * <p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class GenerationSet {
+
+  private int[] stamps = new int[1024];
+  private int generation = 1;
+
+  /**
+   * Empties the set by starting a new generation.
+   */
+  public void clear() {
+    if (++generation == 0) {
+      // After the generations wrap around, old stamps could match again, so really clear them.
+      Arrays.fill(stamps, 0);
+      generation = 1;
+    }
+  }
+
+  /**
+   * @param id the id to add
+   * @return {@code true} if the id was not already in the set, {@code false} if it was
+   */
+  public boolean add(int id) {
+    if (id >= stamps.length) {
+      stamps = Arrays.copyOf(stamps, Math.max(stamps.length * 2, id + 1));
+    }
+    if (stamps[id] == generation) {
+      return false;
+    }
+    stamps[id] = generation;
+    return true;
+  }
+}
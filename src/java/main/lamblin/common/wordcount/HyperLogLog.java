@@ -0,0 +1,135 @@
+package lamblin.common.wordcount;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct words added, from their hashes, in a fixed 2<sup>p</sup> bytes
+ * by the HyperLogLog algorithm of Flajolet, Fusy, Gandouet and Meunier. The top p bits of each
+ * hash pick a register, which keeps the most leading zeros plus one seen in the rest of the bits
+ * of the hashes it was picked for. The harmonic mean of the registers then estimates the number
+ * of distinct hashes with a standard error of about 1.04 / sqrt(2<sup>p</sup>), which is 0.81% for
+ * the default precision of 14. Few distinct hashes are counted by the registers left at zero
+ * instead, and as the hashes are 32 bits, the estimate is corrected for their collisions as it
+ * nears 2<sup>32</sup>.
+ * <p>
+ * The hashes given are those of a {@link WordTable} or an {@link OffHeapWordTable}, which are
+ * mixed again here, so the same table's hashes must be given to the sketches that are merged.
+ * Sketches of the same precision merge by taking the largest of each register, in any order, so
+ * each thread may add to its own sketch, to be merged without locks when the estimate is wanted.
+ * </p><p>
+ * This is not concurrent, though a sketch may be merged into another while it is being added to,
+ * which at worst misses the hashes added meanwhile.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class HyperLogLog {
+
+  /**
+   * The default precision, of 2<sup>14</sup> registers in 16 kilobytes.
+   */
+  public static final int DEFAULT_PRECISION = 14;
+  public static final int MINIMUM_PRECISION = 4;
+  public static final int MAXIMUM_PRECISION = 18;
+
+  private static final double TWO_TO_32 = 4294967296.0;
+
+  private final int precision;
+  private final byte[] registers;
+
+  /**
+   * @param precision the number of bits of each hash picking its register, from
+   *                  {@link #MINIMUM_PRECISION} to {@link #MAXIMUM_PRECISION}
+   */
+  public HyperLogLog(int precision) {
+    if (precision < MINIMUM_PRECISION || precision > MAXIMUM_PRECISION) {
+      throw new IllegalArgumentException("The precision must be from " + MINIMUM_PRECISION
+                                         + " to " + MAXIMUM_PRECISION + ".");
+    }
+    this.precision = precision;
+    registers = new byte[1 << precision];
+  }
+
+  /**
+   * @return the number of bits of each hash picking its register
+   */
+  public int precision() {
+    return precision;
+  }
+
+  /**
+   * Adds the hash of a word. Adding the same hash again changes nothing.
+   *
+   * @param hash the spread hash of a word
+   */
+  public void add(int hash) {
+    // Murmur3's finalizer, so that every bit of the hash depends on every bit of the word's hash.
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    hash *= 0xC2B2AE35;
+    hash ^= hash >>> 16;
+    final int register = hash >>> (32 - precision);
+    // A bit set just past the rest of the bits bounds the rank when they are all zero.
+    final byte rank =
+        (byte) (Integer.numberOfLeadingZeros((hash << precision) | (1 << (precision - 1))) + 1);
+    if (registers[register] < rank) {
+      registers[register] = rank;
+    }
+  }
+
+  /**
+   * Adds every hash added to the other sketch, as if they had been added to this one.
+   *
+   * @param other a sketch of the same precision
+   */
+  public void merge(HyperLogLog other) {
+    if (other.precision != precision) {
+      throw new IllegalArgumentException("Only sketches of the same precision can be merged.");
+    }
+    for (int i = 0; i < registers.length; i++) {
+      final byte rank = other.registers[i];
+      if (registers[i] < rank) {
+        registers[i] = rank;
+      }
+    }
+  }
+
+  /**
+   * @return the estimated number of distinct hashes added
+   */
+  public long estimate() {
+    final int m = registers.length;
+    double sum = 0;
+    int zeros = 0;
+    for (byte rank : registers) {
+      sum += 1.0 / (1L << rank);
+      if (rank == 0) {
+        zeros++;
+      }
+    }
+    final double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709
+                                                                     : 0.7213 / (1 + 1.079 / m);
+    double estimate = alpha * m * m / sum;
+    if (estimate <= 2.5 * m && zeros > 0) {
+      estimate = m * Math.log((double) m / zeros);
+    } else if (estimate > TWO_TO_32 / 30 && estimate < TWO_TO_32) {
+      estimate = -TWO_TO_32 * Math.log(1 - estimate / TWO_TO_32);
+    }
+    return Math.round(estimate);
+  }
+
+  /**
+   * Forgets every hash added.
+   */
+  public void clear() {
+    Arrays.fill(registers, (byte) 0);
+  }
+
+  /**
+   * @return the registers, which are written to and read from checkpoints as they are
+   */
+  public byte[] registers() {
+    return registers;
+  }
+}
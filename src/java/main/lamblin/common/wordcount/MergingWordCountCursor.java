@@ -0,0 +1,95 @@
+package lamblin.common.wordcount;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted runs of word counts into one, summing the counts of a word found in more than one
+ * run, with a heap of the runs ordered by their current words. Each run is read once, in order.
+ *
+ * @author Daniel Lamblin
+ */
+public class MergingWordCountCursor implements WordCountCursor {
+
+  private final List<WordCountCursor> runs;
+  private final PriorityQueue<WordCountCursor> heads;
+  private boolean started = false;
+  private String word;
+  private long count;
+
+  /**
+   * @param runs the runs to merge, none of which has been stepped through yet; they are closed
+   *             with this
+   */
+  public MergingWordCountCursor(List<WordCountCursor> runs) {
+    this.runs = runs;
+    heads = new PriorityQueue<>(
+        Math.max(1, runs.size()), Comparator.comparing(WordCountCursor::word));
+  }
+
+  @Override
+  public boolean next() throws IOException {
+    if (!started) {
+      started = true;
+      for (WordCountCursor run : runs) {
+        if (run.next()) {
+          heads.add(run);
+        }
+      }
+    }
+    final WordCountCursor first = heads.poll();
+    if (first == null) {
+      word = null;
+      return false;
+    }
+    word = first.word();
+    count = first.count();
+    advance(first);
+    while (!heads.isEmpty() && heads.peek().word().equals(word)) {
+      final WordCountCursor same = heads.poll();
+      count += same.count();
+      advance(same);
+    }
+    return true;
+  }
+
+  private void advance(WordCountCursor run) throws IOException {
+    if (run.next()) {
+      heads.add(run);
+    }
+  }
+
+  @Override
+  public String word() {
+    return word;
+  }
+
+  @Override
+  public long count() {
+    return count;
+  }
+
+  /**
+   * Closes all of the runs, even if closing one of them fails.
+   *
+   * @throws IOException the first failure to close a run
+   */
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for (WordCountCursor run : runs) {
+      try {
+        run.close();
+      } catch (IOException e) {
+        if (failure == null) {
+          failure = e;
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+}
@@ -0,0 +1,521 @@
+package lamblin.common.wordcount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import lamblin.common.output.LineBuilder;
+
+/**
+ * Canonicalizes words to small {@code int} ids and counts them like the {@link WordTable}, but
+ * keeps the words' UTF-8 bytes off the heap, in an arena of direct {@link ByteBuffer} chunks. The
+ * heap holds only fixed-size entries for each word: its address and length in the arena, its
+ * hash, its {@code long} count and its hash table slots, so a vocabulary of hundreds of millions
+ * of words costs the garbage collector a few large arrays rather than as many {@link String}s.
+ * <p>
+ * Words are added from slices of lines, which are encoded into a reusable buffer, or copied from
+ * another table, and nothing is allocated for a word already in the table. The words are ordered
+ * as {@link String#compareTo} would order them, and can be written out as UTF-8 without being
+ * decoded.
+ * </p><p>
+ * An unpaired surrogate is kept as the three bytes UTF-8 would give its char, as in WTF-8, rather
+ * than as the '?' of {@link String#getBytes}, so a word with one is not counted as the word with a
+ * '?' in its place. It is only written as '?' when the word is appended to lines.
+ * </p><p>
+ * The chunks of the arena double from 64KB up to 64MB each. Direct buffers count against
+ * {@code -XX:MaxDirectMemorySize}, which defaults to the maximum heap size, and their memory is
+ * only freed once the garbage collector finds a table unreachable.
+ * </p><p>
+ * This is not concurrent, though an unchanging table may be read by many threads at once, except
+ * by {@link #writeWord}.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class OffHeapWordTable {
+
+  /**
+   * Names how {@link #hash(byte[], int)} hashes words, so hashes kept elsewhere, as in a
+   * checkpoint, can be told apart from those of another table.
+   */
+  public static final String HASH_FAMILY = "utf8-31-9e3779b9";
+
+  private static final int INITIAL_CAPACITY = 1 << 10;
+  private static final int FIRST_CHUNK_SIZE = 1 << 16;
+  private static final int MAXIMUM_CHUNK_SIZE = 1 << 26;
+  private static final int HASH_MULTIPLIER = 0x9E3779B9;
+  private static final int EMPTY = -1;
+
+  private ByteBuffer[] chunks = new ByteBuffer[0];
+  private ByteBuffer chunk = null;
+  private int[] slots = new int[INITIAL_CAPACITY];
+  /**
+   * The index of each word's chunk in the high 32 bits and its position in that chunk in the low.
+   */
+  private long[] addresses = new long[INITIAL_CAPACITY / 2];
+  private int[] lengths = new int[INITIAL_CAPACITY / 2];
+  private int[] hashes = new int[INITIAL_CAPACITY / 2];
+  private long[] counts = new long[INITIAL_CAPACITY / 2];
+  private int size = 0;
+  private byte[] scratch = new byte[256];
+
+  public OffHeapWordTable() {
+    Arrays.fill(slots, EMPTY);
+  }
+
+  /**
+   * Hashes UTF-8 bytes, spreading the bits so that both the low bits used for the slots of a
+   * table and the high bits that may partition words between tables are well mixed.
+   *
+   * @param bytes the bytes of a word
+   * @param length the number of bytes from the start
+   * @return the spread hash of the word
+   */
+  public static int hash(byte[] bytes, int length) {
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + bytes[i];
+    }
+    return hash * HASH_MULTIPLIER;
+  }
+
+  /**
+   * Hashes a word the same way as its UTF-8 bytes are hashed in a table.
+   *
+   * @param word the word to hash
+   * @return the spread hash of the word
+   */
+  public static int hash(String word) {
+    final byte[] bytes = new byte[3 * word.length()];
+    return hash(bytes, encode(word, 0, word.length(), bytes));
+  }
+
+  /**
+   * Adds to the count of the word in a slice of the text, adding the word if it was not counted
+   * yet.
+   *
+   * @param text the text holding the word
+   * @param start the index of the first character of the word
+   * @param end the index after the last character of the word
+   * @param count the number of times the word was counted
+   * @return the id of the word
+   */
+  public int add(String text, int start, int end, long count) {
+    final int length = encode(text, start, end);
+    final int hash = hash(scratch, length);
+    final int slot = find(hash, length);
+    final int id = slots[slot];
+    if (id != EMPTY) {
+      counts[id] += count;
+      return id;
+    }
+    return insert(slot, scratch, length, hash, count);
+  }
+
+  /**
+   * Adds to the count of a word given as its UTF-8 bytes, adding the word if it was not counted
+   * yet, without decoding it.
+   *
+   * @param bytes the UTF-8 bytes of the word
+   * @param length the number of bytes of the word from the start of {@code bytes}
+   * @param count the number of times the word was counted
+   * @return the id of the word
+   */
+  public int add(byte[] bytes, int length, long count) {
+    ensureScratch(length);
+    System.arraycopy(bytes, 0, scratch, 0, length);
+    final int hash = hash(scratch, length);
+    final int slot = find(hash, length);
+    final int id = slots[slot];
+    if (id != EMPTY) {
+      counts[id] += count;
+      return id;
+    }
+    return insert(slot, scratch, length, hash, count);
+  }
+
+  /**
+   * Adds to the count of a word in another table, adding the word if it was not counted yet.
+   *
+   * @param other the table holding the word
+   * @param otherId the id of the word in the other table
+   * @param count the number of times the word was counted
+   * @return the id of the word in this table
+   */
+  public int add(OffHeapWordTable other, int otherId, long count) {
+    final int length = other.lengths[otherId];
+    ensureScratch(length);
+    other.copyTo(otherId, scratch);
+    final int hash = other.hashes[otherId];
+    final int slot = find(hash, length);
+    final int id = slots[slot];
+    if (id != EMPTY) {
+      counts[id] += count;
+      return id;
+    }
+    return insert(slot, scratch, length, hash, count);
+  }
+
+  /**
+   * @param word the word to look up
+   * @return the id of the word, or -1 if it was never added
+   */
+  public int idOf(String word) {
+    final int length = encode(word, 0, word.length());
+    return slots[find(hash(scratch, length), length)];
+  }
+
+  /**
+   * @return the number of distinct words added, each of which has an id less than this
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param id the id of a word
+   * @return the spread hash of the word's UTF-8 bytes, as given by {@link #hash(byte[], int)}
+   */
+  public int hash(int id) {
+    return hashes[id];
+  }
+
+  /**
+   * @param id the id of a word
+   * @return the number of times the word was counted
+   */
+  public long count(int id) {
+    return counts[id];
+  }
+
+  /**
+   * Decodes a word onto the heap.
+   *
+   * @param id the id of a word
+   * @return the word
+   */
+  public String word(int id) {
+    final byte[] bytes = new byte[lengths[id]];
+    copyTo(id, bytes);
+    return decode(bytes);
+  }
+
+  /**
+   * @param id the id of a word
+   * @return the length of the word in UTF-16 {@code char}s, as {@link String#length()} would give
+   */
+  public int charLength(int id) {
+    final ByteBuffer buffer = chunks[(int) (addresses[id] >>> 32)];
+    final int position = (int) addresses[id];
+    int chars = 0;
+    for (int i = position; i < position + lengths[id]; i++) {
+      final int b = buffer.get(i) & 0xFF;
+      if ((b & 0xC0) != 0x80) {
+        // Each leading byte starts a char, and a four byte sequence needs a surrogate pair.
+        chars += b >= 0xF0 ? 2 : 1;
+      }
+    }
+    return chars;
+  }
+
+  /**
+   * @param id the id of a word
+   * @return the number of UTF-8 bytes of the word
+   */
+  public int byteLength(int id) {
+    return lengths[id];
+  }
+
+  /**
+   * Writes the UTF-8 bytes of a word, with any unpaired surrogate as the three bytes of its char,
+   * so that adding the bytes back gives the same word.
+   *
+   * @param id the id of a word
+   * @param out the stream to write to
+   * @throws IOException if the stream cannot be written to
+   */
+  public void writeWord(int id, OutputStream out) throws IOException {
+    ensureScratch(lengths[id]);
+    copyTo(id, scratch);
+    out.write(scratch, 0, lengths[id]);
+  }
+
+  /**
+   * Appends the UTF-8 bytes of a word to the lines, with '?' for each unpaired surrogate, as
+   * {@link LineBuilder#append(CharSequence)} would. Unlike {@link #writeWord}, this shares no
+   * scratch buffer, so many threads may append the words of a table at once while it is unchanged.
+   *
+   * @param id the id of a word
+   * @param lines the lines to append to
+   */
+  public void appendWord(int id, LineBuilder lines) {
+    final ByteBuffer buffer = chunks[(int) (addresses[id] >>> 32)];
+    final int position = (int) addresses[id];
+    for (int i = position; i < position + lengths[id]; i++) {
+      final byte b = buffer.get(i);
+      if (b == (byte) 0xED && (buffer.get(i + 1) & 0xFF) >= 0xA0) {
+        lines.write('?');
+        i += 2;
+      } else {
+        lines.write(b);
+      }
+    }
+  }
+
+  /**
+   * Compares two words in the order of {@link String#compareTo}, which is that of their UTF-16
+   * chars. This is the order of their UTF-8 bytes, except that chars from U+E000 to U+FFFF come
+   * after the surrogate pairs of supplementary characters, where their leading bytes come before.
+   * Where an unpaired surrogate meets a supplementary character, the words are decoded and
+   * compared as {@link String}s, as the order then depends on the chars after them.
+   *
+   * @param a the table of the first word
+   * @param aId the id of the first word
+   * @param b the table of the second word
+   * @param bId the id of the second word
+   * @return less than, equal to, or greater than zero as the first word is less than, equal to or
+   *         greater than the second
+   */
+  public static int compare(OffHeapWordTable a, int aId, OffHeapWordTable b, int bId) {
+    final ByteBuffer aBuffer = a.chunks[(int) (a.addresses[aId] >>> 32)];
+    final ByteBuffer bBuffer = b.chunks[(int) (b.addresses[bId] >>> 32)];
+    final int aPosition = (int) a.addresses[aId];
+    final int bPosition = (int) b.addresses[bId];
+    final int aLength = a.lengths[aId];
+    final int bLength = b.lengths[bId];
+    final int length = Math.min(aLength, bLength);
+    for (int i = 0; i < length; i++) {
+      final int aByte = aBuffer.get(aPosition + i) & 0xFF;
+      final int bByte = bBuffer.get(bPosition + i) & 0xFF;
+      if (aByte != bByte) {
+        if (aByte >= 0xEE && bByte >= 0xEE && (aByte >= 0xF0) != (bByte >= 0xF0)) {
+          return aByte >= 0xF0 ? -1 : 1;
+        }
+        if (aByte == 0xED && bByte >= 0xF0 && (aBuffer.get(aPosition + i + 1) & 0xFF) >= 0xA0
+            || bByte == 0xED && aByte >= 0xF0 && (bBuffer.get(bPosition + i + 1) & 0xFF) >= 0xA0) {
+          return a.word(aId).compareTo(b.word(bId));
+        }
+        return aByte - bByte;
+      }
+    }
+    return aLength - bLength;
+  }
+
+  /**
+   * Sorts the ids of all the words by {@link #compare}.
+   *
+   * @return the ids of the words in order
+   */
+  public int[] sortedIds() {
+    return sortedIds(new int[0]);
+  }
+
+  /**
+   * Sorts the ids of the words added since some were sorted, and merges them with those, so that
+   * only the new words are sorted.
+   *
+   * @param sorted the ids from 0 to less than its length, sorted by {@link #compare}
+   * @return the ids of all the words in order
+   */
+  public int[] sortedIds(int[] sorted) {
+    final int from = sorted.length;
+    final int[] added = new int[size - from];
+    for (int i = 0; i < added.length; i++) {
+      added[i] = from + i;
+    }
+    mergeSort(added, new int[added.length], 0, added.length);
+    final int[] ids = new int[size];
+    int left = 0;
+    int right = 0;
+    for (int i = 0; i < size; i++) {
+      if (right >= added.length
+          || (left < from && compare(this, sorted[left], this, added[right]) <= 0)) {
+        ids[i] = sorted[left++];
+      } else {
+        ids[i] = added[right++];
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Removes every word, letting the arena's chunks go and keeping the capacity of the arrays.
+   */
+  public void clear() {
+    chunks = new ByteBuffer[0];
+    chunk = null;
+    Arrays.fill(slots, EMPTY);
+    size = 0;
+  }
+
+  private void mergeSort(int[] ids, int[] buffer, int from, int to) {
+    if (to - from < 2) {
+      return;
+    }
+    final int middle = (from + to) >>> 1;
+    mergeSort(ids, buffer, from, middle);
+    mergeSort(ids, buffer, middle, to);
+    if (compare(this, ids[middle - 1], this, ids[middle]) <= 0) {
+      return;
+    }
+    System.arraycopy(ids, from, buffer, from, to - from);
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < middle && compare(this, buffer[left], this, buffer[right]) <= 0)) {
+        ids[i] = buffer[left++];
+      } else {
+        ids[i] = buffer[right++];
+      }
+    }
+  }
+
+  private void ensureScratch(int length) {
+    if (scratch.length < length) {
+      scratch = new byte[Math.max(length, scratch.length * 2)];
+    }
+  }
+
+  private void copyTo(int id, byte[] destination) {
+    final ByteBuffer buffer = chunks[(int) (addresses[id] >>> 32)].duplicate();
+    buffer.position((int) addresses[id]);
+    buffer.get(destination, 0, lengths[id]);
+  }
+
+  /**
+   * Encodes a slice of text as UTF-8 into the scratch buffer.
+   *
+   * @return the number of bytes encoded
+   */
+  private int encode(String text, int start, int end) {
+    ensureScratch(3 * (end - start));
+    return encode(text, start, end, scratch);
+  }
+
+  /**
+   * Encodes a slice of text as UTF-8, with each unpaired surrogate as the three bytes of its char.
+   *
+   * @param bytes receives the bytes from index 0, with room for three for each char
+   * @return the number of bytes encoded
+   */
+  private static int encode(String text, int start, int end, byte[] bytes) {
+    int length = 0;
+    for (int i = start; i < end; i++) {
+      final char c = text.charAt(i);
+      if (c < 0x80) {
+        bytes[length++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[length++] = (byte) (0xC0 | (c >> 6));
+        bytes[length++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < end
+                 && Character.isLowSurrogate(text.charAt(i + 1))) {
+        final int codePoint = Character.toCodePoint(c, text.charAt(++i));
+        bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+        bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else {
+        bytes[length++] = (byte) (0xE0 | (c >> 12));
+        bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        bytes[length++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    return length;
+  }
+
+  /**
+   * Decodes the bytes of a word, including any unpaired surrogates, which a UTF-8 decoder would
+   * replace.
+   */
+  private static String decode(byte[] bytes) {
+    final char[] chars = new char[bytes.length];
+    int length = 0;
+    for (int i = 0; i < bytes.length; ) {
+      final int b = bytes[i] & 0xFF;
+      if (b < 0x80) {
+        chars[length++] = (char) b;
+        i++;
+      } else if (b < 0xE0) {
+        chars[length++] = (char) (((b & 0x1F) << 6) | (bytes[i + 1] & 0x3F));
+        i += 2;
+      } else if (b < 0xF0) {
+        chars[length++] = (char) (((b & 0x0F) << 12) | ((bytes[i + 1] & 0x3F) << 6)
+                                  | (bytes[i + 2] & 0x3F));
+        i += 3;
+      } else {
+        final int codePoint = ((b & 0x07) << 18) | ((bytes[i + 1] & 0x3F) << 12)
+                              | ((bytes[i + 2] & 0x3F) << 6) | (bytes[i + 3] & 0x3F);
+        length += Character.toChars(codePoint, chars, length);
+        i += 4;
+      }
+    }
+    return new String(chars, 0, length);
+  }
+
+  /**
+   * @return the slot holding the word of the scratch buffer, or else the empty slot for it
+   */
+  private int find(int hash, int length) {
+    final int mask = slots.length - 1;
+    int slot = hash & mask;
+    for (int id = slots[slot]; id != EMPTY; id = slots[slot]) {
+      if (hashes[id] == hash && lengths[id] == length && scratchEquals(id, length)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private boolean scratchEquals(int id, int length) {
+    final ByteBuffer buffer = chunks[(int) (addresses[id] >>> 32)];
+    final int position = (int) addresses[id];
+    for (int i = 0; i < length; i++) {
+      if (buffer.get(position + i) != scratch[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int insert(int slot, byte[] bytes, int length, int hash, long count) {
+    if (chunk == null || chunk.remaining() < length) {
+      final int chunkSize = chunk == null ? FIRST_CHUNK_SIZE
+                            : Math.min(MAXIMUM_CHUNK_SIZE, chunk.capacity() * 2);
+      chunk = ByteBuffer.allocateDirect(Math.max(chunkSize, length));
+      chunks = Arrays.copyOf(chunks, chunks.length + 1);
+      chunks[chunks.length - 1] = chunk;
+    }
+    final int id = size++;
+    if (id == addresses.length) {
+      addresses = Arrays.copyOf(addresses, id * 2);
+      lengths = Arrays.copyOf(lengths, id * 2);
+      hashes = Arrays.copyOf(hashes, id * 2);
+      counts = Arrays.copyOf(counts, id * 2);
+    }
+    addresses[id] = ((long) (chunks.length - 1) << 32) | chunk.position();
+    lengths[id] = length;
+    hashes[id] = hash;
+    counts[id] = count;
+    chunk.put(bytes, 0, length);
+    slots[slot] = id;
+    if (size * 2 > slots.length) {
+      rehash();
+    }
+    return id;
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    Arrays.fill(slots, EMPTY);
+    final int mask = slots.length - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hashes[id] & mask;
+      while (slots[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id;
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package lamblin.common.wordcount;
+
+import java.util.Arrays;
+
+/**
+ * Counts the most frequent words in a fixed number of counters, by the Space-Saving algorithm of
+ * Metwally, Agrawal and El Abbadi. While there is a free counter, a new word takes it. Once they
+ * are all taken, a new word takes over the counter with the smallest count, keeping that count
+ * as its error and adding to it. So a word's count is never less than the number of times it was
+ * added, and at most its error more, and any word added more times than the smallest count is
+ * sure to have a counter.
+ * <p>
+ * Like the {@link WordTable}, the words are looked up straight from slices of lines in an open
+ * addressing hash table with linear probing, whose slots hold the ids of the counters. A word
+ * evicted from its counter is removed by shifting back the slots after it. The counters are kept
+ * in a binary min-heap by count, so the smallest is found at once, and adding to a count moves
+ * its counter down the heap. A {@link String} is made only for a word taking over a counter.
+ * </p><p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class SpaceSavingTable {
+
+  private static final int EMPTY = -1;
+
+  private final int capacity;
+  private final int[] slots;
+  private final String[] words;
+  private final int[] hashes;
+  private final long[] counts;
+  private final long[] errors;
+  /**
+   * The ids of the counters in a binary min-heap by count.
+   */
+  private final int[] heap;
+  /**
+   * The position of each counter's id in the heap.
+   */
+  private final int[] positions;
+  private int size = 0;
+
+  /**
+   * @param capacity the number of counters, which is the most words held at once
+   */
+  public SpaceSavingTable(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A space saving table needs at least 1 counter.");
+    }
+    this.capacity = capacity;
+    slots = new int[Integer.highestOneBit(capacity) * 4];
+    Arrays.fill(slots, EMPTY);
+    words = new String[capacity];
+    hashes = new int[capacity];
+    counts = new long[capacity];
+    errors = new long[capacity];
+    heap = new int[capacity];
+    positions = new int[capacity];
+  }
+
+  /**
+   * Adds to the count of the word in a slice of the text, which takes a counter if it has none.
+   *
+   * @param text the text holding the word
+   * @param start the index of the first character of the word
+   * @param end the index after the last character of the word
+   * @param count the number of times the word was counted
+   * @return the id of the word's counter
+   */
+  public int add(String text, int start, int end, long count) {
+    final int hash = WordTable.hash(text, start, end);
+    final int length = end - start;
+    final int mask = slots.length - 1;
+    int slot = hash & mask;
+    for (int id = slots[slot]; id != EMPTY; id = slots[slot]) {
+      final String word = words[id];
+      if (hashes[id] == hash && word.length() == length
+          && text.regionMatches(start, word, 0, length)) {
+        counts[id] += count;
+        siftDown(positions[id]);
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return take(text.substring(start, end), hash, count, 0);
+  }
+
+  /**
+   * Adds to the count and error of the word, which takes a counter if it has none, such as to
+   * merge or restore the counters of another table.
+   *
+   * @param word the word counted
+   * @param count the number of times the word was counted
+   * @param error how much of the count may be an overestimate
+   * @return the id of the word's counter
+   */
+  public int add(String word, long count, long error) {
+    final int id = idOf(word);
+    if (id == EMPTY) {
+      return take(word, WordTable.hash(word), count, error);
+    }
+    counts[id] += count;
+    errors[id] += error;
+    siftDown(positions[id]);
+    return id;
+  }
+
+  /**
+   * @param word the word to look up
+   * @return the id of the word's counter, or -1 if it has none
+   */
+  public int idOf(String word) {
+    final int hash = WordTable.hash(word);
+    final int mask = slots.length - 1;
+    int slot = hash & mask;
+    for (int id = slots[slot]; id != EMPTY; id = slots[slot]) {
+      if (hashes[id] == hash && words[id].equals(word)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return EMPTY;
+  }
+
+  /**
+   * @return the number of counters taken, each of which has an id less than this
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of counters
+   */
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the smallest count once every counter is taken, which is the most that any word
+   *         without a counter could have been added, or else 0
+   */
+  public long minimum() {
+    return size < capacity ? 0 : counts[heap[0]];
+  }
+
+  /**
+   * @param id the id of a counter
+   * @return the word of the counter
+   */
+  public String word(int id) {
+    return words[id];
+  }
+
+  /**
+   * @param id the id of a counter
+   * @return the spread hash of the counter's word, as given by {@link WordTable#hash(String)}
+   */
+  public int hash(int id) {
+    return hashes[id];
+  }
+
+  /**
+   * @param id the id of a counter
+   * @return the count of the counter's word, which is never less than the times it was added
+   */
+  public long count(int id) {
+    return counts[id];
+  }
+
+  /**
+   * @param id the id of a counter
+   * @return the most that the count of the counter's word may be over the times it was added
+   */
+  public long error(int id) {
+    return errors[id];
+  }
+
+  /**
+   * Gives the word a free counter, or else the counter with the smallest count, which is added to
+   * the word's count and error.
+   */
+  private int take(String word, int hash, long count, long error) {
+    final int id;
+    if (size < capacity) {
+      id = size++;
+      counts[id] = count;
+      errors[id] = error;
+      heap[id] = id;
+      positions[id] = id;
+      siftUp(id);
+    } else {
+      id = heap[0];
+      removeSlot(id);
+      errors[id] = counts[id] + error;
+      counts[id] += count;
+      siftDown(0);
+    }
+    words[id] = word;
+    hashes[id] = hash;
+    final int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != EMPTY) {
+      slot = (slot + 1) & mask;
+    }
+    slots[slot] = id;
+    return id;
+  }
+
+  /**
+   * Empties the slot of the counter, then shifts back each slot after it which would no longer be
+   * found past the gap, so that no probe stops early.
+   */
+  private void removeSlot(int id) {
+    final int mask = slots.length - 1;
+    int gap = hashes[id] & mask;
+    while (slots[gap] != id) {
+      gap = (gap + 1) & mask;
+    }
+    for (int slot = (gap + 1) & mask; slots[slot] != EMPTY; slot = (slot + 1) & mask) {
+      final int home = hashes[slots[slot]] & mask;
+      // The slot's id stays if its home lies cyclically after the gap and up to the slot.
+      final boolean stays = gap <= slot ? gap < home && home <= slot : gap < home || home <= slot;
+      if (!stays) {
+        slots[gap] = slots[slot];
+        gap = slot;
+      }
+    }
+    slots[gap] = EMPTY;
+  }
+
+  private void siftUp(int position) {
+    final int id = heap[position];
+    while (position > 0) {
+      final int parent = (position - 1) >>> 1;
+      if (counts[heap[parent]] <= counts[id]) {
+        break;
+      }
+      place(heap[parent], position);
+      position = parent;
+    }
+    place(id, position);
+  }
+
+  private void siftDown(int position) {
+    final int id = heap[position];
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+        child++;
+      }
+      if (counts[id] <= counts[heap[child]]) {
+        break;
+      }
+      place(heap[child], position);
+      position = child;
+    }
+    place(id, position);
+  }
+
+  private void place(int id, int position) {
+    heap[position] = id;
+    positions[id] = position;
+  }
+}
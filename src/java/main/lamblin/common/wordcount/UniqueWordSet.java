@@ -0,0 +1,91 @@
+package lamblin.common.wordcount;
+
+import java.util.Arrays;
+
+/**
+ * A set of the words of one text, each held as the slice of the text where it was first added,
+ * for counting the unique words of a message when the words have no lasting ids to put in a
+ * {@link GenerationSet}, such as those of a {@link SpaceSavingTable}, whose counters may pass to
+ * other words within one message. It is an open addressing hash table with linear probing of the
+ * indexes of the slices, whose slots are stamped with a generation like those of a
+ * {@link GenerationSet}, so that starting the next text empties it in O(1) and allocates nothing.
+ * <p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class UniqueWordSet {
+
+  private int[] slots = new int[64];
+  private int[] stamps = new int[64];
+  private int[] starts = new int[32];
+  private int[] ends = new int[32];
+  private int[] hashes = new int[32];
+  private int generation = 1;
+  private int size = 0;
+  private String text = "";
+
+  /**
+   * Empties the set to add the words of another text.
+   *
+   * @param text the text whose words are added next
+   */
+  public void reset(String text) {
+    this.text = text;
+    size = 0;
+    if (++generation == 0) {
+      // After the generations wrap around, old stamps could match again, so really clear them.
+      Arrays.fill(stamps, 0);
+      generation = 1;
+    }
+  }
+
+  /**
+   * @param start the index of the first character of the word in the text
+   * @param end the index after the last character of the word
+   * @return {@code true} if the word was not already in the set, {@code false} if it was
+   */
+  public boolean add(int start, int end) {
+    final int hash = WordTable.hash(text, start, end);
+    final int length = end - start;
+    final int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (stamps[slot] == generation) {
+      final int index = slots[slot];
+      if (hashes[index] == hash && ends[index] - starts[index] == length
+          && text.regionMatches(start, text, starts[index], length)) {
+        return false;
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size == starts.length) {
+      starts = Arrays.copyOf(starts, size * 2);
+      ends = Arrays.copyOf(ends, size * 2);
+      hashes = Arrays.copyOf(hashes, size * 2);
+    }
+    starts[size] = start;
+    ends[size] = end;
+    hashes[size] = hash;
+    stamps[slot] = generation;
+    slots[slot] = size++;
+    if (size * 2 > slots.length) {
+      rehash();
+    }
+    return true;
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    stamps = new int[slots.length];
+    final int mask = slots.length - 1;
+    for (int index = 0; index < size; index++) {
+      int slot = hashes[index] & mask;
+      while (stamps[slot] == generation) {
+        slot = (slot + 1) & mask;
+      }
+      stamps[slot] = generation;
+      slots[slot] = index;
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package lamblin.common.wordcount;
+
+import com.google.common.base.CharMatcher;
+
+/**
+ * Finds the words of a line in place, as the start and end indexes of each word in the line,
+ * without allocating a {@link String} for each word. The words are the same as those given by
+ * {@code Splitter.on(CharMatcher.BREAKING_WHITESPACE).trimResults().omitEmptyStrings()}: the line
+ * is split on breaking whitespace, other whitespace is trimmed off each end of the words, and
+ * empty words are skipped.
+ * <p>
+ * One tokenizer is reset to each line in turn and then stepped through its words:
+ * </p>
+ * <pre>
+ * tokenizer.reset(line);
+ * while (tokenizer.next()) {
+ *   table.add(line, tokenizer.start(), tokenizer.end(), 1);
+ * }
+ * </pre>
+ * <p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class WhitespaceTokenizer {
+
+  private static final boolean[] ASCII_WHITESPACE = new boolean[128];
+
+  static {
+    for (char c = 0; c < ASCII_WHITESPACE.length; c++) {
+      ASCII_WHITESPACE[c] = CharMatcher.WHITESPACE.matches(c);
+    }
+  }
+
+  private String line = "";
+  private int position = 0;
+  private int start = 0;
+  private int end = 0;
+
+  /**
+   * Starts finding the words of a line.
+   *
+   * @param line the line to find words in
+   */
+  public void reset(String line) {
+    this.line = line;
+    position = 0;
+    start = 0;
+    end = 0;
+  }
+
+  /**
+   * Finds the next word of the line.
+   *
+   * @return {@code true} if another word was found, or {@code false} at the end of the line
+   */
+  public boolean next() {
+    final int length = line.length();
+    // Leading whitespace of either kind is split on or trimmed.
+    while (position < length && isWhitespace(line.charAt(position))) {
+      position++;
+    }
+    if (position == length) {
+      return false;
+    }
+    start = position;
+    while (position < length && !isBreakingWhitespace(line.charAt(position))) {
+      position++;
+    }
+    end = position;
+    while (isWhitespace(line.charAt(end - 1))) {
+      end--;
+    }
+    return true;
+  }
+
+  /**
+   * @return the index of the first character of the word found by {@link #next()}
+   */
+  public int start() {
+    return start;
+  }
+
+  /**
+   * @return the index after the last character of the word found by {@link #next()}
+   */
+  public int end() {
+    return end;
+  }
+
+  private static boolean isWhitespace(char c) {
+    return c < ASCII_WHITESPACE.length ? ASCII_WHITESPACE[c] : CharMatcher.WHITESPACE.matches(c);
+  }
+
+  private static boolean isBreakingWhitespace(char c) {
+    // All the ASCII whitespace is breaking whitespace.
+    return c < ASCII_WHITESPACE.length
+           ? ASCII_WHITESPACE[c] : CharMatcher.BREAKING_WHITESPACE.matches(c);
+  }
+}
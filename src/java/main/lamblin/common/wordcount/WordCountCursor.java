@@ -0,0 +1,32 @@
+package lamblin.common.wordcount;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Steps through words and their counts in the natural order of the words, such as a sorted run of
+ * word counts spilled to a file, or a merge of several of these.
+ *
+ * @author Daniel Lamblin
+ */
+public interface WordCountCursor extends Closeable {
+
+  /**
+   * Moves to the next word. This must be called before getting the first word.
+   *
+   * @return {@code true} if there is another word, or {@code false} when all have been stepped
+   *         through
+   * @throws IOException if the words cannot be read
+   */
+  boolean next() throws IOException;
+
+  /**
+   * @return the current word
+   */
+  String word();
+
+  /**
+   * @return the count of the current word
+   */
+  long count();
+}
@@ -0,0 +1,81 @@
+package lamblin.common.wordcount;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads back a run of word counts written by a {@link WordCountRunWriter}, sequentially, from its
+ * start or from any word's position in it.
+ *
+ * @author Daniel Lamblin
+ */
+public class WordCountRunReader implements WordCountCursor {
+
+  private final DataInputStream in;
+  private byte[] bytes = new byte[256];
+  private String word;
+  private long count;
+
+  /**
+   * @param file the file the run was written to
+   * @throws IOException if the file cannot be opened for reading
+   */
+  public WordCountRunReader(File file) throws IOException {
+    this(file, 0);
+  }
+
+  /**
+   * @param file the file the run was written to
+   * @param position where a word of the run starts, as given by
+   *                 {@link WordCountRunWriter#position()}, to read from
+   * @throws IOException if the file cannot be opened for reading
+   */
+  public WordCountRunReader(File file, long position) throws IOException {
+    final FileInputStream input = new FileInputStream(file);
+    try {
+      input.getChannel().position(position);
+    } catch (IOException e) {
+      input.close();
+      throw e;
+    }
+    in = new DataInputStream(new BufferedInputStream(input, WordCountRunWriter.BUFFER_SIZE));
+  }
+
+  @Override
+  public boolean next() throws IOException {
+    final int length;
+    try {
+      length = in.readInt();
+    } catch (EOFException e) {
+      word = null;
+      return false;
+    }
+    if (bytes.length < length) {
+      bytes = new byte[Math.max(length, bytes.length * 2)];
+    }
+    in.readFully(bytes, 0, length);
+    word = new String(bytes, 0, length, StandardCharsets.UTF_8);
+    count = in.readLong();
+    return true;
+  }
+
+  @Override
+  public String word() {
+    return word;
+  }
+
+  @Override
+  public long count() {
+    return count;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,69 @@
+package lamblin.common.wordcount;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a run of word counts, which must be given in the natural order of the words, to a file
+ * sequentially, to be read back by a {@link WordCountRunReader}. Each word is written as the
+ * length of its UTF-8 bytes followed by those bytes, and then its count.
+ *
+ * @author Daniel Lamblin
+ */
+public class WordCountRunWriter implements Closeable {
+
+  static final int BUFFER_SIZE = 1 << 16;
+
+  private final DataOutputStream out;
+  private long position = 0;
+
+  /**
+   * @param file the file to write the run to, which is replaced
+   * @throws IOException if the file cannot be opened for writing
+   */
+  public WordCountRunWriter(File file) throws IOException {
+    out = new DataOutputStream(
+        new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+  }
+
+  /**
+   * @param word the next word of the run, which is not less than the previous one
+   * @param count the count of the word
+   * @throws IOException if the file cannot be written to
+   */
+  public void write(String word, long count) throws IOException {
+    final byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+    write(bytes, bytes.length, count);
+  }
+
+  /**
+   * @param bytes the UTF-8 bytes of the next word of the run
+   * @param length the number of bytes of the word from the start of {@code bytes}
+   * @param count the count of the word
+   * @throws IOException if the file cannot be written to
+   */
+  public void write(byte[] bytes, int length, long count) throws IOException {
+    out.writeInt(length);
+    out.write(bytes, 0, length);
+    out.writeLong(count);
+    position += Integer.BYTES + length + Long.BYTES;
+  }
+
+  /**
+   * @return the number of bytes of the run written so far, which is where the next word starts,
+   *         for a {@link WordCountRunReader} to read from
+   */
+  public long position() {
+    return position;
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
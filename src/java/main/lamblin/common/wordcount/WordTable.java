@@ -0,0 +1,201 @@
+package lamblin.common.wordcount;
+
+import java.util.Arrays;
+
+/**
+ * Canonicalizes words to small {@code int} ids, from 0 in the order the words were first added,
+ * and counts each word. It is an open addressing hash table with linear probing, whose slots hold
+ * the ids, so a word can be looked up straight from a slice of a line, such as one found by a
+ * {@link WhitespaceTokenizer}. A {@link String} is made for a word only the first time the word
+ * is added; adding it again allocates nothing.
+ * <p>
+ * This is not concurrent.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public final class WordTable {
+
+  /**
+   * Names how {@link #hash(String)} hashes words, so hashes kept elsewhere, as in a checkpoint,
+   * can be told apart from those of another table.
+   */
+  public static final String HASH_FAMILY = "utf16-31-9e3779b9";
+
+  private static final int INITIAL_CAPACITY = 1 << 10;
+  private static final int HASH_MULTIPLIER = 0x9E3779B9;
+  private static final int EMPTY = -1;
+
+  private int[] slots = new int[INITIAL_CAPACITY];
+  private String[] words = new String[INITIAL_CAPACITY / 2];
+  private int[] hashes = new int[INITIAL_CAPACITY / 2];
+  private long[] counts = new long[INITIAL_CAPACITY / 2];
+  private int size = 0;
+
+  public WordTable() {
+    Arrays.fill(slots, EMPTY);
+  }
+
+  /**
+   * Spreads the bits of the word's {@link String#hashCode()}, so that both the low bits used for
+   * the slots of a table and the high bits that may partition words between tables are well
+   * mixed.
+   *
+   * @param word the word to hash
+   * @return the spread hash of the word
+   */
+  public static int hash(String word) {
+    return word.hashCode() * HASH_MULTIPLIER;
+  }
+
+  /**
+   * Hashes a slice of text the same way as {@link #hash(String)} would hash it as a word.
+   *
+   * @param text the text holding the word
+   * @param start the index of the first character of the word
+   * @param end the index after the last character of the word
+   * @return the spread hash of the word
+   */
+  public static int hash(CharSequence text, int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + text.charAt(i);
+    }
+    return hash * HASH_MULTIPLIER;
+  }
+
+  /**
+   * Adds to the count of the word in a slice of the text, adding the word if it was not counted
+   * yet.
+   *
+   * @param text the text holding the word
+   * @param start the index of the first character of the word
+   * @param end the index after the last character of the word
+   * @param count the number of times the word was counted
+   * @return the id of the word
+   */
+  public int add(String text, int start, int end, long count) {
+    final int hash = hash(text, start, end);
+    final int length = end - start;
+    final int mask = slots.length - 1;
+    int slot = hash & mask;
+    for (int id = slots[slot]; id != EMPTY; id = slots[slot]) {
+      final String word = words[id];
+      if (hashes[id] == hash && word.length() == length
+          && text.regionMatches(start, word, 0, length)) {
+        counts[id] += count;
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return insert(slot, text.substring(start, end), hash, count);
+  }
+
+  /**
+   * Adds to the count of the word, adding the word if it was not counted yet.
+   *
+   * @param word the word counted
+   * @param count the number of times the word was counted
+   * @return the id of the word
+   */
+  public int add(String word, long count) {
+    final int hash = hash(word);
+    final int mask = slots.length - 1;
+    int slot = hash & mask;
+    for (int id = slots[slot]; id != EMPTY; id = slots[slot]) {
+      if (hashes[id] == hash && words[id].equals(word)) {
+        counts[id] += count;
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return insert(slot, word, hash, count);
+  }
+
+  /**
+   * @param word the word to look up
+   * @return the id of the word, or -1 if it was never added
+   */
+  public int idOf(String word) {
+    final int hash = hash(word);
+    final int mask = slots.length - 1;
+    int slot = hash & mask;
+    for (int id = slots[slot]; id != EMPTY; id = slots[slot]) {
+      if (hashes[id] == hash && words[id].equals(word)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return EMPTY;
+  }
+
+  /**
+   * @return the number of distinct words added, each of which has an id less than this
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param id the id of a word
+   * @return the word
+   */
+  public String word(int id) {
+    return words[id];
+  }
+
+  /**
+   * @param id the id of a word
+   * @return the spread hash of the word, as given by {@link #hash(String)}
+   */
+  public int hash(int id) {
+    return hashes[id];
+  }
+
+  /**
+   * @param id the id of a word
+   * @return the number of times the word was counted
+   */
+  public long count(int id) {
+    return counts[id];
+  }
+
+  /**
+   * Removes every word, keeping the capacity the table has grown to.
+   */
+  public void clear() {
+    Arrays.fill(slots, EMPTY);
+    Arrays.fill(words, 0, size, null);
+    size = 0;
+  }
+
+  private int insert(int slot, String word, int hash, long count) {
+    final int id = size++;
+    if (id == words.length) {
+      words = Arrays.copyOf(words, id * 2);
+      hashes = Arrays.copyOf(hashes, id * 2);
+      counts = Arrays.copyOf(counts, id * 2);
+    }
+    words[id] = word;
+    hashes[id] = hash;
+    counts[id] = count;
+    slots[slot] = id;
+    if (size * 2 > slots.length) {
+      rehash();
+    }
+    return id;
+  }
+
+  private void rehash() {
+    slots = new int[slots.length * 2];
+    Arrays.fill(slots, EMPTY);
+    final int mask = slots.length - 1;
+    for (int id = 0; id < size; id++) {
+      int slot = hashes[id] & mask;
+      while (slots[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      slots[slot] = id;
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/**
+ * The common word count package finds and counts the words of lines of text without allocating
+ * for each word.
+ * <dl>
+ *   <dt>{@link lamblin.common.wordcount.WhitespaceTokenizer}</dt>
+ *   <dd>Finds the words of a line as start and end indexes, splitting on whitespace.</dd>
+ *   <dt>{@link lamblin.common.wordcount.WordTable}</dt>
+ *   <dd>Canonicalizes words, including slices of lines, to small int ids and counts them.</dd>
+ *   <dt>{@link lamblin.common.wordcount.OffHeapWordTable}</dt>
+ *   <dd>Like the word table, but keeps the words as UTF-8 bytes in direct buffers and their
+ *   counts as longs, with only fixed size indexes on the heap.</dd>
+ *   <dt>{@link lamblin.common.wordcount.SpaceSavingTable}</dt>
+ *   <dd>Counts the most frequent words in a fixed number of counters, with a bound on the error of
+ *   each count.</dd>
+ *   <dt>{@link lamblin.common.wordcount.WordCountCursor}</dt>
+ *   <dd>Steps through words and their counts in the order of the words.</dd>
+ *   <dt>{@link lamblin.common.wordcount.WordCountRunWriter}</dt>
+ *   <dd>Writes a sorted run of word counts to a file, to be read back sequentially by the
+ *   {@link lamblin.common.wordcount.WordCountRunReader}.</dd>
+ *   <dt>{@link lamblin.common.wordcount.MergingWordCountCursor}</dt>
+ *   <dd>Merges sorted runs of word counts, summing the counts of the same word.</dd>
+ *   <dt>{@link lamblin.common.wordcount.GenerationSet}</dt>
+ *   <dd>A set of small int ids which is cleared by starting a new generation, for counting the
+ *   unique words of each message.</dd>
+ *   <dt>{@link lamblin.common.wordcount.UniqueWordSet}</dt>
+ *   <dd>A set of slices of one message, for counting its unique words when the words have no
+ *   lasting ids.</dd>
+ *   <dt>{@link lamblin.common.wordcount.HyperLogLog}</dt>
+ *   <dd>Estimates the number of distinct words from their hashes in a fixed few kilobytes, and
+ *   merges with other sketches of the same precision.</dd>
+ * </dl>
+ *
+ * @author Daniel Lamblin
+ */
+package lamblin.common.wordcount;
@@ -5,20 +5,87 @@ import com.beust.jcommander.Parameter;
 import java.util.ArrayList;
 import java.util.List;
 
+import lamblin.common.runningmedian.KllRunningMedian;
+import lamblin.common.wordcount.HyperLogLog;
+
 /**
  * Arguments to parse for {@link TweetStatsCmd}.
  * <pre>
  * $ tweetStats -h
  * Usage: &lt;main class&gt; [options] [input files]...
  *   Options:
+ *      --approximate
+ *         Approximates the running median in bounded memory with a KLL sketch
+ *      --approximate-k
+ *         Size of the approximate median's sketch; larger is more accurate
+ *         Default: 200
+ *      -b, --batch-size
+ *         Number of messages counted by each task of the worker pool
+ *         Default: 1024
+ *      --checkpoint
+ *         Checkpoint file to resume from and write while following the inputs
+ *      --checkpoint-seconds
+ *         Seconds between writing the checkpoint while following the inputs
+ *         Default: 300
+ *      --compress-checkpoint
+ *         Deflates each section of the checkpoint
+ *      --distinct-precision
+ *         Precision of the distinct word sketches, from 4 to 18
+ *         Default: 14
+ *      --distinct-window-seconds
+ *         Seconds of each window the distinct words are estimated for
+ *         Default: 60
+ *      --distinct-words
+ *         Estimates the distinct words overall and in recent windows into
+ *         distinct.txt
+ *      -f, --follow
+ *         Keeps following the input files and directories for new files and lines
  *      -h, --help
  *         Print this usage
  *      -i, --input
  *         Input file or directory path[s]...
+ *      -m, --mapped
+ *         Memory maps input files instead of reading them through a buffered reader
+ *      --median
+ *         Running median implementation: range, histogram, fenwick or queue
+ *      --median-max
+ *         Largest unique word count accepted by the range limited medians
+ *         Default: 70
+ *      --off-heap
+ *         Keeps the counted words as UTF-8 bytes off the heap
  *      -o, --output
  *         Output directory path
+ *      -p, --pending-batches
+ *         Number of batches handed to the worker pool before reading waits for
+ *         one to be counted
+ *         Default: 64
+ *      --quantiles
+ *         Comma separated quantiles from 0 to 1, such as 0,0.5,0.9,0.99,1, to write
+ *         in place of the running median
+ *      -r, --read-ahead
+ *         Number of input files to read ahead on background threads
+ *         Default: 0
+ *      --snapshot-seconds
+ *         Seconds between rewriting ft1.txt while following the inputs
+ *         Default: 60
+ *      --spill-directory
+ *         Directory for the sorted runs of spilled word counts
+ *      --spill-threshold
+ *         Megabytes of word counts held in memory before spilling sorted runs to
+ *         temporary files
+ *      --split
+ *         Reads input files in chunks of lines which the worker threads decode
+ *      --stats-interval
+ *         Seconds between printing a line of the pipeline's metrics to stderr
+ *      --top-k
+ *         Writes only this many of the most frequent words, counted approximately
+ *         in bounded memory
  *      -u, --unconstrained
  *         Swaps out the range limited median for the MinMax queue median method
+ *      --window-count
+ *         Takes the running median over only this many most recent messages
+ *      --window-seconds
+ *         Takes the running median over only the messages of this many recent seconds
  * </pre>
  *
  * @author Daniel Lamblin
@@ -34,6 +101,113 @@ public class Arguments {
       help = true)
   public Boolean help;
 
+  /**
+   * The "--approximate" flag makes the running median an approximation of all the unique word
+   * counts, of any size, in a few kilobytes with
+   * {@link lamblin.common.runningmedian.KllRunningMedian}. It replaces the "--median"
+   * implementation, but not a window.
+   */
+  @Parameter(
+      names = {"--approximate"},
+      description = "Approximates the running median in bounded memory with a KLL sketch")
+  public Boolean approximate;
+
+  /**
+   * The "--approximate-k" flag followed by the size of the sketch used with "--approximate", at
+   * least {@link KllRunningMedian#MINIMUM_K}. The sketch retains fewer than {@code 4k} values and
+   * its rank error shrinks in proportion to 1/k.
+   */
+  @Parameter(
+      names = {"--approximate-k"},
+      description = "Size of the approximate median's sketch; larger is more accurate")
+  public Integer approximateK = KllRunningMedian.DEFAULT_K;
+
+  /**
+   * The "--batch-size" flag, or "-b" for short, followed by the number of messages gathered into
+   * each task run by the {@link MessageWorkerPool}. Larger batches spend less on scheduling tasks
+   * and queueing counts per message, while smaller ones let the running median output sooner. It
+   * may be at most {@link MessageWorkerPool#MAXIMUM_BATCH_SIZE}.
+   */
+  @Parameter(
+      names = {"-b", "--batch-size"},
+      description = "Number of messages counted by each task of the worker pool")
+  public Integer batchSize = MessageWorkerPool.DEFAULT_BATCH_SIZE;
+
+  /**
+   * The "--checkpoint" flag followed by a file to write a checkpoint to every
+   * "--checkpoint-seconds" while following the inputs with "--follow". If the file exists at
+   * startup, the counts, the running median and the offsets of the inputs are read back from it,
+   * ft2.txt is truncated back to the last median written before it, and only the lines after it
+   * are read. It must be given the same inputs and options, and resuming fails if the kind of
+   * vocabulary, "--off-heap", "--top-k" or "--distinct-words" differ. It may not be given with
+   * "--approximate" or a window, as those running medians cannot be checkpointed.
+   */
+  @Parameter(
+      names = {"--checkpoint"},
+      description = "Checkpoint file to resume from and write while following the inputs")
+  public String checkpoint;
+
+  /**
+   * The "--checkpoint-seconds" flag followed by the number of seconds between writing the
+   * "--checkpoint".
+   */
+  @Parameter(
+      names = {"--checkpoint-seconds"},
+      description = "Seconds between writing the checkpoint while following the inputs")
+  public Integer checkpointSeconds = 300;
+
+  /**
+   * The "--compress-checkpoint" flag deflates each section of the "--checkpoint", which makes it
+   * smaller, mostly the word counts, at the cost of some time to write and read it.
+   */
+  @Parameter(
+      names = {"--compress-checkpoint"},
+      description = "Deflates each section of the checkpoint")
+  public Boolean compressCheckpoint;
+
+  /**
+   * The "--distinct-precision" flag followed by the precision of the HyperLogLog sketches of
+   * "--distinct-words", from 4 to 18. Each sketch takes 2 to the power of it bytes, and the
+   * estimates' standard error is about 1.04 divided by the square root of that.
+   */
+  @Parameter(
+      names = {"--distinct-precision"},
+      description = "Precision of the distinct word sketches, from 4 to 18")
+  public Integer distinctPrecision = HyperLogLog.DEFAULT_PRECISION;
+
+  /**
+   * The "--distinct-window-seconds" flag followed by the number of seconds of each window of
+   * counting that "--distinct-words" estimates the distinct words of.
+   */
+  @Parameter(
+      names = {"--distinct-window-seconds"},
+      description = "Seconds of each window the distinct words are estimated for")
+  public Integer distinctWindowSeconds = 60;
+
+  /**
+   * The "--distinct-words" flag estimates the number of distinct words counted, overall and in
+   * each recent window of "--distinct-window-seconds", with {@link DistinctWordEstimates}, and
+   * writes the estimates to distinct.txt in the output directory, or the current directory if
+   * there is none. While following the inputs, it is rewritten with each snapshot of ft1.txt.
+   */
+  @Parameter(
+      names = {"--distinct-words"},
+      description = "Estimates the distinct words overall and in recent windows into distinct.txt")
+  public Boolean distinctWords;
+
+  /**
+   * The "--follow" flag, or "-f" for short, keeps reading the input files, and the files of the
+   * input directories, as they grow, with {@link lamblin.common.source.FollowingLineSource}, until
+   * the command is stopped. Only the bytes appended since each file was last read are read. Lines
+   * are appended to ft2.txt as they are counted, and ft1.txt is rewritten once the inputs there
+   * were at the start are read, then every "--snapshot-seconds". It needs inputs other than stdin
+   * and an output directory, and may not be given with "--mapped" or "--read-ahead".
+   */
+  @Parameter(
+      names = {"-f", "--follow"},
+      description = "Keeps following the input files and directories for new files and lines")
+  public Boolean follow;
+
   /**
    * The input flag is either "-i" or "--input" followed by an input file or directory path. This
    * may be specified multiple times and each instance is processed before arguments without a flag.
@@ -43,6 +217,56 @@ public class Arguments {
       description = "Input file or directory path[s]...")
   public List<String> inputs = null;
 
+  /**
+   * The "--mapped" flag, or "-m" for short, reads input files with the
+   * {@link lamblin.common.source.MappedFileLineSource} instead of the
+   * {@link lamblin.common.source.FileLineSource}. It has no effect when reading stdin.
+   */
+  @Parameter(
+      names = {"-m", "--mapped"},
+      description = "Memory maps input files instead of reading them through a buffered reader")
+  public Boolean mapped;
+
+  /**
+   * The "--median" flag followed by the name of the running median implementation:
+   * <dl>
+   *   <dt>range</dt>
+   *   <dd>{@link lamblin.common.runningmedian.IntRangeRunningMedian}, the default.</dd>
+   *   <dt>histogram</dt>
+   *   <dd>{@link lamblin.common.runningmedian.HistogramRunningMedian}.</dd>
+   *   <dt>fenwick</dt>
+   *   <dd>{@link lamblin.common.runningmedian.FenwickRunningMedian}.</dd>
+   *   <dt>queue</dt>
+   *   <dd>{@link lamblin.common.runningmedian.IntQueueRunningMedian}, as with "--unconstrained".
+   *   </dd>
+   * </dl>
+   * It may not be given with "--unconstrained", which chooses the queue itself.
+   */
+  @Parameter(
+      names = {"--median"},
+      description = "Running median implementation: range, histogram, fenwick or queue")
+  public String median;
+
+  /**
+   * The "--median-max" flag followed by the largest number of unique words in a message that the
+   * range limited running median implementations accept, which must be at least 0. The smallest
+   * is always 0.
+   */
+  @Parameter(
+      names = {"--median-max"},
+      description = "Largest unique word count accepted by the range limited medians")
+  public Integer medianMax = 70;
+
+  /**
+   * The "--off-heap" flag counts words with the {@link OffHeapVocabulary}, which keeps each word
+   * once as UTF-8 bytes in direct buffers, with only fixed size indexes and counts on the heap, and
+   * writes ft1.txt straight from those bytes. It suits vocabularies too large for the heap.
+   */
+  @Parameter(
+      names = {"--off-heap"},
+      description = "Keeps the counted words as UTF-8 bytes off the heap")
+  public Boolean offHeap;
+
   /**
    * The output flag is either "-o" or "--output" followed by a directory path on. This
    * may be specified once. The files "ft1.txt" and "ft2.txt" are [over] written in this directory.
@@ -52,16 +276,146 @@ public class Arguments {
       description = "Output directory path")
   public String output;
 
+  /**
+   * The "--pending-batches" flag, or "-p" for short, followed by the number of batches which may
+   * be handed to the {@link MessageWorkerPool} before they are counted. Once that many are
+   * pending, reading more messages waits for one of them, which bounds the messages held in
+   * memory to about this times the "--batch-size".
+   */
+  @Parameter(
+      names = {"-p", "--pending-batches"},
+      description = "Number of batches handed to the worker pool before reading waits for one to "
+                    + "be counted")
+  public Integer pendingBatches = MessageWorkerPool.DEFAULT_PENDING_BATCHES;
+
+  /**
+   * The "--quantiles" flag followed by a comma separated list of quantiles, each from 0 for the
+   * minimum to 1 for the maximum, writes a line of each of these quantiles of the unique word
+   * counts to ft2.txt for each message, instead of just the median. They are found with
+   * {@link lamblin.common.runningmedian.RangeRunningQuantiles} up to "--median-max", counting any
+   * larger counts apart, or with {@link lamblin.common.runningmedian.KllRunningQuantiles} if
+   * "--approximate" is given. Each is written with as many decimal places as its quantile has, and
+   * at least one, which for exact quantiles is exact. Quantiles may have at most 6 decimal places.
+   * They cannot be taken over a window, nor with "--median" or "--unconstrained", which choose the
+   * running median alone.
+   */
+  @Parameter(
+      names = {"--quantiles"},
+      description = "Comma separated quantiles from 0 to 1, such as 0,0.5,0.9,0.99,1, to write in "
+                    + "place of the running median")
+  public List<String> quantiles;
+
+  /**
+   * The "--read-ahead" flag, or "-r" for short, followed by a number of input files to open and
+   * read on background threads, with {@link lamblin.common.source.ReadAheadLineSource}, while
+   * lines from the current file are being counted. Lines are still counted in the same order.
+   * The default of 0 reads each file in turn on the main thread.
+   */
+  @Parameter(
+      names = {"-r", "--read-ahead"},
+      description = "Number of input files to read ahead on background threads")
+  public Integer readAhead = 0;
+
+  /**
+   * The "--snapshot-seconds" flag followed by the number of seconds between rewriting ft1.txt
+   * with the counts so far while following the inputs with "--follow".
+   */
+  @Parameter(
+      names = {"--snapshot-seconds"},
+      description = "Seconds between rewriting ft1.txt while following the inputs")
+  public Integer snapshotSeconds = 60;
+
+  /**
+   * The "--spill-threshold" flag followed by a number of megabytes counts words with the
+   * {@link SpillingVocabulary}, which writes the counted words as sorted runs to temporary files
+   * whenever the words held in memory are estimated to take about this much of the heap, and
+   * merges the runs while writing ft1.txt. It suits vocabularies too large for the heap, and may
+   * not be given with "--off-heap".
+   */
+  @Parameter(
+      names = {"--spill-threshold"},
+      description = "Megabytes of word counts held in memory before spilling sorted runs to "
+                    + "temporary files")
+  public Integer spillThreshold;
+
+  /**
+   * The "--spill-directory" flag followed by the directory to write the runs spilled with
+   * "--spill-threshold" to, instead of the default temporary directory. The runs are deleted when
+   * the command exits.
+   */
+  @Parameter(
+      names = {"--spill-directory"},
+      description = "Directory for the sorted runs of spilled word counts")
+  public String spillDirectory;
+
+  /**
+   * The "--split" flag reads the input files with the
+   * {@link lamblin.common.source.SplittableLineSource}, in chunks of whole lines which the threads
+   * of the {@link MessageWorkerPool} decode as they count them, so a single large file is not
+   * held back by one thread decoding every line. The chunks are added in order, so ft2.txt is the
+   * same. It needs input files, and may not be given with "--follow", "--mapped" or
+   * "--read-ahead".
+   */
+  @Parameter(
+      names = {"--split"},
+      description = "Reads input files in chunks of lines which the worker threads decode")
+  public Boolean split;
+
+  /**
+   * The "--stats-interval" flag followed by a number of seconds prints a line of the
+   * {@link PipelineMetrics} over each interval to stderr while the command runs, and a last one
+   * when it finishes. The same metrics are always registered as an MBean for JMX.
+   */
+  @Parameter(
+      names = {"--stats-interval"},
+      description = "Seconds between printing a line of the pipeline's metrics to stderr")
+  public Integer statsInterval;
+
+  /**
+   * The "--top-k" flag followed by a number of words counts words with the
+   * {@link TopKVocabulary}, which keeps only about that many of the most frequent words, in memory
+   * that grows with this number rather than with the vocabulary. Each line of ft1.txt has a third
+   * column with the most that the word's count may be over the times it was seen. It may not be
+   * given with "--off-heap" or "--spill-threshold".
+   */
+  @Parameter(
+      names = {"--top-k"},
+      description = "Writes only this many of the most frequent words, counted approximately in "
+                    + "bounded memory")
+  public Integer topK;
+
   /**
    * The "--unconstrained" flag, or "-u" for short is used to change the running median
-   * implementation from the limited {@link lamblin.common.runningmedian.RangeRunningMedian} to the
-   * less limited {@link lamblin.common.runningmedian.QueueRunningMedian}.
+   * implementation from the limited {@link lamblin.common.runningmedian.IntRangeRunningMedian} to
+   * the less limited {@link lamblin.common.runningmedian.IntQueueRunningMedian}.
    */
   @Parameter(
       names = {"-u", "--unconstrained"},
       description = "Swaps out the range limited median for the MinMax queue median method")
   public Boolean unconstrained;
 
+  /**
+   * The "--window-count" flag followed by a number of messages makes the running median one of
+   * only that many most recent messages, with
+   * {@link lamblin.common.runningmedian.CountWindowRunningMedian}. Windows replace the "--median"
+   * implementation and accept unique word counts up to "--median-max".
+   */
+  @Parameter(
+      names = {"--window-count"},
+      description = "Takes the running median over only this many most recent messages")
+  public Integer windowCount;
+
+  /**
+   * The "--window-seconds" flag followed by a number of seconds makes the running median one of
+   * only the messages counted in that many recent seconds, with
+   * {@link lamblin.common.runningmedian.TimeWindowRunningMedian}. Windows replace the "--median"
+   * implementation and accept unique word counts up to "--median-max".
+   */
+  @Parameter(
+      names = {"--window-seconds"},
+      description = "Takes the running median over only the messages of this many recent seconds")
+  public Long windowSeconds;
+
   /**
    * Any remaining arguments not being a flag nor paired with one are gathered and processed as the
    * input flag would be, except after each of the input flags if any. If both input flags and these
@@ -0,0 +1,154 @@
+package lamblin.tweetstats;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import lamblin.common.checkpoint.CheckpointFile;
+import lamblin.common.checkpoint.Checkpointable;
+
+/**
+ * Writes a {@link CheckpointFile} at a regular interval while following inputs, and resumes from
+ * it at startup, so that a restart carries on from the last checkpoint instead of reading all the
+ * inputs again. The checkpoint holds the length of ft2.txt, the sequence of the next message, the
+ * offsets of the inputs, the word counts and the state of the running median, all as of the same
+ * message.
+ * <p>
+ * Checkpoints are written by the thread adding messages, between messages, with the
+ * {@link MessageWorkerPool} quiesced, so that every message added has been counted and its
+ * median written, and nothing else is counted while the checkpoint is written. Resuming truncates
+ * ft2.txt to its length at the checkpoint, as the medians written after it are written again.
+ * </p><p>
+ * A checkpoint is due both as messages are added and while the inputs are idle, as
+ * {@link #checkpointIfDue()} is also called whenever the inputs wait for more lines, but none is
+ * written while no message has been added since the last. The checkpoint records a description of
+ * the configuration, and is only resumed from with the same one, as the counts of another kind of
+ * vocabulary, or the distinct word estimates of another hash, would read back wrongly.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class Checkpointer {
+
+  private final MessageWorkerPool messageWorkerPool;
+  private final List<Checkpointable> sections;
+  private final File file;
+  private final boolean compressed;
+  private final String configuration;
+  private final long intervalNanos;
+  private final File medianFile;
+  private final PrintStream medianOutput;
+  private long lastCheckpoint = System.nanoTime();
+  private long messagesCheckpointed = 0;
+
+  /**
+   * @param messageWorkerPool the pool counting the messages, which is quiesced to checkpoint
+   * @param sections the state to checkpoint after the pool's own, in order
+   * @param file the checkpoint file, or {@code null} to write no checkpoint
+   * @param compressed whether to deflate the checkpoint
+   * @param configuration a description of the configuration, which must be the same to resume
+   * @param interval the time between checkpoints
+   * @param intervalUnit the unit of the interval
+   * @param medianFile the file the running median is written to
+   * @param medianOutput the stream writing the running median to that file, which is opened to
+   *                     append to it if resuming
+   */
+  public Checkpointer(MessageWorkerPool messageWorkerPool, List<Checkpointable> sections,
+                      File file, boolean compressed, String configuration, long interval,
+                      TimeUnit intervalUnit, File medianFile, PrintStream medianOutput) {
+    this.messageWorkerPool = messageWorkerPool;
+    this.sections = ImmutableList.<Checkpointable>builder()
+        .add(new MedianFileLength()).add(messageWorkerPool).addAll(sections).build();
+    this.file = file;
+    this.compressed = compressed;
+    this.configuration = configuration;
+    intervalNanos = intervalUnit.toNanos(interval);
+    this.medianFile = medianFile;
+    this.medianOutput = medianOutput;
+  }
+
+  /**
+   * @return {@code true} if there is a checkpoint to resume from
+   */
+  public boolean canResume() {
+    return file != null && file.isFile();
+  }
+
+  /**
+   * Reads the checkpoint, if there is one, before the running median is started and any message
+   * is added.
+   *
+   * @throws IOException if the checkpoint cannot be read or does not match the configuration
+   */
+  public void resume() throws IOException {
+    if (canResume()) {
+      CheckpointFile.read(file.toPath(), configuration, sections);
+      messagesCheckpointed = messageWorkerPool.messagesAdded();
+    }
+  }
+
+  /**
+   * Writes a checkpoint if the interval has passed since the last one and messages have been
+   * added since. It must be called from the thread adding messages, between messages, such as
+   * while waiting for more of them.
+   */
+  public void checkpointIfDue() {
+    if (file != null && System.nanoTime() - lastCheckpoint >= intervalNanos
+        && messageWorkerPool.messagesAdded() != messagesCheckpointed) {
+      checkpoint();
+    }
+  }
+
+  /**
+   * Quiesces the pool and writes a checkpoint of everything counted so far. It must be called
+   * from the thread adding messages, between messages.
+   */
+  public void checkpoint() {
+    if (file == null) {
+      return;
+    }
+    messageWorkerPool.quiesce();
+    try {
+      CheckpointFile.write(file.toPath(), compressed, configuration, sections);
+      messagesCheckpointed = messageWorkerPool.messagesAdded();
+    } catch (IOException e) {
+      System.err.println("Unable to write the checkpoint \"" + file.getPath() + "\"");
+      e.printStackTrace();
+    } finally {
+      messageWorkerPool.resume();
+      lastCheckpoint = System.nanoTime();
+    }
+  }
+
+  /**
+   * The length of the running median's file, which is truncated back to it when resuming.
+   */
+  private class MedianFileLength implements Checkpointable {
+
+    @Override
+    public void writeCheckpoint(DataOutputStream out) throws IOException {
+      medianOutput.flush();
+      out.writeLong(medianFile.length());
+    }
+
+    @Override
+    public void readCheckpoint(DataInputStream in) throws IOException {
+      final long length = in.readLong();
+      try (FileChannel channel = FileChannel.open(medianFile.toPath(), StandardOpenOption.WRITE)) {
+        if (channel.size() < length) {
+          throw new IOException(
+              "\"" + medianFile.getPath() + "\" is shorter than when the checkpoint was written.");
+        }
+        channel.truncate(length);
+      }
+    }
+  }
+}
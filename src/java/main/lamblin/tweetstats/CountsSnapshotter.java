@@ -0,0 +1,141 @@
+package lamblin.tweetstats;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Rewrites the word counts file at a regular interval while messages are still being added to a
+ * {@link MessageWorkerPool}, as when following inputs which keep growing. Each snapshot is written
+ * to a temporary file beside the counts file, which then replaces it by an atomic rename, so
+ * readers of the counts file only ever see a whole snapshot. The first snapshot is written as soon
+ * as the inputs have been caught up with, and a last snapshot is written when the JVM shuts down.
+ * The {@link DistinctWordEstimates}, if any, are rewritten to their own file in the same way with
+ * each snapshot.
+ *
+ * @author Daniel Lamblin
+ */
+public class CountsSnapshotter {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final MessageWorkerPool messageWorkerPool;
+  private final File file;
+  private final DistinctWordEstimates distinctWordEstimates;
+  private final File distinctFile;
+  private final long interval;
+  private final TimeUnit intervalUnit;
+  private ScheduledExecutorService scheduler;
+  private boolean caughtUp = false;
+
+  /**
+   * @param messageWorkerPool the pool counting the words
+   * @param file the word counts file to rewrite with each snapshot
+   * @param interval the time between snapshots
+   * @param intervalUnit the unit of the interval
+   */
+  public CountsSnapshotter(MessageWorkerPool messageWorkerPool, File file, long interval,
+                           TimeUnit intervalUnit) {
+    this(messageWorkerPool, file, null, null, interval, intervalUnit);
+  }
+
+  /**
+   * @param messageWorkerPool the pool counting the words
+   * @param file the word counts file to rewrite with each snapshot
+   * @param distinctWordEstimates the estimates of the distinct words counted by the pool
+   * @param distinctFile the file to rewrite with the estimates
+   * @param interval the time between snapshots
+   * @param intervalUnit the unit of the interval
+   */
+  public CountsSnapshotter(MessageWorkerPool messageWorkerPool, File file,
+                           DistinctWordEstimates distinctWordEstimates, File distinctFile,
+                           long interval, TimeUnit intervalUnit) {
+    this.messageWorkerPool = messageWorkerPool;
+    this.file = file;
+    this.distinctWordEstimates = distinctWordEstimates;
+    this.distinctFile = distinctFile;
+    this.interval = interval;
+    this.intervalUnit = intervalUnit;
+  }
+
+  /**
+   * Starts writing a snapshot after every interval on a daemon thread, and once more at shutdown.
+   */
+  public synchronized void start() {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("counts-snapshot-%d").build());
+      scheduler.scheduleWithFixedDelay(this::snapshot, interval, interval, intervalUnit);
+      Runtime.getRuntime().addShutdownHook(new Thread(this::snapshot, "counts-snapshot-final"));
+    }
+  }
+
+  /**
+   * Writes a snapshot on the snapshot thread, without waiting for the interval, the first time it
+   * is called after {@link #start()}, such as once the lines there were at the start have all been
+   * read, so the counts file has their counts from then on.
+   */
+  public synchronized void caughtUp() {
+    if (scheduler != null && !caughtUp) {
+      caughtUp = true;
+      scheduler.execute(this::snapshot);
+    }
+  }
+
+  /**
+   * Writes the counts so far to a temporary file and renames it over the counts file, then does
+   * the same with the distinct word estimates, if any. Should the counts not be got, as when a
+   * batch failed to be counted, the counts file is left as it was, and the failure is printed
+   * rather than thrown, which would cancel every later snapshot of the schedule.
+   */
+  public synchronized void snapshot() {
+    try {
+      replace(file, messageWorkerPool::writeSnapshot);
+    } catch (IOException | RuntimeException e) {
+      System.err.println("Unable to write a snapshot of the word counts.");
+      e.printStackTrace();
+    }
+    writeDistinctWords();
+  }
+
+  /**
+   * Writes the distinct word estimates so far, if any, to a temporary file and renames it over
+   * their file. This needs no snapshot of the counts, so it may be called at any time.
+   */
+  public synchronized void writeDistinctWords() {
+    if (distinctWordEstimates == null) {
+      return;
+    }
+    try {
+      replace(distinctFile, distinctWordEstimates::writeEstimates);
+    } catch (IOException e) {
+      System.err.println("Unable to write the distinct word estimates.");
+      e.printStackTrace();
+    }
+  }
+
+  private static void replace(File target, Consumer<PrintStream> writer) throws IOException {
+    final File temporary = new File(target.getPath() + ".tmp");
+    try (PrintStream out = new PrintStream(
+        new BufferedOutputStream(new FileOutputStream(temporary), BUFFER_SIZE), false,
+        StandardCharsets.UTF_8.name())) {
+      writer.accept(out);
+      if (out.checkError()) {
+        throw new IOException("Unable to write \"" + temporary.getPath() + "\"");
+      }
+    }
+    Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+  }
+}
@@ -0,0 +1,230 @@
+package lamblin.tweetstats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import lamblin.common.checkpoint.Checkpointable;
+import lamblin.common.wordcount.HyperLogLog;
+
+/**
+ * Estimates the number of distinct words counted by a {@link Vocabulary}, overall and in each
+ * window of time, with {@link HyperLogLog} sketches, so that the growth of the vocabulary can be
+ * followed without keeping every word. Each worker thread adds the hash of each unique word of
+ * its messages to its own {@link Recorder}, so adding is never contended. The estimates merge the
+ * threads' sketches when they are wanted, without stopping the threads or taking any lock.
+ * <p>
+ * A thread checks the clock once every {@link #MESSAGES_PER_CLOCK_CHECK} messages, and when the
+ * window has changed, keeps its sketch of the last window and starts another. The windows of the
+ * last {@link #MAXIMUM_WINDOWS} window lengths are kept. The windows are of the time the words are
+ * counted, rather than of any time in the messages.
+ * </p><p>
+ * Its checkpoint is the overall sketch, so resuming carries on estimating every word counted.
+ * The windows are not kept in the checkpoint.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class DistinctWordEstimates implements Checkpointable {
+
+  /**
+   * The number of most recent windows of which estimates are kept.
+   */
+  static final int MAXIMUM_WINDOWS = 60;
+  /**
+   * The number of messages each thread counts between checking whether the window has changed.
+   */
+  static final int MESSAGES_PER_CLOCK_CHECK = 256;
+  /**
+   * The number of chars the names of the estimates are padded to, as the words of ft1.txt are.
+   */
+  private static final int NAME_WIDTH = 27;
+
+  private final int precision;
+  private final long windowMillis;
+  private final LongSupplier clock;
+  private final Queue<Recorder> recorders = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(() -> {
+    final Recorder newRecorder = new Recorder();
+    recorders.add(newRecorder);
+    return newRecorder;
+  });
+  private final HyperLogLog restored;
+
+  /**
+   * @param precision the precision of the sketches, as for {@link HyperLogLog#HyperLogLog(int)}
+   * @param window the length of each window of time
+   * @param windowUnit the unit of the window
+   */
+  public DistinctWordEstimates(int precision, long window, TimeUnit windowUnit) {
+    this(precision, windowUnit.toMillis(window), System::currentTimeMillis);
+  }
+
+  /**
+   * @param precision the precision of the sketches
+   * @param windowMillis the length of each window of time in milliseconds
+   * @param clock gives the current time in milliseconds
+   */
+  DistinctWordEstimates(int precision, long windowMillis, LongSupplier clock) {
+    if (windowMillis < 1) {
+      throw new IllegalArgumentException("The window must be at least 1 millisecond.");
+    }
+    this.precision = precision;
+    this.windowMillis = windowMillis;
+    this.clock = clock;
+    restored = new HyperLogLog(precision);
+  }
+
+  /**
+   * A sketch of the distinct words counted in one window of time by one thread.
+   */
+  private final class Window {
+
+    private final long start;
+    private final HyperLogLog sketch = new HyperLogLog(precision);
+
+    Window(long start) {
+      this.start = start;
+    }
+  }
+
+  /**
+   * Adds the hashes of the words counted by one thread to its sketches. Only that thread adds to
+   * them, while the estimates may read them from any thread.
+   */
+  public final class Recorder {
+
+    private final HyperLogLog all = new HyperLogLog(precision);
+    /**
+     * The current window and those before it, newest first, for the estimates to read.
+     */
+    private final Deque<Window> windows = new ConcurrentLinkedDeque<>();
+    private Window window;
+    private int messages = 0;
+
+    /**
+     * Starts the next message, checking whether the window has changed every so many messages.
+     */
+    void startMessage() {
+      if (messages++ % MESSAGES_PER_CLOCK_CHECK == 0) {
+        final long start = windowStart(clock.getAsLong());
+        if (window == null || window.start != start) {
+          window = new Window(start);
+          windows.addFirst(window);
+          final long oldest = start - MAXIMUM_WINDOWS * windowMillis;
+          while (windows.peekLast().start <= oldest) {
+            windows.pollLast();
+          }
+        }
+      }
+    }
+
+    /**
+     * @param hash the spread hash of a word, as kept by the vocabulary's tables
+     */
+    public void add(int hash) {
+      all.add(hash);
+      window.sketch.add(hash);
+    }
+  }
+
+  /**
+   * Gets the calling thread's recorder to add the words of a message to.
+   *
+   * @return the calling thread's recorder, having started the message
+   */
+  Recorder recorder() {
+    final Recorder threadRecorder = recorder.get();
+    threadRecorder.startMessage();
+    return threadRecorder;
+  }
+
+  private long windowStart(long millis) {
+    return millis - Math.floorMod(millis, windowMillis);
+  }
+
+  /**
+   * @return the estimated number of distinct words counted by all the threads, and before the
+   *         checkpoint resumed from, if any
+   */
+  public long estimate() {
+    final HyperLogLog merged = new HyperLogLog(precision);
+    merged.merge(restored);
+    for (Recorder threadRecorder : recorders) {
+      merged.merge(threadRecorder.all);
+    }
+    return merged.estimate();
+  }
+
+  /**
+   * @return the estimated number of distinct words counted in each of the most recent windows,
+   *         by the start of the window in milliseconds since the epoch
+   */
+  public SortedMap<Long, Long> windowEstimates() {
+    final long oldest = windowStart(clock.getAsLong()) - MAXIMUM_WINDOWS * windowMillis;
+    final SortedMap<Long, HyperLogLog> merged = new TreeMap<>();
+    for (Recorder threadRecorder : recorders) {
+      for (Window window : threadRecorder.windows) {
+        if (window.start > oldest) {
+          merged.computeIfAbsent(window.start, start -> new HyperLogLog(precision))
+              .merge(window.sketch);
+        }
+      }
+    }
+    final SortedMap<Long, Long> estimates = new TreeMap<>();
+    for (Map.Entry<Long, HyperLogLog> entry : merged.entrySet()) {
+      estimates.put(entry.getKey(), entry.getValue().estimate());
+    }
+    return estimates;
+  }
+
+  /**
+   * Writes a line of the overall estimate, named "all", followed by a line of each window's
+   * estimate, named by the instant it starts, oldest first. Each name is padded to 27 characters
+   * like the words of ft1.txt.
+   *
+   * @param out the stream to write the lines to
+   */
+  public void writeEstimates(PrintStream out) {
+    out.printf("%-" + NAME_WIDTH + "s %d\n", "all", estimate());
+    for (Map.Entry<Long, Long> entry : windowEstimates().entrySet()) {
+      out.printf("%-" + NAME_WIDTH + "s %d\n", Instant.ofEpochMilli(entry.getKey()),
+                 entry.getValue());
+    }
+  }
+
+  /**
+   * Writes the precision and the registers of the overall sketch merged from every thread.
+   */
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    final HyperLogLog merged = new HyperLogLog(precision);
+    merged.merge(restored);
+    for (Recorder threadRecorder : recorders) {
+      merged.merge(threadRecorder.all);
+    }
+    out.writeInt(precision);
+    out.write(merged.registers());
+  }
+
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    final int checkpointPrecision = in.readInt();
+    if (checkpointPrecision != precision) {
+      throw new IOException("The checkpoint's distinct word sketch has a precision of "
+                            + checkpointPrecision + " rather than " + precision + ".");
+    }
+    in.readFully(restored.registers());
+  }
+}
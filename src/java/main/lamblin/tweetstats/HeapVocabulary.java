@@ -0,0 +1,189 @@
+package lamblin.tweetstats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.stream.IntStream;
+
+import lamblin.common.wordcount.GenerationSet;
+import lamblin.common.wordcount.WhitespaceTokenizer;
+import lamblin.common.wordcount.WordTable;
+
+/**
+ * Counts words as {@link String}s in each thread's own {@link WordTable}. When all the words are
+ * counted, these are merged in parallel, and the words sorted once with their counts as
+ * {@link SortedCounts}.
+ * <p>
+ * Each snapshot folds the threads' counts into the sorted counts of the snapshots before it, and
+ * then clears the threads' tables, so a snapshot only merges and sorts the words counted since the
+ * last one.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class HeapVocabulary extends ShardedVocabulary<HeapVocabulary.Shard> {
+
+  private SortedCounts sortedCounts;
+  private SortedSet<String> sortedWords;
+  /**
+   * The counts up to the last snapshot, which the threads' tables no longer hold, or else null.
+   */
+  private SortedCounts snapshotCounts;
+
+  /**
+   * The words counted by one thread, with its tokenizer and the set of the word ids seen in the
+   * current message, so that counting allocates only for words seen for the first time.
+   */
+  static class Shard {
+
+    private final WordTable table = new WordTable();
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final GenerationSet unique = new GenerationSet();
+  }
+
+  @Override
+  Shard newShard() {
+    return new Shard();
+  }
+
+  @Override
+  int countWords(Shard shard, String message) {
+    int uniqueCount = 0;
+    final DistinctWordEstimates.Recorder distinct = distinctWords();
+    shard.unique.clear();
+    shard.tokenizer.reset(message);
+    while (shard.tokenizer.next()) {
+      final int id = shard.table.add(message, shard.tokenizer.start(), shard.tokenizer.end(), 1);
+      if (shard.unique.add(id)) {
+        uniqueCount++;
+        if (distinct != null) {
+          distinct.add(shard.table.hash(id));
+        }
+      }
+    }
+    return uniqueCount;
+  }
+
+  /**
+   * Merges the threads' counts into partitions of the words by their hash, with each partition
+   * merged in parallel, then sorts all the words with their counts once, and folds them into the
+   * counts of the last snapshot, if any.
+   */
+  @Override
+  public void merge() {
+    merge(takeShards());
+    snapshotCounts = null;
+  }
+
+  /**
+   * Folds the threads' counts into those of the last snapshot and writes them, then clears the
+   * threads' tables to count from there. It is called only while no thread is counting.
+   */
+  @Override
+  public void writeSnapshot(PrintStream out) {
+    final List<Shard> shards = shards();
+    merge(shards);
+    for (Shard shard : shards) {
+      shard.table.clear();
+    }
+    snapshotCounts = sortedCounts;
+    writeSortedCounts(out);
+    sortedCounts = null;
+    sortedWords = null;
+  }
+
+  /**
+   * Writes the counts up to the last snapshot, if any, then merges the threads' counts since then
+   * into partitions, so each word is written once more at most, but without sorting them.
+   */
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    if (snapshotCounts != null) {
+      for (int i = 0; i < snapshotCounts.size(); i++) {
+        writeCheckpointEntry(out, snapshotCounts.word(i), snapshotCounts.count(i));
+      }
+    }
+    for (WordTable table : partition(shards())) {
+      for (int id = 0; id < table.size(); id++) {
+        writeCheckpointEntry(out, table.word(id), table.count(id));
+      }
+    }
+    endCheckpoint(out);
+  }
+
+  /**
+   * Adds the counts into the calling thread's table, decoding one {@link String} for each word.
+   */
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    final WordTable table = shard().table;
+    readCheckpointEntries(in, (bytes, length, count) -> table.add(
+        new String(bytes, 0, length, StandardCharsets.UTF_8), count));
+  }
+
+  /**
+   * Sorts the shards' counts and folds them into those of the last snapshot, if any.
+   */
+  private void merge(List<Shard> shards) {
+    final SortedCounts counted = new SortedCounts(partition(shards));
+    sortedCounts = snapshotCounts == null ? counted : new SortedCounts(snapshotCounts, counted);
+    sortedWords = null;
+  }
+
+  /**
+   * @return the shards' counts merged into partitions of the words by their hash, with each
+   *         shard's words bucketed by partition in parallel, then each partition merged in parallel
+   */
+  private WordTable[] partition(List<Shard> shards) {
+    final int[][][] buckets = new int[shards.size()][][];
+    IntStream.range(0, buckets.length).parallel().forEach(s -> {
+      final WordTable table = shards.get(s).table;
+      buckets[s] = partitionIds(table.size(), table::hash);
+    });
+    final WordTable[] merged = new WordTable[partitions()];
+    IntStream.range(0, merged.length).parallel().forEach(partition -> {
+      final WordTable table = new WordTable();
+      for (int s = 0; s < buckets.length; s++) {
+        final WordTable shardTable = shards.get(s).table;
+        for (int id : buckets[s][partition]) {
+          table.add(shardTable.word(id), shardTable.count(id));
+        }
+      }
+      merged[partition] = table;
+    });
+    return merged;
+  }
+
+  @Override
+  public int size() {
+    return sortedCounts.size();
+  }
+
+  /**
+   * Finds the count by a binary search of the sorted words.
+   */
+  @Override
+  public long count(String word) {
+    return sortedCounts.count(word);
+  }
+
+  @Override
+  public SortedSet<String> sortedWords() {
+    if (sortedWords == null) {
+      sortedWords = sortedCounts.sortedWords();
+    }
+    return sortedWords;
+  }
+
+  /**
+   * Formats chunks of the sorted counts in parallel, writing them in order.
+   */
+  @Override
+  public void writeSortedCounts(PrintStream out) {
+    sortedCounts.writeTo(out);
+  }
+}
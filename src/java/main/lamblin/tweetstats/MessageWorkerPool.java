@@ -1,91 +1,284 @@
 package lamblin.tweetstats;
 
-import com.google.common.base.CharMatcher;
-import com.google.common.base.Splitter;
-import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import com.beust.jcommander.internal.Sets;
-
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.HashMap;
-import java.util.NoSuchElementException;
+import java.io.UncheckedIOException;
 import java.util.Set;
 import java.util.SortedSet;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
 
-import lamblin.common.runningmedian.RunningMedian;
+import lamblin.common.checkpoint.Checkpointable;
+import lamblin.common.output.LineBuilder;
+import lamblin.common.runningmedian.IntRunningMedian;
+import lamblin.common.runningmedian.RunningMedianQuantiles;
+import lamblin.common.runningmedian.RunningQuantiles;
+import lamblin.common.source.LineChunk;
 
 /**
- * Each message added to this worker pool is run by a {@link Executors#newWorkStealingPool()}.
- * The parent thread accumulates counts as totals of each word from messages added with
- * {@link #addMessage(String)}. It also retains a sorted set of words for outputting words in order.
- * Then the worker passes each message's count of unique words, via a {@link ConcurrentLinkedQueue}
- * to the runnable worker {@link RunningMedianTask}, which is started by
- * {@link #startUniqueWordsRunningMedian(RunningMedian, PrintStream)}.
+ * Messages added to this worker pool are gathered into batches, each of which is run by a
+ * {@link Executors#newWorkStealingPool(int)} as one task, so that scheduling a task is not paid for
+ * every message. Each worker thread counts the words of messages added with
+ * {@link #addMessage(String)} into a {@link Vocabulary}, which keeps each thread's counts apart so
+ * no counting is contended, and merges them once, when the counts are got. Then each
+ * worker passes its batch's counts of unique words, via the slots of a
+ * {@link SequencedCountRing}, to the runnable {@link RunningMedianTask}, which is started on its
+ * own thread by {@link #startUniqueWordsRunningMedian(IntRunningMedian, PrintStream)} or
+ * {@link #startUniqueWordsRunningQuantiles(RunningQuantiles, PrintStream)}.
+ * <p>
+ * Each batch handed to the pool holds one of a bounded number of permits until it is counted, so
+ * when the workers fall behind, adding messages blocks rather than queueing ever more of them on
+ * the heap. Terminating the pool takes back every permit, which waits for exactly the batches
+ * still pending, however long they take.
+ * </p><p>
+ * The pool can be quiesced, to write a checkpoint of everything counted so far while nothing is
+ * being counted, and its own checkpoint is the sequence of the next message, so that resuming
+ * from it carries on the running median from there.
+ * </p><p>
+ * Should a batch fail to be counted, as when the vocabulary cannot spill its counts or the heap
+ * runs out, the failure is thrown to the thread adding messages when it next hands over a batch,
+ * or terminates, quiesces or snapshots the pool, as the running median can never get past that
+ * batch's messages. The running median stops instead at the gap the batch leaves.
+ * </p><p>
+ * Each stage of the pool, from the lines added to the running medians written, is measured as
+ * it runs by its {@link PipelineMetrics}.
+ * </p>
  *
  * @author Daniel Lamblin
  */
-public class MessageWorkerPool {
+public class MessageWorkerPool implements Checkpointable {
 
-  private static final TimeUnit poolTimeoutUnits = TimeUnit.SECONDS;
-  private static final long poolTimeout = 5;
-  private static final Splitter splitter = Splitter.on(CharMatcher.BREAKING_WHITESPACE)
-      .trimResults().omitEmptyStrings();
+  private static final int maximumRunLength = 1024;
+  /**
+   * The default number of messages counted by each task.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 1024;
+  /**
+   * The default number of batches which may be handed to the pool but not yet counted.
+   */
+  public static final int DEFAULT_PENDING_BATCHES = 64;
+  /**
+   * The most messages in a batch or chunk, which is the capacity of the ring; a worker could
+   * otherwise wait for the ring to be drained past its own batch, while the running median waits
+   * for the batch to finish.
+   */
+  public static final int MAXIMUM_BATCH_SIZE = 1 << 16;
+  private static final int ringCapacity = MAXIMUM_BATCH_SIZE;
+  private static final long QUIESCE_PARK_NANOS = 1000000L;
   private final ExecutorService pool;
-  private final Multiset<String> words = ConcurrentHashMultiset.create();
-  private final ConcurrentSkipListSet<String> sortedWords = new ConcurrentSkipListSet<>();
-  private final ConcurrentLinkedQueue<SequencedCount> queue;
+  private final Semaphore pendingBatches;
+  private final int maximumPendingBatches;
+  private final Vocabulary vocabulary;
+  private final PipelineMetrics metrics;
+  private boolean terminated = false;
+  private boolean merged = false;
+  private final SequencedCountRing ring = new SequencedCountRing(ringCapacity);
+  private final int batchSize;
 
-  private int sequence = 0;
+  private long sequence = 0;
+  private String[] batch;
+  private int batchLength = 0;
+  /**
+   * The sequence after the last message, once all messages have been added, or else -1.
+   */
+  private volatile long endSequence = -1;
+  private volatile Thread runningMedianThread;
+  /**
+   * The sequence after the last message whose running median has been written out.
+   */
+  private volatile long medianSequence = 0;
+  /**
+   * The first failure of a batch to be counted, or else null.
+   */
+  private volatile Throwable failure;
 
-  public MessageWorkerPool(ConcurrentLinkedQueue<SequencedCount> queue) {
-    this.queue = queue;
-    pool = Executors.newWorkStealingPool();
+  public MessageWorkerPool() {
+    this(DEFAULT_BATCH_SIZE);
   }
 
   /**
-   * Adds messages with words to be counted. You cannot add messages after calling either
-   * {@link #getCounts} or {@link #getSortedWords}.
+   * @param batchSize the number of messages counted by each task; at least 1 and at most
+   *                  {@link #MAXIMUM_BATCH_SIZE}
+   */
+  public MessageWorkerPool(int batchSize) {
+    this(batchSize, new HeapVocabulary());
+  }
+
+  /**
+   * @param batchSize the number of messages counted by each task; at least 1 and at most
+   *                  {@link #MAXIMUM_BATCH_SIZE}
+   * @param vocabulary the vocabulary into which the words of all the messages are counted
+   */
+  public MessageWorkerPool(int batchSize, Vocabulary vocabulary) {
+    this(batchSize, DEFAULT_PENDING_BATCHES, vocabulary);
+  }
+
+  /**
+   * @param batchSize the number of messages counted by each task; at least 1 and at most
+   *                  {@link #MAXIMUM_BATCH_SIZE}
+   * @param maximumPendingBatches the number of batches which may be handed to the pool before
+   *                              adding messages blocks until one of them is counted; at least 1
+   * @param vocabulary the vocabulary into which the words of all the messages are counted
+   */
+  public MessageWorkerPool(int batchSize, int maximumPendingBatches, Vocabulary vocabulary) {
+    this(batchSize, maximumPendingBatches, vocabulary, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param batchSize the number of messages counted by each task; at least 1 and at most
+   *                  {@link #MAXIMUM_BATCH_SIZE}
+   * @param maximumPendingBatches the number of batches which may be handed to the pool before
+   *                              adding messages blocks until one of them is counted; at least 1
+   * @param vocabulary the vocabulary into which the words of all the messages are counted
+   * @param threads the number of worker threads counting the batches, which is otherwise the
+   *                number of available processors; at least 1
+   */
+  public MessageWorkerPool(int batchSize, int maximumPendingBatches, Vocabulary vocabulary,
+                           int threads) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("The batch size must be at least 1.");
+    }
+    if (batchSize > MAXIMUM_BATCH_SIZE) {
+      throw new IllegalArgumentException(
+          "The batch size must be at most " + MAXIMUM_BATCH_SIZE + ".");
+    }
+    if (maximumPendingBatches < 1) {
+      throw new IllegalArgumentException("The maximum pending batches must be at least 1.");
+    }
+    this.batchSize = batchSize;
+    this.maximumPendingBatches = maximumPendingBatches;
+    pendingBatches = new Semaphore(maximumPendingBatches);
+    this.vocabulary = vocabulary;
+    batch = new String[batchSize];
+    pool = Executors.newWorkStealingPool(threads);
+    metrics = new PipelineMetrics(
+        threads, maximumPendingBatches,
+        () -> maximumPendingBatches - pendingBatches.availablePermits(),
+        ringCapacity + (maximumPendingBatches + 1L) * batchSize);
+  }
+
+  /**
+   * @return the metrics of this pool and its running median, which are kept as it runs
+   */
+  public PipelineMetrics metrics() {
+    return metrics;
+  }
+
+  /**
+   * Adds messages with words to be counted. These are counted in batches, once enough messages to
+   * fill a batch are added, or when the counts are got. When the maximum number of batches are
+   * already pending, this blocks until one of them is counted. You cannot add messages after
+   * calling either {@link #getCounts} or {@link #getSortedWords}.
    *
    * @param message the message for which to increment its words' counts
    */
   public void addMessage(String message) {
-    pool.execute(new WordCounter(sequence++, message));
+    metrics.sampleReadTime(sequence + batchLength);
+    metrics.linesRead(1);
+    batch[batchLength++] = message;
+    if (batchLength == batchSize) {
+      submitBatch();
+    }
   }
 
   /**
-   * The total number of unique words added.
+   * Hands the messages added so far to the pool without waiting for the batch to fill, such as
+   * when no more messages are expected for a while. It must be called from the thread adding
+   * messages.
+   */
+  public void flush() {
+    submitBatch();
+  }
+
+  /**
+   * Adds a chunk of lines read by a {@link lamblin.common.source.SplittableLineSource} as
+   * messages, which a task in the pool finds, decodes and counts as one batch, once a permit for
+   * it is free, so the thread reading the chunks does not decode them. Any messages added before
+   * it are handed to the pool first. Its lines follow those added before it, so chunks must be
+   * added in the order {@link lamblin.common.source.SplittableLineSource#chunks()} reads them.
+   *
+   * @param chunk the chunk of lines with words to be counted, of at most
+   *              {@link #MAXIMUM_BATCH_SIZE} lines
+   */
+  public void addChunk(LineChunk chunk) {
+    final int length = chunk.lineCount();
+    if (length > MAXIMUM_BATCH_SIZE) {
+      throw new IllegalArgumentException(
+          "A chunk must have at most " + MAXIMUM_BATCH_SIZE + " lines.");
+    }
+    submitBatch();
+    if (length > 0) {
+      metrics.sampleReadTimes(sequence, length);
+      metrics.linesRead(length);
+      pendingBatches.acquireUninterruptibly();
+      checkFailure(1);
+      pool.execute(new WordCounter(sequence, chunk));
+      sequence += length;
+    }
+  }
+
+  /**
+   * Hands the messages in the current batch to a task in the pool, once a permit for it is free,
+   * and starts a new batch.
+   */
+  private void submitBatch() {
+    if (batchLength > 0) {
+      pendingBatches.acquireUninterruptibly();
+      checkFailure(1);
+      pool.execute(new WordCounter(sequence, batch, batchLength));
+      sequence += batchLength;
+      batch = new String[batchSize];
+      batchLength = 0;
+    }
+  }
+
+  /**
+   * The total number of unique words added. Getting this will terminate the accumulator's thread
+   * pool and disable the {@link #addMessage(String)} method.
    *
    * @return the total number of unique words
    */
   public int getSize() {
-    return words.size();
+    mergeCounts();
+    return vocabulary.size();
   }
 
   /**
-   * How many of a given word were counted.
+   * How many of a given word were counted. Getting this will terminate the accumulator's thread
+   * pool and disable the {@link #addMessage(String)} method.
    *
    * @param word being counted
-   * @return The number of times the word being counted was seen in all messages
+   * @return The number of times the word being counted was seen in all messages, saturated at
+   *         {@link Integer#MAX_VALUE}
    */
   public int getCount(String word) {
-    return words.count(word);
+    mergeCounts();
+    return Ints.saturatedCast(vocabulary.count(word));
   }
 
   /**
-   * The unordered entry set of words and their counts. Getting this will terminate the
-   * accumulator's thread pool and disable the {@link #addMessage(String)} method.
+   * The entry set of words and their counts, in the natural order of the words. Getting this will
+   * terminate the accumulator's thread pool and disable the {@link #addMessage(String)} method.
    *
    * @return a set of words and their counts
    */
   public Set<Multiset.Entry<String>> getCounts() {
-    terminatePool();
-    return words.entrySet();
+    mergeCounts();
+    final ImmutableSet.Builder<Multiset.Entry<String>> counts = ImmutableSet.builder();
+    for (String word : vocabulary.sortedWords()) {
+      counts.add(Multisets.immutableEntry(word, getCount(word)));
+    }
+    return counts.build();
   }
 
   /**
@@ -95,15 +288,179 @@ public class MessageWorkerPool {
    * @return a set of the words in natural order
    */
   public SortedSet<String> getSortedWords() {
+    mergeCounts();
+    return vocabulary.sortedWords();
+  }
+
+  /**
+   * Writes a line of each word counted, in natural order, padded to 27 characters and followed by
+   * its count. Writing this will terminate the accumulator's thread pool and disable the
+   * {@link #addMessage(String)} method.
+   *
+   * @param wordCountOutput the {@link PrintStream} to write the words and their counts to
+   */
+  public void writeSortedCounts(PrintStream wordCountOutput) {
+    mergeCounts();
+    vocabulary.writeSortedCounts(wordCountOutput);
+  }
+
+  /**
+   * Counts the messages added so far and merges all the counts. This will terminate the
+   * accumulator's thread pool and disable the {@link #addMessage(String)} method.
+   */
+  public void finishCounting() {
+    mergeCounts();
+  }
+
+  /**
+   * Writes the counts of the messages counted so far like {@link #writeSortedCounts}, but without
+   * terminating the pool, so more messages can be added. This takes every batch's permit, so it
+   * waits for the pending batches to be counted, and adding messages waits for it in turn. Messages
+   * not yet handed to the pool by filling a batch or by {@link #flush()} are not counted. This may
+   * be called from any thread.
+   *
+   * @param wordCountOutput the {@link PrintStream} to write the words and their counts to
+   */
+  public void writeSnapshot(PrintStream wordCountOutput) {
+    pendingBatches.acquireUninterruptibly(maximumPendingBatches);
+    checkFailure(maximumPendingBatches);
+    try {
+      synchronized (vocabulary) {
+        if (merged) {
+          vocabulary.writeSortedCounts(wordCountOutput);
+        } else {
+          vocabulary.writeSnapshot(wordCountOutput);
+        }
+      }
+    } finally {
+      pendingBatches.release(maximumPendingBatches);
+    }
+  }
+
+  /**
+   * Hands the messages added so far to the pool, waits until all of them are counted and their
+   * running medians written out, and then keeps every batch's permit, so that nothing more is
+   * counted until {@link #resume()}. It must be called from the thread adding messages, which
+   * must call {@link #resume()} afterwards.
+   */
+  public void quiesce() {
+    submitBatch();
+    pendingBatches.acquireUninterruptibly(maximumPendingBatches);
+    checkFailure(maximumPendingBatches);
+    while (runningMedianThread != null && medianSequence < sequence) {
+      LockSupport.parkNanos(this, QUIESCE_PARK_NANOS);
+    }
+  }
+
+  /**
+   * Gives back the permits kept by {@link #quiesce()}, so counting carries on.
+   */
+  public void resume() {
+    pendingBatches.release(maximumPendingBatches);
+  }
+
+  /**
+   * @return the number of messages added, including those of a resumed checkpoint, which is
+   *         only up to date on the thread adding them
+   */
+  long messagesAdded() {
+    return sequence + batchLength;
+  }
+
+  /**
+   * Writes the sequence of the next message. It must be written while quiesced, so that every
+   * message before it has been counted.
+   */
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    out.writeLong(sequence);
+  }
+
+  /**
+   * Reads the sequence of the next message, from which the running median carries on. It must be
+   * read before the running median is started and any message is added.
+   */
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    if (sequence != 0 || batchLength != 0 || runningMedianThread != null) {
+      throw new IllegalStateException("A checkpoint must be read before anything is counted.");
+    }
+    final long checkpointSequence = in.readLong();
+    if (checkpointSequence < 0) {
+      throw new IOException("The checkpoint has a negative sequence.");
+    }
+    ring.startAt(checkpointSequence);
+    sequence = checkpointSequence;
+    medianSequence = checkpointSequence;
+  }
+
+  /**
+   * Once the pool is terminated, merges the workers' counts in the vocabulary.
+   */
+  private void mergeCounts() {
     terminatePool();
-    return sortedWords;
+    synchronized (vocabulary) {
+      if (!merged) {
+        vocabulary.merge();
+        merged = true;
+      }
+    }
   }
 
+  /**
+   * Submits the last batch, then waits for every pending batch to be counted by taking back all
+   * of their permits, before shutting the pool down. The permits are then given back, as no more
+   * batches can be submitted.
+   */
   private void terminatePool() {
-    if (!pool.isTerminated()) {
+    if (!terminated) {
+      terminated = true;
+      submitBatch();
+      endSequence = sequence;
+      LockSupport.unpark(runningMedianThread);
+      pendingBatches.acquireUninterruptibly(maximumPendingBatches);
+      pool.shutdown();
+      pendingBatches.release(maximumPendingBatches);
+    }
+    checkFailure(0);
+  }
+
+  /**
+   * Throws the failure of a batch to be counted, if any, giving back the permits taken for it.
+   *
+   * @param permits the permits taken, which are given back if there was a failure
+   * @throws UncheckedIOException if a batch failed to be counted for want of input or output
+   * @throws Error the error a batch failed to be counted with, such as an
+   *               {@link OutOfMemoryError}
+   * @throws IllegalStateException if a batch failed to be counted for any other reason
+   */
+  private void checkFailure(int permits) {
+    final Throwable failed = failure;
+    if (failed == null) {
+      return;
+    }
+    pendingBatches.release(permits);
+    if (failed instanceof UncheckedIOException) {
+      throw new UncheckedIOException(
+          "A batch of messages could not be counted.", ((UncheckedIOException) failed).getCause());
+    }
+    if (failed instanceof Error) {
+      throw (Error) failed;
+    }
+    throw new IllegalStateException("A batch of messages could not be counted.", failed);
+  }
+
+  /**
+   * Waits for the running median started by
+   * {@link #startUniqueWordsRunningQuantiles(RunningQuantiles, PrintStream)}, if any, to output
+   * the median of every message, after the pool has been terminated by {@link #getCounts} or
+   * {@link #getSortedWords}.
+   */
+  public void awaitUniqueWordsRunningMedian() {
+    final Thread thread = runningMedianThread;
+    if (thread != null) {
       try {
-        pool.shutdown();
-        pool.awaitTermination(poolTimeout, poolTimeoutUnits);
+        thread.join();
       } catch (InterruptedException e) {
         e.printStackTrace();
       }
@@ -111,109 +468,212 @@ public class MessageWorkerPool {
   }
 
   /**
-   * Sets one long-running {@link Runnable} to gather and resequence the counts of unique words out
-   * of the queue and output the current running median of these counts to a stream with receipt of
-   * each.
+   * Starts one long-running {@link Runnable} on its own thread to gather the counts of unique
+   * words in sequence out of the ring and output the current running median of these counts to a
+   * stream with receipt of each. It must be started before any messages are added, as without it
+   * the counts of unique words are not kept.
    *
    * @param runningMedian the running median implementation to use to update the median
    * @param medianUniqueWordsOutput the {@link PrintStream} to output the running median to
    */
-  public void startUniqueWordsRunningMedian(RunningMedian<Integer> runningMedian,
+  public void startUniqueWordsRunningMedian(IntRunningMedian runningMedian,
                                             PrintStream medianUniqueWordsOutput) {
-    pool.execute(new RunningMedianTask(runningMedian, medianUniqueWordsOutput));
+    startUniqueWordsRunningQuantiles(
+        new RunningMedianQuantiles(runningMedian), medianUniqueWordsOutput);
+  }
+
+  /**
+   * Like {@link #startUniqueWordsRunningMedian(IntRunningMedian, PrintStream)} but outputs a line
+   * of each of the running quantiles, separated by spaces, with receipt of each count.
+   *
+   * @param runningQuantiles the running quantiles implementation to use to update the quantiles
+   * @param medianUniqueWordsOutput the {@link PrintStream} to output the running quantiles to
+   */
+  public void startUniqueWordsRunningQuantiles(RunningQuantiles runningQuantiles,
+                                               PrintStream medianUniqueWordsOutput) {
+    final Thread thread = new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("running-median-%d").build()
+        .newThread(new RunningMedianTask(runningQuantiles, medianUniqueWordsOutput));
+    runningMedianThread = thread;
+    thread.start();
   }
 
   /**
-   * Adds a message's words to the counting and sorted sets and queue its unique words count for the
-   * RunningMedian task.
+   * Adds a batch of messages' words to the worker thread's counts and puts their unique words
+   * counts in the ring for the RunningMedian task.
    */
   private class WordCounter implements Runnable {
 
-    private final int sequence;
-    private final String message;
+    private final long sequence;
+    private final String[] messages;
+    private final LineChunk chunk;
+    private final int length;
+
+    /**
+     * As each batch of messages comes in, it will be processed with the sequence of its first
+     * message by this runnable, which may not complete the work quite in sequence, depending on
+     * the current state of the pool.
+     *
+     * @param sequence the monotonically increasing sequence of the first message
+     * @param messages the messages to be processed, in sequence
+     * @param length the number of messages from the start of {@code messages} to process
+     */
+    public WordCounter(long sequence, String[] messages, int length) {
+      this.sequence = sequence;
+      this.messages = messages;
+      chunk = null;
+      this.length = length;
+    }
 
     /**
-     * As each message comes in, it will be processed with it's sequence by this runnable, which
-     * may not complete the work quite in sequence, depending on the current state of the pool.
+     * Like {@link #WordCounter(long, String[], int)} but decodes the messages out of a chunk of
+     * lines as it counts them.
      *
-     * @param sequence the monotonically increasing sequence int which may roll over
-     * @param message the message to be processed
+     * @param sequence the monotonically increasing sequence of the chunk's first line
+     * @param chunk the lines to be processed, in sequence
      */
-    public WordCounter(int sequence, String message) {
+    public WordCounter(long sequence, LineChunk chunk) {
       this.sequence = sequence;
-      this.message = message;
+      messages = null;
+      this.chunk = chunk;
+      length = chunk.lineCount();
     }
 
     /**
-     * Splits the message on {@link CharMatcher#BREAKING_WHITESPACE} into words and both counts the
-     * totals across messages, and sends the unique number in this message, with the sequence, to
-     * the queue for the running median.
+     * Counts the words of each message into the vocabulary, and puts the unique number in each
+     * message in its slot of the ring for the running median, waking the running median once the
+     * whole batch is put. The batch's permit is released however the counting ends, and should it
+     * fail, even with an {@link Error}, the failure is kept to be thrown to the thread adding
+     * messages, and the running median is woken to stop.
      */
     @Override
     public void run() {
-      Set<String> unique = Sets.newHashSet();
-      for (String word : splitter.split(message)) {
-        unique.add(word);
-        words.add(word);
-        sortedWords.add(word);
+      final Thread runningMedian = runningMedianThread;
+      final long start = System.nanoTime();
+      try {
+        if (chunk == null) {
+          for (int i = 0; i < length; i++) {
+            count(runningMedian, sequence + i, messages[i]);
+          }
+        } else {
+          long messageSequence = sequence;
+          for (String message : chunk) {
+            count(runningMedian, messageSequence++, message);
+          }
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Throwable e) {
+        if (failure == null) {
+          failure = e;
+        }
+      } finally {
+        metrics.batchCounted(length, System.nanoTime() - start);
+        pendingBatches.release();
+        LockSupport.unpark(runningMedian);
+      }
+    }
+
+    private void count(Thread runningMedian, long messageSequence, String message)
+        throws InterruptedException {
+      final int unique = vocabulary.countWords(message);
+      if (runningMedian != null) {
+        ring.put(messageSequence, unique);
       }
-      queue.add(SequencedCount.create(sequence, unique.size()));
     }
   }
 
   /**
-   * Dequeue {@link SequencedCount} objects and output the running median of the counts in sequence.
+   * Drain the {@link SequencedCountRing} and output the running median, or the running quantiles,
+   * of the counts in sequence. Counts which are ready in sequence are drained in runs, which are
+   * updated with {@link RunningQuantiles#updateAll}, formatted digit by digit into a reused
+   * {@link LineBuilder} with the {@link RunningQuantiles#decimalPlaces} of each quantile, and
+   * written to the output all at once. The output is flushed whenever the task catches up and waits
+   * for more counts.
    */
   private class RunningMedianTask implements Runnable {
 
-    private final RunningMedian<Integer> runningMedian;
+    private final RunningQuantiles runningQuantiles;
     private final PrintStream medianUniqueWordsOutput;
+    private final int[] run = new int[maximumRunLength];
+    private final double[] values;
+    private final int[] decimalPlaces;
+    private final LineBuilder lines = new LineBuilder(maximumRunLength * 8);
+    private boolean unflushed = false;
 
     /**
-     * Will output a running median from the implementing class given to the {@link PrintStream}
-     * provided. It will buffer counts from the queue who came out of the expected sequence order.
+     * Will output running quantiles from the implementing class given to the {@link PrintStream}
+     * provided.
      *
-     * @param runningMedian the implementing class for tracking the running median of unique words
-     * @param medianUniqueWordsOutput the print stream to which the median will be written as each
-     *                                message comes in from the queue
+     * @param runningQuantiles the implementing class for tracking the running quantiles of unique
+     *                         words, which may be just the median
+     * @param medianUniqueWordsOutput the print stream to which the quantiles will be written as
+     *                                each message comes in from the ring
      */
-    public RunningMedianTask(RunningMedian<Integer> runningMedian,
+    public RunningMedianTask(RunningQuantiles runningQuantiles,
                              PrintStream medianUniqueWordsOutput) {
-      this.runningMedian = runningMedian;
+      this.runningQuantiles = runningQuantiles;
       this.medianUniqueWordsOutput = medianUniqueWordsOutput;
+      final double[] quantiles = runningQuantiles.quantiles();
+      values = new double[maximumRunLength * quantiles.length];
+      decimalPlaces = new int[quantiles.length];
+      for (int j = 0; j < quantiles.length; j++) {
+        decimalPlaces[j] = RunningQuantiles.decimalPlaces(quantiles[j]);
+      }
     }
 
     /**
-     * Receives counts from sequenced messages and buffers those from an unexpected sequence number
-     * while outputting the running median for each expected sequence number.
+     * Drains the counts from the ring as they are published in sequence, outputting the running
+     * median for each. When the next count is not yet published, it flushes the output, and then
+     * parks until a worker or the termination of the pool wakes it, and it finishes after the last
+     * message's count, or at the first count left unpublished by a batch which failed, so that
+     * waiting for it returns.
+     * <p>
+     * The output may itself park this thread while it waits for its writes, which would take the
+     * permit of a worker's wake up meant for the ring. So the ring is checked again after a flush,
+     * and the thread only parks straight after finding the next count unpublished.
+     * </p>
      */
     @Override
     public void run() {
-      HashMap<Integer, Integer> buffer = new HashMap<>();
-      int expectedSequence = 0;
-      boolean keepRunning = true;
-      do {
-        try {
-          SequencedCount sc = queue.remove();
-          buffer.put(sc.sequence(), sc.count());
-          while (buffer.containsKey(expectedSequence)) {
-            stepRunningMedianWith(buffer.remove(expectedSequence));
-            expectedSequence++;
-          }
-        } catch (NoSuchElementException nse) {
-          // If the queue is empty we wait a 20th of a second to see if the pool is terminating.
-          try {
-            keepRunning = !pool.awaitTermination(50L, TimeUnit.MILLISECONDS);
-          } catch (InterruptedException ie) {
-            // If not, we'll keep running looking for more in the queue.
-          }
+      while (true) {
+        final long first = ring.next();
+        final int runLength = ring.drainTo(run, run.length);
+        if (runLength > 0) {
+          stepRunningMedianWithRun(first, runLength);
+          medianSequence = ring.next();
+        } else if (ring.next() == endSequence || failure != null) {
+          break;
+        } else if (unflushed) {
+          medianUniqueWordsOutput.flush();
+          unflushed = false;
+        } else {
+          LockSupport.park(this);
         }
-      } while (keepRunning);
+      }
       medianUniqueWordsOutput.close();
     }
 
-    private void stepRunningMedianWith(Integer uniqueWords) {
-      medianUniqueWordsOutput.printf("%.1f\n", runningMedian.update(uniqueWords));
+    /**
+     * Updates the running quantiles with the run of counts in sequence, and outputs a line for each
+     * count in one write to the output, noting the run in the metrics.
+     */
+    private void stepRunningMedianWithRun(long first, int runLength) {
+      runningQuantiles.updateAll(run, runLength, values);
+      final int width = decimalPlaces.length;
+      lines.reset();
+      for (int i = 0; i < runLength * width; i += width) {
+        lines.appendDecimal(values[i], decimalPlaces[0]);
+        for (int j = 1; j < width; j++) {
+          lines.append(' ').appendDecimal(values[i + j], decimalPlaces[j]);
+        }
+        lines.append('\n');
+      }
+      final long start = System.nanoTime();
+      lines.writeTo(medianUniqueWordsOutput);
+      final long now = System.nanoTime();
+      metrics.mediansWritten(first, runLength, now - start, now);
+      unflushed = true;
     }
   }
 }
@@ -0,0 +1,361 @@
+package lamblin.tweetstats;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SortedSet;
+import java.util.stream.IntStream;
+
+import lamblin.common.wordcount.GenerationSet;
+import lamblin.common.wordcount.OffHeapWordTable;
+import lamblin.common.wordcount.WhitespaceTokenizer;
+
+/**
+ * Counts words as UTF-8 bytes off the heap, in each thread's own {@link OffHeapWordTable}, so
+ * that a vocabulary of hundreds of millions of words does not fill the heap with {@link String}s.
+ * When all the words are counted, these are merged in parallel into partitions of the words by
+ * their hash, and each partition is sorted in parallel. The sorted partitions are then merged
+ * while writing, in chunks which are merged and formatted in parallel, with the bytes of each
+ * word copied straight from its table.
+ * <p>
+ * The words' bytes are held in direct buffers, which count against
+ * {@code -XX:MaxDirectMemorySize} and are only freed by the garbage collector. So that the merged
+ * partitions and the threads' tables do not both hold every word at once, the tables are merged
+ * one at a time, and each one taken by {@link #merge()} is let go of once it is merged.
+ * </p><p>
+ * Each snapshot folds the threads' counts into the partitions of the snapshots before it, and
+ * then clears the threads' tables, so a snapshot only merges the words counted since the last
+ * one, and only sorts the words new to each partition before merging them into its sorted ids.
+ * </p><p>
+ * Getting the {@link #sortedWords()} decodes every word onto the heap, so it is best avoided for
+ * large vocabularies in favour of {@link #writeSortedCounts(PrintStream)}, which writes UTF-8
+ * whatever the encoding of the stream.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class OffHeapVocabulary extends ShardedVocabulary<OffHeapVocabulary.Shard> {
+
+  private OffHeapWordTable[] partitions;
+  private int[][] sortedIds;
+  private int size;
+  private ImmutableSortedSet<String> sortedWords;
+
+  /**
+   * The words counted by one thread, with its tokenizer and the set of the word ids seen in the
+   * current message.
+   */
+  static class Shard {
+
+    private final OffHeapWordTable table = new OffHeapWordTable();
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final GenerationSet unique = new GenerationSet();
+  }
+
+  @Override
+  public String hashFamily() {
+    return OffHeapWordTable.HASH_FAMILY;
+  }
+
+  @Override
+  Shard newShard() {
+    return new Shard();
+  }
+
+  @Override
+  int countWords(Shard shard, String message) {
+    int uniqueCount = 0;
+    final DistinctWordEstimates.Recorder distinct = distinctWords();
+    shard.unique.clear();
+    shard.tokenizer.reset(message);
+    while (shard.tokenizer.next()) {
+      final int id = shard.table.add(message, shard.tokenizer.start(), shard.tokenizer.end(), 1);
+      if (shard.unique.add(id)) {
+        uniqueCount++;
+        if (distinct != null) {
+          distinct.add(shard.table.hash(id));
+        }
+      }
+    }
+    return uniqueCount;
+  }
+
+  /**
+   * Merges the threads' counts into partitions of the words by their hash and sorts the ids of
+   * each partition's words, with each partition merged and sorted in parallel, folding them into
+   * the partitions of the last snapshot, if any.
+   */
+  @Override
+  public void merge() {
+    merge(takeShards());
+  }
+
+  /**
+   * Folds the threads' counts into the partitions of the last snapshot and writes them, then
+   * clears the threads' tables to count from there. It is called only while no thread is counting.
+   */
+  @Override
+  public void writeSnapshot(PrintStream out) {
+    final List<Shard> shards = shards();
+    merge(new ArrayList<>(shards));
+    for (Shard shard : shards) {
+      shard.table.clear();
+    }
+    writeSortedCounts(out);
+    sortedWords = null;
+  }
+
+  /**
+   * Writes the partitions of the last snapshot, if any, then merges the threads' counts since
+   * then into partitions, so each word is written once more at most, but without sorting them, and
+   * writes the bytes of each word straight from its partition.
+   */
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    if (partitions != null) {
+      writeCheckpointEntries(out, partitions);
+    }
+    final OffHeapWordTable[] counted = newPartitions();
+    fold(shards(), counted);
+    writeCheckpointEntries(out, counted);
+    endCheckpoint(out);
+  }
+
+  private static void writeCheckpointEntries(DataOutputStream out, OffHeapWordTable[] tables)
+      throws IOException {
+    for (OffHeapWordTable table : tables) {
+      for (int id = 0; id < table.size(); id++) {
+        out.writeInt(table.byteLength(id));
+        table.writeWord(id, out);
+        out.writeLong(table.count(id));
+      }
+    }
+  }
+
+  /**
+   * Adds the bytes of each word straight into the calling thread's table, so reading the counts
+   * allocates nothing on the heap for each word.
+   */
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    final OffHeapWordTable table = shard().table;
+    readCheckpointEntries(in, table::add);
+  }
+
+  /**
+   * Folds the shards into the partitions, starting them if there are none yet, then sorts the ids
+   * of the words new to each partition and merges them into the partition's sorted ids.
+   */
+  private void merge(List<Shard> shards) {
+    if (partitions == null) {
+      partitions = newPartitions();
+      sortedIds = new int[partitions.length][0];
+    }
+    fold(shards, partitions);
+    IntStream.range(0, partitions.length).parallel().forEach(
+        partition -> sortedIds[partition] = partitions[partition].sortedIds(sortedIds[partition]));
+    sortedWords = null;
+    size = 0;
+    for (OffHeapWordTable table : partitions) {
+      size += table.size();
+    }
+  }
+
+  /**
+   * @return an empty table for each partition
+   */
+  private OffHeapWordTable[] newPartitions() {
+    final OffHeapWordTable[] tables = new OffHeapWordTable[partitions()];
+    for (int partition = 0; partition < tables.length; partition++) {
+      tables[partition] = new OffHeapWordTable();
+    }
+    return tables;
+  }
+
+  /**
+   * Merges the shards into partitions of the words by their hash one at a time, each by bucketing
+   * its words by partition and merging each partition's bucket in parallel, and then clears the
+   * shard from the list, so that a shard no longer counting can be collected as soon as it is
+   * merged.
+   *
+   * @param shards the shards to merge, which are cleared from the list
+   * @param merged the table of each partition to add the shards' counts to
+   */
+  private void fold(List<Shard> shards, OffHeapWordTable[] merged) {
+    for (int s = 0; s < shards.size(); s++) {
+      final OffHeapWordTable shardTable = shards.get(s).table;
+      final int[][] buckets = partitionIds(shardTable.size(), shardTable::hash);
+      IntStream.range(0, merged.length).parallel().forEach(partition -> {
+        for (int id : buckets[partition]) {
+          merged[partition].add(shardTable, id, shardTable.count(id));
+        }
+      });
+      shards.set(s, null);
+    }
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public long count(String word) {
+    final OffHeapWordTable partition = partitions[partitionOf(OffHeapWordTable.hash(word))];
+    final int id = partition.idOf(word);
+    return id < 0 ? 0 : partition.count(id);
+  }
+
+  @Override
+  public SortedSet<String> sortedWords() {
+    if (sortedWords == null) {
+      final ImmutableSortedSet.Builder<String> words = ImmutableSortedSet.naturalOrder();
+      final SortedMerge merge = new SortedMerge();
+      while (merge.next()) {
+        words.add(partitions[merge.partition].word(merge.id));
+      }
+      sortedWords = words.build();
+    }
+    return sortedWords;
+  }
+
+  /**
+   * Splits the sorted words into chunks, then merges and formats the chunks in parallel, writing
+   * them in order.
+   */
+  @Override
+  public void writeSortedCounts(PrintStream out) {
+    final int[][] starts = chunkStarts();
+    writeChunks(starts.length - 1, (chunk, lines) -> {
+      final SortedMerge merge = new SortedMerge(starts[chunk], starts[chunk + 1]);
+      while (merge.next()) {
+        final OffHeapWordTable table = partitions[merge.partition];
+        table.appendWord(merge.id, lines);
+        appendCount(lines, table.charLength(merge.id), table.count(merge.id));
+      }
+    }, out);
+  }
+
+  /**
+   * Splits the sorted words into chunks of about {@link #CHUNK_WORDS} by splitters taken evenly
+   * from the largest partition's sorted words. As words fall into partitions by their hash, each
+   * partition has about as many words between two splitters, found by a binary search.
+   *
+   * @return the position in each partition's sorted ids at which each chunk starts, followed by
+   *         the end of each partition's sorted ids
+   */
+  private int[][] chunkStarts() {
+    int largest = 0;
+    for (int p = 0; p < partitions.length; p++) {
+      if (sortedIds[p].length > sortedIds[largest].length) {
+        largest = p;
+      }
+    }
+    final int[] splitters = sortedIds[largest];
+    final int chunks = Math.max(1, Math.min(splitters.length, size / CHUNK_WORDS));
+    final int[][] starts = new int[chunks + 1][];
+    starts[0] = new int[partitions.length];
+    starts[chunks] = partitionSizes();
+    final int from = largest;
+    IntStream.range(1, chunks).parallel().forEach(chunk -> {
+      final int splitter = splitters[(int) ((long) chunk * splitters.length / chunks)];
+      starts[chunk] = new int[partitions.length];
+      for (int p = 0; p < partitions.length; p++) {
+        starts[chunk][p] = lowerBound(p, partitions[from], splitter);
+      }
+    });
+    return starts;
+  }
+
+  /**
+   * @return the number of words in each partition, which is the end of each one's sorted ids
+   */
+  private int[] partitionSizes() {
+    final int[] sizes = new int[partitions.length];
+    for (int p = 0; p < partitions.length; p++) {
+      sizes[p] = sortedIds[p].length;
+    }
+    return sizes;
+  }
+
+  /**
+   * @return the first position in a partition's sorted ids of a word not less than the given word
+   */
+  private int lowerBound(int partition, OffHeapWordTable table, int id) {
+    final int[] ids = sortedIds[partition];
+    int low = 0;
+    int high = ids.length;
+    while (low < high) {
+      final int middle = (low + high) >>> 1;
+      if (OffHeapWordTable.compare(partitions[partition], ids[middle], table, id) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Steps through the words of all the partitions in order, by merging their sorted ids, from a
+   * start to an end position in each. As the partitions hold distinct words, there are no counts
+   * to combine.
+   */
+  private class SortedMerge {
+
+    private final int[] positions;
+    private final int[] ends;
+    private final PriorityQueue<Integer> heads;
+    private int partition = -1;
+    private int id = -1;
+
+    /**
+     * Merges all the words.
+     */
+    SortedMerge() {
+      this(new int[partitions.length], partitionSizes());
+    }
+
+    /**
+     * @param starts the position in each partition's sorted ids to start from
+     * @param ends the position in each partition's sorted ids to stop before
+     */
+    SortedMerge(int[] starts, int[] ends) {
+      positions = starts.clone();
+      this.ends = ends;
+      heads = new PriorityQueue<>(
+          Math.max(1, partitions.length),
+          (a, b) -> OffHeapWordTable.compare(partitions[a], sortedIds[a][positions[a]],
+                                             partitions[b], sortedIds[b][positions[b]]));
+      for (int p = 0; p < partitions.length; p++) {
+        if (positions[p] < ends[p]) {
+          heads.add(p);
+        }
+      }
+    }
+
+    /**
+     * Moves to the next word in order.
+     *
+     * @return {@code true} if there is another word, then in {@link #partition} and {@link #id}
+     */
+    boolean next() {
+      if (partition >= 0 && ++positions[partition] < ends[partition]) {
+        heads.add(partition);
+      }
+      final Integer head = heads.poll();
+      if (head == null) {
+        return false;
+      }
+      partition = head;
+      id = sortedIds[partition][positions[partition]];
+      return true;
+    }
+  }
+}
@@ -0,0 +1,316 @@
+package lamblin.tweetstats;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lamblin.common.metrics.LatencyHistogram;
+
+/**
+ * Measures each stage of a {@link MessageWorkerPool} while it runs: the lines read, how many
+ * batches wait for a worker, how busy the workers are and how long each batch takes them, how
+ * many counts wait in the {@link SequencedCountRing} for the running median, how long writing
+ * each run of running medians to ft2.txt takes, and the latency of a line from being read to its
+ * running median being written. Reading that falls behind shows as full pending batches, slow
+ * workers as busy workers with long batches, and a slow running median or ft2.txt as many lines
+ * awaiting their median.
+ * <p>
+ * The lines read are counted as they are added to the pool, by the one thread adding them, with
+ * an ordered store rather than an atomic add. The other counters are {@link LongAdder}s, added to
+ * once per batch or run rather than per line, and the latencies go into
+ * {@link LatencyHistogram}s. The latency of every 64th line is measured by
+ * noting when it is added to the pool, with its sequence, in a ring of samples big enough for
+ * every line which can be in the pool at once, and looking it up when its median is written.
+ * </p><p>
+ * The metrics are registered as an MBean by {@link #register()}, and a line of them over the
+ * interval since the last is got from {@link #intervalLine()}.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class PipelineMetrics implements PipelineMetricsMBean {
+
+  /**
+   * The name the metrics are registered under.
+   */
+  public static final String OBJECT_NAME = "lamblin.tweetstats:type=PipelineMetrics";
+
+  private static final int SAMPLE_BITS = 6;
+  private static final int SAMPLE_MASK = (1 << SAMPLE_BITS) - 1;
+  private static final int MAXIMUM_SAMPLES = 1 << 20;
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private final int threads;
+  private final int maximumPendingBatches;
+  private final IntSupplier pendingBatches;
+  private final long startNanos = System.nanoTime();
+
+  /**
+   * Written only by the thread adding lines.
+   */
+  private final AtomicLong linesRead = new AtomicLong();
+  private final LongAdder messagesCounted = new LongAdder();
+  private final LongAdder workerNanos = new LongAdder();
+  private final LongAdder mediansWritten = new LongAdder();
+  private final LatencyHistogram batchNanos = new LatencyHistogram();
+  private final LatencyHistogram ft2WriteNanos = new LatencyHistogram();
+  private final LatencyHistogram latencyNanos = new LatencyHistogram();
+
+  /**
+   * The sequence and read time of the sampled lines, written by the thread adding lines before
+   * the batch holding them is handed to the pool, and read once their median is written.
+   */
+  private final long[] sampleSequences;
+  private final long[] sampleNanos;
+  private final int sampleSlotMask;
+
+  private long lastNanos = startNanos;
+  private long lastLinesRead = 0;
+  private long lastWorkerNanos = 0;
+  private LatencyHistogram.Snapshot lastBatch;
+  private LatencyHistogram.Snapshot lastFt2Write;
+  private LatencyHistogram.Snapshot lastLatency;
+
+  /**
+   * @param threads the number of worker threads counting batches
+   * @param maximumPendingBatches the batches which may be pending before reading waits
+   * @param pendingBatches the batches pending at the moment it is called
+   * @param maximumInFlight the most lines which can be read but not yet have their median written
+   */
+  PipelineMetrics(int threads, int maximumPendingBatches, IntSupplier pendingBatches,
+                  long maximumInFlight) {
+    this.threads = threads;
+    this.maximumPendingBatches = maximumPendingBatches;
+    this.pendingBatches = pendingBatches;
+    final int samples = (int) Math.min(
+        MAXIMUM_SAMPLES, Long.highestOneBit(Math.max(1, maximumInFlight >>> SAMPLE_BITS)) << 1);
+    sampleSequences = new long[samples];
+    sampleNanos = new long[samples];
+    sampleSlotMask = samples - 1;
+    lastBatch = batchNanos.snapshot();
+    lastFt2Write = ft2WriteNanos.snapshot();
+    lastLatency = latencyNanos.snapshot();
+  }
+
+  /**
+   * Counts lines read as they are added to the pool, whether or not they have been handed to a
+   * worker in a batch yet. It is called by the one thread adding lines.
+   *
+   * @param length the lines read
+   */
+  void linesRead(int length) {
+    linesRead.lazySet(linesRead.get() + length);
+  }
+
+  /**
+   * Notes the time a line is read if it is one of those sampled. It is called by the one thread
+   * adding lines, before the batch holding the line is handed to the pool.
+   *
+   * @param sequence the sequence of the line
+   */
+  void sampleReadTime(long sequence) {
+    if ((sequence & SAMPLE_MASK) == 0) {
+      final int slot = (int) (sequence >>> SAMPLE_BITS) & sampleSlotMask;
+      sampleNanos[slot] = System.nanoTime();
+      sampleSequences[slot] = sequence;
+    }
+  }
+
+  /**
+   * Notes the time the lines of a chunk are read, for those of them which are sampled.
+   *
+   * @param firstSequence the sequence of the chunk's first line
+   * @param length the lines in the chunk
+   */
+  void sampleReadTimes(long firstSequence, int length) {
+    final long end = firstSequence + length;
+    for (long sequence = (firstSequence + SAMPLE_MASK) & ~SAMPLE_MASK; sequence < end;
+         sequence += SAMPLE_MASK + 1) {
+      sampleReadTime(sequence);
+    }
+  }
+
+  /**
+   * @param length the lines of the batch a worker counted
+   * @param nanos the time the worker took to count the batch
+   */
+  void batchCounted(int length, long nanos) {
+    messagesCounted.add(length);
+    workerNanos.add(nanos);
+    batchNanos.record(nanos);
+  }
+
+  /**
+   * Notes a run of running medians written to ft2.txt, and the latency of the sampled lines in
+   * the run. It is called by the running median's thread.
+   *
+   * @param firstSequence the sequence of the first line in the run
+   * @param length the lines in the run
+   * @param writeNanos the time taken to write the run
+   * @param nowNanos the time the run was written
+   */
+  void mediansWritten(long firstSequence, int length, long writeNanos, long nowNanos) {
+    mediansWritten.add(length);
+    ft2WriteNanos.record(writeNanos);
+    final long end = firstSequence + length;
+    for (long sequence = (firstSequence + SAMPLE_MASK) & ~SAMPLE_MASK; sequence < end;
+         sequence += SAMPLE_MASK + 1) {
+      final int slot = (int) (sequence >>> SAMPLE_BITS) & sampleSlotMask;
+      if (sampleSequences[slot] == sequence) {
+        latencyNanos.record(nowNanos - sampleNanos[slot]);
+      }
+    }
+  }
+
+  /**
+   * Registers these metrics with the platform MBean server under {@link #OBJECT_NAME}, replacing
+   * any registered before, or else prints why it cannot to stderr.
+   */
+  public void register() {
+    try {
+      final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      final ObjectName name = new ObjectName(OBJECT_NAME);
+      if (server.isRegistered(name)) {
+        server.unregisterMBean(name);
+      }
+      server.registerMBean(this, name);
+    } catch (JMException e) {
+      System.err.println("Unable to register the pipeline metrics as an MBean.");
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * A line of the metrics since the last line, or since the pool was made, for a log. Lines per
+   * second, worker utilization and the medians and 99th percentiles of the times are over the
+   * interval, while the lines read, pending batches and lines awaiting their median are at the
+   * end of it:
+   * <pre>
+   * stats lines=1048576 lines/s=209715 pending=3/64 awaiting=2048 workers=87%
+   * batch_ms=0.412/1.201 ft2_write_ms=0.020/0.098 latency_ms=3.120/12.410
+   * </pre>
+   * all on one line.
+   *
+   * @return the line, without a line separator
+   */
+  public synchronized String intervalLine() {
+    final long now = System.nanoTime();
+    final long lines = linesRead.get();
+    final long worked = workerNanos.sum();
+    final LatencyHistogram.Snapshot batch = batchNanos.snapshot();
+    final LatencyHistogram.Snapshot ft2Write = ft2WriteNanos.snapshot();
+    final LatencyHistogram.Snapshot latency = latencyNanos.snapshot();
+    final LatencyHistogram.Snapshot intervalBatch = batch.minus(lastBatch);
+    final LatencyHistogram.Snapshot intervalFt2Write = ft2Write.minus(lastFt2Write);
+    final LatencyHistogram.Snapshot intervalLatency = latency.minus(lastLatency);
+    final double seconds = Math.max(1, now - lastNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    final String line = String.format(
+        Locale.ROOT,
+        "stats lines=%d lines/s=%.0f pending=%d/%d awaiting=%d workers=%.0f%% "
+        + "batch_ms=%.3f/%.3f ft2_write_ms=%.3f/%.3f latency_ms=%.3f/%.3f",
+        lines, (lines - lastLinesRead) / seconds, getPendingBatches(), maximumPendingBatches,
+        getAwaitingMedian(), 100 * utilization(worked - lastWorkerNanos, now - lastNanos),
+        millis(intervalBatch, 0.5), millis(intervalBatch, 0.99),
+        millis(intervalFt2Write, 0.5), millis(intervalFt2Write, 0.99),
+        millis(intervalLatency, 0.5), millis(intervalLatency, 0.99));
+    lastNanos = now;
+    lastLinesRead = lines;
+    lastWorkerNanos = worked;
+    lastBatch = batch;
+    lastFt2Write = ft2Write;
+    lastLatency = latency;
+    return line;
+  }
+
+  private double utilization(long workedNanos, long elapsedNanos) {
+    return Math.min(1, workedNanos / (Math.max(1, elapsedNanos) * (double) threads));
+  }
+
+  private static double millis(LatencyHistogram.Snapshot snapshot, double quantile) {
+    return snapshot.percentile(quantile) / NANOS_PER_MILLI;
+  }
+
+  @Override
+  public long getLinesRead() {
+    return linesRead.get();
+  }
+
+  @Override
+  public double getLinesPerSecond() {
+    final double seconds =
+        Math.max(1, System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    return linesRead.get() / seconds;
+  }
+
+  @Override
+  public long getMessagesCounted() {
+    return messagesCounted.sum();
+  }
+
+  @Override
+  public long getMediansWritten() {
+    return mediansWritten.sum();
+  }
+
+  @Override
+  public int getPendingBatches() {
+    return pendingBatches.getAsInt();
+  }
+
+  @Override
+  public int getMaximumPendingBatches() {
+    return maximumPendingBatches;
+  }
+
+  @Override
+  public long getAwaitingMedian() {
+    return Math.max(0, messagesCounted.sum() - mediansWritten.sum());
+  }
+
+  @Override
+  public double getWorkerUtilization() {
+    return utilization(workerNanos.sum(), System.nanoTime() - startNanos);
+  }
+
+  @Override
+  public double getBatchMillisP50() {
+    return millis(batchNanos.snapshot(), 0.5);
+  }
+
+  @Override
+  public double getBatchMillisP99() {
+    return millis(batchNanos.snapshot(), 0.99);
+  }
+
+  @Override
+  public double getFt2WriteMillisP50() {
+    return millis(ft2WriteNanos.snapshot(), 0.5);
+  }
+
+  @Override
+  public double getFt2WriteMillisP99() {
+    return millis(ft2WriteNanos.snapshot(), 0.99);
+  }
+
+  @Override
+  public double getLatencyMillisP50() {
+    return millis(latencyNanos.snapshot(), 0.5);
+  }
+
+  @Override
+  public double getLatencyMillisP99() {
+    return millis(latencyNanos.snapshot(), 0.99);
+  }
+
+  @Override
+  public double getLatencyMillisP999() {
+    return millis(latencyNanos.snapshot(), 0.999);
+  }
+}
@@ -0,0 +1,91 @@
+package lamblin.tweetstats;
+
+/**
+ * The attributes of {@link PipelineMetrics} read over JMX, as under
+ * {@code lamblin.tweetstats:type=PipelineMetrics} in JConsole or VisualVM. Counts and percentiles
+ * are over the whole run so far.
+ *
+ * @author Daniel Lamblin
+ */
+public interface PipelineMetricsMBean {
+
+  /**
+   * @return the lines read and added to the worker pool, whether or not they have been handed to
+   *         a worker in a batch yet
+   */
+  long getLinesRead();
+
+  /**
+   * @return the lines read per second since the pool was made
+   */
+  double getLinesPerSecond();
+
+  /**
+   * @return the lines whose words have been counted
+   */
+  long getMessagesCounted();
+
+  /**
+   * @return the lines whose running median has been written to ft2.txt
+   */
+  long getMediansWritten();
+
+  /**
+   * @return the batches handed to the pool and not yet counted
+   */
+  int getPendingBatches();
+
+  /**
+   * @return the batches which may be pending before reading waits for one to be counted
+   */
+  int getMaximumPendingBatches();
+
+  /**
+   * @return the lines counted but waiting in the sequenced ring for their running median, which
+   *         includes those counted ahead of a line still being counted
+   */
+  long getAwaitingMedian();
+
+  /**
+   * @return the fraction of the worker threads' time spent counting since the pool was made
+   */
+  double getWorkerUtilization();
+
+  /**
+   * @return the median time a worker takes to count a batch, in milliseconds
+   */
+  double getBatchMillisP50();
+
+  /**
+   * @return the 99th percentile time a worker takes to count a batch, in milliseconds
+   */
+  double getBatchMillisP99();
+
+  /**
+   * @return the median time to write a run of running medians to ft2.txt, in milliseconds
+   */
+  double getFt2WriteMillisP50();
+
+  /**
+   * @return the 99th percentile time to write a run of running medians to ft2.txt, in
+   *         milliseconds
+   */
+  double getFt2WriteMillisP99();
+
+  /**
+   * @return the median time from reading a line to writing its running median, in milliseconds
+   */
+  double getLatencyMillisP50();
+
+  /**
+   * @return the 99th percentile time from reading a line to writing its running median, in
+   *         milliseconds
+   */
+  double getLatencyMillisP99();
+
+  /**
+   * @return the 99.9th percentile time from reading a line to writing its running median, in
+   *         milliseconds
+   */
+  double getLatencyMillisP999();
+}
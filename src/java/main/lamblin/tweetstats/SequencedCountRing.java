@@ -0,0 +1,123 @@
+package lamblin.tweetstats;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Passes the counts of unique words in sequenced messages from the pooled workers to the one
+ * running median consumer, in the style of the LMAX Disruptor. It is a preallocated, power of two
+ * sized ring of {@code int} count slots indexed by the 64-bit sequence of their message.
+ * <p>
+ * Workers write the count into the slot of its sequence and then publish that sequence for the
+ * slot, in whatever order the workers finish. The consumer advances over the contiguous published
+ * sequences, so counts come out in sequence without buffering those that came out of order. A
+ * worker which gets a whole ring ahead of the consumer waits for its slot to be consumed, so the
+ * memory used stays bounded when one worker stalls.
+ * </p><p>
+ * Any number of threads may put counts, but only one may drain them.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+final class SequencedCountRing {
+
+  private static final long PRODUCER_PARK_NANOS = 50000L;
+
+  private final int[] counts;
+  private final AtomicLongArray published;
+  private final int mask;
+  /**
+   * The sequence the consumer drains next; all those before it have been consumed.
+   */
+  private final AtomicLong next = new AtomicLong();
+
+  /**
+   * @param capacity the number of count slots, a power of two
+   */
+  SequencedCountRing(int capacity) {
+    if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("The capacity must be a power of two.");
+    }
+    counts = new int[capacity];
+    published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      published.set(i, -1L);
+    }
+    mask = capacity - 1;
+  }
+
+  /**
+   * Writes and publishes the count for a sequence, first waiting for the consumer to drain the
+   * count a whole ring before it if that has not been drained yet. Waiting inside a
+   * {@link ForkJoinPool} lets the pool run other work, such as the sequences the consumer needs.
+   *
+   * @param sequence the sequence of the message counted, which is put only once
+   * @param count the count of unique words in the message
+   * @throws InterruptedException if interrupted while waiting for the slot
+   */
+  void put(long sequence, int count) throws InterruptedException {
+    if (sequence - counts.length >= next.get()) {
+      ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+        @Override
+        public boolean block() {
+          LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+          return isReleasable();
+        }
+
+        @Override
+        public boolean isReleasable() {
+          return sequence - counts.length < next.get();
+        }
+      });
+    }
+    final int index = (int) sequence & mask;
+    counts[index] = count;
+    published.lazySet(index, sequence);
+  }
+
+  /**
+   * Copies the counts of the contiguous published sequences from the next one to be drained, up to
+   * a maximum, and frees their slots.
+   *
+   * @param destination receives the counts in sequence from index 0
+   * @param maximum the most counts to drain
+   * @return the number of counts drained, which is 0 if the next sequence is not yet published
+   */
+  int drainTo(int[] destination, int maximum) {
+    final long first = next.get();
+    int drained = 0;
+    while (drained < maximum) {
+      final int index = (int) (first + drained) & mask;
+      if (published.get(index) != first + drained) {
+        break;
+      }
+      destination[drained++] = counts[index];
+    }
+    if (drained > 0) {
+      next.lazySet(first + drained);
+    }
+    return drained;
+  }
+
+  /**
+   * Starts the ring at a later sequence, as when resuming from a checkpoint, before any count has
+   * been put.
+   *
+   * @param sequence the sequence of the first count to be put and drained
+   */
+  void startAt(long sequence) {
+    if (sequence < 0) {
+      throw new IllegalArgumentException("The sequence must not be negative.");
+    }
+    next.set(sequence);
+  }
+
+  /**
+   * @return the sequence to be drained next
+   */
+  long next() {
+    return next.get();
+  }
+}
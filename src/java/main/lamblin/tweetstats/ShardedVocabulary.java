@@ -0,0 +1,280 @@
+package lamblin.tweetstats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.IntStream;
+
+import lamblin.common.output.LineBuilder;
+
+/**
+ * Counts words into a shard of the vocabulary confined to each thread, so that no counting is
+ * contended, and partitions the words by the high bits of their hashes to merge the shards'
+ * counts with one task per partition. Each shard's words are first sorted into a bucket for each
+ * partition, so each task reads only the words of its own partition.
+ * <p>
+ * The checkpoints of the subclasses are entries of a word's UTF-8 bytes, prefixed by their length,
+ * and its count, ended by a length of {@code -1}. The same word may have more than one entry,
+ * whose counts add up.
+ * </p>
+ *
+ * @param <S> the type of each thread's shard
+ * @author Daniel Lamblin
+ */
+abstract class ShardedVocabulary<S> implements Vocabulary {
+
+  /**
+   * The number of chars each word is padded to in the sorted counts.
+   */
+  static final int WORD_WIDTH = 27;
+  /**
+   * The number of bytes of sorted counts built up before writing them out.
+   */
+  static final int WRITE_BUFFER_SIZE = 1 << 16;
+  /**
+   * The number of sorted counts formatted as one chunk by {@link #writeChunks}.
+   */
+  static final int CHUNK_WORDS = 1 << 14;
+
+  /**
+   * The number of high bits of a word's hash picking its merged partition.
+   */
+  private final int partitionBits =
+      32 - Integer.numberOfLeadingZeros(4 * Runtime.getRuntime().availableProcessors() - 1);
+  private final Queue<S> shards = new ConcurrentLinkedQueue<>();
+  private final ThreadLocal<S> shard = ThreadLocal.withInitial(() -> {
+    final S newShard = newShard();
+    shards.add(newShard);
+    return newShard;
+  });
+  private volatile DistinctWordEstimates distinctWords;
+
+  /**
+   * Receives the entries read from a checkpoint.
+   */
+  interface CheckpointEntries {
+
+    /**
+     * @param bytes the UTF-8 bytes of the word, which are overwritten by the next entry
+     * @param length the number of bytes of the word from the start of {@code bytes}
+     * @param count the count of the word
+     * @throws IOException if the entry cannot be kept
+     */
+    void add(byte[] bytes, int length, long count) throws IOException;
+  }
+
+  /**
+   * Formats the lines of one chunk of the sorted counts. Chunks are formatted by many threads at
+   * once.
+   */
+  interface ChunkFormatter {
+
+    /**
+     * @param chunk the index of the chunk, from 0 in the order of the words
+     * @param lines the empty lines to append the chunk's lines to
+     */
+    void format(int chunk, LineBuilder lines);
+  }
+
+  @Override
+  public int countWords(String message) {
+    return countWords(shard.get(), message);
+  }
+
+  @Override
+  public void estimateDistinctWords(DistinctWordEstimates estimates) {
+    distinctWords = estimates;
+  }
+
+  /**
+   * Gets the calling thread's recorder of distinct words at the start of counting a message.
+   *
+   * @return the recorder to add the hash of each unique word of the message to, or null if the
+   *         distinct words are not estimated
+   */
+  DistinctWordEstimates.Recorder distinctWords() {
+    final DistinctWordEstimates estimates = distinctWords;
+    return estimates == null ? null : estimates.recorder();
+  }
+
+  /**
+   * @return a new shard for a thread which has not counted any words yet
+   */
+  abstract S newShard();
+
+  /**
+   * Counts each word of the message into the calling thread's shard.
+   *
+   * @param shard the calling thread's shard
+   * @param message the message to count the words of
+   * @return the number of unique words in the message
+   */
+  abstract int countWords(S shard, String message);
+
+  /**
+   * @return the calling thread's shard, such as to read a checkpoint into
+   */
+  S shard() {
+    return shard.get();
+  }
+
+  /**
+   * @return the shards of all the threads which counted words, which are kept to count more
+   */
+  List<S> shards() {
+    return new ArrayList<>(shards);
+  }
+
+  /**
+   * Takes the shards to merge them, so that they can be collected once they are merged. The
+   * calling thread's shard, such as one a checkpoint was read into, is let go of too, while the
+   * pool's threads have ended with theirs.
+   *
+   * @return the shards of all the threads which counted words
+   */
+  List<S> takeShards() {
+    final List<S> taken = new ArrayList<>(shards);
+    shards.clear();
+    shard.remove();
+    return taken;
+  }
+
+  /**
+   * Ends the line of a word already appended to the lines, as {@code printf("%-27s %d\n")} would,
+   * and writes the lines out once there are enough of them.
+   *
+   * @param lines the lines being built, ending with the word
+   * @param wordChars the number of chars of the word, as its {@link String#length()}
+   * @param count the count of the word
+   * @param out the stream to write the lines to
+   */
+  static void appendCount(LineBuilder lines, int wordChars, long count, PrintStream out) {
+    appendCount(lines, wordChars, count);
+    if (lines.length() >= WRITE_BUFFER_SIZE) {
+      lines.writeTo(out);
+      lines.reset();
+    }
+  }
+
+  /**
+   * Ends the line of a word already appended to the lines, as {@code printf("%-27s %d\n")} would.
+   *
+   * @param lines the lines being built, ending with the word
+   * @param wordChars the number of chars of the word, as its {@link String#length()}
+   * @param count the count of the word
+   */
+  static void appendCount(LineBuilder lines, int wordChars, long count) {
+    lines.appendSpaces(WORD_WIDTH - wordChars).append(' ').append(count).append('\n');
+  }
+
+  /**
+   * Formats the chunks of the sorted counts in parallel and writes them out in order. A few chunks
+   * for each thread of the common pool are formatted at once, into lines that are reused for the
+   * next chunks once written, so only those chunks are ever held in memory.
+   *
+   * @param chunks the number of chunks
+   * @param formatter formats the lines of each chunk
+   * @param out the stream to write the lines to
+   */
+  static void writeChunks(int chunks, ChunkFormatter formatter, PrintStream out) {
+    final LineBuilder[] lines = new LineBuilder[Math.min(chunks,
+        2 * ForkJoinPool.getCommonPoolParallelism())];
+    for (int i = 0; i < lines.length; i++) {
+      lines[i] = new LineBuilder(CHUNK_WORDS * (WORD_WIDTH + 8));
+    }
+    for (int first = 0; first < chunks; first += lines.length) {
+      final int offset = first;
+      final int formatting = Math.min(lines.length, chunks - first);
+      IntStream.range(0, formatting).parallel().forEach(i -> {
+        lines[i].reset();
+        formatter.format(offset + i, lines[i]);
+      });
+      for (int i = 0; i < formatting; i++) {
+        lines[i].writeTo(out);
+      }
+    }
+  }
+
+  static void writeCheckpointEntry(DataOutputStream out, byte[] bytes, int length, long count)
+      throws IOException {
+    out.writeInt(length);
+    out.write(bytes, 0, length);
+    out.writeLong(count);
+  }
+
+  static void writeCheckpointEntry(DataOutputStream out, String word, long count)
+      throws IOException {
+    final byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+    writeCheckpointEntry(out, bytes, bytes.length, count);
+  }
+
+  static void endCheckpoint(DataOutputStream out) throws IOException {
+    out.writeInt(-1);
+  }
+
+  /**
+   * Reads each entry of a checkpoint into one reused array of bytes, so no entry allocates
+   * anything unless the array has to grow for a longer word.
+   */
+  static void readCheckpointEntries(DataInputStream in, CheckpointEntries entries)
+      throws IOException {
+    byte[] bytes = new byte[256];
+    int length;
+    while ((length = in.readInt()) >= 0) {
+      if (bytes.length < length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      }
+      in.readFully(bytes, 0, length);
+      entries.add(bytes, length, in.readLong());
+    }
+  }
+
+  /**
+   * @return the number of partitions words are merged into
+   */
+  int partitions() {
+    return 1 << partitionBits;
+  }
+
+  /**
+   * @param hash the spread hash of a word
+   * @return the partition of the word, from 0 to less than {@link #partitions()}
+   */
+  int partitionOf(int hash) {
+    return hash >>> (32 - partitionBits);
+  }
+
+  /**
+   * Sorts the ids of a shard's words into a bucket for each partition, by counting the words of
+   * each partition and then placing each id, so the buckets take a pass over the words rather than
+   * one for each partition.
+   *
+   * @param size the number of words in the shard, whose ids are from 0 to less than this
+   * @param hashes gives the spread hash of the word of each id
+   * @return the ids of the shard's words in each partition, in the order of the partitions
+   */
+  int[][] partitionIds(int size, IntUnaryOperator hashes) {
+    final int[] sizes = new int[partitions()];
+    for (int id = 0; id < size; id++) {
+      sizes[partitionOf(hashes.applyAsInt(id))]++;
+    }
+    final int[][] buckets = new int[sizes.length][];
+    for (int partition = 0; partition < sizes.length; partition++) {
+      buckets[partition] = new int[sizes[partition]];
+      sizes[partition] = 0;
+    }
+    for (int id = 0; id < size; id++) {
+      final int partition = partitionOf(hashes.applyAsInt(id));
+      buckets[partition][sizes[partition]++] = id;
+    }
+    return buckets;
+  }
+}
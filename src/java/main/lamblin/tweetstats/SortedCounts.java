@@ -0,0 +1,182 @@
+package lamblin.tweetstats;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.SortedSet;
+import java.util.stream.IntStream;
+
+import lamblin.common.wordcount.WordCountCursor;
+import lamblin.common.wordcount.WordTable;
+
+/**
+ * A snapshot of the words of some {@link WordTable}s with their counts, sorted by word. Each word
+ * is taken with its count as a pair, and the pairs are sorted with a parallel sort, so no count is
+ * looked up again by its word once sorted. The words and counts are then kept in two arrays.
+ * <p>
+ * Writing the sorted counts formats chunks of the words in parallel and writes them in order.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+final class SortedCounts {
+
+  private final String[] words;
+  private final long[] counts;
+
+  /**
+   * A word with its count, while they are being sorted.
+   */
+  private static final class Pair {
+
+    private final String word;
+    private final long count;
+
+    Pair(String word, long count) {
+      this.word = word;
+      this.count = count;
+    }
+  }
+
+  /**
+   * Takes the words and counts of the tables and sorts them. Each word should be in just one of the
+   * tables.
+   *
+   * @param tables the tables of words with their counts
+   */
+  SortedCounts(WordTable... tables) {
+    final int[] offsets = new int[tables.length + 1];
+    for (int t = 0; t < tables.length; t++) {
+      offsets[t + 1] = offsets[t] + tables[t].size();
+    }
+    final Pair[] pairs = new Pair[offsets[tables.length]];
+    IntStream.range(0, tables.length).parallel().forEach(t -> {
+      for (int id = 0; id < tables[t].size(); id++) {
+        pairs[offsets[t] + id] = new Pair(tables[t].word(id), tables[t].count(id));
+      }
+    });
+    Arrays.parallelSort(pairs, (a, b) -> a.word.compareTo(b.word));
+    words = new String[pairs.length];
+    counts = new long[pairs.length];
+    IntStream.range(0, pairs.length).parallel().forEach(i -> {
+      words[i] = pairs[i].word;
+      counts[i] = pairs[i].count;
+    });
+  }
+
+  /**
+   * Merges two sorted counts in one pass, adding the counts of a word in both, such as to fold the
+   * counts made since a snapshot into those of the snapshot without sorting them all again.
+   *
+   * @param a some sorted counts
+   * @param b more sorted counts
+   */
+  SortedCounts(SortedCounts a, SortedCounts b) {
+    final String[] mergedWords = new String[a.words.length + b.words.length];
+    final long[] mergedCounts = new long[mergedWords.length];
+    int i = 0;
+    int j = 0;
+    int length = 0;
+    while (i < a.words.length || j < b.words.length) {
+      final int order = i == a.words.length ? 1
+                        : j == b.words.length ? -1 : a.words[i].compareTo(b.words[j]);
+      if (order <= 0) {
+        mergedWords[length] = a.words[i];
+        mergedCounts[length] = a.counts[i++];
+      }
+      if (order >= 0) {
+        mergedWords[length] = b.words[j];
+        mergedCounts[length] += b.counts[j++];
+      }
+      length++;
+    }
+    words = Arrays.copyOf(mergedWords, length);
+    counts = Arrays.copyOf(mergedCounts, length);
+  }
+
+  /**
+   * @return the number of words
+   */
+  int size() {
+    return words.length;
+  }
+
+  /**
+   * @param index the index of a word in order
+   * @return the word
+   */
+  String word(int index) {
+    return words[index];
+  }
+
+  /**
+   * @param index the index of a word in order
+   * @return the count of the word
+   */
+  long count(int index) {
+    return counts[index];
+  }
+
+  /**
+   * Finds the count of a word by a binary search of the sorted words.
+   *
+   * @param word a word
+   * @return the count of the word, or 0 if it is not one of the words
+   */
+  long count(String word) {
+    final int index = Arrays.binarySearch(words, word);
+    return index < 0 ? 0 : counts[index];
+  }
+
+  /**
+   * @return a set of the words, which are already in order
+   */
+  SortedSet<String> sortedWords() {
+    return ImmutableSortedSet.copyOf(words);
+  }
+
+  /**
+   * Writes the lines of {@link Vocabulary#writeSortedCounts}, formatting chunks of them in
+   * parallel.
+   *
+   * @param out the stream to write the lines to
+   */
+  void writeTo(PrintStream out) {
+    final int chunkWords = ShardedVocabulary.CHUNK_WORDS;
+    ShardedVocabulary.writeChunks((words.length + chunkWords - 1) / chunkWords, (chunk, lines) -> {
+      final int end = Math.min(words.length, (chunk + 1) * chunkWords);
+      for (int i = chunk * chunkWords; i < end; i++) {
+        ShardedVocabulary.appendCount(lines.append(words[i]), words[i].length(), counts[i]);
+      }
+    }, out);
+  }
+
+  /**
+   * @return a cursor stepping through the words in order with their counts
+   */
+  WordCountCursor cursor() {
+    return new WordCountCursor() {
+      private int index = -1;
+
+      @Override
+      public boolean next() {
+        return ++index < words.length;
+      }
+
+      @Override
+      public String word() {
+        return words[index];
+      }
+
+      @Override
+      public long count() {
+        return counts[index];
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+}
@@ -0,0 +1,399 @@
+package lamblin.tweetstats;
+
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.primitives.Longs;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lamblin.common.output.LineBuilder;
+import lamblin.common.wordcount.GenerationSet;
+import lamblin.common.wordcount.MergingWordCountCursor;
+import lamblin.common.wordcount.WhitespaceTokenizer;
+import lamblin.common.wordcount.WordCountCursor;
+import lamblin.common.wordcount.WordCountRunReader;
+import lamblin.common.wordcount.WordCountRunWriter;
+import lamblin.common.wordcount.WordTable;
+
+/**
+ * Counts words in each thread's own {@link WordTable} like the {@link HeapVocabulary}, but keeps
+ * an estimate of the bytes held by all the threads' tables, and once that reaches a memory
+ * threshold, a thread holding at least an even share of it sorts its words and writes them with
+ * their counts as a run to a temporary file, and starts again with an empty table. The share is
+ * of however many threads have counted words, which may be more than the processors when the pool
+ * adds threads to make up for those waiting. The counts are only ever merged while being stepped
+ * through, by a k-way merge of the runs which sums the counts of the same word from different
+ * runs, so writing the sorted counts holds no more than a word from each run in memory and reads
+ * each file sequentially.
+ * <p>
+ * The tables left when all the words are counted are sorted and merged from memory without being
+ * written. If there are more than {@link #MAXIMUM_MERGE_WIDTH} runs on disk, groups of them are
+ * first merged into longer runs, so that not too many files are open at once.
+ * </p><p>
+ * The first of {@link #size()}, {@link #count(String)} and {@link #sortedWords()} merges all the
+ * runs and tables into one run on disk, noting where every {@link #INDEX_INTERVAL}th word of it
+ * starts, so the size is known and a count reads at most that many words of the run. The sorted
+ * words are all held on the heap, so they are best avoided in favour of
+ * {@link #writeSortedCounts(PrintStream)}.
+ * </p><p>
+ * A run which cannot be written or read is thrown as an {@link UncheckedIOException}, rather than
+ * the words being counted without the counts spilled.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class SpillingVocabulary extends ShardedVocabulary<SpillingVocabulary.Shard> {
+
+  /**
+   * The estimated bytes on the heap for each word in a table, besides its chars: the
+   * {@link String} and its array headers, and the table's hash, count and slots.
+   */
+  private static final int WORD_OVERHEAD = 64;
+  static final int MAXIMUM_MERGE_WIDTH = 64;
+  /**
+   * The number of words of the merged run between those whose positions are noted.
+   */
+  static final int INDEX_INTERVAL = 1024;
+
+  private final long threshold;
+  private final File directory;
+  private final AtomicLong heldBytes = new AtomicLong();
+  private final AtomicInteger shardCount = new AtomicInteger();
+  private final List<File> runFiles = new ArrayList<>();
+  private final List<SortedCounts> sortedTables = new ArrayList<>();
+  private int size = -1;
+  /**
+   * Once merged into one run, every {@link #INDEX_INTERVAL}th word of it and where it starts.
+   */
+  private List<String> indexWords;
+  private long[] indexPositions;
+
+  /**
+   * @param threshold the estimated bytes of words and counts held in memory across all the
+   *                  threads, beyond which the threads holding the most spill their words
+   * @param directory the directory to write the runs to, or {@code null} for the default
+   *                  temporary directory
+   */
+  public SpillingVocabulary(long threshold, File directory) {
+    if (threshold < 1) {
+      throw new IllegalArgumentException("The spill threshold must be at least 1 byte.");
+    }
+    this.threshold = threshold;
+    this.directory = directory;
+  }
+
+  /**
+   * The words counted by one thread since it last spilled them, with its tokenizer, the set of the
+   * word ids seen in the current message, and the files of the runs it spilled.
+   */
+  static class Shard {
+
+    private WordTable table = new WordTable();
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final GenerationSet unique = new GenerationSet();
+    private long bytes = 0;
+    private final List<File> runFiles = new ArrayList<>();
+  }
+
+  @Override
+  Shard newShard() {
+    shardCount.incrementAndGet();
+    return new Shard();
+  }
+
+  /**
+   * Counts each word of the message. If the words first seen take the bytes held by all the
+   * threads to the threshold, and this thread holds at least an even share of them, it spills its
+   * words.
+   */
+  @Override
+  int countWords(Shard shard, String message) {
+    int uniqueCount = 0;
+    long added = 0;
+    final DistinctWordEstimates.Recorder distinct = distinctWords();
+    shard.unique.clear();
+    shard.tokenizer.reset(message);
+    while (shard.tokenizer.next()) {
+      final int start = shard.tokenizer.start();
+      final int end = shard.tokenizer.end();
+      final int words = shard.table.size();
+      final int id = shard.table.add(message, start, end, 1);
+      if (shard.table.size() > words) {
+        added += WORD_OVERHEAD + 2 * (end - start);
+      }
+      if (shard.unique.add(id)) {
+        uniqueCount++;
+        if (distinct != null) {
+          distinct.add(shard.table.hash(id));
+        }
+      }
+    }
+    if (added > 0) {
+      shard.bytes += added;
+      if (heldBytes.addAndGet(added) >= threshold
+          && shard.bytes * shardCount.get() >= threshold) {
+        spill(shard);
+      }
+    }
+    return uniqueCount;
+  }
+
+  /**
+   * Writes the thread's words to a new run and empties its table.
+   *
+   * @throws UncheckedIOException if the run cannot be written
+   */
+  private void spill(Shard shard) {
+    try {
+      final SortedCounts sorted = new SortedCounts(shard.table);
+      final File file = newRunFile();
+      try (WordCountRunWriter writer = new WordCountRunWriter(file)) {
+        for (int i = 0; i < sorted.size(); i++) {
+          writer.write(sorted.word(i), sorted.count(i));
+        }
+      }
+      shard.runFiles.add(file);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to spill word counts.", e);
+    }
+    shard.table = new WordTable();
+    heldBytes.addAndGet(-shard.bytes);
+    shard.bytes = 0;
+  }
+
+  private File newRunFile() throws IOException {
+    final File file = File.createTempFile("words-", ".run", directory);
+    file.deleteOnExit();
+    return file;
+  }
+
+  /**
+   * Gathers the runs spilled by all the threads and sorts the words left in their tables, then
+   * merges groups of the runs on disk until there are few enough to merge at once.
+   */
+  @Override
+  public void merge() {
+    merge(takeShards());
+  }
+
+  /**
+   * Gathers and merges the runs so far like {@link #merge()}, and writes the counts so far, then
+   * lets the sorted tables go. The threads keep counting into their tables.
+   */
+  @Override
+  public void writeSnapshot(PrintStream out) {
+    merge(shards());
+    writeSortedCounts(out);
+    sortedTables.clear();
+  }
+
+  /**
+   * Takes the runs spilled by the shards, which are kept from then on with the runs gathered
+   * before, and sorts the words in their tables.
+   */
+  private void merge(List<Shard> shards) {
+    sortedTables.clear();
+    size = -1;
+    indexWords = null;
+    for (Shard shard : shards) {
+      runFiles.addAll(shard.runFiles);
+      shard.runFiles.clear();
+      if (shard.table.size() > 0) {
+        sortedTables.add(new SortedCounts(shard.table));
+      }
+    }
+    try {
+      while (runFiles.size() > MAXIMUM_MERGE_WIDTH) {
+        final List<File> group = new ArrayList<>(runFiles.subList(0, MAXIMUM_MERGE_WIDTH));
+        final File merged = newRunFile();
+        try (WordCountCursor cursor = mergeFiles(group);
+             WordCountRunWriter writer = new WordCountRunWriter(merged)) {
+          while (cursor.next()) {
+            writer.write(cursor.word(), cursor.count());
+          }
+        }
+        for (File file : group) {
+          file.delete();
+        }
+        runFiles.subList(0, MAXIMUM_MERGE_WIDTH).clear();
+        runFiles.add(merged);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to merge spilled word counts.", e);
+    }
+  }
+
+  /**
+   * Writes the merge of every run on disk and every thread's table, so each word has one entry and
+   * the entries are in order.
+   */
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    final List<File> files = new ArrayList<>(runFiles);
+    final List<WordCountCursor> runs = new ArrayList<>();
+    for (Shard shard : shards()) {
+      files.addAll(shard.runFiles);
+      if (shard.table.size() > 0) {
+        runs.add(new SortedCounts(shard.table).cursor());
+      }
+    }
+    runs.add(mergeFiles(files));
+    try (WordCountCursor cursor = new MergingWordCountCursor(runs)) {
+      while (cursor.next()) {
+        writeCheckpointEntry(out, cursor.word(), cursor.count());
+      }
+    }
+    endCheckpoint(out);
+  }
+
+  /**
+   * Writes the entries, which are in order, straight to a run on disk, without holding them in
+   * memory.
+   */
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    final File file = newRunFile();
+    try (WordCountRunWriter writer = new WordCountRunWriter(file)) {
+      readCheckpointEntries(in, writer::write);
+    }
+    runFiles.add(file);
+    size = -1;
+    indexWords = null;
+  }
+
+  private static WordCountCursor mergeFiles(List<File> files) throws IOException {
+    final List<WordCountCursor> runs = new ArrayList<>();
+    try {
+      for (File file : files) {
+        runs.add(new WordCountRunReader(file));
+      }
+    } catch (IOException e) {
+      new MergingWordCountCursor(runs).close();
+      throw e;
+    }
+    return new MergingWordCountCursor(runs);
+  }
+
+  /**
+   * @return a cursor over the merge of all the runs on disk and the sorted tables in memory
+   */
+  private WordCountCursor merged() throws IOException {
+    final List<WordCountCursor> runs = new ArrayList<>();
+    runs.add(mergeFiles(runFiles));
+    for (SortedCounts table : sortedTables) {
+      runs.add(table.cursor());
+    }
+    return new MergingWordCountCursor(runs);
+  }
+
+  /**
+   * Merges all the runs and sorted tables into one run, the first time it is called after the
+   * words are merged, noting the position of every {@link #INDEX_INTERVAL}th word, and counting
+   * them for the size. The runs merged are deleted.
+   */
+  private void mergeIntoOneRun() {
+    if (indexWords != null) {
+      return;
+    }
+    final List<String> words = new ArrayList<>();
+    final List<Long> positions = new ArrayList<>();
+    int count = 0;
+    final File file;
+    try {
+      file = newRunFile();
+      try (WordCountCursor cursor = merged();
+           WordCountRunWriter writer = new WordCountRunWriter(file)) {
+        while (cursor.next()) {
+          if (count % INDEX_INTERVAL == 0) {
+            words.add(cursor.word());
+            positions.add(writer.position());
+          }
+          writer.write(cursor.word(), cursor.count());
+          count++;
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to merge spilled word counts.", e);
+    }
+    for (File run : runFiles) {
+      run.delete();
+    }
+    runFiles.clear();
+    runFiles.add(file);
+    sortedTables.clear();
+    size = count;
+    indexWords = words;
+    indexPositions = Longs.toArray(positions);
+  }
+
+  @Override
+  public int size() {
+    mergeIntoOneRun();
+    return size;
+  }
+
+  /**
+   * Reads the merged run from the last noted word not after the word, up to the next one noted.
+   */
+  @Override
+  public long count(String word) {
+    mergeIntoOneRun();
+    final int found = Collections.binarySearch(indexWords, word);
+    final int index = found >= 0 ? found : -found - 2;
+    if (index < 0) {
+      return 0;
+    }
+    try (WordCountCursor cursor =
+             new WordCountRunReader(runFiles.get(0), indexPositions[index])) {
+      for (int i = 0; i < INDEX_INTERVAL && cursor.next(); i++) {
+        final int comparison = cursor.word().compareTo(word);
+        if (comparison >= 0) {
+          return comparison == 0 ? cursor.count() : 0;
+        }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read spilled word counts.", e);
+    }
+    return 0;
+  }
+
+  @Override
+  public SortedSet<String> sortedWords() {
+    mergeIntoOneRun();
+    final ImmutableSortedSet.Builder<String> words = ImmutableSortedSet.naturalOrder();
+    try (WordCountCursor cursor = merged()) {
+      while (cursor.next()) {
+        words.add(cursor.word());
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read spilled word counts.", e);
+    }
+    return words.build();
+  }
+
+  /**
+   * Merges the runs while writing, so the whole vocabulary is never held in memory.
+   */
+  @Override
+  public void writeSortedCounts(PrintStream out) {
+    final LineBuilder lines = new LineBuilder(WRITE_BUFFER_SIZE * 2);
+    try (WordCountCursor cursor = merged()) {
+      while (cursor.next()) {
+        appendCount(lines.append(cursor.word()), cursor.word().length(), cursor.count(), out);
+      }
+      lines.writeTo(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read spilled word counts.", e);
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package lamblin.tweetstats;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints a line of the {@link PipelineMetrics} over each interval to a stream, such as stderr, on
+ * a daemon thread while the command runs, and a last line of the rest of the run when it is
+ * stopped. With an interval of zero it prints nothing.
+ *
+ * @author Daniel Lamblin
+ */
+public class StatsLogger {
+
+  private final PipelineMetrics metrics;
+  private final PrintStream out;
+  private final long interval;
+  private final TimeUnit intervalUnit;
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * @param metrics the metrics to print
+   * @param out the stream to print a line to after each interval
+   * @param interval the time between lines, or zero to print none
+   * @param intervalUnit the unit of the interval
+   */
+  public StatsLogger(PipelineMetrics metrics, PrintStream out, long interval,
+                     TimeUnit intervalUnit) {
+    this.metrics = metrics;
+    this.out = out;
+    this.interval = interval;
+    this.intervalUnit = intervalUnit;
+  }
+
+  /**
+   * Starts printing a line after every interval, unless the interval is zero.
+   */
+  public synchronized void start() {
+    if (scheduler == null && interval > 0) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setDaemon(true).setNameFormat("pipeline-stats-%d").build());
+      scheduler.scheduleAtFixedRate(this::log, interval, interval, intervalUnit);
+    }
+  }
+
+  /**
+   * Stops printing lines after each interval and, if they were started, prints a last line.
+   */
+  public synchronized void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+      log();
+    }
+  }
+
+  private void log() {
+    out.println(metrics.intervalLine());
+  }
+}
@@ -0,0 +1,290 @@
+package lamblin.tweetstats;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+
+import lamblin.common.output.LineBuilder;
+import lamblin.common.wordcount.SpaceSavingTable;
+import lamblin.common.wordcount.UniqueWordSet;
+import lamblin.common.wordcount.WhitespaceTokenizer;
+
+/**
+ * Keeps only the most frequent words, counting them in each thread's own
+ * {@link SpaceSavingTable} of {@link #COUNTERS_PER_WORD} counters for each of the words kept, so
+ * that memory grows with the number of words kept rather than with the vocabulary. A word's count
+ * may be over the times it was seen by up to its error, but never under it.
+ * <p>
+ * The threads' tables are merged as mergeable summaries: a word missing from a full table could
+ * have been seen there as many times as that table's smallest count, which is added to both its
+ * count and its error. So the words kept are those seen the most times for sure, which is their
+ * count less their error, with ties broken by the largest counts.
+ * </p><p>
+ * Unlike the other vocabularies, the sorted counts have a third column with each word's error,
+ * and the checkpoint entries have the error after each count.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public class TopKVocabulary extends ShardedVocabulary<TopKVocabulary.Shard> {
+
+  /**
+   * The number of counters in each thread's table for each word kept.
+   */
+  static final int COUNTERS_PER_WORD = 16;
+
+  private final int words;
+  private final int counters;
+  private Counter[] top;
+  private SortedSet<String> sortedWords;
+
+  /**
+   * @param words the number of most frequent words to keep
+   */
+  public TopKVocabulary(int words) {
+    if (words < 1) {
+      throw new IllegalArgumentException("At least 1 word must be kept.");
+    }
+    this.words = words;
+    counters = (int) Math.min(Integer.MAX_VALUE / 4, (long) words * COUNTERS_PER_WORD);
+  }
+
+  /**
+   * The counters of one thread, with its tokenizer and the set of the words of the current
+   * message.
+   */
+  static class Shard {
+
+    private final SpaceSavingTable table;
+    private final WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    private final UniqueWordSet unique = new UniqueWordSet();
+
+    Shard(int counters) {
+      table = new SpaceSavingTable(counters);
+    }
+  }
+
+  /**
+   * A word with its count and error merged from all the threads' tables.
+   */
+  private static final class Counter {
+
+    private final String word;
+    private long count;
+    private long error;
+
+    Counter(String word, long count, long error) {
+      this.word = word;
+      this.count = count;
+      this.error = error;
+    }
+  }
+
+  @Override
+  Shard newShard() {
+    return new Shard(counters);
+  }
+
+  /**
+   * Counts each word of the message, and finds the unique words apart from the counters, whose
+   * words may change within the message.
+   */
+  @Override
+  int countWords(Shard shard, String message) {
+    int uniqueCount = 0;
+    final DistinctWordEstimates.Recorder distinct = distinctWords();
+    shard.unique.reset(message);
+    shard.tokenizer.reset(message);
+    while (shard.tokenizer.next()) {
+      final int start = shard.tokenizer.start();
+      final int end = shard.tokenizer.end();
+      final int id = shard.table.add(message, start, end, 1);
+      if (shard.unique.add(start, end)) {
+        uniqueCount++;
+        if (distinct != null) {
+          distinct.add(shard.table.hash(id));
+        }
+      }
+    }
+    return uniqueCount;
+  }
+
+  /**
+   * Merges the threads' tables and keeps the most frequent words, sorted by word.
+   */
+  @Override
+  public void merge() {
+    merge(takeShards());
+  }
+
+  /**
+   * Merges and writes the counts so far, then lets the merged words go, leaving the threads'
+   * counts as they were.
+   */
+  @Override
+  public void writeSnapshot(PrintStream out) {
+    merge(shards());
+    writeSortedCounts(out);
+    top = null;
+    sortedWords = null;
+  }
+
+  /**
+   * Merges the threads' tables, keeping as many words as one table has counters, so that the
+   * checkpoint is read back into one table.
+   */
+  @Override
+  public void writeCheckpoint(DataOutputStream out) throws IOException {
+    for (Counter counter : top(shards(), counters)) {
+      writeCheckpointEntry(out, counter.word, counter.count);
+      out.writeLong(counter.error);
+    }
+    endCheckpoint(out);
+  }
+
+  /**
+   * Adds the counts and errors into the calling thread's table.
+   */
+  @Override
+  public void readCheckpoint(DataInputStream in) throws IOException {
+    final SpaceSavingTable table = shard().table;
+    byte[] bytes = new byte[256];
+    int length;
+    while ((length = in.readInt()) >= 0) {
+      if (bytes.length < length) {
+        bytes = new byte[Math.max(length, bytes.length * 2)];
+      }
+      in.readFully(bytes, 0, length);
+      final long count = in.readLong();
+      table.add(new String(bytes, 0, length, StandardCharsets.UTF_8), count, in.readLong());
+    }
+  }
+
+  private void merge(List<Shard> shards) {
+    top = top(shards, words).toArray(new Counter[0]);
+    Arrays.sort(top, (a, b) -> a.word.compareTo(b.word));
+    sortedWords = null;
+  }
+
+  /**
+   * Merges the tables, adding each table's smallest count to the count and error of each word
+   * missing from it.
+   *
+   * @return up to the given number of the words seen the most times for sure
+   */
+  private static List<Counter> top(List<Shard> shards, int limit) {
+    long minimums = 0;
+    for (Shard shard : shards) {
+      minimums += shard.table.minimum();
+    }
+    final Map<String, Counter> merged = new HashMap<>();
+    for (Shard shard : shards) {
+      final SpaceSavingTable table = shard.table;
+      final long minimum = table.minimum();
+      for (int id = 0; id < table.size(); id++) {
+        Counter counter = merged.get(table.word(id));
+        if (counter == null) {
+          counter = new Counter(table.word(id), minimums, minimums);
+          merged.put(counter.word, counter);
+        }
+        counter.count += table.count(id) - minimum;
+        counter.error += table.error(id) - minimum;
+      }
+    }
+    final List<Counter> counters = new ArrayList<>(merged.values());
+    counters.sort((a, b) -> {
+      final long aSeen = a.count - a.error;
+      final long bSeen = b.count - b.error;
+      if (aSeen != bSeen) {
+        return Long.compare(bSeen, aSeen);
+      }
+      return a.count != b.count ? Long.compare(b.count, a.count) : a.word.compareTo(b.word);
+    });
+    return counters.subList(0, Math.min(limit, counters.size()));
+  }
+
+  /**
+   * @return the number of words kept
+   */
+  @Override
+  public int size() {
+    return top.length;
+  }
+
+  /**
+   * @return the count of a kept word, which may be over the times it was seen by up to its error,
+   *         or 0 for a word not kept
+   */
+  @Override
+  public long count(String word) {
+    final int index = indexOf(word);
+    return index < 0 ? 0 : top[index].count;
+  }
+
+  /**
+   * @param word a word
+   * @return the most that the count of a kept word may be over the times it was seen, or 0 for a
+   *         word not kept
+   */
+  public long error(String word) {
+    final int index = indexOf(word);
+    return index < 0 ? 0 : top[index].error;
+  }
+
+  private int indexOf(String word) {
+    int low = 0;
+    int high = top.length - 1;
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final int comparison = top[middle].word.compareTo(word);
+      if (comparison == 0) {
+        return middle;
+      } else if (comparison < 0) {
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public SortedSet<String> sortedWords() {
+    if (sortedWords == null) {
+      final ImmutableSortedSet.Builder<String> kept = ImmutableSortedSet.naturalOrder();
+      for (Counter counter : top) {
+        kept.add(counter.word);
+      }
+      sortedWords = kept.build();
+    }
+    return sortedWords;
+  }
+
+  /**
+   * Writes a line of each word kept, in natural order, padded to 27 characters and followed by
+   * its count and its error, as {@code printf("%-27s %d %d\n", word, count, error)} would.
+   */
+  @Override
+  public void writeSortedCounts(PrintStream out) {
+    final LineBuilder lines = new LineBuilder(WRITE_BUFFER_SIZE * 2);
+    for (Counter counter : top) {
+      lines.append(counter.word).appendSpaces(WORD_WIDTH - counter.word.length()).append(' ')
+          .append(counter.count).append(' ').append(counter.error).append('\n');
+      if (lines.length() >= WRITE_BUFFER_SIZE) {
+        lines.writeTo(out);
+        lines.reset();
+      }
+    }
+    lines.writeTo(out);
+  }
+}
@@ -1,13 +1,17 @@
 package lamblin.tweetstats;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import dagger.ObjectGraph;
+import lamblin.common.source.LineChunk;
 import lamblin.common.source.LineSource;
-import lamblin.common.runningmedian.RunningMedian;
+import lamblin.common.source.SplittableLineSource;
+import lamblin.common.runningmedian.RunningQuantiles;
 
 /**
  * The Insight Data Engineering Coding Challenge issued 2015-07-02
@@ -36,12 +40,24 @@ public class TweetStatsCmd {
   PrintStream medianUniqueWordsOutput;
 
   @Inject
-  RunningMedian<Integer> runningMedian;
+  RunningQuantiles runningQuantiles;
+
+  @Inject
+  @Named("follow")
+  Boolean follow;
+
+  @Inject
+  CountsSnapshotter countsSnapshotter;
+
+  @Inject
+  Checkpointer checkpointer;
+
+  @Inject
+  StatsLogger statsLogger;
 
   /**
-   * Sets up the Dagger injection module using the arguments which are parsed by JCommander.
-   * It then starts the worker pool, starts the runningMedian task, send messages to the pool, and
-   * outputs the total counts appropriately. Then it closes the two output print streams.
+   * Sets up the Dagger injection module using the arguments which are parsed by JCommander, and
+   * then {@link #run()}s the command.
    *
    * @param args command line arguments to be parsed by {@link Arguments}
    */
@@ -49,30 +65,97 @@ public class TweetStatsCmd {
     // Setup injection based on arguments
     ObjectGraph objectGraph = ObjectGraph.create(new TweetStatsModule(args));
     TweetStatsCmd tweetStatsCmd = objectGraph.get(TweetStatsCmd.class);
+    tweetStatsCmd.run();
+  }
 
-    tweetStatsCmd.startRunningMedian();
-    // Start counting words
-    tweetStatsCmd.countWords();
-    tweetStatsCmd.medianUniqueWordsOutput.close();
+  /**
+   * Starts the worker pool, starts the runningMedian task, send messages to the pool, and
+   * outputs the total counts appropriately. Then it closes the two output print streams. The
+   * pipeline's metrics are logged meanwhile if a stats interval was given. Should the words fail
+   * to be counted for want of input or output, such as spilled counts, it exits with an error.
+   */
+  void run() {
+    if (follow) {
+      resume();
+    }
+    statsLogger.start();
+    startRunningMedian();
+    try {
+      if (follow) {
+        followWords();
+      } else {
+        // Start counting words
+        countWords();
+      }
+    } catch (UncheckedIOException e) {
+      System.err.println("Error: unable to count the words.");
+      e.printStackTrace();
+      System.exit(-1);
+    }
+    messageWorkerPool.awaitUniqueWordsRunningMedian();
+    medianUniqueWordsOutput.close();
+    statsLogger.stop();
   }
 
   /**
    * Sends each line from the sources specified on the command line into the
-   * {@link MessageWorkerPool#addMessage(String)}. Then it outputs all the words and their counts in
-   * sorted order, closing the output {@link PrintStream}.
+   * {@link MessageWorkerPool#addMessage(String)}, or each chunk of lines into
+   * {@link MessageWorkerPool#addChunk(LineChunk)} if they are split. Then it outputs all the words
+   * and their counts in sorted order, closing the output {@link PrintStream}, and the distinct word
+   * estimates, if any.
    */
   private void countWords() {
+    if (source instanceof SplittableLineSource) {
+      for (LineChunk chunk : ((SplittableLineSource) source).chunks()) {
+        messageWorkerPool.addChunk(chunk);
+      }
+    } else {
+      for (String line : source) {
+        messageWorkerPool.addMessage(line);
+      }
+    }
+    messageWorkerPool.writeSortedCounts(wordCountOutput);
+    wordCountOutput.close();
+    countsSnapshotter.writeDistinctWords();
+  }
+
+  /**
+   * Resumes from the {@link Checkpointer}'s checkpoint, if there is one, before anything is
+   * counted. A checkpoint which cannot be read is an error, rather than starting over and
+   * overwriting what it was of.
+   */
+  private void resume() {
+    try {
+      checkpointer.resume();
+    } catch (IOException e) {
+      System.err.println("Error: unable to resume from the checkpoint.");
+      e.printStackTrace();
+      System.exit(-1);
+    }
+  }
+
+  /**
+   * Sends each line from the inputs being followed into the
+   * {@link MessageWorkerPool#addMessage(String)} as the inputs grow, while the
+   * {@link CountsSnapshotter} rewrites ft1.txt with the counts so far, first once the inputs
+   * there were have been read, and the
+   * {@link Checkpointer} writes a checkpoint whenever one is due. The command is usually stopped
+   * by a signal, when one last snapshot is written. Should the lines run out, as they do if the
+   * thread is interrupted, a last checkpoint is written and all the counts are written in a last
+   * snapshot.
+   */
+  private void followWords() {
+    countsSnapshotter.start();
     for (String line : source) {
       messageWorkerPool.addMessage(line);
+      checkpointer.checkpointIfDue();
     }
-    for (String word : messageWorkerPool.getSortedWords()) {
-      int count = messageWorkerPool.getCount(word);
-      wordCountOutput.printf("%-27s %d\n", word, count);
-    }
-    wordCountOutput.close();
+    checkpointer.checkpoint();
+    messageWorkerPool.finishCounting();
+    countsSnapshotter.snapshot();
   }
 
   private void startRunningMedian() {
-    messageWorkerPool.startUniqueWordsRunningMedian(runningMedian, medianUniqueWordsOutput);
+    messageWorkerPool.startUniqueWordsRunningQuantiles(runningQuantiles, medianUniqueWordsOutput);
   }
 }
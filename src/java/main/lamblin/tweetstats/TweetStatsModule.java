@@ -1,29 +1,53 @@
 package lamblin.tweetstats;
 
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 
 import com.beust.jcommander.JCommander;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.io.UnsupportedEncodingException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import dagger.Lazy;
 import dagger.Provides;
+import lamblin.common.checkpoint.Checkpointable;
+import lamblin.common.output.AsyncChannelOutputStream;
+import lamblin.common.source.FileLineSource;
+import lamblin.common.source.FollowingLineSource;
 import lamblin.common.source.InputStreamLineSource;
 import lamblin.common.source.LineSource;
+import lamblin.common.source.MappedFileLineSource;
 import lamblin.common.source.NoneToManyLineSource;
-import lamblin.common.runningmedian.QueueRunningMedian;
-import lamblin.common.runningmedian.RangeRunningMedian;
-import lamblin.common.runningmedian.RunningMedian;
+import lamblin.common.source.ReadAheadLineSource;
+import lamblin.common.source.SplittableLineSource;
+import lamblin.common.runningmedian.CountWindowRunningMedian;
+import lamblin.common.runningmedian.FenwickRunningMedian;
+import lamblin.common.runningmedian.HistogramRunningMedian;
+import lamblin.common.runningmedian.IntQueueRunningMedian;
+import lamblin.common.runningmedian.IntRangeRunningMedian;
+import lamblin.common.runningmedian.IntRunningMedian;
+import lamblin.common.runningmedian.KllRunningMedian;
+import lamblin.common.runningmedian.KllRunningQuantiles;
+import lamblin.common.runningmedian.RangeRunningQuantiles;
+import lamblin.common.runningmedian.RunningMedianQuantiles;
+import lamblin.common.runningmedian.RunningQuantiles;
+import lamblin.common.runningmedian.TimeWindowRunningMedian;
+import lamblin.common.wordcount.HyperLogLog;
 
 /**
  * Configures the state of {@link TweetStatsCmd} and its dependencies,
@@ -36,6 +60,9 @@ import lamblin.common.runningmedian.RunningMedian;
 )
 public class TweetStatsModule {
 
+  private static final ImmutableSet<String> MEDIANS =
+      ImmutableSet.of("range", "histogram", "fenwick", "queue");
+
   private final String[] args;
 
   /**
@@ -58,6 +85,58 @@ public class TweetStatsModule {
     if (arguments.unconstrained == null) {
       arguments.unconstrained = false;
     }
+    final boolean medianGiven = arguments.median != null;
+    if (arguments.median == null) {
+      arguments.median = arguments.unconstrained ? "queue" : "range";
+    }
+    if (arguments.medianMax == null) {
+      arguments.medianMax = 70;
+    }
+    if (arguments.approximate == null) {
+      arguments.approximate = false;
+    }
+    if (arguments.approximateK == null) {
+      arguments.approximateK = KllRunningMedian.DEFAULT_K;
+    }
+    if (arguments.mapped == null) {
+      arguments.mapped = false;
+    }
+    if (arguments.readAhead == null) {
+      arguments.readAhead = 0;
+    }
+    if (arguments.batchSize == null) {
+      arguments.batchSize = MessageWorkerPool.DEFAULT_BATCH_SIZE;
+    }
+    if (arguments.pendingBatches == null) {
+      arguments.pendingBatches = MessageWorkerPool.DEFAULT_PENDING_BATCHES;
+    }
+    if (arguments.follow == null) {
+      arguments.follow = false;
+    }
+    if (arguments.split == null) {
+      arguments.split = false;
+    }
+    if (arguments.snapshotSeconds == null) {
+      arguments.snapshotSeconds = 60;
+    }
+    if (arguments.checkpointSeconds == null) {
+      arguments.checkpointSeconds = 300;
+    }
+    if (arguments.compressCheckpoint == null) {
+      arguments.compressCheckpoint = false;
+    }
+    if (arguments.distinctWords == null) {
+      arguments.distinctWords = false;
+    }
+    if (arguments.distinctPrecision == null) {
+      arguments.distinctPrecision = HyperLogLog.DEFAULT_PRECISION;
+    }
+    if (arguments.distinctWindowSeconds == null) {
+      arguments.distinctWindowSeconds = 60;
+    }
+    if (arguments.offHeap == null) {
+      arguments.offHeap = false;
+    }
     if (arguments.inputs == null) {
       arguments.inputs = new ArrayList<>();
     }
@@ -68,37 +147,181 @@ public class TweetStatsModule {
       cmd.usage();
       System.exit(0);
     }
+    if (!MEDIANS.contains(arguments.median)) {
+      System.err.println("Error: unknown running median implementation: " + arguments.median);
+      cmd.usage();
+      System.exit(-1);
+    }
+    if (arguments.unconstrained && medianGiven) {
+      System.err.println("Error: --unconstrained may not be given with a --median.");
+      System.exit(-1);
+    }
+    if (arguments.medianMax < 0) {
+      System.err.println("Error: --median-max must be at least 0.");
+      System.exit(-1);
+    }
+    if (arguments.approximateK < KllRunningMedian.MINIMUM_K) {
+      System.err.println(
+          "Error: --approximate-k must be at least " + KllRunningMedian.MINIMUM_K + ".");
+      System.exit(-1);
+    }
+    if (arguments.windowCount != null && arguments.windowSeconds != null) {
+      System.err.println("Error: only one of --window-count and --window-seconds may be given.");
+      System.exit(-1);
+    }
+    if (arguments.windowCount != null && arguments.windowCount < 1) {
+      System.err.println("Error: --window-count must be at least 1.");
+      System.exit(-1);
+    }
+    if (arguments.windowSeconds != null && arguments.windowSeconds < 1) {
+      System.err.println("Error: --window-seconds must be at least 1.");
+      System.exit(-1);
+    }
+    if (arguments.batchSize < 1) {
+      System.err.println("Error: --batch-size must be at least 1.");
+      System.exit(-1);
+    }
+    if (arguments.batchSize > MessageWorkerPool.MAXIMUM_BATCH_SIZE) {
+      System.err.println(
+          "Error: --batch-size must be at most " + MessageWorkerPool.MAXIMUM_BATCH_SIZE + ".");
+      System.exit(-1);
+    }
+    if (arguments.pendingBatches < 1) {
+      System.err.println("Error: --pending-batches must be at least 1.");
+      System.exit(-1);
+    }
+    if (arguments.quantiles != null
+        && (arguments.windowCount != null || arguments.windowSeconds != null)) {
+      System.err.println("Error: --quantiles may not be given with a window.");
+      System.exit(-1);
+    }
+    if (arguments.quantiles != null
+        && (arguments.unconstrained || medianGiven)) {
+      System.err.println("Error: --quantiles may not be given with --unconstrained or a --median.");
+      System.exit(-1);
+    }
+    if (arguments.follow && (arguments.inputs.isEmpty() && arguments.remainingInputs.isEmpty()
+                             || arguments.output == null)) {
+      System.err.println("Error: --follow needs input files or directories and an --output.");
+      System.exit(-1);
+    }
+    if (arguments.snapshotSeconds < 1) {
+      System.err.println("Error: --snapshot-seconds must be at least 1.");
+      System.exit(-1);
+    }
+    if (arguments.spillThreshold != null && arguments.spillThreshold < 1) {
+      System.err.println("Error: --spill-threshold must be at least 1.");
+      System.exit(-1);
+    }
+    if (arguments.spillThreshold != null && arguments.offHeap) {
+      System.err.println("Error: --spill-threshold may not be given with --off-heap.");
+      System.exit(-1);
+    }
+    if (arguments.topK != null && arguments.topK < 1) {
+      System.err.println("Error: --top-k must be at least 1.");
+      System.exit(-1);
+    }
+    if (arguments.topK != null && (arguments.offHeap || arguments.spillThreshold != null)) {
+      System.err.println("Error: --top-k may not be given with --off-heap or --spill-threshold.");
+      System.exit(-1);
+    }
+    if (arguments.spillDirectory != null && !new File(arguments.spillDirectory).isDirectory()) {
+      System.err.println("Error: --spill-directory is not a directory: "
+                         + arguments.spillDirectory);
+      System.exit(-1);
+    }
+    if (arguments.distinctPrecision < HyperLogLog.MINIMUM_PRECISION
+        || arguments.distinctPrecision > HyperLogLog.MAXIMUM_PRECISION) {
+      System.err.println("Error: --distinct-precision must be from "
+                         + HyperLogLog.MINIMUM_PRECISION + " to "
+                         + HyperLogLog.MAXIMUM_PRECISION + ".");
+      System.exit(-1);
+    }
+    if (arguments.distinctWindowSeconds < 1) {
+      System.err.println("Error: --distinct-window-seconds must be at least 1.");
+      System.exit(-1);
+    }
+    if (arguments.checkpoint != null && !arguments.follow) {
+      System.err.println("Error: --checkpoint may only be given with --follow.");
+      System.exit(-1);
+    }
+    if (arguments.checkpoint != null && (arguments.approximate || arguments.windowCount != null
+                                         || arguments.windowSeconds != null)) {
+      System.err.println("Error: --checkpoint may not be given with --approximate or a window.");
+      System.exit(-1);
+    }
+    if (arguments.follow && (arguments.mapped || arguments.readAhead > 0)) {
+      System.err.println("Error: --follow may not be given with --mapped or --read-ahead.");
+      System.exit(-1);
+    }
+    if (arguments.split && (arguments.follow || arguments.mapped || arguments.readAhead > 0)) {
+      System.err.println(
+          "Error: --split may not be given with --follow, --mapped or --read-ahead.");
+      System.exit(-1);
+    }
+    if (arguments.split && arguments.inputs.isEmpty() && arguments.remainingInputs.isEmpty()) {
+      System.err.println("Error: --split needs input files or directories.");
+      System.exit(-1);
+    }
+    if (arguments.statsInterval != null && arguments.statsInterval < 1) {
+      System.err.println("Error: --stats-interval must be at least 1.");
+      System.exit(-1);
+    }
+    if (arguments.checkpointSeconds < 1) {
+      System.err.println("Error: --checkpoint-seconds must be at least 1.");
+      System.exit(-1);
+    }
     return arguments;
   }
 
   /**
-   * Provides the {@link java.io.PrintStream} to write to.
+   * Provides the {@link java.io.PrintStream} to write to. When following the inputs, ft1.txt is
+   * only written by the {@link CountsSnapshotter}, so it is not opened, which would empty it until
+   * the first snapshot.
    */
   @Provides
   @Singleton
   @Named("ft1.txt")
   PrintStream providePrintStreamFt1(Arguments arguments) {
+    if (arguments.follow) {
+      return new PrintStream(ByteStreams.nullOutputStream());
+    }
     return providePrintStream(arguments.output, "ft1.txt");
   }
 
   /**
-   * Provides the {@link java.io.PrintStream} to write to.
+   * Provides the {@link java.io.PrintStream} to write to, which appends to ft2.txt when resuming
+   * from a {@link Arguments#checkpoint}.
    */
   @Provides
   @Singleton
   @Named("ft2.txt")
   PrintStream providePrintStreamFt2(Arguments arguments) {
-    return providePrintStream(arguments.output, "ft2.txt");
+    final boolean resuming =
+        arguments.checkpoint != null && new File(arguments.checkpoint).isFile();
+    return providePrintStream(arguments.output, "ft2.txt", resuming);
   }
 
   private PrintStream providePrintStream(String dirArgument, String filename) {
+    return providePrintStream(dirArgument, filename, false);
+  }
+
+  /**
+   * Opens the file in the output directory, if one is given, to be written through an
+   * {@link AsyncChannelOutputStream}, so that writing the lines does not wait for the disk.
+   */
+  private PrintStream providePrintStream(String dirArgument, String filename, boolean append) {
     if (null != dirArgument) {
       File file = new File(dirArgument);
       if (file.isDirectory()) {
         file = Paths.get(dirArgument, filename).toFile();
         try {
-          return new PrintStream(file, StandardCharsets.UTF_8.name());
-        } catch (FileNotFoundException | UnsupportedEncodingException e) {
+          final FileChannel channel = FileChannel.open(
+              file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+              append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+          return new PrintStream(
+              new AsyncChannelOutputStream(channel), false, StandardCharsets.UTF_8.name());
+        } catch (IOException e) {
           e.printStackTrace();
         }
         System.err.println("Unable to open file \"" + file.getPath() + "\" using stdout.");
@@ -109,11 +332,97 @@ public class TweetStatsModule {
     return System.out;
   }
 
+  /**
+   * Provides whether the inputs are followed as they grow, as {@link Arguments#follow} is set.
+   */
+  @Provides
+  @Named("follow")
+  Boolean provideFollow(Arguments arguments) {
+    return arguments.follow;
+  }
+
+  /**
+   * Provides the {@link CountsSnapshotter} which rewrites ft1.txt in the output directory every
+   * {@link Arguments#snapshotSeconds} while following the inputs, and writes distinct.txt there
+   * too if {@link Arguments#distinctWords} is set.
+   */
+  @Provides
+  @Singleton
+  CountsSnapshotter provideCountsSnapshotter(Arguments arguments,
+                                             MessageWorkerPool messageWorkerPool,
+                                             DistinctWordEstimates distinctWordEstimates) {
+    final String output = arguments.output == null ? "." : arguments.output;
+    if (!arguments.distinctWords) {
+      return new CountsSnapshotter(messageWorkerPool, Paths.get(output, "ft1.txt").toFile(),
+                                   arguments.snapshotSeconds, TimeUnit.SECONDS);
+    }
+    return new CountsSnapshotter(messageWorkerPool, Paths.get(output, "ft1.txt").toFile(),
+                                 distinctWordEstimates,
+                                 Paths.get(output, "distinct.txt").toFile(),
+                                 arguments.snapshotSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Provides the {@link DistinctWordEstimates} of {@link Arguments#distinctPrecision} over
+   * windows of {@link Arguments#distinctWindowSeconds}, which only the vocabulary of
+   * {@link #provideVocabulary} adds to, and only if {@link Arguments#distinctWords} is set.
+   */
+  @Provides
+  @Singleton
+  DistinctWordEstimates provideDistinctWordEstimates(Arguments arguments) {
+    return new DistinctWordEstimates(arguments.distinctPrecision,
+                                     arguments.distinctWindowSeconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Provides the {@link Checkpointer} which resumes from and writes the
+   * {@link Arguments#checkpoint}, if any, of the pool, the inputs being followed, the vocabulary
+   * and the running median, and the distinct word estimates if {@link Arguments#distinctWords} is
+   * set, every {@link Arguments#checkpointSeconds}. The checkpoint records the kind of vocabulary,
+   * the family of the hashes its distinct words are estimated from, and the
+   * {@link Arguments#offHeap}, {@link Arguments#topK} and {@link Arguments#distinctWords}
+   * arguments, and is not resumed from if any of them differ.
+   */
+  @Provides
+  @Singleton
+  Checkpointer provideCheckpointer(Arguments arguments, MessageWorkerPool messageWorkerPool,
+                                   @Named("input") LineSource source, Vocabulary vocabulary,
+                                   RunningQuantiles runningQuantiles,
+                                   DistinctWordEstimates distinctWordEstimates,
+                                   @Named("ft2.txt") PrintStream medianOutput) {
+    final String output = arguments.output == null ? "." : arguments.output;
+    if (arguments.checkpoint == null) {
+      return new Checkpointer(messageWorkerPool, Collections.emptyList(), null, false, "",
+                              arguments.checkpointSeconds, TimeUnit.SECONDS,
+                              Paths.get(output, "ft2.txt").toFile(), medianOutput);
+    }
+    final String configuration = "vocabulary=" + vocabulary.getClass().getSimpleName()
+                                 + " hash=" + vocabulary.hashFamily()
+                                 + " off-heap=" + arguments.offHeap
+                                 + " top-k=" + (arguments.topK == null ? "none" : arguments.topK)
+                                 + " distinct=" + arguments.distinctWords;
+    final List<Checkpointable> sections =
+        Lists.newArrayList((Checkpointable) source, vocabulary, (Checkpointable) runningQuantiles);
+    if (arguments.distinctWords) {
+      sections.add(distinctWordEstimates);
+    }
+    return new Checkpointer(
+        messageWorkerPool, sections, new File(arguments.checkpoint), arguments.compressCheckpoint,
+        configuration, arguments.checkpointSeconds, TimeUnit.SECONDS,
+        Paths.get(output, "ft2.txt").toFile(), medianOutput);
+  }
+
   /**
    * Provides the {@link LineSource} for the input argument.
    *
    * Identifies the type of file or directory (or none) given as an argument and provides the
-   * appropriate {@link LineSource} for it. Opens {@code stdin} if {@code arg} is null.
+   * appropriate {@link LineSource} for it. Opens {@code stdin} if {@code arg} is null. Files are
+   * read with a {@link MappedFileLineSource} if {@link Arguments#mapped} is set, and read ahead on
+   * background threads with a {@link ReadAheadLineSource} if {@link Arguments#readAhead} is set.
+   * If {@link Arguments#follow} is set, the inputs are followed with a {@link FollowingLineSource}
+   * instead, which flushes the messages read so far to the {@link MessageWorkerPool} whenever it
+   * waits for more, and then lets the {@link Checkpointer} write a checkpoint if one is due, so
+   * the inputs being idle does not put off a checkpoint of what was read before.
    *
    * Note that Dagger does not allow for any provider and thus neither any constructor used in this
    * provider to throw an exception. For that reason errors are output to stderr, and most of the
@@ -122,7 +431,9 @@ public class TweetStatsModule {
   @Provides
   @Singleton
   @Named("input")
-  LineSource provideLineSource(Arguments arguments) {
+  LineSource provideLineSource(Arguments arguments, MessageWorkerPool messageWorkerPool,
+                               CountsSnapshotter countsSnapshotter,
+                               Lazy<Checkpointer> checkpointer) {
     ArrayList<String> inputs = Lists.newArrayList(
         Iterables.concat(arguments.inputs, arguments.remainingInputs));
     if (inputs.isEmpty()) {
@@ -137,35 +448,152 @@ public class TweetStatsModule {
           System.exit(-1);
         }
       }
-      return new NoneToManyLineSource(inputs);
+      if (arguments.follow) {
+        return new FollowingLineSource(inputs, () -> {
+          messageWorkerPool.flush();
+          countsSnapshotter.caughtUp();
+          checkpointer.get().checkpointIfDue();
+        });
+      }
+      if (arguments.split) {
+        return new SplittableLineSource(new NoneToManyLineSource(inputs).files(),
+                                        SplittableLineSource.DEFAULT_CHUNK_SIZE,
+                                        MessageWorkerPool.MAXIMUM_BATCH_SIZE);
+      }
+      final Function<File, LineSource> fileSourceFactory =
+          arguments.mapped ? MappedFileLineSource::new : FileLineSource::new;
+      final NoneToManyLineSource source = new NoneToManyLineSource(inputs, fileSourceFactory);
+      return arguments.readAhead > 0
+             ? new ReadAheadLineSource(source.files(), fileSourceFactory, arguments.readAhead)
+             : source;
     }
   }
 
 
   @Provides
   /**
-   * Provides a {@link RunningMedian} of unique word counts of each added line.
+   * Provides an {@link IntRunningMedian} of unique word counts of each added line, as selected by
+   * {@link Arguments#median}, or over a window of recent lines if {@link Arguments#windowCount} or
+   * {@link Arguments#windowSeconds} is set, or approximated if {@link Arguments#approximate} is.
+   */
+  IntRunningMedian provideQueueRunningMedian(Arguments arguments) {
+    if (arguments.windowCount != null) {
+      return new CountWindowRunningMedian(0, arguments.medianMax, arguments.windowCount);
+    }
+    if (arguments.windowSeconds != null) {
+      return new TimeWindowRunningMedian(
+          0, arguments.medianMax, arguments.windowSeconds, TimeUnit.SECONDS);
+    }
+    if (arguments.approximate) {
+      return new KllRunningMedian(arguments.approximateK);
+    }
+    switch (arguments.median) {
+      case "queue":
+        return new IntQueueRunningMedian();
+      case "histogram":
+        return new HistogramRunningMedian(0, arguments.medianMax);
+      case "fenwick":
+        return new FenwickRunningMedian(0, arguments.medianMax);
+      default:
+        return new IntRangeRunningMedian(0, arguments.medianMax);
+    }
+  }
+
+  @Provides
+  @Singleton
+  /**
+   * Provides the {@link RunningQuantiles} written to ft2.txt: just the running median from
+   * {@link #provideQueueRunningMedian(Arguments)} unless {@link Arguments#quantiles} are given.
+   * Those are found over the range up to {@link Arguments#medianMax}, counting any larger unique
+   * word counts apart, or approximated if {@link Arguments#approximate} is set.
+   */
+  RunningQuantiles provideRunningQuantiles(Arguments arguments, IntRunningMedian runningMedian) {
+    if (arguments.quantiles == null) {
+      return new RunningMedianQuantiles(runningMedian);
+    }
+    double[] quantiles = new double[arguments.quantiles.size()];
+    for (int i = 0; i < quantiles.length; i++) {
+      try {
+        quantiles[i] = Double.parseDouble(arguments.quantiles.get(i));
+      } catch (NumberFormatException e) {
+        quantiles[i] = Double.NaN;
+      }
+      if (!(quantiles[i] >= 0 && quantiles[i] <= 1)) {
+        System.err.println(
+            "Error: quantiles must be numbers from 0 to 1: " + arguments.quantiles.get(i));
+        System.exit(-1);
+      }
+      if (RunningQuantiles.decimalPlaces(quantiles[i]) > RunningQuantiles.MAXIMUM_DECIMAL_PLACES) {
+        System.err.println("Error: quantiles may have at most "
+                           + RunningQuantiles.MAXIMUM_DECIMAL_PLACES + " decimal places: "
+                           + arguments.quantiles.get(i));
+        System.exit(-1);
+      }
+    }
+    if (arguments.approximate) {
+      return new KllRunningQuantiles(arguments.approximateK, quantiles);
+    }
+    return new RangeRunningQuantiles(0, arguments.medianMax, quantiles);
+  }
+
+  @Provides
+  @Singleton
+  /**
+   * Provides the {@link Vocabulary} the words are counted into: a {@link TopKVocabulary} if
+   * {@link Arguments#topK} is set, an {@link OffHeapVocabulary} if {@link Arguments#offHeap} is, a
+   * {@link SpillingVocabulary} if {@link Arguments#spillThreshold} is, or else a
+   * {@link HeapVocabulary}. It adds to the {@link DistinctWordEstimates} if
+   * {@link Arguments#distinctWords} is set.
+   */
+  Vocabulary provideVocabulary(Arguments arguments, DistinctWordEstimates distinctWordEstimates) {
+    final Vocabulary vocabulary;
+    if (arguments.topK != null) {
+      vocabulary = new TopKVocabulary(arguments.topK);
+    } else if (arguments.offHeap) {
+      vocabulary = new OffHeapVocabulary();
+    } else if (arguments.spillThreshold != null) {
+      vocabulary = new SpillingVocabulary(
+          arguments.spillThreshold * (1L << 20),
+          arguments.spillDirectory == null ? null : new File(arguments.spillDirectory));
+    } else {
+      vocabulary = new HeapVocabulary();
+    }
+    if (arguments.distinctWords) {
+      vocabulary.estimateDistinctWords(distinctWordEstimates);
+    }
+    return vocabulary;
+  }
+
+  @Provides
+  @Singleton
+  /**
+   * Provides the {@link MessageWorkerPool} which counts the words found in batches of
+   * {@link Arguments#batchSize} messages, with up to {@link Arguments#pendingBatches} of them
+   * pending, into the {@link Vocabulary}.
    */
-  RunningMedian<Integer> provideQueueRunningMedian(Arguments arguments) {
-    return arguments.unconstrained ? new QueueRunningMedian<>()
-                                   : new RangeRunningMedian<>(0L, 70L, 1L);
+  MessageWorkerPool provideMessageWordCounter(Arguments arguments, Vocabulary vocabulary) {
+    return new MessageWorkerPool(arguments.batchSize, arguments.pendingBatches, vocabulary);
   }
 
   @Provides
   @Singleton
   /**
-   * Provides the {@link MessageWorkerPool} which counts the words found.
+   * Provides the {@link PipelineMetrics} of the {@link MessageWorkerPool}, registered as an MBean.
    */
-  MessageWorkerPool provideMessageWordCounter(ConcurrentLinkedQueue<SequencedCount> queue) {
-    return new MessageWorkerPool(queue);
+  PipelineMetrics providePipelineMetrics(MessageWorkerPool messageWorkerPool) {
+    final PipelineMetrics metrics = messageWorkerPool.metrics();
+    metrics.register();
+    return metrics;
   }
 
   @Provides
   @Singleton
   /**
-   * Provides a {@link concurrentLinkedQueue} which passes {@link SequencedCount}s.
+   * Provides the {@link StatsLogger} which prints the {@link PipelineMetrics} to stderr every
+   * {@link Arguments#statsInterval} seconds, or never if that is not given.
    */
-  ConcurrentLinkedQueue<SequencedCount> provideConcurrentLinkedQueue() {
-    return new ConcurrentLinkedQueue<>();
+  StatsLogger provideStatsLogger(Arguments arguments, PipelineMetrics metrics) {
+    final int interval = arguments.statsInterval == null ? 0 : arguments.statsInterval;
+    return new StatsLogger(metrics, System.err, interval, TimeUnit.SECONDS);
   }
 }
@@ -0,0 +1,82 @@
+package lamblin.tweetstats;
+
+import java.io.PrintStream;
+import java.util.SortedSet;
+
+import lamblin.common.checkpoint.Checkpointable;
+import lamblin.common.wordcount.WordTable;
+
+/**
+ * Counts the words of the messages given to the {@link MessageWorkerPool}'s worker threads, and
+ * once they are all counted, outputs the words in order with their total counts.
+ * <p>
+ * Its checkpoint is the counts so far, written while no words are being counted and before the
+ * final {@link #merge()}. Reading it adds those counts, before any words are counted.
+ * </p>
+ *
+ * @author Daniel Lamblin
+ */
+public interface Vocabulary extends Checkpointable {
+
+  /**
+   * Counts each word of the message. This may be called by many threads at once.
+   *
+   * @param message the message to count the words of
+   * @return the number of unique words in the message
+   */
+  int countWords(String message);
+
+  /**
+   * Combines the counts from all the threads, once every call to {@link #countWords} has
+   * finished, before any of the counts are got.
+   */
+  void merge();
+
+  /**
+   * @return the number of unique words counted
+   */
+  int size();
+
+  /**
+   * @param word being counted
+   * @return the number of times the word was seen in all messages
+   */
+  long count(String word);
+
+  /**
+   * @return the set of the words counted in natural order
+   */
+  SortedSet<String> sortedWords();
+
+  /**
+   * Writes a line of each word, in natural order, padded to 27 characters and followed by its
+   * count, as {@code printf("%-27s %d\n", word, count)} would write it.
+   *
+   * @param out the stream to write the lines to
+   */
+  void writeSortedCounts(PrintStream out);
+
+  /**
+   * Writes the counts so far as {@link #writeSortedCounts} would, without ending the counting,
+   * while no words are being counted. More words may be counted afterwards, before the final
+   * {@link #merge()}.
+   *
+   * @param out the stream to write the lines to
+   */
+  void writeSnapshot(PrintStream out);
+
+  /**
+   * Adds each unique word of every message counted from now on to the estimates, from the
+   * threads counting them.
+   *
+   * @param estimates the estimates of the distinct words counted
+   */
+  void estimateDistinctWords(DistinctWordEstimates estimates);
+
+  /**
+   * @return the {@link WordTable#HASH_FAMILY} of the hashes given to the distinct word estimates
+   */
+  default String hashFamily() {
+    return WordTable.HASH_FAMILY;
+  }
+}
@@ -0,0 +1,115 @@
+package lamblin.common.checkpoint;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import lamblin.common.runningmedian.FenwickRunningMedian;
+import lamblin.common.runningmedian.HistogramRunningMedian;
+import lamblin.common.runningmedian.IntQueueRunningMedian;
+import lamblin.common.runningmedian.IntRangeRunningMedian;
+import lamblin.common.runningmedian.RangeRunningQuantiles;
+import lamblin.common.runningmedian.RunningMedianQuantiles;
+import lamblin.common.runningmedian.RunningQuantiles;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class CheckpointFileTest {
+
+  private static final int MAXIMUM = 1000;
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  /**
+   * Updates running quantiles, checkpoints them, and checks new ones read back from the
+   * checkpoint carry on updating exactly as the first ones do.
+   */
+  private <T extends RunningQuantiles & Checkpointable> void assertResumes(
+      Supplier<T> quantiles, boolean compressed) throws IOException {
+    File file = folder.newFile();
+    T original = quantiles.get();
+    Random random = new Random(5);
+    for (int i = 0; i < 5000; i++) {
+      original.update(random.nextInt(MAXIMUM / 4) * 3);
+    }
+    CheckpointFile.write(file.toPath(), compressed, Collections.singletonList(original));
+    T resumed = quantiles.get();
+    CheckpointFile.read(file.toPath(), Collections.singletonList(resumed));
+    for (int i = 0; i < 1000; i++) {
+      int input = random.nextInt(MAXIMUM + 1);
+      assertArrayEquals("update " + i, original.update(input).clone(), resumed.update(input), 0.0);
+    }
+  }
+
+  @Test
+  public void testRunningMediansResume() throws IOException {
+    for (boolean compressed : new boolean[]{false, true}) {
+      assertResumes(() -> new RunningMedianQuantiles(new IntRangeRunningMedian(0, MAXIMUM)),
+                    compressed);
+      assertResumes(() -> new RunningMedianQuantiles(new HistogramRunningMedian(0, MAXIMUM)),
+                    compressed);
+      assertResumes(() -> new RunningMedianQuantiles(new FenwickRunningMedian(0, MAXIMUM)),
+                    compressed);
+      assertResumes(() -> new RunningMedianQuantiles(new IntQueueRunningMedian()), compressed);
+      assertResumes(() -> new RangeRunningQuantiles(0, MAXIMUM, 0, 0.5, 0.9, 1), compressed);
+    }
+  }
+
+  @Test
+  public void testRejectsAnotherRange() throws IOException {
+    File file = folder.newFile();
+    CheckpointFile.write(file.toPath(), false, Collections.singletonList(
+        new RunningMedianQuantiles(new IntRangeRunningMedian(0, MAXIMUM))));
+    thrown.expect(IOException.class);
+    CheckpointFile.read(file.toPath(), Collections.singletonList(
+        new RunningMedianQuantiles(new IntRangeRunningMedian(0, MAXIMUM + 1))));
+  }
+
+  @Test
+  public void testRejectsAnotherConfiguration() throws IOException {
+    File file = folder.newFile();
+    CheckpointFile.write(file.toPath(), false, "vocabulary=HeapVocabulary",
+                         Collections.singletonList(
+                             new RunningMedianQuantiles(new IntQueueRunningMedian())));
+    CheckpointFile.read(file.toPath(), "vocabulary=HeapVocabulary", Collections.singletonList(
+        new RunningMedianQuantiles(new IntQueueRunningMedian())));
+    thrown.expect(IOException.class);
+    thrown.expectMessage("vocabulary=OffHeapVocabulary");
+    CheckpointFile.read(file.toPath(), "vocabulary=OffHeapVocabulary", Collections.singletonList(
+        new RunningMedianQuantiles(new IntQueueRunningMedian())));
+  }
+
+  @Test
+  public void testRejectsOtherSections() throws IOException {
+    File file = folder.newFile();
+    CheckpointFile.write(file.toPath(), false, Collections.singletonList(
+        new RunningMedianQuantiles(new IntQueueRunningMedian())));
+    thrown.expect(IOException.class);
+    CheckpointFile.read(file.toPath(), Arrays.asList(
+        new RunningMedianQuantiles(new IntQueueRunningMedian()),
+        new RunningMedianQuantiles(new IntQueueRunningMedian())));
+  }
+
+  @Test
+  public void testRejectsAFileWhichIsNotACheckpoint() throws IOException {
+    File file = folder.newFile();
+    Files.write(file.toPath(), "one\ntwo\nthree\n".getBytes(StandardCharsets.UTF_8));
+    thrown.expect(IOException.class);
+    CheckpointFile.read(file.toPath(), Collections.singletonList(
+        new RunningMedianQuantiles(new IntQueueRunningMedian())));
+  }
+}
@@ -0,0 +1,53 @@
+package lamblin.common.metrics;
+
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testBucketsHoldTheirValues() {
+    for (long value : new long[]{0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE}) {
+      int bucket = LatencyHistogram.bucket(value);
+      assertTrue(value + "", LatencyHistogram.highestInBucket(bucket) >= value);
+      assertTrue(value + "", bucket == 0 || LatencyHistogram.highestInBucket(bucket - 1) < value);
+    }
+    assertEquals(Long.MAX_VALUE, LatencyHistogram.highestInBucket(LatencyHistogram.bucket(
+        Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void testPercentilesAreWithinASixteenth() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    IntStream.rangeClosed(1, 100000).parallel().forEach(i -> histogram.record(i * 1000L));
+    LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100000, snapshot.count());
+    for (double quantile : new double[]{0.001, 0.5, 0.99, 0.999, 1}) {
+      double expected = quantile * 100000 * 1000;
+      long percentile = snapshot.percentile(quantile);
+      assertTrue(quantile + ": " + percentile,
+                 percentile >= expected && percentile <= expected * 17 / 16);
+    }
+  }
+
+  @Test
+  public void testSnapshotsOfAnInterval() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.snapshot().percentile(0.5));
+    for (int i = 0; i < 100; i++) {
+      histogram.record(10);
+    }
+    LatencyHistogram.Snapshot earlier = histogram.snapshot();
+    for (int i = 0; i < 100; i++) {
+      histogram.record(-5);
+    }
+    LatencyHistogram.Snapshot interval = histogram.snapshot().minus(earlier);
+    assertEquals(100, interval.count());
+    assertEquals(0, interval.percentile(1));
+    assertEquals(10, histogram.snapshot().percentile(1));
+  }
+}
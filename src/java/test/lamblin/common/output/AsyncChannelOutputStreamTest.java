@@ -0,0 +1,71 @@
+package lamblin.common.output;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AsyncChannelOutputStreamTest {
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private static AsyncChannelOutputStream open(File file, int bufferSize) throws IOException {
+    return new AsyncChannelOutputStream(
+        FileChannel.open(file.toPath(), StandardOpenOption.WRITE), bufferSize);
+  }
+
+  @Test
+  public void testWritesEveryByteInOrder() throws IOException {
+    File file = folder.newFile();
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    Random random = new Random(9);
+    try (AsyncChannelOutputStream out = open(file, 64)) {
+      for (int i = 0; i < 2000; i++) {
+        byte[] bytes = new byte[random.nextInt(200)];
+        random.nextBytes(bytes);
+        if (i % 7 == 0) {
+          out.write(i);
+          expected.write(i);
+        }
+        out.write(bytes, 0, bytes.length);
+        expected.write(bytes, 0, bytes.length);
+      }
+    }
+    assertArrayEquals(expected.toByteArray(), Files.readAllBytes(file.toPath()));
+  }
+
+  @Test
+  public void testFlushWritesToTheFile() throws IOException {
+    File file = folder.newFile();
+    try (AsyncChannelOutputStream out = open(file, 1 << 10)) {
+      out.write(new byte[100], 0, 100);
+      assertEquals(0, file.length());
+      out.flush();
+      assertEquals(100, file.length());
+    }
+  }
+
+  @Test
+  public void testWriteAfterCloseFails() throws IOException {
+    AsyncChannelOutputStream out = open(folder.newFile(), 16);
+    out.close();
+    out.close();
+    thrown.expect(IOException.class);
+    out.write(1);
+  }
+}
@@ -0,0 +1,79 @@
+package lamblin.common.output;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class LineBuilderTest {
+
+  private static String built(LineBuilder lines) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    lines.writeTo(bytes);
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testAppendOneDecimalMatchesFormatter() throws IOException {
+    Random random = new Random(3);
+    LineBuilder lines = new LineBuilder(0);
+    StringBuilder expected = new StringBuilder();
+    double[] values = {0.0, -0.0, 0.5, 1.0, 70.5, -2.5, 0.25, 0.05, 1e20, 4503599627370495.5,
+                       Double.NaN, Double.POSITIVE_INFINITY};
+    for (double value : values) {
+      lines.appendOneDecimal(value).append('\n');
+      expected.append(String.format(Locale.ROOT, "%.1f\n", value));
+    }
+    for (int i = 0; i < 10000; i++) {
+      double value = i % 2 == 0 ? random.nextInt(1 << 20) / 2.0 : random.nextDouble() * 100;
+      lines.appendOneDecimal(value).append(' ');
+      expected.append(String.format(Locale.ROOT, "%.1f ", value));
+    }
+    assertEquals(expected.toString(), built(lines));
+  }
+
+  @Test
+  public void testAppendDecimalMatchesFormatter() throws IOException {
+    Random random = new Random(4);
+    LineBuilder lines = new LineBuilder(0);
+    StringBuilder expected = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      int decimalPlaces = random.nextInt(7);
+      double value = i % 2 == 0
+          ? random.nextInt(1 << 20) / Math.pow(10, decimalPlaces) : random.nextDouble() * 100;
+      lines.appendDecimal(value, decimalPlaces).append(' ');
+      expected.append(String.format(Locale.ROOT, "%." + decimalPlaces + "f ", value));
+    }
+    lines.appendDecimal(12.99, 2).appendDecimal(0.000001, 6).appendDecimal(7, 0);
+    expected.append("12.990.0000017");
+    assertEquals(expected.toString(), built(lines));
+  }
+
+  @Test
+  public void testAppendLongMatchesFormatter() throws IOException {
+    LineBuilder lines = new LineBuilder(0);
+    StringBuilder expected = new StringBuilder();
+    long[] values = {0, 9, 10, 99, 100, -1, -10, 123456789012L, Long.MAX_VALUE, Long.MIN_VALUE};
+    for (long value : values) {
+      lines.append(value).append('\n');
+      expected.append(String.format(Locale.ROOT, "%d\n", value));
+    }
+    assertEquals(expected.toString(), built(lines));
+  }
+
+  @Test
+  public void testAppendEncodesUtf8() throws IOException {
+    String text = "a\u00e9\u4e2d\ud83d\ude00\ud800b";
+    LineBuilder lines = new LineBuilder(2);
+    lines.append(text).appendSpaces(3).appendSpaces(-1);
+    assertEquals(new String(text.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8)
+                 + "   ", built(lines));
+    lines.reset();
+    assertEquals("", built(lines));
+  }
+}
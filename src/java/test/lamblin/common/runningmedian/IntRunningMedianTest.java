@@ -0,0 +1,121 @@
+package lamblin.common.runningmedian;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class IntRunningMedianTest {
+
+  private static final int MAXIMUM = 70;
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  /**
+   * Checks an implementation against the boxed {@link QueueRunningMedian} for random inputs.
+   */
+  private static void assertMatchesQueueRunningMedian(IntRunningMedian runningMedian) {
+    QueueRunningMedian<Integer> expected = new QueueRunningMedian<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      int input = random.nextInt(MAXIMUM + 1);
+      assertEquals("update " + i, expected.update(input), runningMedian.update(input), 0.0);
+    }
+  }
+
+  @Test
+  public void testIntQueueRunningMedian() {
+    assertMatchesQueueRunningMedian(new IntQueueRunningMedian());
+  }
+
+  @Test
+  public void testIntRangeRunningMedian() {
+    assertMatchesQueueRunningMedian(new IntRangeRunningMedian(0, MAXIMUM));
+  }
+
+  @Test
+  public void testHistogramRunningMedian() {
+    assertMatchesQueueRunningMedian(new HistogramRunningMedian(0, MAXIMUM));
+  }
+
+  @Test
+  public void testFenwickRunningMedian() {
+    assertMatchesQueueRunningMedian(new FenwickRunningMedian(0, MAXIMUM));
+  }
+
+  @Test
+  public void testSparseWideRange() {
+    IntRunningMedian histogram = new HistogramRunningMedian(-1000, 1000000);
+    IntRunningMedian fenwick = new FenwickRunningMedian(-1000, 1000000);
+    IntQueueRunningMedian expected = new IntQueueRunningMedian();
+    Random random = new Random(7);
+    for (int i = 0; i < 10000; i++) {
+      int input = random.nextBoolean() ? random.nextInt(1001) - 1000 : random.nextInt(1000001);
+      double median = expected.update(input);
+      assertEquals("histogram update " + i, median, histogram.update(input), 0.0);
+      assertEquals("fenwick update " + i, median, fenwick.update(input), 0.0);
+    }
+  }
+
+  /**
+   * Checks updating in batches of varying sizes gives the same medians as updating one at a time.
+   */
+  private static void assertUpdateAllMatchesUpdate(IntRunningMedian batched,
+                                                   IntRunningMedian single) {
+    Random random = new Random(11);
+    int[] inputs = new int[100];
+    double[] medians = new double[100];
+    for (int batch = 0; batch < 200; batch++) {
+      int n = random.nextInt(inputs.length + 1);
+      for (int i = 0; i < n; i++) {
+        inputs[i] = random.nextInt(MAXIMUM + 1);
+      }
+      batched.updateAll(inputs, n, medians);
+      for (int i = 0; i < n; i++) {
+        assertEquals("batch " + batch + " update " + i, single.update(inputs[i]), medians[i], 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testUpdateAll() {
+    assertUpdateAllMatchesUpdate(new IntQueueRunningMedian(), new IntQueueRunningMedian());
+    assertUpdateAllMatchesUpdate(
+        new IntRangeRunningMedian(0, MAXIMUM), new IntRangeRunningMedian(0, MAXIMUM));
+    assertUpdateAllMatchesUpdate(
+        new HistogramRunningMedian(0, MAXIMUM), new HistogramRunningMedian(0, MAXIMUM));
+    assertUpdateAllMatchesUpdate(
+        new FenwickRunningMedian(0, MAXIMUM), new FenwickRunningMedian(0, MAXIMUM));
+  }
+
+  @Test
+  public void testUpdateAllOutOfRangeCountsNothing() {
+    IntRunningMedian runningMedian = new IntRangeRunningMedian(0, MAXIMUM);
+    try {
+      runningMedian.updateAll(new int[]{1, 2, MAXIMUM + 1}, 3, new double[3]);
+    } catch (IllegalArgumentException expected) {
+      assertEquals(7.0, runningMedian.update(7), 0.0);
+      return;
+    }
+    fail("Expected an IllegalArgumentException");
+  }
+
+  @Test
+  public void testBoxedUpdate() {
+    RunningMedian<Integer> runningMedian = new IntRangeRunningMedian(0, MAXIMUM);
+    assertEquals(11.0, runningMedian.update(11), 0.0);
+    assertEquals(12.5, runningMedian.update(14), 0.0);
+    assertEquals(14.0, runningMedian.update(17), 0.0);
+  }
+
+  @Test
+  public void testIntRangeRunningMedianOutOfRange() {
+    thrown.expect(IllegalArgumentException.class);
+    new IntRangeRunningMedian(0, MAXIMUM).update(MAXIMUM + 1);
+  }
+}
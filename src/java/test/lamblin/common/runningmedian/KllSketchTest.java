@@ -0,0 +1,57 @@
+package lamblin.common.runningmedian;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KllSketchTest {
+
+  @Test
+  public void testExactBeforeFirstCompaction() {
+    KllRunningMedian approximate = new KllRunningMedian(200);
+    IntQueueRunningMedian exact = new IntQueueRunningMedian();
+    Random random = new Random(1);
+    for (int i = 0; i < 199; i++) {
+      int input = random.nextInt(1000);
+      assertEquals("update " + i, exact.update(input), approximate.update(input), 0.0);
+    }
+  }
+
+  @Test
+  public void testRankErrorIsBounded() {
+    final int count = 200000;
+    KllSketch sketch = new KllSketch(200, new Random(2));
+    double[] values = new double[count];
+    Random random = new Random(3);
+    int retained = 0;
+    for (int i = 0; i < count; i++) {
+      values[i] = random.nextInt(1000000);
+      sketch.update(values[i]);
+      retained = Math.max(retained, sketch.retained());
+    }
+    Arrays.sort(values);
+    for (double q : new double[]{0.01, 0.1, 0.5, 0.9, 0.99}) {
+      double estimate = sketch.quantile(q);
+      int low = Arrays.binarySearch(values, estimate);
+      double rankError = Math.abs(low - q * (count - 1)) / count;
+      assertTrue("quantile " + q + " rank error " + rankError, rankError < 0.02);
+    }
+    assertEquals(values[0], sketch.quantile(0), 0.0);
+    assertEquals(values[count - 1], sketch.quantile(1), 0.0);
+    assertTrue("retained " + retained, retained < 4 * 200);
+  }
+
+  @Test
+  public void testSameInputsGiveSameMedians() {
+    KllRunningMedian first = new KllRunningMedian(16);
+    KllRunningMedian second = new KllRunningMedian(16);
+    for (int i = 0; i < 10000; i++) {
+      int input = (i * 7919) % 1013;
+      assertEquals(first.update(input), second.update(input), 0.0);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package lamblin.common.runningmedian;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RunningQuantilesTest {
+
+  private static final int MAXIMUM = 70;
+  private static final double[] QUANTILES = {0, 0.25, 0.5, 0.9, 0.99, 1};
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  /**
+   * The quantile of the sorted values interpolated between the ranks either side.
+   */
+  private static double quantile(int[] sorted, int size, double q) {
+    double rank = q * (size - 1);
+    int lower = (int) Math.floor(rank);
+    int upper = (int) Math.ceil(rank);
+    return sorted[lower] + (rank - lower) * (sorted[upper] - sorted[lower]);
+  }
+
+  @Test
+  public void testRangeRunningQuantiles() {
+    RunningQuantiles runningQuantiles = new RangeRunningQuantiles(0, MAXIMUM, QUANTILES);
+    IntQueueRunningMedian median = new IntQueueRunningMedian();
+    int[] values = new int[2000];
+    Random random = new Random(5);
+    for (int i = 0; i < values.length; i++) {
+      int input = random.nextInt(MAXIMUM + 1);
+      values[i] = input;
+      double[] results = runningQuantiles.update(input);
+      int[] sorted = Arrays.copyOf(values, i + 1);
+      Arrays.sort(sorted);
+      for (int q = 0; q < QUANTILES.length; q++) {
+        assertEquals("update " + i + " quantile " + QUANTILES[q],
+                     quantile(sorted, i + 1, QUANTILES[q]), results[q], 1e-9);
+      }
+      assertEquals("update " + i + " median", median.update(input), results[2], 0.0);
+    }
+  }
+
+  @Test
+  public void testRangeRunningQuantilesTakeExactDecimalRanks() {
+    RunningQuantiles runningQuantiles = new RangeRunningQuantiles(0, 200, 0.29, 0.99);
+    double[] results = null;
+    for (int i = 0; i <= 100; i++) {
+      results = runningQuantiles.update(2 * i);
+    }
+    // 0.29 * 100 is 28.999999999999996 in doubles, but rank 29 exactly.
+    assertArrayEquals(new double[]{58, 198}, results, 0.0);
+    runningQuantiles = new RangeRunningQuantiles(0, MAXIMUM, 0.99);
+    runningQuantiles.update(12);
+    assertEquals(12.99, runningQuantiles.update(13)[0], 0.0);
+  }
+
+  @Test
+  public void testRangeRunningQuantilesCountInputsOutsideTheRange() {
+    RunningQuantiles runningQuantiles = new RangeRunningQuantiles(10, 20, QUANTILES);
+    int[] values = new int[500];
+    Random random = new Random(7);
+    for (int i = 0; i < values.length; i++) {
+      int input = random.nextInt(31);
+      values[i] = input;
+      double[] results = runningQuantiles.update(input);
+      int[] sorted = Arrays.copyOf(values, i + 1);
+      Arrays.sort(sorted);
+      for (int q = 0; q < QUANTILES.length; q++) {
+        assertEquals("update " + i + " quantile " + QUANTILES[q],
+                     quantile(sorted, i + 1, QUANTILES[q]), results[q], 1e-9);
+      }
+    }
+  }
+
+  @Test
+  public void testKllRunningQuantilesExactWhenSmall() {
+    RunningQuantiles approximate = new KllRunningQuantiles(200, QUANTILES);
+    RunningQuantiles exact = new RangeRunningQuantiles(0, 999, QUANTILES);
+    Random random = new Random(6);
+    for (int i = 0; i < 199; i++) {
+      int input = random.nextInt(1000);
+      assertArrayEquals("update " + i, exact.update(input), approximate.update(input), 1e-9);
+    }
+  }
+
+  @Test
+  public void testRunningMedianQuantiles() {
+    RunningQuantiles runningQuantiles =
+        new RunningMedianQuantiles(new IntRangeRunningMedian(0, MAXIMUM));
+    assertArrayEquals(new double[]{0.5}, runningQuantiles.quantiles(), 0.0);
+    assertArrayEquals(new double[]{11.0}, runningQuantiles.update(11), 0.0);
+    assertArrayEquals(new double[]{12.5}, runningQuantiles.update(14), 0.0);
+    assertArrayEquals(new double[]{14.0}, runningQuantiles.update(17), 0.0);
+  }
+
+  @Test
+  public void testQuantileOutOfRange() {
+    thrown.expect(IllegalArgumentException.class);
+    new RangeRunningQuantiles(0, MAXIMUM, 0.5, 1.5);
+  }
+
+  @Test
+  public void testQuantileWithTooManyDecimalPlaces() {
+    thrown.expect(IllegalArgumentException.class);
+    new RangeRunningQuantiles(0, MAXIMUM, 0.1234567);
+  }
+
+  @Test
+  public void testDecimalPlaces() {
+    assertEquals(1, RunningQuantiles.decimalPlaces(0));
+    assertEquals(1, RunningQuantiles.decimalPlaces(0.5));
+    assertEquals(2, RunningQuantiles.decimalPlaces(0.99));
+    assertEquals(3, RunningQuantiles.decimalPlaces(0.999));
+    assertEquals(1, RunningQuantiles.decimalPlaces(1));
+  }
+}
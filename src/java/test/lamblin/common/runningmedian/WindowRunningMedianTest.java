@@ -0,0 +1,72 @@
+package lamblin.common.runningmedian;
+
+import com.google.common.base.Ticker;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class WindowRunningMedianTest {
+
+  private static final int MAXIMUM = 70;
+
+  private static double medianOf(List<Integer> values) {
+    IntQueueRunningMedian median = new IntQueueRunningMedian();
+    double result = 0;
+    for (int value : values) {
+      result = median.update(value);
+    }
+    return result;
+  }
+
+  @Test
+  public void testCountWindow() {
+    for (int windowSize : new int[]{1, 2, 7, 100}) {
+      CountWindowRunningMedian runningMedian =
+          new CountWindowRunningMedian(0, MAXIMUM, windowSize);
+      List<Integer> inputs = new ArrayList<>();
+      Random random = new Random(windowSize);
+      for (int i = 0; i < 1000; i++) {
+        int input = random.nextInt(MAXIMUM + 1);
+        inputs.add(input);
+        int first = Math.max(0, inputs.size() - windowSize);
+        assertEquals("update " + i, medianOf(inputs.subList(first, inputs.size())),
+                     runningMedian.update(input), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testTimeWindow() {
+    final long[] now = {0};
+    Ticker ticker = new Ticker() {
+      @Override
+      public long read() {
+        return now[0];
+      }
+    };
+    TimeWindowRunningMedian runningMedian =
+        new TimeWindowRunningMedian(0, MAXIMUM, 10, TimeUnit.NANOSECONDS, ticker);
+    List<Integer> inputs = new ArrayList<>();
+    List<Long> times = new ArrayList<>();
+    Random random = new Random(3);
+    for (int i = 0; i < 5000; i++) {
+      // Holding the time still at first fills the window past its initial capacity.
+      now[0] += i < 3000 ? 0 : random.nextInt(3);
+      int input = random.nextInt(MAXIMUM + 1);
+      inputs.add(input);
+      times.add(now[0]);
+      int first = 0;
+      while (now[0] - times.get(first) >= 10) {
+        first++;
+      }
+      assertEquals("update " + i, medianOf(inputs.subList(first, inputs.size())),
+                   runningMedian.update(input), 0.0);
+    }
+  }
+}
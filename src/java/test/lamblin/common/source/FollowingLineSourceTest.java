@@ -0,0 +1,116 @@
+package lamblin.common.source;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FollowingLineSourceTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private static void append(File file, String text) throws IOException {
+    Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+  }
+
+  @Test
+  public void testFollowsAppendedLinesNewFilesAndTruncation() throws IOException {
+    File directory = folder.newFolder("input");
+    File a = new File(directory, "a.txt");
+    File b = new File(directory, "b.txt");
+    append(a, "one\ntwo\r");
+    List<String> idles = new ArrayList<>();
+    Runnable onIdle = () -> {
+      try {
+        switch (idles.size()) {
+          case 0:
+            append(a, "\nthr");
+            break;
+          case 1:
+            append(a, "ee\n");
+            append(b, "four\r\n");
+            break;
+          case 2:
+            Files.write(a.toPath(), "five\n".getBytes(StandardCharsets.UTF_8));
+            break;
+          default:
+            Thread.currentThread().interrupt();
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      idles.add("idle");
+    };
+    List<String> lines = new ArrayList<>();
+    Iterator<String> iterator = new FollowingLineSource(
+        Collections.singletonList(directory.getPath()), onIdle, 10).iterator();
+    while (iterator.hasNext()) {
+      lines.add(iterator.next());
+    }
+    assertEquals(Arrays.asList("one", "two", "three", "four", "five"), lines);
+    assertEquals(4, idles.size());
+    assertFalse(iterator.hasNext());
+    assertTrue(Thread.interrupted());
+  }
+
+  /**
+   * Iterates some lines of the file, checkpoints the source, appends to the file, and checks a
+   * new source resumed from the checkpoint reads only the lines after those iterated.
+   */
+  private static List<String> resumeAfter(File file, int iterated) throws IOException {
+    FollowingLineSource source =
+        new FollowingLineSource(Collections.singletonList(file.getPath()), () -> { }, 10);
+    Iterator<String> iterator = source.iterator();
+    for (int i = 0; i < iterated; i++) {
+      iterator.next();
+    }
+    ByteArrayOutputStream checkpoint = new ByteArrayOutputStream();
+    source.writeCheckpoint(new DataOutputStream(checkpoint));
+    append(file, "\nthree\n");
+
+    FollowingLineSource resumed = new FollowingLineSource(
+        Collections.singletonList(file.getPath()), () -> Thread.currentThread().interrupt(), 10);
+    resumed.readCheckpoint(
+        new DataInputStream(new ByteArrayInputStream(checkpoint.toByteArray())));
+    List<String> lines = new ArrayList<>();
+    for (String line : resumed) {
+      lines.add(line);
+    }
+    assertTrue(Thread.interrupted());
+    return lines;
+  }
+
+  @Test
+  public void testResumesAfterTheLastLineIterated() throws IOException {
+    File file = folder.newFile("a.txt");
+    append(file, "one\ntwo\r");
+    assertEquals(Arrays.asList("two", "three"), resumeAfter(file, 1));
+  }
+
+  @Test
+  public void testResumesAfterACarriageReturnAtTheEndOfTheFile() throws IOException {
+    File file = folder.newFile("a.txt");
+    append(file, "one\ntwo\r");
+    assertEquals(Collections.singletonList("three"), resumeAfter(file, 2));
+  }
+}
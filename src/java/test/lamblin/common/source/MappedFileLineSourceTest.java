@@ -0,0 +1,70 @@
+package lamblin.common.source;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MappedFileLineSourceTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private File write(String contents) throws IOException {
+    File file = folder.newFile();
+    Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  private static String[] lines(LineSource source) {
+    List<String> lines = new ArrayList<>();
+    for (String line : source) {
+      lines.add(line);
+    }
+    return lines.toArray(new String[lines.size()]);
+  }
+
+  @Test
+  public void testIterator() throws Exception {
+    File file = write("It's a string\nwith some\tTEXT.");
+    String[] expected = {"It's a string", "with some\tTEXT."};
+    assertArrayEquals(expected, lines(new MappedFileLineSource(file)));
+  }
+
+  @Test
+  public void testLineEndingsMatchBufferedReader() throws Exception {
+    File file = write("crlf\r\ncr\rlf\n\nlast\n");
+    String[] expected = {"crlf", "cr", "lf", "", "last"};
+    assertArrayEquals(expected, lines(new MappedFileLineSource(file)));
+  }
+
+  @Test
+  public void testRemapsSmallWindows() throws Exception {
+    File file = write("#bigdata is\r\na very long line for a window\nsmall\n\u00e9t\u00e9 \u2603");
+    String[] expected = {
+        "#bigdata is", "a very long line for a window", "small", "\u00e9t\u00e9 \u2603"};
+    for (int windowSize = 1; windowSize < 16; windowSize++) {
+      assertArrayEquals(expected, lines(new MappedFileLineSource(file, windowSize)));
+    }
+  }
+
+  @Test
+  public void testEmptyFile() throws Exception {
+    assertFalse(new MappedFileLineSource(write("")).iterator().hasNext());
+  }
+
+  @Test
+  public void testMissingFile() throws Exception {
+    File missing = new File(folder.getRoot(), "missing");
+    assertFalse(new MappedFileLineSource(missing).iterator().hasNext());
+  }
+}
@@ -0,0 +1,58 @@
+package lamblin.common.source;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ReadAheadLineSourceTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testLinesKeepFileOrder() throws Exception {
+    List<File> files = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    int[] lineCounts = {3, 0, 5000, 1, 2049, 0};
+    for (int f = 0; f < lineCounts.length; f++) {
+      StringBuilder contents = new StringBuilder();
+      for (int line = 0; line < lineCounts[f]; line++) {
+        String text = "file " + f + " line " + line;
+        contents.append(text).append('\n');
+        expected.add(text);
+      }
+      files.add(write(contents.toString()));
+    }
+    for (int readAhead = 1; readAhead <= lineCounts.length + 1; readAhead++) {
+      List<String> results = new ArrayList<>();
+      for (String line : new ReadAheadLineSource(files, FileLineSource::new, readAhead)) {
+        results.add(line);
+      }
+      assertEquals(expected, results);
+    }
+  }
+
+  @Test
+  public void testNoFiles() {
+    Iterator<String> iterator =
+        new ReadAheadLineSource(new ArrayList<>(), FileLineSource::new, 2).iterator();
+    assertFalse(iterator.hasNext());
+  }
+
+  private File write(String contents) throws IOException {
+    File file = folder.newFile();
+    Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+}
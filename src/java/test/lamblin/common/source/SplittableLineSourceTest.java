@@ -0,0 +1,139 @@
+package lamblin.common.source;
+
+import com.google.common.collect.Lists;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SplittableLineSourceTest {
+
+  private static final String[] ENDINGS = {"\n", "\r", "\r\n", "\n\n", "\r\r\n"};
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private File write(String contents) throws IOException {
+    File file = folder.newFile();
+    Files.write(file.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+    return file;
+  }
+
+  /**
+   * Writes lines of random lengths, some longer than the chunks read, with every kind of line
+   * ending and some characters which are not ASCII.
+   */
+  private File writeRandomLines(Random random, int lines) throws IOException {
+    StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < lines; i++) {
+      int length = random.nextInt(10) == 0 ? random.nextInt(100) : random.nextInt(10);
+      for (int j = 0; j < length; j++) {
+        contents.append(random.nextInt(8) == 0 ? '\u00e9' : (char) ('a' + random.nextInt(26)));
+      }
+      if (i < lines - 1 || random.nextBoolean()) {
+        contents.append(ENDINGS[random.nextInt(ENDINGS.length)]);
+      }
+    }
+    return write(contents.toString());
+  }
+
+  private static List<String> lines(LineSource source) {
+    return Lists.newArrayList(source);
+  }
+
+  /**
+   * @return the lines of the files as read by a {@link java.io.BufferedReader} decoding UTF-8
+   */
+  private static List<String> expectedLines(List<File> files) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (File file : files) {
+      lines.addAll(lines(new ReaderLineSource(
+          Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8), file.getName())));
+    }
+    return lines;
+  }
+
+  @Test
+  public void testLineEndingsMatchBufferedReader() throws Exception {
+    File file = write("crlf\r\ncr\rlf\n\n\u00e9\r\nlast");
+    List<String> expected = Arrays.asList("crlf", "cr", "lf", "", "\u00e9", "last");
+    for (int chunkSize = 1; chunkSize < 30; chunkSize++) {
+      assertEquals(expected, lines(new SplittableLineSource(Arrays.asList(file), chunkSize)));
+    }
+  }
+
+  @Test
+  public void testChunksAreNumberedByTheLinesBeforeThem() throws Exception {
+    Random random = new Random(7);
+    List<File> files = Arrays.asList(writeRandomLines(random, 500), write(""),
+                                     writeRandomLines(random, 300));
+    List<String> expected = expectedLines(files);
+    for (int chunkSize : new int[]{1, 3, 64, 1 << 16}) {
+      List<String> actual = new ArrayList<>();
+      for (LineChunk chunk : new SplittableLineSource(files, chunkSize).chunks()) {
+        assertEquals(actual.size(), chunk.firstLine());
+        int before = actual.size();
+        chunk.forEach(actual::add);
+        assertEquals(actual.size() - before, chunk.lineCount());
+      }
+      assertEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testChunksHoldAtMostTheMaximumLines() throws Exception {
+    Random random = new Random(5);
+    List<File> files = Arrays.asList(writeRandomLines(random, 500), write("\r\n\r\n\n\r"));
+    List<String> expected = expectedLines(files);
+    for (int maximumLines : new int[]{1, 2, 7}) {
+      List<String> actual = new ArrayList<>();
+      for (LineChunk chunk : new SplittableLineSource(files, 1 << 16, maximumLines).chunks()) {
+        assertEquals(actual.size(), chunk.firstLine());
+        assertTrue(chunk.lineCount() <= maximumLines);
+        chunk.forEach(actual::add);
+      }
+      assertEquals(expected, actual);
+    }
+  }
+
+  @Test
+  public void testParallelStreamKeepsTheLinesInOrder() throws Exception {
+    Random random = new Random(11);
+    List<File> files = Arrays.asList(writeRandomLines(random, 2000),
+                                     writeRandomLines(random, 1000));
+    List<String> expected = expectedLines(files);
+    SplittableLineSource source = new SplittableLineSource(files, 16);
+    assertEquals(expected, lines(source));
+    assertEquals(expected, StreamSupport.stream(source.spliterator(), true)
+        .collect(Collectors.toList()));
+  }
+
+  @Test
+  public void testSplitsASingleFileAtLineStarts() throws Exception {
+    File file = writeRandomLines(new Random(13), 1000);
+    List<String> expected = expectedLines(Arrays.asList(file));
+    Spliterator<String> suffix = new SplittableLineSource(Arrays.asList(file), 32).spliterator();
+    Spliterator<String> prefix = suffix.trySplit();
+    assertNotNull(prefix);
+    List<String> actual = new ArrayList<>();
+    prefix.forEachRemaining(actual::add);
+    suffix.forEachRemaining(actual::add);
+    assertEquals(expected, actual);
+  }
+}
@@ -0,0 +1,62 @@
+package lamblin.common.wordcount;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HyperLogLogTest {
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testEstimatesSmallCountsExactly() {
+    HyperLogLog sketch = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+    assertEquals(0, sketch.estimate());
+    for (int i = 0; i < 100; i++) {
+      sketch.add(WordTable.hash("word" + i));
+      sketch.add(WordTable.hash("word" + i));
+    }
+    assertEquals(100, sketch.estimate());
+    sketch.clear();
+    assertEquals(0, sketch.estimate());
+  }
+
+  @Test
+  public void testEstimatesWithinTheStandardError() {
+    HyperLogLog sketch = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+    for (int i = 0; i < 100000; i++) {
+      sketch.add(WordTable.hash("word" + i));
+    }
+    // Four standard errors of 0.81%.
+    assertTrue(sketch.estimate() + "", Math.abs(sketch.estimate() - 100000) < 3300);
+  }
+
+  @Test
+  public void testMergeIsTheUnion() {
+    HyperLogLog first = new HyperLogLog(10);
+    HyperLogLog second = new HyperLogLog(10);
+    HyperLogLog both = new HyperLogLog(10);
+    for (int i = 0; i < 5000; i++) {
+      final int hash = WordTable.hash("word" + i);
+      (i % 3 == 0 ? first : second).add(hash);
+      if (i % 5 == 0) {
+        first.add(hash);
+      }
+      both.add(hash);
+    }
+    first.merge(second);
+    assertArrayEquals(both.registers(), first.registers());
+    assertEquals(both.estimate(), first.estimate());
+  }
+
+  @Test
+  public void testMergeNeedsTheSamePrecision() {
+    thrown.expect(IllegalArgumentException.class);
+    new HyperLogLog(10).merge(new HyperLogLog(11));
+  }
+}
@@ -0,0 +1,117 @@
+package lamblin.common.wordcount;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import lamblin.common.output.LineBuilder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class OffHeapWordTableTest {
+
+  /**
+   * Words with ASCII, two and three byte chars, supplementary characters, chars after the
+   * surrogates, which sort differently as UTF-16 than as UTF-8, and unpaired surrogates.
+   */
+  private static final String[] WORDS = {
+      "#bigdata", "b", "ab", "a", "caf\u00e9", "\u4e2d\u6587", "\ud83d\ude00", "x\ud83d\ude00",
+      "\ue000", "\uffe5", "x\uffe5", "\u00ff", "Z", "\ud83d", "\udbff", "x\ude00", "\ud83d?"};
+
+  @Test
+  public void testSlicesShareIdsWithWords() throws IOException {
+    OffHeapWordTable table = new OffHeapWordTable();
+    String line = "x caf\u00e9 y caf\u00e9";
+    int id = table.add(line, 2, 6, 1);
+    assertEquals(id, table.add(line, 9, 13, 2));
+    assertEquals(id, table.idOf("caf\u00e9"));
+    assertEquals(3, table.count(id));
+    assertEquals("caf\u00e9", table.word(id));
+    assertEquals(4, table.charLength(id));
+    assertEquals(OffHeapWordTable.hash("caf\u00e9"), table.hash(id));
+    assertEquals(-1, table.idOf("caf"));
+    assertEquals(1, table.size());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    table.writeWord(id, out);
+    assertArrayEquals("caf\u00e9".getBytes(StandardCharsets.UTF_8), out.toByteArray());
+  }
+
+  @Test
+  public void testSortsAsStrings() {
+    OffHeapWordTable table = new OffHeapWordTable();
+    for (String word : WORDS) {
+      table.add(word, 0, word.length(), 1);
+      assertEquals(word.length(), table.charLength(table.idOf(word)));
+    }
+    String[] expected = WORDS.clone();
+    Arrays.sort(expected);
+    int[] ids = table.sortedIds();
+    String[] sorted = new String[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      sorted[i] = table.word(ids[i]);
+    }
+    assertArrayEquals(expected, sorted);
+  }
+
+  @Test
+  public void testKeepsUnpairedSurrogatesApartFromQuestionMarks() throws IOException {
+    OffHeapWordTable table = new OffHeapWordTable();
+    int surrogate = table.add("a\ud800", 0, 2, 1);
+    int questionMark = table.add("a?", 0, 2, 2);
+    assertNotEquals(surrogate, questionMark);
+    assertEquals(surrogate, table.idOf("a\ud800"));
+    assertEquals(OffHeapWordTable.hash("a\ud800"), table.hash(surrogate));
+    assertEquals("a\ud800", table.word(surrogate));
+    assertEquals(2, table.charLength(surrogate));
+    LineBuilder lines = new LineBuilder(16);
+    table.appendWord(surrogate, lines);
+    ByteArrayOutputStream appended = new ByteArrayOutputStream();
+    lines.writeTo(appended);
+    assertEquals("a?", new String(appended.toByteArray(), StandardCharsets.UTF_8));
+    ByteArrayOutputStream written = new ByteArrayOutputStream();
+    table.writeWord(surrogate, written);
+    OffHeapWordTable read = new OffHeapWordTable();
+    read.add(written.toByteArray(), written.size(), 1);
+    assertEquals(0, read.idOf("a\ud800"));
+  }
+
+  @Test
+  public void testCopiesFromAnotherTable() {
+    OffHeapWordTable from = new OffHeapWordTable();
+    OffHeapWordTable to = new OffHeapWordTable();
+    to.add("\ud83d\ude00", 0, 2, 5);
+    for (String word : WORDS) {
+      from.add(word, 0, word.length(), 1);
+    }
+    for (int id = 0; id < from.size(); id++) {
+      to.add(from, id, from.count(id));
+    }
+    assertEquals(WORDS.length, to.size());
+    assertEquals(6, to.count(to.idOf("\ud83d\ude00")));
+    assertEquals(0, OffHeapWordTable.compare(from, from.idOf("\u4e2d\u6587"),
+                                             to, to.idOf("\u4e2d\u6587")));
+  }
+
+  @Test
+  public void testGrowsWithManyWords() {
+    OffHeapWordTable table = new OffHeapWordTable();
+    Map<String, Long> expected = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      String word = Integer.toString((i * 7919) % 30011, 36);
+      table.add("<" + word + ">", 1, word.length() + 1, 1);
+      expected.merge(word, 1L, Long::sum);
+    }
+    assertEquals(expected.size(), table.size());
+    for (int id = 0; id < table.size(); id++) {
+      assertEquals((long) expected.get(table.word(id)), table.count(id));
+      assertEquals(id, table.idOf(table.word(id)));
+    }
+  }
+}
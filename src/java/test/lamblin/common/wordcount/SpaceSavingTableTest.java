@@ -0,0 +1,103 @@
+package lamblin.common.wordcount;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpaceSavingTableTest {
+
+  @Test
+  public void testExactWhileCountersAreFree() {
+    SpaceSavingTable table = new SpaceSavingTable(4);
+    String line = "a b a c";
+    table.add(line, 0, 1, 1);
+    table.add(line, 2, 3, 1);
+    table.add(line, 4, 5, 1);
+    table.add(line, 6, 7, 1);
+    assertEquals(3, table.size());
+    assertEquals(0, table.minimum());
+    assertEquals(2, table.count(table.idOf("a")));
+    assertEquals(0, table.error(table.idOf("a")));
+    assertEquals(-1, table.idOf("d"));
+  }
+
+  @Test
+  public void testEvictsTheSmallestCount() {
+    SpaceSavingTable table = new SpaceSavingTable(2);
+    table.add("a", 3, 0);
+    table.add("b", 1, 0);
+    int id = table.add("c", 2, 0);
+    assertEquals(-1, table.idOf("b"));
+    assertEquals(id, table.idOf("c"));
+    assertEquals(3, table.count(id));
+    assertEquals(1, table.error(id));
+    assertEquals(3, table.minimum());
+  }
+
+  /**
+   * Adds a skewed stream of words to a small table, and checks the bounds of the Space-Saving
+   * algorithm hold for every word, and that every word is still found after many evictions.
+   */
+  @Test
+  public void testBoundsOfSkewedWords() {
+    SpaceSavingTable table = new SpaceSavingTable(100);
+    Map<String, Long> expected = new HashMap<>();
+    Random random = new Random(5);
+    int total = 200000;
+    for (int i = 0; i < total; i++) {
+      String word = Integer.toString((int) Math.pow(1000000, random.nextDouble() * random
+          .nextDouble()), 36);
+      table.add("<" + word + ">", 1, word.length() + 1, 1);
+      expected.merge(word, 1L, Long::sum);
+    }
+    long sum = 0;
+    for (int id = 0; id < table.size(); id++) {
+      String word = table.word(id);
+      long seen = expected.getOrDefault(word, 0L);
+      assertEquals(id, table.idOf(word));
+      assertTrue(word, table.count(id) >= seen);
+      assertTrue(word, table.count(id) - table.error(id) <= seen);
+      assertTrue(word, table.error(id) <= table.minimum());
+      sum += table.count(id);
+    }
+    assertEquals(total, sum);
+    for (Map.Entry<String, Long> entry : expected.entrySet()) {
+      if (entry.getValue() > table.minimum()) {
+        assertTrue(entry.getKey(), table.idOf(entry.getKey()) >= 0);
+      }
+    }
+  }
+
+  @Test
+  public void testUniqueWordSet() {
+    UniqueWordSet set = new UniqueWordSet();
+    set.reset("a bb a bb c");
+    assertTrue(set.add(0, 1));
+    assertTrue(set.add(2, 4));
+    assertFalse(set.add(5, 6));
+    assertFalse(set.add(7, 9));
+    assertTrue(set.add(10, 11));
+    set.reset("bb");
+    assertTrue(set.add(0, 2));
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append(i % 300).append(' ');
+    }
+    set.reset(text.toString());
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    tokenizer.reset(text.toString());
+    int unique = 0;
+    while (tokenizer.next()) {
+      if (set.add(tokenizer.start(), tokenizer.end())) {
+        unique++;
+      }
+    }
+    assertEquals(300, unique);
+  }
+}
@@ -0,0 +1,53 @@
+package lamblin.common.wordcount;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class WhitespaceTokenizerTest {
+
+  private static final Splitter SPLITTER =
+      Splitter.on(CharMatcher.BREAKING_WHITESPACE).trimResults().omitEmptyStrings();
+
+  private static List<String> tokenize(String line) {
+    WhitespaceTokenizer tokenizer = new WhitespaceTokenizer();
+    List<String> words = new ArrayList<>();
+    tokenizer.reset(line);
+    while (tokenizer.next()) {
+      words.add(line.substring(tokenizer.start(), tokenizer.end()));
+    }
+    return words;
+  }
+
+  @Test
+  public void testWords() {
+    List<String> expected = Lists.newArrayList("#bigdata", "is", "@big", "a:b");
+    assertEquals(expected, tokenize("  #bigdata is\t@big \r\n a:b  "));
+    assertEquals(new ArrayList<String>(), tokenize(""));
+    assertEquals(new ArrayList<String>(), tokenize(" \t "));
+  }
+
+  @Test
+  public void testMatchesSplitter() {
+    // Breaking and non-breaking whitespace, including some outside of ASCII.
+    char[] alphabet = {'a', 'b', '#', ' ', '\t', '\u000b', '\u0085', '\u00a0', '\u2007',
+                       '\u202f', '\u3000', '\u2003', '\u00e9'};
+    Random random = new Random(12);
+    for (int i = 0; i < 10000; i++) {
+      StringBuilder line = new StringBuilder();
+      for (int j = random.nextInt(12); j > 0; j--) {
+        line.append(alphabet[random.nextInt(alphabet.length)]);
+      }
+      assertEquals(line.toString(),
+                   Lists.newArrayList(SPLITTER.split(line)), tokenize(line.toString()));
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package lamblin.common.wordcount;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class WordCountRunTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private File writeRun(String name, Object... wordsAndCounts) throws IOException {
+    File file = new File(folder.getRoot(), name);
+    try (WordCountRunWriter writer = new WordCountRunWriter(file)) {
+      for (int i = 0; i < wordsAndCounts.length; i += 2) {
+        writer.write((String) wordsAndCounts[i], (Long) wordsAndCounts[i + 1]);
+      }
+    }
+    return file;
+  }
+
+  @Test
+  public void testReadsBackWhatWasWritten() throws IOException {
+    File run = writeRun("run", "", 1L, "a", 3000000000L, "caf\u00e9", 2L, "\ud83d\ude00", 7L);
+    try (WordCountCursor cursor = new WordCountRunReader(run)) {
+      List<String> words = new ArrayList<>();
+      long total = 0;
+      while (cursor.next()) {
+        words.add(cursor.word());
+        total += cursor.count();
+      }
+      assertEquals(Arrays.asList("", "a", "caf\u00e9", "\ud83d\ude00"), words);
+      assertEquals(3000000010L, total);
+      assertFalse(cursor.next());
+    }
+  }
+
+  @Test
+  public void testReadsFromTheWrittenPositionOfAWord() throws IOException {
+    File run = new File(folder.getRoot(), "positions");
+    long position;
+    try (WordCountRunWriter writer = new WordCountRunWriter(run)) {
+      writer.write("a", 1);
+      writer.write("caf\u00e9", 2);
+      position = writer.position();
+      writer.write("d", 3);
+      writer.write("e", 4);
+    }
+    assertEquals(position + 2 * (4 + 1 + 8), run.length());
+    try (WordCountCursor cursor = new WordCountRunReader(run, position)) {
+      StringBuilder read = new StringBuilder();
+      while (cursor.next()) {
+        read.append(cursor.word()).append(cursor.count()).append(' ');
+      }
+      assertEquals("d3 e4 ", read.toString());
+    }
+  }
+
+  @Test
+  public void testMergeSumsCountsOfTheSameWord() throws IOException {
+    List<WordCountCursor> runs = new ArrayList<>();
+    runs.add(new WordCountRunReader(writeRun("1", "a", 1L, "c", 2L, "d", 3L)));
+    runs.add(new WordCountRunReader(writeRun("2")));
+    runs.add(new WordCountRunReader(writeRun("3", "b", 4L, "c", 5L, "d", 6L, "e", 7L)));
+    try (WordCountCursor cursor = new MergingWordCountCursor(runs)) {
+      StringBuilder merged = new StringBuilder();
+      while (cursor.next()) {
+        merged.append(cursor.word()).append(cursor.count()).append(' ');
+      }
+      assertEquals("a1 b4 c7 d9 e7 ", merged.toString());
+    }
+  }
+}
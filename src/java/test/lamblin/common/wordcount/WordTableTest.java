@@ -0,0 +1,72 @@
+package lamblin.common.wordcount;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WordTableTest {
+
+  @Test
+  public void testSlicesShareIdsWithWords() {
+    WordTable table = new WordTable();
+    String line = "x #bigdata y #bigdata";
+    int id = table.add(line, 2, 10, 1);
+    assertEquals(id, table.add(line, 13, 21, 1));
+    assertEquals(id, table.add("#bigdata", 1));
+    assertEquals(id, table.idOf("#bigdata"));
+    assertEquals(3, table.count(id));
+    assertEquals("#bigdata", table.word(id));
+    assertEquals(WordTable.hash("#bigdata"), table.hash(id));
+    assertEquals(-1, table.idOf("#big"));
+    assertEquals(1, table.size());
+  }
+
+  @Test
+  public void testCountsBeyondAnInt() {
+    WordTable table = new WordTable();
+    int id = table.add("a", Integer.MAX_VALUE);
+    table.add("a b", 0, 1, Integer.MAX_VALUE);
+    table.add("a", 2);
+    assertEquals(1L << 32, table.count(id));
+  }
+
+  @Test
+  public void testRepeatedWordsKeepTheirFirstString() {
+    WordTable table = new WordTable();
+    String word = table.word(table.add("a b a", 0, 1, 1));
+    assertSame(word, table.word(table.add("a b a", 4, 5, 1)));
+  }
+
+  @Test
+  public void testGrowsWithManyWords() {
+    WordTable table = new WordTable();
+    Map<String, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 100000; i++) {
+      String word = Integer.toString((i * 7919) % 30011, 36);
+      table.add("<" + word + ">", 1, word.length() + 1, 1);
+      expected.merge(word, 1, Integer::sum);
+    }
+    assertEquals(expected.size(), table.size());
+    for (int id = 0; id < table.size(); id++) {
+      assertEquals((long) expected.get(table.word(id)), table.count(id));
+      assertEquals(id, table.idOf(table.word(id)));
+    }
+  }
+
+  @Test
+  public void testGenerationSet() {
+    GenerationSet set = new GenerationSet();
+    assertTrue(set.add(3));
+    assertFalse(set.add(3));
+    assertTrue(set.add(5000));
+    set.clear();
+    assertTrue(set.add(3));
+    assertTrue(set.add(5000));
+  }
+}
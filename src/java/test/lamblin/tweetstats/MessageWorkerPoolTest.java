@@ -0,0 +1,543 @@
+package lamblin.tweetstats;
+
+import com.google.common.collect.Multiset;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import lamblin.common.checkpoint.CheckpointFile;
+import lamblin.common.runningmedian.HistogramRunningMedian;
+import lamblin.common.runningmedian.RunningMedianQuantiles;
+import lamblin.common.source.LineChunk;
+import lamblin.common.source.SplittableLineSource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MessageWorkerPoolTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  /**
+   * Adds messages of words, some of which are not ASCII, to a pool counting into the vocabulary,
+   * and checks all the ways of getting the counts.
+   */
+  private static void assertCountsAndSortedWords(Vocabulary vocabulary) {
+    MessageWorkerPool pool = new MessageWorkerPool(3, vocabulary);
+    Map<String, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 5000; i++) {
+      StringBuilder message = new StringBuilder();
+      for (int j = 0; j < 1 + i % 9; j++) {
+        String word = (j % 3 == 0 ? "\u00e9" : "w") + (i * 31 + j * 7) % 3001;
+        message.append(word).append(j % 2 == 0 ? " " : "\t");
+        expected.merge(word, 1, Integer::sum);
+      }
+      pool.addMessage(message.toString());
+    }
+    assertEquals(new ArrayList<>(new TreeSet<>(expected.keySet())),
+                 new ArrayList<>(pool.getSortedWords()));
+    assertEquals(expected.size(), pool.getSize());
+    for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+      assertEquals(entry.getKey(), (long) entry.getValue(), pool.getCount(entry.getKey()));
+    }
+    assertEquals(0, pool.getCount("missing"));
+    List<String> countedWords = new ArrayList<>();
+    for (Multiset.Entry<String> entry : pool.getCounts()) {
+      assertEquals((long) expected.get(entry.getElement()), entry.getCount());
+      countedWords.add(entry.getElement());
+    }
+    assertEquals(new ArrayList<>(pool.getSortedWords()), countedWords);
+  }
+
+  @Test
+  public void testCountsAndSortedWords() {
+    assertCountsAndSortedWords(new HeapVocabulary());
+  }
+
+  @Test
+  public void testOffHeapCountsAndSortedWords() {
+    assertCountsAndSortedWords(new OffHeapVocabulary());
+  }
+
+  @Test
+  public void testSpillingCountsAndSortedWords() {
+    assertCountsAndSortedWords(new SpillingVocabulary(4096, folder.getRoot()));
+    assertTrue(folder.getRoot().list().length > 0);
+  }
+
+  @Test
+  public void testSpillsMoreRunsThanAreMergedAtOnce() {
+    assertCountsAndSortedWords(new SpillingVocabulary(1, folder.getRoot()));
+    assertTrue(folder.getRoot().list().length <= SpillingVocabulary.MAXIMUM_MERGE_WIDTH);
+  }
+
+  @Test
+  public void testWriteSortedCounts() throws UnsupportedEncodingException {
+    String[] messages = {"b \u00e9t\u00e9 a", "\ud83d\ude00 \uffe5 a", "b b"};
+    String expected =
+        "a                           2\n"
+        + "b                           3\n"
+        + "\u00e9t\u00e9                         1\n"
+        + "\ud83d\ude00                          1\n"
+        + "\uffe5                           1\n";
+    for (Vocabulary vocabulary : new Vocabulary[]{
+        new HeapVocabulary(), new OffHeapVocabulary(), new SpillingVocabulary(1, null)}) {
+      MessageWorkerPool pool = new MessageWorkerPool(2, vocabulary);
+      for (String message : messages) {
+        pool.addMessage(message);
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      pool.writeSortedCounts(new PrintStream(bytes, true, StandardCharsets.UTF_8.name()));
+      assertEquals(vocabulary.getClass().getSimpleName(), expected,
+                   new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test
+  public void testWriteSortedCountsInManyChunks() throws UnsupportedEncodingException {
+    TreeMap<String, Integer> counts = new TreeMap<>();
+    List<String> messages = new ArrayList<>();
+    Random random = new Random(3);
+    for (int i = 0; i < 60000; i++) {
+      String word = Integer.toString(random.nextInt(8 * ShardedVocabulary.CHUNK_WORDS), 36);
+      String other = "\u00e9" + random.nextInt(100);
+      counts.merge(word, 1, Integer::sum);
+      counts.merge(other, 1, Integer::sum);
+      messages.add(word + " " + other);
+    }
+    StringBuilder expected = new StringBuilder();
+    for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+      expected.append(String.format("%-27s %d\n", entry.getKey(), entry.getValue()));
+    }
+    for (Vocabulary vocabulary : new Vocabulary[]{
+        new HeapVocabulary(), new OffHeapVocabulary(),
+        new SpillingVocabulary(1 << 16, folder.getRoot())}) {
+      MessageWorkerPool pool = new MessageWorkerPool(4, vocabulary);
+      messages.forEach(pool::addMessage);
+      assertEquals(vocabulary.getClass().getSimpleName(), expected.toString(),
+                   write(pool::writeSortedCounts));
+    }
+  }
+
+  @Test
+  public void testTopKVocabulary() throws UnsupportedEncodingException {
+    MessageWorkerPool pool = new MessageWorkerPool(4, new TopKVocabulary(2));
+    pool.addMessage("b a c");
+    pool.addMessage("a a");
+    pool.flush();
+    assertEquals("a                           3 0\n"
+                 + "b                           1 0\n", write(pool::writeSnapshot));
+
+    TopKVocabulary vocabulary = new TopKVocabulary(3);
+    pool = new MessageWorkerPool(16, vocabulary);
+    Map<String, Integer> expected = new HashMap<>();
+    for (int i = 0; i < 20000; i++) {
+      String message = "x" + i + " " + (i % 2 == 0 ? "#a" : "#b") + (i % 5 == 0 ? " #c" : "");
+      for (String word : message.split(" ")) {
+        expected.merge(word, 1, Integer::sum);
+      }
+      pool.addMessage(message);
+    }
+    assertEquals(Arrays.asList("#a", "#b", "#c"), new ArrayList<>(pool.getSortedWords()));
+    for (String word : pool.getSortedWords()) {
+      long count = vocabulary.count(word);
+      assertTrue(word, count >= expected.get(word));
+      assertTrue(word, count - vocabulary.error(word) <= expected.get(word));
+    }
+    assertEquals(0, vocabulary.count("x1"));
+  }
+
+  @Test
+  public void testDistinctWordEstimates() {
+    for (Vocabulary vocabulary : new Vocabulary[]{
+        new HeapVocabulary(), new OffHeapVocabulary(), new SpillingVocabulary(1, null),
+        new TopKVocabulary(10)}) {
+      String name = vocabulary.getClass().getSimpleName();
+      AtomicLong clock = new AtomicLong(0);
+      DistinctWordEstimates estimates = new DistinctWordEstimates(14, 1000, clock::get);
+      vocabulary.estimateDistinctWords(estimates);
+      MessageWorkerPool pool = new MessageWorkerPool(16, vocabulary);
+      for (int i = 0; i < 3000; i++) {
+        if (i == 2000) {
+          pool.flush();
+          clock.set(1500);
+        }
+        pool.addMessage("w" + i % 1000 + " w" + (i + 1) % 1000 + " x" + i / 2000);
+      }
+      pool.finishCounting();
+      assertEquals(name, 1002, estimates.estimate(), 20);
+      assertEquals(name, Arrays.asList(0L, 1000L),
+                   new ArrayList<>(estimates.windowEstimates().keySet()));
+    }
+  }
+
+  private static String write(Consumer<PrintStream> writer) throws UnsupportedEncodingException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    writer.accept(new PrintStream(bytes, true, StandardCharsets.UTF_8.name()));
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testSnapshotsWhileCounting() throws UnsupportedEncodingException {
+    for (Vocabulary vocabulary : new Vocabulary[]{
+        new HeapVocabulary(), new OffHeapVocabulary(), new SpillingVocabulary(1, null)}) {
+      String name = vocabulary.getClass().getSimpleName();
+      MessageWorkerPool pool = new MessageWorkerPool(4, vocabulary);
+      pool.addMessage("b a");
+      pool.addMessage("a");
+      pool.flush();
+      assertEquals(name, "a                           2\n"
+                         + "b                           1\n", write(pool::writeSnapshot));
+      pool.addMessage("c a");
+      pool.flush();
+      String expected = "a                           3\n"
+                        + "b                           1\n"
+                        + "c                           1\n";
+      assertEquals(name, expected, write(pool::writeSnapshot));
+      assertEquals(name, expected, write(pool::writeSortedCounts));
+      assertEquals(name, expected, write(pool::writeSnapshot));
+    }
+  }
+
+  /**
+   * Counts the messages, checkpointing after the first of them if a checkpoint is given, or else
+   * resuming from it to count the rest, and returns the running medians written and the counts.
+   * A snapshot is written halfway through, so the counts are folded into it before the rest.
+   */
+  private static String count(Vocabulary vocabulary, List<String> messages, File checkpoint,
+                              boolean resume) throws IOException {
+    MessageWorkerPool pool = new MessageWorkerPool(3, vocabulary);
+    RunningMedianQuantiles median = new RunningMedianQuantiles(new HistogramRunningMedian(0, 70));
+    if (resume) {
+      CheckpointFile.read(checkpoint.toPath(), Arrays.asList(pool, vocabulary, median));
+    }
+    ByteArrayOutputStream medians = new ByteArrayOutputStream();
+    pool.startUniqueWordsRunningQuantiles(
+        median, new PrintStream(medians, true, StandardCharsets.UTF_8.name()));
+    for (int i = 0; i < messages.size(); i++) {
+      if (i == messages.size() / 2) {
+        pool.flush();
+        write(pool::writeSnapshot);
+      }
+      pool.addMessage(messages.get(i));
+    }
+    if (checkpoint != null && !resume) {
+      pool.quiesce();
+      CheckpointFile.write(
+          checkpoint.toPath(), true, Arrays.asList(pool, vocabulary, median));
+      pool.resume();
+      return new String(medians.toByteArray(), StandardCharsets.UTF_8);
+    }
+    String counts = write(pool::writeSortedCounts);
+    pool.awaitUniqueWordsRunningMedian();
+    return new String(medians.toByteArray(), StandardCharsets.UTF_8) + counts;
+  }
+
+  @Test
+  public void testResumesFromCheckpoint() throws IOException {
+    List<String> messages = new ArrayList<>();
+    for (int i = 0; i < 2000; i++) {
+      messages.add("w" + i % 17 + " \u00e9" + i % 5 + " x" + i + " w" + i % 3);
+    }
+    List<Supplier<Vocabulary>> vocabularies = Arrays.asList(
+        HeapVocabulary::new, OffHeapVocabulary::new,
+        () -> new SpillingVocabulary(1, folder.getRoot()));
+    for (Supplier<Vocabulary> vocabulary : vocabularies) {
+      String name = vocabulary.get().getClass().getSimpleName();
+      File checkpoint = folder.newFile();
+      String before = count(vocabulary.get(), messages.subList(0, 1234), checkpoint, false);
+      String after = count(vocabulary.get(), messages.subList(1234, 2000), checkpoint, true);
+      assertEquals(name, count(vocabulary.get(), messages, null, false), before + after);
+    }
+  }
+
+  /**
+   * Counts into a heap vocabulary only once the latch is opened, as if the workers were slow.
+   */
+  private static Vocabulary blockedVocabulary(CountDownLatch latch) {
+    HeapVocabulary vocabulary = new HeapVocabulary();
+    return new Vocabulary() {
+      @Override
+      public int countWords(String message) {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return vocabulary.countWords(message);
+      }
+
+      @Override
+      public void merge() {
+        vocabulary.merge();
+      }
+
+      @Override
+      public int size() {
+        return vocabulary.size();
+      }
+
+      @Override
+      public long count(String word) {
+        return vocabulary.count(word);
+      }
+
+      @Override
+      public SortedSet<String> sortedWords() {
+        return vocabulary.sortedWords();
+      }
+
+      @Override
+      public void writeSortedCounts(PrintStream out) {
+        vocabulary.writeSortedCounts(out);
+      }
+
+      @Override
+      public void writeSnapshot(PrintStream out) {
+        vocabulary.writeSnapshot(out);
+      }
+
+      @Override
+      public void estimateDistinctWords(DistinctWordEstimates estimates) {
+        vocabulary.estimateDistinctWords(estimates);
+      }
+
+      @Override
+      public void writeCheckpoint(DataOutputStream out) throws IOException {
+        vocabulary.writeCheckpoint(out);
+      }
+
+      @Override
+      public void readCheckpoint(DataInputStream in) throws IOException {
+        vocabulary.readCheckpoint(in);
+      }
+    };
+  }
+
+  @Test
+  public void testChunksCountLikeTheirMessages() throws IOException {
+    List<String> messages = new ArrayList<>();
+    StringBuilder contents = new StringBuilder();
+    for (int i = 0; i < 3000; i++) {
+      messages.add("w" + i % 17 + " \u00e9" + i % 5 + " x" + i + " w" + i % 3);
+      contents.append(messages.get(i)).append(i % 2 == 0 ? "\n" : "\r\n");
+    }
+    File file = folder.newFile();
+    Files.write(file.toPath(), contents.toString().getBytes(StandardCharsets.UTF_8));
+    MessageWorkerPool pool = new MessageWorkerPool(3, new HeapVocabulary());
+    ByteArrayOutputStream medians = new ByteArrayOutputStream();
+    pool.startUniqueWordsRunningMedian(
+        new HistogramRunningMedian(0, 70),
+        new PrintStream(medians, true, StandardCharsets.UTF_8.name()));
+    pool.addMessage(messages.get(0));
+    for (LineChunk chunk : new SplittableLineSource(Arrays.asList(file), 256).chunks()) {
+      pool.addChunk(chunk);
+    }
+    String counts = write(pool::writeSortedCounts);
+    pool.awaitUniqueWordsRunningMedian();
+    List<String> expected = new ArrayList<>(messages.subList(0, 1));
+    expected.addAll(messages);
+    assertEquals(count(new HeapVocabulary(), expected, null, false),
+                 new String(medians.toByteArray(), StandardCharsets.UTF_8) + counts);
+    assertEquals(3001, pool.metrics().getMediansWritten());
+  }
+
+  /**
+   * Counts the messages in batches of the size, of which the last may be partial, and returns
+   * the running medians written and the counts.
+   */
+  private static String countInBatches(int batchSize, List<String> messages)
+      throws UnsupportedEncodingException {
+    MessageWorkerPool pool = new MessageWorkerPool(batchSize, new HeapVocabulary());
+    ByteArrayOutputStream medians = new ByteArrayOutputStream();
+    pool.startUniqueWordsRunningMedian(
+        new HistogramRunningMedian(0, 70),
+        new PrintStream(medians, true, StandardCharsets.UTF_8.name()));
+    messages.forEach(pool::addMessage);
+    String counts = write(pool::writeSortedCounts);
+    pool.awaitUniqueWordsRunningMedian();
+    return new String(medians.toByteArray(), StandardCharsets.UTF_8) + counts;
+  }
+
+  @Test
+  public void testBatchesCountLikeSingleMessages() throws UnsupportedEncodingException {
+    List<String> messages = new ArrayList<>();
+    TreeMap<String, Integer> counts = new TreeMap<>();
+    List<Integer> uniqueCounts = new ArrayList<>();
+    StringBuilder expected = new StringBuilder();
+    Random random = new Random(9);
+    for (int i = 0; i < 1003; i++) {
+      StringBuilder message = new StringBuilder();
+      SortedSet<String> unique = new TreeSet<>();
+      for (int j = random.nextInt(12); j >= 0; j--) {
+        String word = (j % 4 == 0 ? "\u00e9" : "w") + random.nextInt(20);
+        message.append(word).append(' ');
+        counts.merge(word, 1, Integer::sum);
+        unique.add(word);
+      }
+      messages.add(message.toString());
+      int index = Collections.binarySearch(uniqueCounts, unique.size());
+      uniqueCounts.add(index < 0 ? -index - 1 : index, unique.size());
+      int size = uniqueCounts.size();
+      int middles = uniqueCounts.get((size - 1) / 2) + uniqueCounts.get(size / 2);
+      expected.append(middles / 2).append(middles % 2 == 0 ? ".0\n" : ".5\n");
+    }
+    for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+      expected.append(String.format("%-27s %d\n", entry.getKey(), entry.getValue()));
+    }
+    for (int batchSize : new int[]{1, 2, 7, messages.size() + 1}) {
+      assertEquals("batches of " + batchSize, expected.toString(),
+                   countInBatches(batchSize, messages));
+    }
+  }
+
+  @Test
+  public void testAddingBlocksWhileTooManyBatchesArePending() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+    MessageWorkerPool pool = new MessageWorkerPool(1, 2, blockedVocabulary(latch));
+    Thread producer = new Thread(() -> {
+      for (int i = 0; i < 10; i++) {
+        pool.addMessage("a b");
+      }
+    });
+    producer.start();
+    producer.join(200);
+    assertTrue(producer.isAlive());
+    latch.countDown();
+    producer.join();
+    assertEquals(10, pool.getCount("a"));
+  }
+
+  @Test
+  public void testTerminationWaitsForEveryPendingBatch() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+    MessageWorkerPool pool = new MessageWorkerPool(1, 4, blockedVocabulary(latch));
+    for (int i = 0; i < 4; i++) {
+      pool.addMessage("a");
+    }
+    Thread opener = new Thread(() -> {
+      try {
+        Thread.sleep(200);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      latch.countDown();
+    });
+    opener.start();
+    assertEquals(4, pool.getCount("a"));
+    opener.join();
+  }
+
+  @Test
+  public void testMetricsFollowEveryStage() throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+    MessageWorkerPool pool = new MessageWorkerPool(10, 4, blockedVocabulary(latch));
+    pool.startUniqueWordsRunningMedian(
+        new HistogramRunningMedian(0, 70), new PrintStream(new ByteArrayOutputStream()));
+    for (int i = 0; i < 25; i++) {
+      pool.addMessage("a b");
+    }
+    PipelineMetrics metrics = pool.metrics();
+    assertEquals(25, metrics.getLinesRead());
+    assertEquals(2, metrics.getPendingBatches());
+    assertEquals(0, metrics.getMediansWritten());
+    latch.countDown();
+    pool.finishCounting();
+    pool.awaitUniqueWordsRunningMedian();
+    assertEquals(25, metrics.getLinesRead());
+    assertEquals(25, metrics.getMessagesCounted());
+    assertEquals(25, metrics.getMediansWritten());
+    assertEquals(0, metrics.getPendingBatches());
+    assertEquals(0, metrics.getAwaitingMedian());
+    assertTrue(metrics.getLatencyMillisP99() >= metrics.getLatencyMillisP50());
+    assertTrue(metrics.getBatchMillisP50() > 0);
+    String line = metrics.intervalLine();
+    assertTrue(line, line.startsWith("stats lines=25 "));
+    assertTrue(line, line.contains(" pending=0/4 awaiting=0 "));
+  }
+
+  @Test
+  public void testAnErrorInABatchEndsTheRunningMedian() {
+    MessageWorkerPool pool = new MessageWorkerPool(4, new HeapVocabulary() {
+      @Override
+      public int countWords(String message) {
+        if (message.equals("boom")) {
+          throw new OutOfMemoryError("boom");
+        }
+        return super.countWords(message);
+      }
+    });
+    pool.startUniqueWordsRunningMedian(
+        new HistogramRunningMedian(0, 70), new PrintStream(new ByteArrayOutputStream()));
+    for (int i = 0; i < 10; i++) {
+      pool.addMessage(i == 5 ? "boom" : "a b");
+    }
+    try {
+      pool.getCount("a");
+      fail("The error counting a batch was not thrown.");
+    } catch (OutOfMemoryError e) {
+      assertEquals("boom", e.getMessage());
+    }
+    pool.awaitUniqueWordsRunningMedian();
+    assertEquals(5, pool.metrics().getMediansWritten());
+  }
+
+  @Test
+  public void testBatchesAsLargeAsTheRingDoNotDeadlock() {
+    MessageWorkerPool pool = new MessageWorkerPool(
+        MessageWorkerPool.MAXIMUM_BATCH_SIZE, 2, new HeapVocabulary(), 2);
+    ByteArrayOutputStream medians = new ByteArrayOutputStream();
+    pool.startUniqueWordsRunningMedian(new HistogramRunningMedian(0, 70), new PrintStream(medians));
+    int messages = 3 * MessageWorkerPool.MAXIMUM_BATCH_SIZE + 5;
+    for (int i = 0; i < messages; i++) {
+      pool.addMessage("a b");
+    }
+    assertEquals(messages, pool.getCount("a"));
+    pool.awaitUniqueWordsRunningMedian();
+    assertEquals(messages, pool.metrics().getMediansWritten());
+  }
+
+  @Test
+  public void testBatchesLargerThanTheRingAreRejected() {
+    thrown.expect(IllegalArgumentException.class);
+    new MessageWorkerPool(MessageWorkerPool.MAXIMUM_BATCH_SIZE + 1);
+  }
+
+  @Test
+  public void testNoMessages() {
+    MessageWorkerPool pool = new MessageWorkerPool();
+    assertEquals(0, pool.getSize());
+    assertEquals(0, pool.getSortedWords().size());
+  }
+}
@@ -0,0 +1,78 @@
+package lamblin.tweetstats;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SequencedCountRingTest {
+
+  @Rule
+  public final ExpectedException thrown = ExpectedException.none();
+
+  @Test
+  public void testDrainsOnlyContiguousSequences() throws Exception {
+    SequencedCountRing ring = new SequencedCountRing(8);
+    int[] drained = new int[8];
+    ring.put(1, 11);
+    assertEquals(0, ring.drainTo(drained, drained.length));
+    ring.put(0, 10);
+    ring.put(3, 13);
+    assertEquals(2, ring.drainTo(drained, drained.length));
+    assertEquals(10, drained[0]);
+    assertEquals(11, drained[1]);
+    assertEquals(2, ring.next());
+    ring.put(2, 12);
+    assertEquals(1, ring.drainTo(drained, 1));
+    assertEquals(12, drained[0]);
+    assertEquals(1, ring.drainTo(drained, drained.length));
+    assertEquals(13, drained[0]);
+  }
+
+  @Test
+  public void testWorkersAheadOfTheRingWait() throws Exception {
+    final int batches = 64;
+    final int batchSize = 100;
+    final SequencedCountRing ring = new SequencedCountRing(16);
+    ExecutorService pool = Executors.newWorkStealingPool(4);
+    // Submit the batches in reverse so that most workers must wait for earlier sequences.
+    for (int b = batches - 1; b >= 0; b--) {
+      final long first = (long) b * batchSize;
+      pool.execute(() -> {
+        try {
+          for (int i = 0; i < batchSize; i++) {
+            ring.put(first + i, (int) ((first + i) % 71));
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+    }
+    int[] drained = new int[7];
+    long expected = 0;
+    while (expected < batches * batchSize) {
+      int n = ring.drainTo(drained, drained.length);
+      for (int i = 0; i < n; i++) {
+        assertEquals("sequence " + expected, expected % 71, drained[i]);
+        expected++;
+      }
+      if (n == 0) {
+        Thread.yield();
+      }
+    }
+    pool.shutdown();
+    assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testCapacityMustBePowerOfTwo() {
+    thrown.expect(IllegalArgumentException.class);
+    new SequencedCountRing(12);
+  }
+}